@@ -0,0 +1,154 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * AndroidClassLoader class. <br />
+ * <br />
+ * A system class loader that makes the Android framework classes of Robolectric's android-all runnable on a
+ * plain JVM, for the benchmarks of the streaming parser. Some of them (e.g. android.util.JsonReader) call the
+ * overloads of System.arraycopy for primitive arrays, which exist only in the Android runtime: the loader rewrites
+ * these calls to the standard System.arraycopy while loading the classes, as the Launcher of the load test does.
+ * <br />
+ * JMH runs every benchmark in a forked JVM, so the loader is installed there with
+ * -Djava.system.class.loader (see {@link StreamingBenchmark}). It loads all the classes of the class path itself,
+ * so the SDK, the benchmarks and JMH see the patched classes.
+ */
+public class AndroidClassLoader extends URLClassLoader {
+
+    private static final HashMap<String, String> DESCRIPTORS = new HashMap<>();
+
+    static {
+        for (String type : new String[]{"Z", "B", "C", "S", "I", "J", "F", "D"})
+            DESCRIPTORS.put("([" + type + "I[" + type + "II)V", "(Ljava/lang/Object;ILjava/lang/Object;II)V");
+    }
+
+    /**
+     * Constructor, called by the JVM.
+     *
+     * @param parent the default system class loader; only its parent (the JDK classes) is used
+     */
+    public AndroidClassLoader(ClassLoader parent) throws MalformedURLException {
+        super(classPath(), parent.getParent());
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if (!name.startsWith("android.")) return super.findClass(name);
+
+        InputStream in = getResourceAsStream(name.replace('.', '/') + ".class");
+
+        if (in == null) throw new ClassNotFoundException(name);
+
+        try {
+            byte[] bytes = patch(in);
+            return defineClass(name, bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static URL[] classPath() throws MalformedURLException {
+        ArrayList<URL> urls = new ArrayList<>();
+
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator))
+            urls.add(new File(path).toURI().toURL());
+
+        return urls.toArray(new URL[urls.size()]);
+    }
+
+    /**
+     * Copies a class file, replacing the descriptors of the primitive System.arraycopy overloads in the
+     * constant pool. The rest of the class is copied as it is.
+     */
+    private static byte[] patch(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        //magic and version
+        out.writeLong(in.readLong());
+
+        int count = in.readUnsignedShort();
+        out.writeShort(count);
+
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            out.writeByte(tag);
+
+            switch (tag) {
+                case 1: //utf8
+                    String value = in.readUTF();
+                    String replacement = DESCRIPTORS.get(value);
+                    out.writeUTF(replacement != null ? replacement : value);
+                    break;
+                case 5: //long
+                case 6: //double
+                    out.writeLong(in.readLong());
+                    i++;
+                    break;
+                case 3: //integer
+                case 4: //float
+                case 9: //field ref
+                case 10: //method ref
+                case 11: //interface method ref
+                case 12: //name and type
+                case 17: //dynamic
+                case 18: //invoke dynamic
+                    out.writeInt(in.readInt());
+                    break;
+                case 15: //method handle
+                    out.writeByte(in.readUnsignedByte());
+                    out.writeShort(in.readUnsignedShort());
+                    break;
+                case 7: //class
+                case 8: //string
+                case 16: //method type
+                case 19: //module
+                case 20: //package
+                    out.writeShort(in.readUnsignedShort());
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        byte[] buffer = new byte[8192];
+        int n;
+
+        while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+}
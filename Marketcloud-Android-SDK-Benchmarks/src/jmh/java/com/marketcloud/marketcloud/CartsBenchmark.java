@@ -0,0 +1,89 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CartsBenchmark class. <br />
+ * <br />
+ * Measures the serialization of the cart updates into the body of the request, both through the JSON helpers
+ * of {@link Carts} and through the coalescing {@link CartPatch}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CartsBenchmark {
+
+    @Param({"1", "10", "50"})
+    int items;
+
+    private Object[][] products;
+    private Object[] ids;
+
+    @Setup
+    public void setUp() {
+        products = new Object[items][];
+        ids = new Object[items];
+
+        for (int i = 0; i < items; i++) {
+            products[i] = new Object[]{1000 + i, 1 + i % 4};
+            ids[i] = 1000 + i;
+        }
+    }
+
+    @Benchmark
+    public JSONArray toJsonArray() throws JSONException {
+        return Carts.toJsonArray(products);
+    }
+
+    @Benchmark
+    public JSONArray toJsonArrayIds() throws JSONException {
+        return Carts.toJsonArray(ids);
+    }
+
+    @Benchmark
+    public String toJsonObjectPatch() throws JSONException {
+        return Carts.toJsonObjectPatch("add", Carts.toJsonArray(products)).toString();
+    }
+
+    @Benchmark
+    public String cartPatch() throws JSONException {
+        CartPatch patch = new CartPatch();
+
+        for (Object[] i : products) patch.put(CartPatch.ADD, (int) i[0], (int) i[1]);
+
+        return patch.toJson();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EndpointBenchmark class. <br />
+ * <br />
+ * Measures the construction of the request urls by a compiled {@link Endpoint}: the list urls, from a map of
+ * 1 to 50 filters to the complete encoded url, and the item urls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndpointBenchmark {
+
+    private static final String[][] FILTERS = {
+            {"category_id", "12"},
+            {"brand_id", "7"},
+            {"published", "true"},
+            {"price_gte", "10"},
+            {"price_lte", "250"},
+            {"sort_by", "price"},
+            {"sort_order", "asc"},
+            {"q", "leather wallet"},
+            {"fields", "id,name,price,images"},
+            {"stock_type", "track"},
+            {"page", "3"},
+            {"per_page", "20"}
+    };
+
+    @Param({"1", "4", "12", "50"})
+    int filters;
+
+    private Endpoint endpoint;
+    private HashMap<String, Object> map;
+    private int id;
+
+    @Setup
+    public void setUp() {
+        endpoint = Endpoints.getDefault().products;
+        map = new HashMap<>();
+
+        //past the realistic filters, the map is filled with custom attributes
+        for (int i = 0; i < filters; i++) {
+            if (i < FILTERS.length) map.put(FILTERS[i][0], FILTERS[i][1]);
+            else map.put("attribute_" + i, "value " + i);
+        }
+    }
+
+    @Benchmark
+    public String listUrl() {
+        return endpoint.url(map);
+    }
+
+    @Benchmark
+    public String itemUrl() {
+        return endpoint.url(++id);
+    }
+}
@@ -0,0 +1,273 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fixtures class. <br />
+ * <br />
+ * Loads the payloads used by the benchmarks, and provides the pieces of the Android environment that the
+ * benchmarked code needs on a plain JVM.
+ */
+final class Fixtures {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Fixtures() {
+    }
+
+    /**
+     * Reads a fixture.
+     *
+     * @param name name of the fixture, e.g. "products-100.json"
+     * @return the content of the fixture
+     */
+    static byte[] bytes(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+
+        if (in == null) throw new IOException("Missing fixture " + name);
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+
+            while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a fixture as a string.
+     *
+     * @param name name of the fixture
+     * @return the content of the fixture
+     */
+    static String string(String name) throws IOException {
+        return new String(bytes(name), UTF_8);
+    }
+
+    /**
+     * Reads a fixture as a JSON object.
+     *
+     * @param name name of the fixture
+     * @return the parsed fixture
+     */
+    static JSONObject json(String name) throws IOException, JSONException {
+        return new JSONObject(string(name));
+    }
+
+    /**
+     * Builds a list response of the given number of products, repeating the products of "products-100.json"
+     * with new IDs. Used for the multi-megabyte bodies, that are not worth keeping as files (about 870 bytes
+     * per product).
+     *
+     * @param count number of products
+     * @return the body, in UTF-8
+     */
+    static byte[] productList(int count) throws IOException, JSONException {
+        JSONArray products = json("products-100.json").getJSONArray("data");
+        StringBuilder sb = new StringBuilder(count * 900);
+
+        sb.append("{\"status\":true,\"count\":").append(count).append(",\"data\":[");
+
+        for (int i = 0; i < count; i++) {
+            JSONObject product = new JSONObject(products.getJSONObject(i % products.length()).toString());
+            product.put("id", 1000 + i);
+
+            if (i > 0) sb.append(',');
+            sb.append(product.toString());
+        }
+
+        return sb.append("]}").toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Returns a context whose shared preferences are kept in memory.
+     *
+     * @return the context
+     */
+    static Context context() {
+        return new ContextWrapper(null) {
+
+            private final HashMap<String, SharedPreferences> preferences = new HashMap<>();
+
+            @Override
+            public SharedPreferences getSharedPreferences(String name, int mode) {
+                SharedPreferences p = preferences.get(name);
+
+                if (p == null) preferences.put(name, p = new MemoryPreferences());
+
+                return p;
+            }
+        };
+    }
+
+    /**
+     * Shared preferences backed by a map.
+     */
+    private static class MemoryPreferences implements SharedPreferences {
+
+        private final HashMap<String, Object> values = new HashMap<>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        /**
+         * Applies the changes to the map on commit.
+         */
+        private class MemoryEditor implements Editor {
+
+            private final HashMap<String, Object> changes = new HashMap<>();
+            private final HashSet<String> removed = new HashSet<>();
+            private boolean clear;
+
+            @Override
+            public Editor putString(String key, String value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> value) {
+                changes.put(key, value != null ? new HashSet<>(value) : null);
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                removed.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                if (clear) values.clear();
+
+                for (String key : removed) values.remove(key);
+
+                values.putAll(changes);
+
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonBenchmark class. <br />
+ * <br />
+ * Measures the {@link Json} helpers on a single product and on pages of products, together with the parsing of
+ * the document they work on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private static final String[] KEYS = {"id", "name", "price", "stock_level", "images"};
+
+    @Param({"product.json", "products-20.json", "products-100.json"})
+    String fixture;
+
+    private final Json json = new Json();
+    private String document;
+    private JSONObject jsonObject;
+    private HashMap<String, Object> map;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        document = Fixtures.string(fixture);
+        jsonObject = new JSONObject(document);
+
+        map = new HashMap<>();
+        for (String key : KEYS) map.put(key, null);
+        map.put("description", null);
+    }
+
+    @Benchmark
+    public JSONObject parseDocument() throws JSONException {
+        return new JSONObject(document);
+    }
+
+    @Benchmark
+    public JSONObject[] getData() throws JSONException {
+        return json.getData(jsonObject);
+    }
+
+    @Benchmark
+    public HashMap<String, Object> parseDataKeys() throws JSONException {
+        return json.parseData(KEYS, jsonObject);
+    }
+
+    @Benchmark
+    public HashMap<String, Object> parseDataMap() throws JSONException {
+        return json.parseData(map, jsonObject, "description");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.entity.ByteArrayEntity;
+
+/**
+ * ResponseHandlerBenchmark class. <br />
+ * <br />
+ * Measures the buffering of a response body by {@link ResponseHandler#getResponseData}, alone and followed by
+ * the conversion to a String and the parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseHandlerBenchmark {
+
+    @Param({"product.json", "products-20.json", "products-100.json"})
+    String fixture;
+
+    private byte[] body;
+    private ResponseHandler handler;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = Fixtures.bytes(fixture);
+
+        handler = new ResponseHandler() {
+
+            @Override
+            public void onProgress(long bytesWritten, long totalSize) {
+                //the default implementation logs every chunk
+            }
+
+            @Override
+            public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
+            }
+
+            @Override
+            public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+            }
+        };
+    }
+
+    @Benchmark
+    public byte[] getResponseData() throws IOException {
+        return handler.getResponseData(new ByteArrayEntity(body));
+    }
+
+    @Benchmark
+    public JSONObject bufferAndParse() throws IOException, JSONException {
+        return new JSONObject(new String(handler.getResponseData(new ByteArrayEntity(body)), "UTF-8"));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.entity.ByteArrayEntity;
+
+/**
+ * StreamingBenchmark class. <br />
+ * <br />
+ * Measures the decoding of multi-megabyte product lists (about 2 and 8.5 MB): the previous path, that buffers
+ * the body, converts it to a String and parses it, against the streaming parser ({@link JsonStreamParser}) with
+ * the generic tree, the typed models ({@link Product#LIST}) and the lazy list ({@link LazyList}), whole or for
+ * the first page of rows only. <br />
+ * Run it with the gc profiler (-prof gc): gc.alloc.rate.norm gives the bytes allocated per decode, which for the
+ * buffered path include the copies of the whole body that are alive at the same time as the tree. <br />
+ * The forked JVM loads the classes through {@link AndroidClassLoader}, so android.util.JsonReader runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.system.class.loader=com.marketcloud.marketcloud.AndroidClassLoader")
+public class StreamingBenchmark {
+
+    private static final int PAGE = 20;
+
+    @Param({"2500", "10000"})
+    int products;
+
+    private byte[] body;
+    private ResponseHandler handler;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        body = Fixtures.productList(products);
+
+        handler = new ResponseHandler() {
+
+            @Override
+            public void onProgress(long bytesWritten, long totalSize) {
+                //the default implementation logs every chunk
+            }
+
+            @Override
+            public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
+            }
+
+            @Override
+            public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+            }
+        };
+    }
+
+    @Benchmark
+    public JSONObject buffered() throws IOException, JSONException {
+        return new JSONObject(new String(handler.getResponseData(new ByteArrayEntity(body)), "UTF-8"));
+    }
+
+    @Benchmark
+    public JSONObject streamedTree() throws IOException, JSONException {
+        return JsonStreamParser.parse(new ByteArrayInputStream(body), JsonStreamParser.OBJECT);
+    }
+
+    @Benchmark
+    public ArrayList<Product> streamedProducts() throws IOException, JSONException {
+        return JsonStreamParser.parse(new ByteArrayInputStream(body), Product.LIST);
+    }
+
+    @Benchmark
+    public LazyList<Product> lazyIndex() throws IOException, JSONException {
+        return JsonStreamParser.parse(new ByteArrayInputStream(body), LazyList.codec(Product.CODEC));
+    }
+
+    @Benchmark
+    public void lazyFirstPage(Blackhole blackhole) throws IOException, JSONException {
+        LazyList<Product> list = JsonStreamParser.parse(new ByteArrayInputStream(body), LazyList.codec(Product.CODEC));
+
+        for (int i = 0; i < PAGE; i++) blackhole.consume(list.get(i));
+    }
+
+    @Benchmark
+    public void lazyFirstPageNames(Blackhole blackhole) throws IOException, JSONException {
+        LazyList<Product> list = JsonStreamParser.parse(new ByteArrayInputStream(body), LazyList.codec(Product.CODEC));
+
+        for (int i = 0; i < PAGE; i++) blackhole.consume(list.getField(i, "name"));
+    }
+}
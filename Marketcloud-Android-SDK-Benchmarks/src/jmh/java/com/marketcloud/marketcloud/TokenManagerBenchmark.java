@@ -0,0 +1,64 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TokenManagerBenchmark class. <br />
+ * <br />
+ * Measures the lookup of the session token, which every private request performs (often more than once), with
+ * a growing number of cookies in the store. The session cookie is added last.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenManagerBenchmark {
+
+    @Param({"1", "10", "50"})
+    int cookies;
+
+    private TokenManager tokenManager;
+
+    @Setup
+    public void setUp() {
+        tokenManager = new TokenManager(Fixtures.context());
+
+        for (int i = 1; i < cookies; i++) tokenManager.setToken("cookie" + i, "value" + i);
+
+        tokenManager.setToken("auth", "0123456789abcdef0123456789abcdef");
+    }
+
+    @Benchmark
+    public String getSessionToken() {
+        return tokenManager.getSessionToken();
+    }
+}
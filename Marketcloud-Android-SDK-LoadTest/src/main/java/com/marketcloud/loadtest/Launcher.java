@@ -0,0 +1,171 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Launcher class. <br />
+ * <br />
+ * Starts the {@link LoadTest} (or, with "transports" or "pool" as the first argument, the {@link TransportBenchmark}
+ * or the {@link PoolBenchmark}) in a class loader that makes the Android framework classes of Robolectric's
+ * android-all runnable on a plain JVM.
+ * Some of them (e.g. android.util.JsonReader, used by the SDK to stream the responses) call the overloads of
+ * System.arraycopy for primitive arrays, which exist only in the Android runtime: the loader rewrites these calls
+ * to the standard System.arraycopy while loading the classes.
+ */
+public final class Launcher {
+
+    private Launcher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<URL> urls = new ArrayList<>();
+
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator))
+            urls.add(new File(path).toURI().toURL());
+
+        //the parent only provides the JDK, so the classes of the SDK and of the test are loaded (and patched) here
+        ClassLoader loader = new AndroidClassLoader(urls.toArray(new URL[urls.size()]), ClassLoader.getSystemClassLoader().getParent());
+        Thread.currentThread().setContextClassLoader(loader);
+
+        String main = LoadTest.class.getName();
+
+        if (args.length > 0 && args[0].equals("transports")) main = TransportBenchmark.class.getName();
+        else if (args.length > 0 && args[0].equals("pool")) main = PoolBenchmark.class.getName();
+
+        //the benchmarks take the first argument, the name, out of their options
+        if (!main.equals(LoadTest.class.getName())) args = Arrays.copyOfRange(args, 1, args.length);
+
+        loader.loadClass(main)
+                .getMethod("main", String[].class)
+                .invoke(null, (Object) args);
+    }
+
+    /**
+     * Loads the classes from the class path, rewriting the calls to the Android-only System.arraycopy
+     * overloads in the android.* classes.
+     */
+    private static class AndroidClassLoader extends URLClassLoader {
+
+        private static final HashMap<String, String> DESCRIPTORS = new HashMap<>();
+
+        static {
+            for (String type : new String[]{"Z", "B", "C", "S", "I", "J", "F", "D"})
+                DESCRIPTORS.put("([" + type + "I[" + type + "II)V", "(Ljava/lang/Object;ILjava/lang/Object;II)V");
+        }
+
+        AndroidClassLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (!name.startsWith("android.")) return super.findClass(name);
+
+            InputStream in = getResourceAsStream(name.replace('.', '/') + ".class");
+
+            if (in == null) throw new ClassNotFoundException(name);
+
+            try {
+                byte[] bytes = patch(in);
+                return defineClass(name, bytes, 0, bytes.length);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException ignored) {}
+            }
+        }
+
+        /**
+         * Copies a class file, replacing the descriptors of the primitive System.arraycopy overloads in the
+         * constant pool. The rest of the class is copied as it is.
+         */
+        private static byte[] patch(InputStream stream) throws IOException {
+            DataInputStream in = new DataInputStream(stream);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            //magic and version
+            out.writeLong(in.readLong());
+
+            int count = in.readUnsignedShort();
+            out.writeShort(count);
+
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                out.writeByte(tag);
+
+                switch (tag) {
+                    case 1: //utf8
+                        String value = in.readUTF();
+                        String replacement = DESCRIPTORS.get(value);
+                        out.writeUTF(replacement != null ? replacement : value);
+                        break;
+                    case 5: //long
+                    case 6: //double
+                        out.writeLong(in.readLong());
+                        i++;
+                        break;
+                    case 3: //integer
+                    case 4: //float
+                    case 9: //field ref
+                    case 10: //method ref
+                    case 11: //interface method ref
+                    case 12: //name and type
+                    case 17: //dynamic
+                    case 18: //invoke dynamic
+                        out.writeInt(in.readInt());
+                        break;
+                    case 15: //method handle
+                        out.writeByte(in.readUnsignedByte());
+                        out.writeShort(in.readUnsignedShort());
+                        break;
+                    case 7: //class
+                    case 8: //string
+                    case 16: //method type
+                    case 19: //module
+                    case 20: //package
+                        out.writeShort(in.readUnsignedShort());
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+
+            byte[] buffer = new byte[8192];
+            int n;
+
+            while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+
+            out.flush();
+
+            return bytes.toByteArray();
+        }
+    }
+}
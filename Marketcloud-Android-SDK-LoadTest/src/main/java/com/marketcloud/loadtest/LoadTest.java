@@ -0,0 +1,406 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.loadtest;
+
+import com.loopj.android.http.AsyncHttpClient;
+import com.marketcloud.marketcloud.ConnectionPool;
+import com.marketcloud.marketcloud.Dispatcher;
+import com.marketcloud.marketcloud.EndpointConfig;
+import com.marketcloud.marketcloud.Histogram;
+import com.marketcloud.marketcloud.Marketcloud;
+import com.marketcloud.marketcloud.Metrics;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadTest class. <br />
+ * <br />
+ * Drives the SDK with concurrent requests against a {@link StubServer} (started in the same process, or running
+ * elsewhere), and reports the throughput, the latency percentiles of each operation, the allocation rate of the
+ * client threads and the metrics collected by the SDK. <br />
+ * Every worker thread picks its next operation at random, with the weights of the request mix, and runs it with
+ * the synchronous API of {@link Marketcloud}, as an application would do on its background threads. Start it
+ * through the {@link Launcher}; see the README of the module for the options.
+ */
+public final class LoadTest {
+
+    private static final String DEFAULT_MIX = "catalog=40,product=25,cart=10,cart-get=5,order=5,order-get=5,user=5,addresses=5";
+
+    private final Marketcloud marketcloud;
+    private final Operation[] operations;
+    private final int[] weights;
+    private final int totalWeight;
+    private final int pageSize;
+    private final Histogram total = new Histogram();
+    private volatile boolean running = true;
+    private volatile boolean measuring;
+
+    private LoadTest(Marketcloud marketcloud, String mix, int pageSize) {
+        this.marketcloud = marketcloud;
+        this.pageSize = pageSize;
+
+        String[] entries = mix.split(",");
+        operations = new Operation[entries.length];
+        weights = new int[entries.length];
+
+        int total = 0;
+
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].trim().split("=");
+
+            operations[i] = Operation.create(entry[0]);
+            weights[i] = entry.length > 1 ? Integer.parseInt(entry[1]) : 1;
+            total += weights[i];
+        }
+
+        totalWeight = total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = parse(args);
+
+        if (options.containsKey("help")) {
+            System.out.println("Options: --threads 8 --duration 30 --warmup 5 --mix " + DEFAULT_MIX + "\n"
+                    + "         --page-size 20 --connections 20 --delay 0 --server-threads 16 --port 0\n"
+                    + "         --target <url of a running stub server> | --server-only");
+            return;
+        }
+
+        //the log of android-async-http goes to the Android log, which is not available here
+        AsyncHttpClient.log.setLoggingEnabled(false);
+
+        StubServer server = null;
+        String target = options.get("target");
+
+        if (target == null) {
+            server = new StubServer(intOption(options, "port", 0), intOption(options, "server-threads", 16), intOption(options, "delay", 0));
+            server.start();
+            target = server.getBaseUrl();
+        }
+
+        if (options.containsKey("server-only")) {
+            System.out.println("Stub server listening on " + target);
+            new CountDownLatch(1).await();
+        }
+
+        int threads = intOption(options, "threads", 8);
+        int connections = intOption(options, "connections", ConnectionPool.DEFAULT_MAX_CONNECTIONS);
+        File root = new File(System.getProperty("java.io.tmpdir"), "marketcloud-loadtest-" + System.nanoTime());
+
+        Marketcloud marketcloud = new Marketcloud(
+                new LoadTestContext(root),
+                "loadtest-public-key",
+                new EndpointConfig((target.endsWith("/") ? target : target + "/") + "v0/"),
+                new ConnectionPool(connections, connections, ConnectionPool.DEFAULT_KEEP_ALIVE, ConnectionPool.DEFAULT_TIMEOUT),
+                new Dispatcher(threads, Dispatcher.DEFAULT_QUEUE_SIZE));
+
+        if (!marketcloud.users.authenticate("loadtest@example.com", "loadtest"))
+            throw new IllegalStateException("Cannot authenticate against " + target);
+
+        LoadTest test = new LoadTest(marketcloud, options.containsKey("mix") ? options.get("mix") : DEFAULT_MIX, intOption(options, "page-size", 20));
+
+        try {
+            test.run(threads, intOption(options, "warmup", 5), intOption(options, "duration", 30), target);
+        } finally {
+            if (server != null) server.stop();
+            marketcloud.connectionPool.shutdown();
+            marketcloud.dispatcher.shutdown();
+        }
+    }
+
+    private void run(int threads, int warmup, int duration, String target) throws InterruptedException {
+        System.out.printf("Marketcloud load test: %d threads, %d s (after %d s of warmup) against %s%n", threads, duration, warmup, target);
+
+        ArrayList<Thread> workers = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Worker(i), "LoadTest-Worker-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+
+        Thread.sleep(warmup * 1000L);
+
+        marketcloud.metrics.reset();
+        long allocated = allocatedBytes(workers);
+        long[] gc = gcCounters();
+        long start = System.nanoTime();
+        measuring = true;
+
+        Thread.sleep(duration * 1000L);
+
+        measuring = false;
+        long end = System.nanoTime();
+        allocated = allocatedBytes(workers) - allocated;
+        long[] gcEnd = gcCounters();
+
+        running = false;
+
+        for (Thread worker : workers) worker.join();
+
+        report((end - start) / 1e9, allocated, gcEnd[0] - gc[0], gcEnd[1] - gc[1]);
+    }
+
+    private void report(double seconds, long allocated, long collections, long collectionTime) {
+        long errors = 0;
+
+        System.out.printf("%n%-12s %10s %8s %10s %9s %9s %9s %9s%n", "operation", "count", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+
+        for (Operation op : operations) {
+            print(op.name, op.latency, op.errors.get(), seconds);
+            errors += op.errors.get();
+        }
+
+        print("total", total, errors, seconds);
+
+        long count = total.getCount();
+
+        if (allocated >= 0)
+            System.out.printf("%nAllocation (client threads): %.1f MB/s, %.1f KB/op%n",
+                    allocated / seconds / (1024 * 1024),
+                    count > 0 ? allocated / 1024.0 / count : 0);
+
+        System.out.printf("GC: %d collections, %d ms%n", collections, collectionTime);
+
+        System.out.printf("%n%-28s %9s %7s %9s %9s %9s %6s%n", "endpoint", "requests", "errors", "p50 ms", "p99 ms", "network", "cache");
+
+        for (Map.Entry<String, Metrics.EndpointSnapshot> e : marketcloud.metrics.snapshot().getEndpoints().entrySet()) {
+            Metrics.EndpointSnapshot s = e.getValue();
+
+            System.out.printf("%-28s %9d %7d %9.2f %9.2f %9.2f %5.0f%%%n",
+                    e.getKey(), s.requests, s.errors, s.p50, s.p99, s.meanNetworkTime, s.getCacheHitRate() * 100);
+        }
+    }
+
+    private static void print(String name, Histogram latency, long errors, double seconds) {
+        System.out.printf("%-12s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+                name,
+                latency.getCount(),
+                errors,
+                latency.getCount() / seconds,
+                latency.getPercentile(50) / 1000.0,
+                latency.getPercentile(95) / 1000.0,
+                latency.getPercentile(99) / 1000.0,
+                latency.getMax() / 1000.0);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the given threads.
+     *
+     * @return the bytes, or -1 if the JVM does not measure them
+     */
+    static long allocatedBytes(ArrayList<Thread> threads) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return -1;
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        if (!mx.isThreadAllocatedMemorySupported() || !mx.isThreadAllocatedMemoryEnabled()) return -1;
+
+        long[] ids = new long[threads.size()];
+
+        for (int i = 0; i < ids.length; i++) ids[i] = threads.get(i).getId();
+
+        long total = 0;
+
+        for (long bytes : mx.getThreadAllocatedBytes(ids)) total += Math.max(0, bytes);
+
+        return total;
+    }
+
+    /**
+     * Returns the number of garbage collections and the time spent in them so far.
+     */
+    static long[] gcCounters() {
+        long[] counters = new long[2];
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            counters[0] += Math.max(0, gc.getCollectionCount());
+            counters[1] += Math.max(0, gc.getCollectionTime());
+        }
+
+        return counters;
+    }
+
+    static HashMap<String, String> parse(String[] args) {
+        HashMap<String, String> options = new LinkedHashMap<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument " + args[i]);
+
+            String name = args[i].substring(2);
+
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) options.put(name, args[++i]);
+            else options.put(name, "true");
+        }
+
+        return options;
+    }
+
+    static int intOption(HashMap<String, String> options, String name, int value) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : value;
+    }
+
+    private static boolean ok(JSONObject response) {
+        return response != null && response.optBoolean("status");
+    }
+
+    /**
+     * Runs operations until the test ends.
+     */
+    private class Worker implements Runnable {
+
+        private final int index;
+        private final Random random;
+
+        Worker(int index) {
+            this.index = index;
+            random = new Random(index);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Operation op = pick();
+                long start = System.nanoTime();
+                boolean success;
+
+                try {
+                    success = op.run(LoadTest.this, random, index);
+                } catch (Exception e) {
+                    success = false;
+                }
+
+                long time = (System.nanoTime() - start) / 1000;
+
+                if (measuring) {
+                    op.latency.record(time);
+                    total.record(time);
+                    if (!success) op.errors.incrementAndGet();
+                }
+            }
+        }
+
+        private Operation pick() {
+            int r = random.nextInt(totalWeight);
+
+            for (int i = 0; i < operations.length; i++) {
+                r -= weights[i];
+                if (r < 0) return operations[i];
+            }
+
+            return operations[operations.length - 1];
+        }
+    }
+
+    /**
+     * An operation of the request mix, with its latency (in microseconds) and its errors.
+     */
+    private abstract static class Operation {
+
+        final String name;
+        final Histogram latency = new Histogram();
+        final AtomicLong errors = new AtomicLong();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Runs the operation.
+         *
+         * @return true if the request succeeded
+         */
+        abstract boolean run(LoadTest test, Random random, int worker) throws Exception;
+
+        static Operation create(String name) {
+            switch (name) {
+                case "catalog":
+                    return new Operation(name) {
+                        @Override
+                        boolean run(LoadTest test, Random random, int worker) {
+                            HashMap<String, Object> filters = new HashMap<>();
+                            filters.put("page", 1 + random.nextInt(10));
+                            filters.put("per_page", test.pageSize);
+
+                            return test.marketcloud.products.listProducts(filters) != null;
+                        }
+                    };
+                case "product":
+                    return new Operation(name) {
+                        @Override
+                        boolean run(LoadTest test, Random random, int worker) {
+                            return test.marketcloud.products.getProduct(1 + random.nextInt(2000)) != null;
+                        }
+                    };
+                case "cart":
+                    return new Operation(name) {
+                        @Override
+                        boolean run(LoadTest test, Random random, int worker) throws Exception {
+                            return ok(test.marketcloud.carts.add(worker + 1, new Object[][]{{1 + random.nextInt(2000), 1 + random.nextInt(3)}}, true));
+                        }
+                    };
+                case "cart-get":
+                    return new Operation(name) {
+                        @Override
+                        boolean run(LoadTest test, Random random, int worker) {
+                            return test.marketcloud.carts.getCart(worker + 1, true) != null;
+                        }
+                    };
+                case "order":
+                    return new Operation(name) {
+                        @Override
+                        boolean run(LoadTest test, Random random, int worker) throws Exception {
+                            return ok(test.marketcloud.orders.create(1 + worker, 1, 1, new Object[][]{{1 + random.nextInt(2000), 1}, {1 + random.nextInt(2000), 2}}));
+                        }
+                    };
+                case "order-get":
+                    return new Operation(name) {
+                        @Override
+                        boolean run(LoadTest test, Random random, int worker) {
+                            return test.marketcloud.orders.getOrder(1 + random.nextInt(500)) != null;
+                        }
+                    };
+                case "user":
+                    return new Operation(name) {
+                        @Override
+                        boolean run(LoadTest test, Random random, int worker) {
+                            return test.marketcloud.users.getUser(1 + worker) != null;
+                        }
+                    };
+                case "addresses":
+                    return new Operation(name) {
+                        @Override
+                        boolean run(LoadTest test, Random random, int worker) {
+                            return test.marketcloud.addresses.listAddresses() != null;
+                        }
+                    };
+                default:
+                    throw new IllegalArgumentException("Unknown operation " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.loadtest;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LoadTestContext class. <br />
+ * <br />
+ * The application context given to the SDK outside Android: the shared preferences are kept in memory, and the
+ * cache and files directories are created under a temporary directory.
+ */
+class LoadTestContext extends ContextWrapper {
+
+    private final HashMap<String, SharedPreferences> preferences = new HashMap<>();
+    private final File root;
+
+    /**
+     * Constructor.
+     *
+     * @param root the directory that will contain the cache and the files of the SDK
+     */
+    LoadTestContext(File root) {
+        super(null);
+        this.root = root;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences p = preferences.get(name);
+
+        if (p == null) preferences.put(name, p = new MemoryPreferences());
+
+        return p;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return directory("cache");
+    }
+
+    @Override
+    public File getFilesDir() {
+        return directory("files");
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    private File directory(String name) {
+        File dir = new File(root, name);
+
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IllegalStateException("Cannot create " + dir);
+
+        return dir;
+    }
+
+    /**
+     * Shared preferences backed by a map, safe for concurrent use.
+     */
+    private static class MemoryPreferences implements SharedPreferences {
+
+        private final HashMap<String, Object> values = new HashMap<>();
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public synchronized int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        /**
+         * Applies the changes to the map on commit.
+         */
+        private class MemoryEditor implements Editor {
+
+            private final HashMap<String, Object> changes = new HashMap<>();
+            private final HashSet<String> removed = new HashSet<>();
+            private boolean clear;
+
+            @Override
+            public Editor putString(String key, String value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> value) {
+                changes.put(key, value != null ? new HashSet<>(value) : null);
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                removed.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (MemoryPreferences.this) {
+                    if (clear) values.clear();
+
+                    for (String key : removed) values.remove(key);
+
+                    values.putAll(changes);
+                }
+
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+}
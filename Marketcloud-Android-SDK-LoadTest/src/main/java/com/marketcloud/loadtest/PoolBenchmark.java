@@ -0,0 +1,229 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.loadtest;
+
+import android.content.Context;
+
+import com.loopj.android.http.AsyncHttpClient;
+import com.loopj.android.http.ResponseHandlerInterface;
+import com.loopj.android.http.SyncHttpClient;
+import com.marketcloud.marketcloud.ConnectionPool;
+import com.marketcloud.marketcloud.Dispatcher;
+import com.marketcloud.marketcloud.EndpointConfig;
+import com.marketcloud.marketcloud.Histogram;
+import com.marketcloud.marketcloud.Marketcloud;
+import com.marketcloud.marketcloud.Transport;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+
+/**
+ * PoolBenchmark class. <br />
+ * <br />
+ * Measures what the shared {@link ConnectionPool} saves over a new HTTP client for each call, the way the SDK
+ * sent its requests before the pool: a number of threads (4 by default) make sequential
+ * {@link com.marketcloud.marketcloud.Products#getById(int)} calls against the same {@link StubServer}, once
+ * through the pool and once through a transport that creates a {@link SyncHttpClient} for each call (so each
+ * call opens a new connection). <br />
+ * The IDs are never repeated, so every call goes to the network. It reports the latency percentiles of the calls
+ * and the bytes allocated per call by the calling threads. A first pass of both clients, not reported, warms up
+ * the JVM. Start it through the {@link Launcher} with "pool" as the first argument.
+ */
+public final class PoolBenchmark {
+
+    private final int threads;
+    private final int calls;
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private PoolBenchmark(int threads, int calls) {
+        this.threads = threads;
+        this.calls = calls;
+    }
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = LoadTest.parse(args);
+
+        if (options.containsKey("help")) {
+            System.out.println("Options: --threads 4 --calls 500 --warmup 200 --delay 0");
+            return;
+        }
+
+        //the log of android-async-http goes to the Android log, which is not available here
+        AsyncHttpClient.log.setLoggingEnabled(false);
+
+        int threads = LoadTest.intOption(options, "threads", 4);
+        int calls = LoadTest.intOption(options, "calls", 500);
+        int warmup = LoadTest.intOption(options, "warmup", 200);
+        int delay = LoadTest.intOption(options, "delay", 0);
+
+        StubServer server = new StubServer(0, Math.max(16, 2 * threads), delay);
+        server.start();
+
+        System.out.printf("Pool benchmark: %d threads, %d sequential Products.getById calls each, %d ms of server delay (after %d calls of warmup)%n",
+                threads, calls, delay, warmup);
+        System.out.printf("%n%-18s %8s %9s %9s %9s %9s %9s %7s %10s%n",
+                "client", "calls", "calls/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "errors", "KB/call");
+
+        try {
+            //a first pass, not reported, loads and compiles the code of both clients
+            for (boolean report : new boolean[]{false, true}) {
+                int measured = report ? calls : 0;
+
+                new PoolBenchmark(threads, measured).run("client per call", new PerCallTransport(), server.getBaseUrl(), warmup, report);
+                new PoolBenchmark(threads, measured).run("pooled", new ConnectionPool(), server.getBaseUrl(), warmup, report);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void run(String name, Transport transport, String target, final int warmup, boolean report) throws InterruptedException {
+        File root = new File(System.getProperty("java.io.tmpdir"), "marketcloud-pool-" + System.nanoTime());
+
+        final Marketcloud marketcloud = new Marketcloud(
+                new LoadTestContext(root),
+                "loadtest-public-key",
+                new EndpointConfig(target + "/v0/"),
+                transport,
+                new Dispatcher(1, Dispatcher.DEFAULT_QUEUE_SIZE));
+
+        final Histogram latency = new Histogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong allocated = new AtomicLong();
+        ArrayList<Thread> workers = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int n = 0; n < warmup; n++) call(marketcloud, null, errors);
+
+                        //only the calling thread is measured, so the others do not need to stop
+                        ArrayList<Thread> self = new ArrayList<>();
+                        self.add(Thread.currentThread());
+                        long before = LoadTest.allocatedBytes(self);
+
+                        for (int n = 0; n < calls; n++) call(marketcloud, latency, errors);
+
+                        allocated.addAndGet(before < 0 ? -1 : LoadTest.allocatedBytes(self) - before);
+                    }
+                }, "PoolBenchmark-Worker-" + i);
+
+                workers.add(worker);
+                worker.start();
+            }
+
+            long start = System.nanoTime();
+
+            for (Thread worker : workers) worker.join();
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long count = latency.getCount();
+
+            if (report) System.out.printf("%-18s %8d %9.1f %9.2f %9.2f %9.2f %9.2f %7d %10s%n",
+                    name,
+                    count,
+                    count / seconds,
+                    latency.getPercentile(50) / 1000.0,
+                    latency.getPercentile(95) / 1000.0,
+                    latency.getPercentile(99) / 1000.0,
+                    latency.getMax() / 1000.0,
+                    errors.get(),
+                    allocated.get() < 0 || count == 0 ? "n/a" : String.format("%.1f", allocated.get() / 1024.0 / count));
+        } finally {
+            transport.shutdown();
+            marketcloud.dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Makes a call.
+     *
+     * @param latency receives the latency of the call (in microseconds), null for a warmup call
+     */
+    private void call(Marketcloud marketcloud, Histogram latency, AtomicLong errors) {
+        long begin = System.nanoTime();
+        JSONObject product = null;
+
+        try {
+            product = marketcloud.products.getById(nextId.incrementAndGet());
+        } catch (Exception ignored) {}
+
+        if (latency != null) {
+            latency.record((System.nanoTime() - begin) / 1000);
+            if (product == null || !product.optBoolean("status")) errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sends each request with a new {@link SyncHttpClient}, as the SDK did before the {@link ConnectionPool}.
+     * The connection of the client is closed after the call, instead of being left to the garbage collector.
+     */
+    private static class PerCallTransport implements Transport {
+
+        @Override
+        public void execute(Context context, String method, String url, Header[] headers, HttpEntity body, ResponseHandlerInterface handler) {
+            SyncHttpClient client = new SyncHttpClient();
+            //the failed requests are retried by the RetryPolicy of Connect, as with the pool
+            client.setMaxRetriesAndTimeout(0, 0);
+
+            try {
+                switch (method) {
+                    case "get":
+                        client.get(context, url, headers, null, handler);
+                        break;
+                    case "post":
+                        client.post(context, url, headers, body, "application/json", handler);
+                        break;
+                    case "delete":
+                        client.delete(context, url, headers, handler);
+                        break;
+                    case "patch":
+                        client.patch(context, url, headers, body, "application/json", handler);
+                        break;
+                    case "put":
+                        client.put(context, url, headers, body, "application/json", handler);
+                        break;
+                }
+            } finally {
+                client.getHttpClient().getConnectionManager().shutdown();
+            }
+        }
+
+        @Override
+        public void register(EndpointConfig config) {
+            //the stub server is plain http
+        }
+
+        @Override
+        public int getOpenConnections() {
+            return 0;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.loadtest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Random;
+
+/**
+ * StubData class. <br />
+ * <br />
+ * Generates the resources served by the {@link StubServer}. Every resource is derived from its ID, so the same
+ * ID always gives the same document, of the size and shape of the real one.
+ */
+final class StubData {
+
+    private static final String[] WORDS = ("organic cotton slim fit classic denim jacket leather wallet wireless "
+            + "headphones stainless steel bottle ceramic mug running shoes wool scarf linen shirt canvas backpack "
+            + "bamboo cutting board").split(" ");
+
+    private StubData() {
+    }
+
+    /**
+     * Returns the resource with the given ID.
+     *
+     * @param resource name of the collection, e.g. "products"
+     * @param id the ID
+     * @return the resource, or null if the collection is unknown
+     */
+    static JSONObject get(String resource, int id) throws JSONException {
+        Random random = new Random(resource.hashCode() * 31L + id);
+
+        switch (resource) {
+            case "products":
+                return product(id, random);
+            case "brands":
+            case "categories":
+                return new JSONObject()
+                        .put("id", id)
+                        .put("name", words(random, 2))
+                        .put("description", sentence(random, 12))
+                        .put("image_url", "http://cdn.marketcloud.it/" + resource + "/" + id + ".jpg");
+            case "shippings":
+                return new JSONObject()
+                        .put("id", id)
+                        .put("name", words(random, 2))
+                        .put("base_cost", price(random))
+                        .put("per_item_cost", price(random) / 10)
+                        .put("min_delivery_days", 1 + random.nextInt(3))
+                        .put("max_delivery_days", 4 + random.nextInt(5));
+            case "taxes":
+                return new JSONObject()
+                        .put("id", id)
+                        .put("name", "VAT " + id)
+                        .put("rate", 4 + random.nextInt(20));
+            case "currencies":
+                return new JSONObject()
+                        .put("id", id)
+                        .put("code", "EUR")
+                        .put("symbol", "€")
+                        .put("rate", 1 + random.nextDouble());
+            case "carts":
+                return cart(id, random);
+            case "orders":
+                return cart(id, random)
+                        .put("state", "pending")
+                        .put("shipping_address_id", 1 + random.nextInt(100))
+                        .put("billing_address_id", 1 + random.nextInt(100))
+                        .put("total", price(random) * 4);
+            case "users":
+                return new JSONObject()
+                        .put("id", id)
+                        .put("name", words(random, 2))
+                        .put("email", "user" + id + "@example.com")
+                        .put("image_url", "http://cdn.marketcloud.it/users/" + id + ".jpg");
+            case "addresses":
+                return new JSONObject()
+                        .put("id", id)
+                        .put("user_id", 1 + random.nextInt(1000))
+                        .put("full_name", words(random, 2))
+                        .put("email", "user" + id + "@example.com")
+                        .put("country", "Italy")
+                        .put("city", "Rome")
+                        .put("address1", "Via " + words(random, 2) + " " + (1 + random.nextInt(200)))
+                        .put("postal_code", String.valueOf(10000 + random.nextInt(90000)));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns a page of a collection. The IDs of the page follow each other.
+     *
+     * @param resource name of the collection
+     * @param page the page, starting from 1
+     * @param perPage number of resources per page
+     * @return the resources, or null if the collection is unknown
+     */
+    static JSONArray list(String resource, int page, int perPage) throws JSONException {
+        JSONArray array = new JSONArray();
+
+        for (int i = 0; i < perPage; i++) {
+            JSONObject item = get(resource, (page - 1) * perPage + i + 1);
+
+            if (item == null) return null;
+
+            array.put(item);
+        }
+
+        return array;
+    }
+
+    private static JSONObject product(int id, Random random) throws JSONException {
+        JSONArray images = new JSONArray();
+
+        for (int i = 1 + random.nextInt(5); i > 0; i--)
+            images.put("http://cdn.marketcloud.it/images/" + id + "_" + i + ".jpg");
+
+        return new JSONObject()
+                .put("id", id)
+                .put("name", words(random, 3))
+                .put("description", sentence(random, 12) + " " + sentence(random, 12) + " " + sentence(random, 12))
+                .put("sku", String.format("SKU-%06d", id))
+                .put("price", price(random))
+                .put("price_discount", price(random))
+                .put("stock_type", "track")
+                .put("stock_level", random.nextInt(500))
+                .put("category_id", 1 + random.nextInt(40))
+                .put("brand_id", 1 + random.nextInt(25))
+                .put("published", true)
+                .put("images", images)
+                .put("seo", new JSONObject().put("title", sentence(random, 5)).put("keywords", words(random, 5)));
+    }
+
+    private static JSONObject cart(int id, Random random) throws JSONException {
+        JSONArray items = new JSONArray();
+
+        for (int i = 1 + random.nextInt(8); i > 0; i--)
+            items.put(new JSONObject()
+                    .put("product_id", 1 + random.nextInt(2000))
+                    .put("quantity", 1 + random.nextInt(4))
+                    .put("name", words(random, 3))
+                    .put("price", price(random)));
+
+        return new JSONObject()
+                .put("id", id)
+                .put("user_id", 1 + random.nextInt(1000))
+                .put("items", items);
+    }
+
+    private static double price(Random random) {
+        return (500 + random.nextInt(29500)) / 100.0;
+    }
+
+    private static String words(Random random, int n) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < n; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+
+            if (i > 0) sb.append(' ');
+            sb.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+
+        return sb.toString();
+    }
+
+    private static String sentence(Random random, int n) {
+        return words(random, n).toLowerCase() + ".";
+    }
+}
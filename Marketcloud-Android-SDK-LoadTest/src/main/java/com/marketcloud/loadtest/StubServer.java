@@ -0,0 +1,335 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.loadtest;
+
+import com.marketcloud.marketcloud.Http2StubServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * StubServer class. <br />
+ * <br />
+ * A local stand-in for the Marketcloud APIs (api.marketcloud.it/v0), serving the resources generated by
+ * {@link StubData}: <br />
+ * - GET of a collection returns a page of it (filters "page" and "per_page") <br />
+ * - GET of a resource returns it, or a 404 if the collection is unknown <br />
+ * - POST creates a resource, echoing the body with a new ID; POST users/authenticate returns a session token <br />
+ * - PATCH and PUT return the updated resource, DELETE returns a bare status <br />
+ * The GET responses carry an ETag and honour If-None-Match, and all the responses are gzipped when the client
+ * accepts it, like the real servers. An optional delay simulates the processing time of the server. <br />
+ * The same resources can also be served over cleartext HTTP/2 (see {@link #startHttp2(int)}), on a second port.
+ */
+final class StubServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int COLLECTION_SIZE = 2400;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final HttpHandler handler;
+    private Http2StubServer http2;
+    private final long delay;
+    private final ConcurrentHashMap<String, Reply> replies = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(100000);
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @param threads number of threads serving the requests
+     * @param delay time (in milliseconds) the server waits before answering each request
+     */
+    StubServer(int port, int threads, long delay) throws IOException {
+        this.delay = delay;
+
+        //the headers and the body are written separately: without this, Nagle's algorithm delays the body
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+
+        handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        };
+
+        server.setExecutor(executor);
+        server.createContext("/v0/", handler);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /**
+     * Starts serving the same resources over cleartext HTTP/2, with the same threads.
+     *
+     * @param port the port to listen on, 0 for any free port
+     */
+    void startHttp2(int port) throws IOException {
+        http2 = new Http2StubServer(port, handler, executor);
+        http2.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        if (http2 != null) http2.stop();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the url that replaces "http://api.marketcloud.it".
+     *
+     * @return the base url of the server
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the url of the HTTP/2 listener.
+     *
+     * @return the base url, or null if HTTP/2 has not been started
+     */
+    String getHttp2BaseUrl() {
+        return http2 != null ? "http://127.0.0.1:" + http2.getPort() : null;
+    }
+
+    /**
+     * @return the HTTP/2 connections accepted so far
+     */
+    int getHttp2ConnectionCount() {
+        return http2 != null ? http2.getConnectionCount() : 0;
+    }
+
+    long getRequestCount() {
+        return requestCount.get();
+    }
+
+    long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+
+        if (delay > 0)
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+        Reply reply;
+
+        try {
+            reply = route(exchange);
+        } catch (JSONException | RuntimeException e) {
+            reply = new Reply(500, "{\"status\":false,\"errors\":[{\"message\":\"" + e + "\"}]}", false);
+        }
+
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = accept != null && accept.contains("gzip");
+        byte[] body = gzip ? reply.gzipped() : reply.body;
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (gzip) exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+
+        if (reply.etag != null) {
+            exchange.getResponseHeaders().set("ETag", reply.etag);
+
+            if (reply.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+
+        exchange.sendResponseHeaders(reply.status, body.length);
+
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+
+        sentBytes.addAndGet(body.length);
+    }
+
+    private Reply route(HttpExchange exchange) throws IOException, JSONException {
+        String method = exchange.getRequestMethod().toLowerCase();
+        String path = exchange.getRequestURI().getPath().substring("/v0/".length());
+        String[] segments = path.split("/");
+        String resource = segments[0];
+        String id = segments.length > 1 ? segments[1] : null;
+
+        if (method.equals("get")) {
+            String key = path + "?" + exchange.getRequestURI().getRawQuery();
+            Reply reply = replies.get(key);
+
+            if (reply == null) {
+                reply = id == null ? list(resource, exchange.getRequestURI().getRawQuery()) : item(resource, id);
+
+                //a bounded cache: the pages and the resources beyond the limit are generated every time
+                if (replies.size() < 10000) replies.put(key, reply);
+            }
+
+            return reply;
+        }
+
+        String body = read(exchange);
+
+        switch (method) {
+            case "post":
+                if ("authenticate".equals(id))
+                    return ok(new JSONObject()
+                            .put("token", Long.toHexString(Double.doubleToLongBits(Math.random())))
+                            .put("user", StubData.get("users", 1)));
+
+                JSONObject created = body.startsWith("{") ? new JSONObject(body) : new JSONObject();
+
+                return ok(created.put("id", nextId.incrementAndGet()));
+            case "patch":
+            case "put":
+                JSONObject updated = id != null ? StubData.get(resource, parseId(id)) : null;
+
+                return updated != null ? ok(updated) : notFound(resource);
+            case "delete":
+                return new Reply(200, "{\"status\":true}", false);
+            default:
+                return new Reply(405, "{\"status\":false}", false);
+        }
+    }
+
+    private static Reply list(String resource, String query) throws JSONException {
+        int page = 1;
+        int perPage = 20;
+
+        if (query != null)
+            for (String filter : query.split("&")) {
+                if (filter.startsWith("page=")) page = Math.max(1, parseId(filter.substring(5)));
+                if (filter.startsWith("per_page=")) perPage = Math.max(1, Math.min(100, parseId(filter.substring(9))));
+            }
+
+        //the pages past the end of the collection are empty
+        JSONArray data = page * perPage <= COLLECTION_SIZE ? StubData.list(resource, page, perPage) : new JSONArray();
+
+        if (data == null) return notFound(resource);
+
+        return new Reply(200, new JSONObject()
+                .put("status", true)
+                .put("count", COLLECTION_SIZE)
+                .put("pages", COLLECTION_SIZE / perPage)
+                .put("page", page)
+                .put("data", data)
+                .toString(), true);
+    }
+
+    private static Reply item(String resource, String id) throws JSONException {
+        JSONObject item = StubData.get(resource, parseId(id));
+
+        return item != null ? new Reply(200, new JSONObject().put("status", true).put("data", item).toString(), true) : notFound(resource);
+    }
+
+    private static Reply ok(JSONObject data) throws JSONException {
+        return new Reply(200, new JSONObject().put("status", true).put("data", data).toString(), false);
+    }
+
+    private static Reply notFound(String resource) {
+        return new Reply(404, "{\"status\":false,\"errors\":[{\"code\":404,\"message\":\"Unknown resource " + resource + "\"}]}", false);
+    }
+
+    private static int parseId(String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Reads the body of a request, decompressing it if needed.
+     */
+    private static String read(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding")))
+            in = new GZIPInputStream(in);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+
+        while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    /**
+     * A response, with its body ready to be sent.
+     */
+    private static class Reply {
+
+        final int status;
+        final byte[] body;
+        final String etag;
+        private volatile byte[] gzipped;
+
+        Reply(int status, String body, boolean tagged) {
+            this.status = status;
+            this.body = body.getBytes(UTF_8);
+            etag = tagged ? "\"" + Integer.toHexString(Arrays.hashCode(this.body)) + "\"" : null;
+        }
+
+        byte[] gzipped() throws IOException {
+            if (gzipped == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(body);
+                gzip.close();
+                gzipped = out.toByteArray();
+            }
+
+            return gzipped;
+        }
+    }
+}
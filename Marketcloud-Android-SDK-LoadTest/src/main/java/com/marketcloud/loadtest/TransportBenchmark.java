@@ -0,0 +1,202 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.loadtest;
+
+import com.loopj.android.http.AsyncHttpClient;
+import com.marketcloud.marketcloud.ConnectionPool;
+import com.marketcloud.marketcloud.Dispatcher;
+import com.marketcloud.marketcloud.EndpointConfig;
+import com.marketcloud.marketcloud.Histogram;
+import com.marketcloud.marketcloud.Http2Transport;
+import com.marketcloud.marketcloud.Marketcloud;
+import com.marketcloud.marketcloud.Transport;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TransportBenchmark class. <br />
+ * <br />
+ * Compares the transports of the SDK on a burst of parallel requests: each round starts a number of
+ * {@link com.marketcloud.marketcloud.Products#getById(int)} calls (50 by default) at the same time, from as many
+ * threads, and waits for all of them. The same rounds run against the same {@link StubServer} through the
+ * HTTP/1.1 {@link ConnectionPool}, that opens up to its per-host limit of connections, and through the
+ * {@link Http2Transport}, that multiplexes the calls on one connection. <br />
+ * The IDs are never repeated, so every call goes to the network. The first round, that opens the connections,
+ * is reported separately; the others give the latency percentiles of the rounds and of the single calls. A first
+ * pass of both transports, not reported, warms up the JVM. Start it through the {@link Launcher} with
+ * "transports" as the first argument.
+ */
+public final class TransportBenchmark {
+
+    private final int parallel;
+    private final ExecutorService callers;
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private TransportBenchmark(int parallel) {
+        this.parallel = parallel;
+        callers = Executors.newFixedThreadPool(parallel);
+    }
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = LoadTest.parse(args);
+
+        if (options.containsKey("help")) {
+            System.out.println("Options: --parallel 50 --rounds 30 --warmup 5 --delay 20 --connections "
+                    + ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+            return;
+        }
+
+        //the log of android-async-http goes to the Android log, which is not available here
+        AsyncHttpClient.log.setLoggingEnabled(false);
+
+        int parallel = LoadTest.intOption(options, "parallel", 50);
+        int rounds = LoadTest.intOption(options, "rounds", 30);
+        int warmup = LoadTest.intOption(options, "warmup", 5);
+        int delay = LoadTest.intOption(options, "delay", 20);
+        int connections = LoadTest.intOption(options, "connections", ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+
+        //enough server threads for all the calls of a round, so the server is not the bottleneck
+        StubServer server = new StubServer(0, Math.max(16, 2 * parallel), delay);
+        server.start();
+        server.startHttp2(0);
+
+        TransportBenchmark benchmark = new TransportBenchmark(parallel);
+
+        System.out.printf("Transport benchmark: rounds of %d parallel Products.getById calls, %d ms of server delay, %d rounds (after %d of warmup)%n",
+                parallel, delay, rounds, warmup);
+        System.out.printf("%n%-22s %8s %12s %12s %12s %11s %11s %7s %12s%n",
+                "transport", "calls", "first round", "round p50", "round p99", "call p50", "call p99", "errors", "connections");
+
+        try {
+            //a first pass, not reported, loads and compiles the code of both transports
+            for (boolean report : new boolean[]{false, true}) {
+                int before = server.getHttp2ConnectionCount();
+
+                benchmark.run(String.format("HTTP/1.1 (%d per host)", connections),
+                        new ConnectionPool(Math.max(connections, ConnectionPool.DEFAULT_MAX_CONNECTIONS), connections,
+                                ConnectionPool.DEFAULT_KEEP_ALIVE, ConnectionPool.DEFAULT_TIMEOUT),
+                        server.getBaseUrl(), report ? rounds : 0, warmup, report);
+
+                benchmark.run("HTTP/2",
+                        new Http2Transport(new ConnectionPool()),
+                        server.getHttp2BaseUrl(), report ? rounds : 0, warmup, report);
+
+                if (report) System.out.printf("%nHTTP/2 connections accepted by the server: %d%n", server.getHttp2ConnectionCount() - before);
+            }
+        } finally {
+            benchmark.callers.shutdownNow();
+            server.stop();
+        }
+    }
+
+    private void run(String name, Transport transport, String target, int rounds, int warmup, boolean report) throws InterruptedException {
+        File root = new File(System.getProperty("java.io.tmpdir"), "marketcloud-transports-" + System.nanoTime());
+
+        Marketcloud marketcloud = new Marketcloud(
+                new LoadTestContext(root),
+                "loadtest-public-key",
+                new EndpointConfig(target + "/v0/"),
+                transport,
+                new Dispatcher(1, Dispatcher.DEFAULT_QUEUE_SIZE));
+
+        Histogram roundLatency = new Histogram();
+        Histogram callLatency = new Histogram();
+        AtomicLong errors = new AtomicLong();
+        long firstRound = 0;
+
+        try {
+            for (int i = 0; i < warmup + rounds; i++) {
+                boolean measured = i >= warmup;
+                long time = round(marketcloud, measured ? callLatency : null, errors);
+
+                if (i == 0) firstRound = time;
+                if (measured) roundLatency.record(time);
+            }
+
+            if (report) System.out.printf("%-22s %8d %12.2f %12.2f %12.2f %11.2f %11.2f %7d %12d%n",
+                    name,
+                    callLatency.getCount(),
+                    firstRound / 1000.0,
+                    roundLatency.getPercentile(50) / 1000.0,
+                    roundLatency.getPercentile(99) / 1000.0,
+                    callLatency.getPercentile(50) / 1000.0,
+                    callLatency.getPercentile(99) / 1000.0,
+                    errors.get(),
+                    transport.getOpenConnections());
+        } finally {
+            transport.shutdown();
+            marketcloud.dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Runs a round of parallel calls.
+     *
+     * @param calls receives the latency of each call (in microseconds), null for a warmup round
+     * @return the time (in microseconds) until the last call returned
+     */
+    private long round(final Marketcloud marketcloud, final Histogram calls, final AtomicLong errors) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch ready = new CountDownLatch(parallel);
+        final CountDownLatch done = new CountDownLatch(parallel);
+
+        for (int i = 0; i < parallel; i++) {
+            final int id = nextId.incrementAndGet();
+
+            callers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.countDown();
+                        start.await();
+
+                        long begin = System.nanoTime();
+                        JSONObject product = null;
+
+                        try {
+                            product = marketcloud.products.getById(id);
+                        } catch (Exception ignored) {}
+
+                        if (calls != null) {
+                            calls.record((System.nanoTime() - begin) / 1000);
+                            if (product == null || !product.optBoolean("status")) errors.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        ready.await();
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+
+        return (System.nanoTime() - begin) / 1000;
+    }
+}
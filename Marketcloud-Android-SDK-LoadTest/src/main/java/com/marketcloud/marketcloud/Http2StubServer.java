@@ -0,0 +1,615 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.message.BasicHeader;
+
+/**
+ * Http2StubServer class. <br />
+ * <br />
+ * A cleartext HTTP/2 front end (prior knowledge, no TLS) for the handler of the load-test stub server: the
+ * requests received as streams are passed to the same {@link HttpHandler} that serves the HTTP/1.1 requests, as
+ * {@link HttpExchange} objects, and run on the same executor. It lives in the package of the SDK to reuse its
+ * header compression and frame constants. <br />
+ * A test tool, not a complete server: no priorities, no server push, trailers are ignored.
+ */
+public final class Http2StubServer {
+
+    private static final int MAX_CONCURRENT_STREAMS = 256;
+
+    private final ServerSocket serverSocket;
+    private final HttpHandler handler;
+    private final ExecutorService executor;
+    private final List<Connection> connections = new ArrayList<>();
+    private volatile boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @param handler serves the requests
+     * @param executor runs the handler
+     */
+    public Http2StubServer(int port, HttpHandler handler, ExecutorService executor) throws IOException {
+        this.handler = handler;
+        this.executor = executor;
+
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress("127.0.0.1", port), 1024);
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stopped) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        socket.setTcpNoDelay(true);
+
+                        final Connection connection = new Connection(socket);
+
+                        synchronized (connections) {
+                            connections.add(connection);
+                        }
+
+                        Thread reader = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                connection.run();
+                            }
+                        }, "Http2StubServer-Connection");
+                        reader.setDaemon(true);
+                        reader.start();
+                    } catch (IOException e) {
+                        if (!stopped) e.printStackTrace();
+                    }
+                }
+            }
+        }, "Http2StubServer-Acceptor");
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void stop() {
+        stopped = true;
+
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {}
+
+        synchronized (connections) {
+            for (Connection connection : connections) connection.close();
+        }
+    }
+
+    /**
+     * Returns the number of connections accepted so far.
+     *
+     * @return the connections
+     */
+    public int getConnectionCount() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * A client connection: its frames are read by one thread, the responses are written by the executor.
+     */
+    private class Connection {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final Object writeLock = new Object();
+        private final Hpack.Encoder encoder = new Hpack.Encoder();
+        private final Hpack.Decoder decoder = new Hpack.Decoder();
+        private final HashMap<Integer, Request> requests = new HashMap<>();
+
+        //guarded by this
+        private long sendWindow = Http2Connection.DEFAULT_WINDOW_SIZE;
+        private int initialWindowSize = Http2Connection.DEFAULT_WINDOW_SIZE;
+        private final HashMap<Integer, long[]> streamWindows = new HashMap<>();
+        private boolean closed;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void run() {
+            try {
+                byte[] preface = new byte[Http2Connection.PREFACE.length];
+                in.readFully(preface);
+
+                if (!Arrays.equals(preface, Http2Connection.PREFACE)) throw new IOException("Not an HTTP/2 client");
+
+                byte[] settings = new byte[6];
+                settings[1] = Http2Connection.SETTINGS_MAX_CONCURRENT_STREAMS;
+                writeInt(settings, 2, MAX_CONCURRENT_STREAMS);
+
+                synchronized (writeLock) {
+                    writeFrame(Http2Connection.SETTINGS, 0, 0, settings, 0, settings.length);
+                    out.flush();
+                }
+
+                byte[] header = new byte[9];
+                byte[] payload = new byte[Http2Connection.DEFAULT_MAX_FRAME_SIZE];
+
+                while (true) {
+                    in.readFully(header);
+
+                    int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+                    int type = header[3] & 0xff;
+                    int flags = header[4] & 0xff;
+                    int streamId = readInt(header, 5) & 0x7fffffff;
+
+                    if (length > payload.length) throw new IOException("Frame too large");
+
+                    in.readFully(payload, 0, length);
+
+                    switch (type) {
+                        case Http2Connection.HEADERS:
+                            onHeaders(streamId, flags, payload, length);
+                            break;
+                        case Http2Connection.DATA:
+                            onData(streamId, flags, payload, length);
+                            break;
+                        case Http2Connection.SETTINGS:
+                            if ((flags & Http2Connection.FLAG_ACK) == 0) onSettings(payload, length);
+                            break;
+                        case Http2Connection.WINDOW_UPDATE:
+                            onWindowUpdate(streamId, readInt(payload, 0) & 0x7fffffff);
+                            break;
+                        case Http2Connection.PING:
+                            if ((flags & Http2Connection.FLAG_ACK) == 0)
+                                synchronized (writeLock) {
+                                    writeFrame(Http2Connection.PING, Http2Connection.FLAG_ACK, 0, payload, 0, 8);
+                                    out.flush();
+                                }
+                            break;
+                        case Http2Connection.RST_STREAM:
+                            synchronized (this) {
+                                requests.remove(streamId);
+                                streamWindows.remove(streamId);
+                                notifyAll();
+                            }
+                            break;
+                        case Http2Connection.GOAWAY:
+                            throw new IOException("Connection closed by the client");
+                        default:
+                            break;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void onHeaders(int streamId, int flags, byte[] payload, int length) throws IOException {
+            int offset = (flags & Http2Connection.FLAG_PADDED) != 0 ? 1 : 0;
+            int padding = offset == 1 ? payload[0] & 0xff : 0;
+
+            if ((flags & Http2Connection.FLAG_PRIORITY) != 0) offset += 5;
+
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            block.write(payload, offset, length - offset - padding);
+
+            byte[] header = new byte[9];
+
+            while ((flags & Http2Connection.FLAG_END_HEADERS) == 0) {
+                in.readFully(header);
+
+                int continuation = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+
+                if (header[3] != Http2Connection.CONTINUATION) throw new IOException("Expected CONTINUATION");
+
+                in.readFully(payload, 0, continuation);
+                block.write(payload, 0, continuation);
+                flags = (flags & Http2Connection.FLAG_END_STREAM) | header[4] & 0xff;
+            }
+
+            ArrayList<Header> fields = new ArrayList<>();
+            decoder.decode(block.toByteArray(), 0, block.size(), fields);
+
+            Request request = new Request(streamId, fields);
+
+            synchronized (this) {
+                requests.put(streamId, request);
+                streamWindows.put(streamId, new long[]{initialWindowSize});
+            }
+
+            if ((flags & Http2Connection.FLAG_END_STREAM) != 0) dispatch(request);
+        }
+
+        private void onData(int streamId, int flags, byte[] payload, int length) throws IOException {
+            Request request;
+
+            synchronized (this) {
+                request = requests.get(streamId);
+            }
+
+            int offset = (flags & Http2Connection.FLAG_PADDED) != 0 ? 1 : 0;
+            int padding = offset == 1 ? payload[0] & 0xff : 0;
+
+            if (request != null) request.body.write(payload, offset, length - offset - padding);
+
+            //the windows are granted back right away: the bodies are small
+            if (length > 0)
+                synchronized (writeLock) {
+                    byte[] increment = new byte[4];
+                    writeInt(increment, 0, length);
+                    writeFrame(Http2Connection.WINDOW_UPDATE, 0, 0, increment, 0, 4);
+                    if ((flags & Http2Connection.FLAG_END_STREAM) == 0)
+                        writeFrame(Http2Connection.WINDOW_UPDATE, 0, streamId, increment, 0, 4);
+                    out.flush();
+                }
+
+            if (request != null && (flags & Http2Connection.FLAG_END_STREAM) != 0) dispatch(request);
+        }
+
+        private void onSettings(byte[] payload, int length) throws IOException {
+            synchronized (writeLock) {
+                synchronized (this) {
+                    for (int i = 0; i < length; i += 6) {
+                        int id = (payload[i] & 0xff) << 8 | payload[i + 1] & 0xff;
+                        int value = readInt(payload, i + 2);
+
+                        if (id == Http2Connection.SETTINGS_HEADER_TABLE_SIZE) encoder.setMaxTableSize(value);
+
+                        if (id == Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE) {
+                            for (long[] window : streamWindows.values()) window[0] += value - initialWindowSize;
+                            initialWindowSize = value;
+                        }
+                    }
+
+                    notifyAll();
+                }
+
+                writeFrame(Http2Connection.SETTINGS, Http2Connection.FLAG_ACK, 0, payload, 0, 0);
+                out.flush();
+            }
+        }
+
+        private synchronized void onWindowUpdate(int streamId, int increment) {
+            if (streamId == 0) {
+                sendWindow += increment;
+            } else {
+                long[] window = streamWindows.get(streamId);
+                if (window != null) window[0] += increment;
+            }
+
+            notifyAll();
+        }
+
+        private void dispatch(final Request request) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handler.handle(request);
+                        } catch (IOException | RuntimeException e) {
+                            reset(request.streamId);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                reset(request.streamId);
+            }
+        }
+
+        /**
+         * Sends the headers of a response.
+         */
+        void sendHeaders(int streamId, List<Header> headers, boolean endStream) throws IOException {
+            synchronized (writeLock) {
+                ByteArrayOutputStream block = new ByteArrayOutputStream();
+                encoder.encode(headers, block);
+
+                byte[] bytes = block.toByteArray();
+                int flags = Http2Connection.FLAG_END_HEADERS | (endStream ? Http2Connection.FLAG_END_STREAM : 0);
+
+                writeFrame(Http2Connection.HEADERS, flags, streamId, bytes, 0, bytes.length);
+                out.flush();
+            }
+
+            if (endStream) finish(streamId);
+        }
+
+        /**
+         * Sends the body of a response, within the windows granted by the client.
+         */
+        void sendData(int streamId, byte[] body) throws IOException {
+            int offset = 0;
+
+            do {
+                int length;
+
+                synchronized (this) {
+                    long[] window = streamWindows.get(streamId);
+
+                    //cancelled by the client
+                    if (window == null) return;
+
+                    while (!closed && body.length > 0 && (sendWindow <= 0 || window[0] <= 0)) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                    }
+
+                    if (closed) throw new IOException("Connection closed");
+
+                    length = (int) Math.min(Math.min(body.length - offset, Http2Connection.DEFAULT_MAX_FRAME_SIZE), Math.min(sendWindow, window[0]));
+                    sendWindow -= length;
+                    window[0] -= length;
+                }
+
+                synchronized (writeLock) {
+                    boolean last = offset + length == body.length;
+                    writeFrame(Http2Connection.DATA, last ? Http2Connection.FLAG_END_STREAM : 0, streamId, body, offset, length);
+                    if (last) out.flush();
+                }
+
+                offset += length;
+            } while (offset < body.length);
+
+            finish(streamId);
+        }
+
+        private synchronized void finish(int streamId) {
+            requests.remove(streamId);
+            streamWindows.remove(streamId);
+        }
+
+        private void reset(int streamId) {
+            finish(streamId);
+
+            try {
+                synchronized (writeLock) {
+                    byte[] code = new byte[4];
+                    writeInt(code, 0, Http2Connection.CANCEL);
+                    writeFrame(Http2Connection.RST_STREAM, 0, streamId, code, 0, 4);
+                    out.flush();
+                }
+            } catch (IOException ignored) {}
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+
+        private void writeFrame(int type, int flags, int streamId, byte[] data, int offset, int length) throws IOException {
+            byte[] header = new byte[9];
+            header[0] = (byte) (length >>> 16);
+            header[1] = (byte) (length >>> 8);
+            header[2] = (byte) length;
+            header[3] = (byte) type;
+            header[4] = (byte) flags;
+            writeInt(header, 5, streamId);
+
+            out.write(header);
+            out.write(data, offset, length);
+        }
+
+        /**
+         * A request received on a stream, as seen by the handler.
+         */
+        private class Request extends HttpExchange {
+
+            final int streamId;
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            private final String method;
+            private final URI uri;
+            private final Headers requestHeaders = new Headers();
+            private final Headers responseHeaders = new Headers();
+            private final Map<String, Object> attributes = new HashMap<>();
+            private ByteArrayOutputStream responseBody;
+            private int responseCode = -1;
+
+            Request(int streamId, List<Header> fields) {
+                this.streamId = streamId;
+
+                String method = "GET";
+                String path = "/";
+
+                for (Header field : fields) {
+                    if (field.getName().equals(":method")) method = field.getValue();
+                    else if (field.getName().equals(":path")) path = field.getValue();
+                    else if (!field.getName().startsWith(":")) requestHeaders.add(field.getName(), field.getValue());
+                }
+
+                this.method = method;
+                uri = URI.create(path);
+            }
+
+            @Override
+            public Headers getRequestHeaders() {
+                return requestHeaders;
+            }
+
+            @Override
+            public Headers getResponseHeaders() {
+                return responseHeaders;
+            }
+
+            @Override
+            public URI getRequestURI() {
+                return uri;
+            }
+
+            @Override
+            public String getRequestMethod() {
+                return method;
+            }
+
+            @Override
+            public HttpContext getHttpContext() {
+                return null;
+            }
+
+            @Override
+            public void close() {
+                try {
+                    if (responseCode < 0) sendResponseHeaders(500, -1);
+                    else if (responseBody != null) getResponseBody().close();
+                } catch (IOException e) {
+                    reset(streamId);
+                }
+            }
+
+            @Override
+            public InputStream getRequestBody() {
+                return new ByteArrayInputStream(body.toByteArray());
+            }
+
+            @Override
+            public OutputStream getResponseBody() {
+                if (responseBody == null) {
+                    responseBody = new ByteArrayOutputStream() {
+
+                        private boolean sent;
+
+                        @Override
+                        public void close() throws IOException {
+                            if (sent) return;
+
+                            sent = true;
+                            sendData(streamId, toByteArray());
+                        }
+                    };
+                }
+
+                return responseBody;
+            }
+
+            @Override
+            public void sendResponseHeaders(int code, long length) throws IOException {
+                if (responseCode >= 0) throw new IOException("Headers already sent");
+
+                responseCode = code;
+
+                ArrayList<Header> fields = new ArrayList<>();
+                fields.add(new BasicHeader(":status", String.valueOf(code)));
+
+                for (Map.Entry<String, List<String>> header : responseHeaders.entrySet())
+                    for (String value : header.getValue())
+                        fields.add(new BasicHeader(header.getKey().toLowerCase(Locale.US), value));
+
+                if (length > 0) fields.add(new BasicHeader("content-length", String.valueOf(length)));
+
+                sendHeaders(streamId, fields, length == -1);
+            }
+
+            @Override
+            public InetSocketAddress getRemoteAddress() {
+                return (InetSocketAddress) socket.getRemoteSocketAddress();
+            }
+
+            @Override
+            public int getResponseCode() {
+                return responseCode;
+            }
+
+            @Override
+            public InetSocketAddress getLocalAddress() {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), getPort());
+            }
+
+            @Override
+            public String getProtocol() {
+                return "HTTP/2";
+            }
+
+            @Override
+            public Object getAttribute(String name) {
+                return attributes.get(name);
+            }
+
+            @Override
+            public void setAttribute(String name, Object value) {
+                attributes.put(name, value);
+            }
+
+            @Override
+            public void setStreams(InputStream input, OutputStream output) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public HttpPrincipal getPrincipal() {
+                return null;
+            }
+        }
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16 | (buffer[offset + 2] & 0xff) << 8 | buffer[offset + 3] & 0xff;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * CodecsTest class. <br />
+ * <br />
+ * The lenient readers of the primitive fields: a value of the wrong type gives the default of the field, and
+ * the rest of the object is still decoded.
+ */
+public class CodecsTest extends TestCase {
+
+    public void testFractionalIntGivesTheDefault() throws Exception {
+        Product product = read(Product.DATA, "{\"status\": true, \"data\": "
+                + "{\"id\": 3, \"stock_level\": 2.5, \"name\": \"Shoes\", \"brand_id\": 4}}");
+
+        assertNotNull(product);
+        assertEquals(3, product.id);
+        assertEquals(0, product.stockLevel);
+        assertEquals("Shoes", product.name);
+        assertEquals(4, product.brandId);
+    }
+
+    public void testNonNumericValuesGiveTheDefault() throws Exception {
+        Product product = read(Product.DATA, "{\"status\": true, \"data\": "
+                + "{\"id\": \"n/a\", \"price\": \"free\", \"category_id\": \"7\", \"stock_level\": \"2.0\"}}");
+
+        assertNotNull(product);
+        assertEquals(-1, product.id);
+        assertEquals(0.0, product.price);
+        assertEquals(7, product.categoryId);
+        assertEquals(2, product.stockLevel);
+    }
+
+    public void testListKeepsTheOtherItems() throws Exception {
+        ArrayList<Product> products = read(Product.LIST, "{\"status\": true, \"data\": ["
+                + "{\"id\": 1, \"stock_level\": 1.5}, {\"id\": 2, \"stock_level\": 10}]}");
+
+        assertNotNull(products);
+        assertEquals(2, products.size());
+        assertEquals(0, products.get(0).stockLevel);
+        assertEquals(2, products.get(1).id);
+        assertEquals(10, products.get(1).stockLevel);
+    }
+
+    private static <T> T read(Codec<T> codec, String json) throws Exception {
+        JsonReader reader = new JsonReader(new StringReader(json));
+
+        try {
+            return codec.read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Address class. <br />
+ * <br />
+ * Typed representation of an address. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class Address {
+
+    public int id = -1;
+    public String fullName;
+    public String email;
+    public String address1;
+    public String city;
+    public String state;
+    public String country;
+    public String postalCode;
+    public String phoneNumber;
+
+    /**
+     * Decodes an address.
+     */
+    public static final Codec<Address> CODEC = new Codec<Address>() {
+        @Override
+        public Address read(JsonReader reader) throws IOException, JSONException {
+            Address a = new Address();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        a.id = Codecs.readInt(reader, -1);
+                        break;
+                    case "full_name":
+                        a.fullName = Codecs.readString(reader);
+                        break;
+                    case "email":
+                        a.email = Codecs.readString(reader);
+                        break;
+                    case "address1":
+                        a.address1 = Codecs.readString(reader);
+                        break;
+                    case "city":
+                        a.city = Codecs.readString(reader);
+                        break;
+                    case "state":
+                        a.state = Codecs.readString(reader);
+                        break;
+                    case "country":
+                        a.country = Codecs.readString(reader);
+                        break;
+                    case "postal_code":
+                        a.postalCode = Codecs.readString(reader);
+                        break;
+                    case "phone_number":
+                        a.phoneNumber = Codecs.readString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return a;
+        }
+    };
+
+    /**
+     * Decodes the response of a request for a single address (null if the request failed).
+     */
+    public static final Codec<Address> DATA = Codecs.data(CODEC);
+
+    /**
+     * Decodes the response of a list request (null if the request failed).
+     */
+    public static final Codec<ArrayList<Address>> LIST = Codecs.list(CODEC);
+}
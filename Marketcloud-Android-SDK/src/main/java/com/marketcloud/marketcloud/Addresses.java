@@ -20,7 +20,10 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Addresses class. <br />
@@ -35,8 +38,10 @@ import java.util.concurrent.ExecutionException;
 public class Addresses {
 
     private String publicKey;
-    private Context context;
+    private Connect connect;
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
     private TokenManager tm;
 
     /**
@@ -47,10 +52,24 @@ public class Addresses {
      * @param ct application context
      */
     public Addresses(String key, TokenManager tokenManager, Context ct) {
+        this(key, tokenManager, ct, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key application public key
+     * @param tokenManager token manager
+     * @param ct application context
+     * @param conn the connection shared by the SDK
+     */
+    public Addresses(String key, TokenManager tokenManager, Context ct, Connect conn) {
         publicKey = key;
-        api = new Utilities(context, key);
+        connect = conn;
+        api = new Utilities(ct, key, conn);
+        dispatcher = conn.getDispatcher();
+        endpoint = conn.getEndpoints().addresses;
         tm = tokenManager;
-        context = ct;
     }
 
     /**
@@ -66,9 +85,9 @@ public class Addresses {
                 JSONObject jo = toJsonObject(name, email);
 
                 if (jo != null)
-                    return new Connect(context)
+                    return connect
                             .run("post",
-                                    "http://api.marketcloud.it/v0/addresses",
+                                    endpoint.url(),
                                     publicKey + ":" + tm.getSessionToken(),
                                     jo.toString());
 
@@ -76,6 +95,24 @@ public class Addresses {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(String, String)}.
+     *
+     * @param name name
+     * @param email e-mail address
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final String name, final String email, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(name, email);
+            }
+        }, callback);
+    }
+
     /**
      * Create a new address.
      *<br />
@@ -108,10 +145,10 @@ public class Addresses {
     @SuppressWarnings("unused")
     public JSONObject create(JSONObject jsonObject) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
-            return new Connect(context)
+            return connect
                     .run(
                             "post",
-                            "http://api.marketcloud.it/v0/addresses",
+                            endpoint.url(),
                             publicKey + ":" + tm.getSessionToken(),
                             jsonObject.toString())
                     ;
@@ -119,6 +156,23 @@ public class Addresses {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(JSONObject)}.
+     *
+     * @param jsonObject the address data
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final JSONObject jsonObject, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(jsonObject);
+            }
+        }, callback);
+    }
+
     /**
      * Create a new address.
      *<br />
@@ -151,16 +205,33 @@ public class Addresses {
     @SuppressWarnings("unused")
     public JSONObject create(String json) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
-            return new Connect(context)
+            return connect
                     .run(
                             "post",
-                            "http://api.marketcloud.it/v0/addresses",
+                            endpoint.url(),
                             publicKey + ":" + tm.getSessionToken(),
                             json)
                     ;
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(String)}.
+     *
+     * @param json the address data
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final String json, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(json);
+            }
+        }, callback);
+    }
+
     /**
      * Retrieve all the addresses of a user.
      *
@@ -169,10 +240,26 @@ public class Addresses {
     @SuppressWarnings("unused")
     public JSONObject get() throws ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
-            return api.getInstanceList("http://api.marketcloud.it/v0/addresses", tm.getSessionToken());
+            return api.getInstanceList(endpoint, tm.getSessionToken(), JsonStreamParser.OBJECT);
         else return null;
     }
 
+    /**
+     * Asynchronous version of {@link #get()}.
+     *
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> get(Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return get();
+            }
+        }, callback);
+    }
+
     /**
      * Retrieve an address by its id.
      *
@@ -182,10 +269,27 @@ public class Addresses {
     @SuppressWarnings("unused")
     public JSONObject getById(int id) throws InterruptedException, ExecutionException, JSONException {
         if (tm.getSessionToken() != null)
-            return api.getById("http://api.marketcloud.it/v0/addresses/", id, tm.getSessionToken());
+            return api.getById(endpoint, id, tm.getSessionToken(), JsonStreamParser.OBJECT);
         else return null;
     }
 
+    /**
+     * Asynchronous version of {@link #getById(int)}.
+     *
+     * @param id address id
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id);
+            }
+        }, callback);
+    }
+
     /**
      * Updates an address.
      *
@@ -200,10 +304,10 @@ public class Addresses {
             JSONObject jo = toJsonObject(name, email);
 
             if (jo != null)
-                return new Connect(context)
+                return connect
                         .run(
                                 "put",
-                                "http://api.marketcloud.it/v0/addresses/" + id,
+                                endpoint.url(id),
                                 publicKey + ":" + tm.getSessionToken(),
                                 jo.toString())
                         ;
@@ -212,6 +316,25 @@ public class Addresses {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(int, String, String)}.
+     *
+     * @param id address id
+     * @param name new name
+     * @param email new email
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final int id, final String name, final String email, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(id, name, email);
+            }
+        }, callback);
+    }
+
     /**
      * Update an address.
      *<br />
@@ -240,10 +363,10 @@ public class Addresses {
     @SuppressWarnings("unused")
     public JSONObject update(int id, JSONObject jsonObject) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
-            return new Connect(context)
+            return connect
                     .run(
                             "put",
-                            "http://api.marketcloud.it/v0/addresses/" + id,
+                            endpoint.url(id),
                             publicKey + ":" + tm.getSessionToken(),
                             jsonObject.toString())
                     ;
@@ -251,6 +374,24 @@ public class Addresses {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(int, JSONObject)}.
+     *
+     * @param id address id
+     * @param jsonObject information to update
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final int id, final JSONObject jsonObject, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(id, jsonObject);
+            }
+        }, callback);
+    }
+
     /**
      * Update an address.
      *<br />
@@ -279,10 +420,10 @@ public class Addresses {
     @SuppressWarnings("unused")
     public JSONObject update(int id, String json) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
-            return new Connect(context)
+            return connect
                     .run(
                             "put",
-                            "http://api.marketcloud.it/v0/addresses/" + id,
+                            endpoint.url(id),
                             publicKey + ":" + tm.getSessionToken(),
                             json)
                     ;
@@ -290,6 +431,24 @@ public class Addresses {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(int, String)}.
+     *
+     * @param id address id
+     * @param json information to update
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final int id, final String json, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(id, json);
+            }
+        }, callback);
+    }
+
     /**
      * Deletes an address.
      *
@@ -298,7 +457,24 @@ public class Addresses {
      */
     @SuppressWarnings("unused")
     public boolean delete(int id) throws InterruptedException, ExecutionException, JSONException {
-        return tm.getSessionToken() != null && (boolean) api.delete("http://api.marketcloud.it/v0/addresses/", id, tm.getSessionToken()).get("status");
+        return tm.getSessionToken() != null && Utilities.isSuccessful(api.delete(endpoint, id, tm.getSessionToken()));
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(int)}.
+     *
+     * @param id address id
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Boolean> delete(final int id, Callback<Boolean> callback) {
+        return dispatcher.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return delete(id);
+            }
+        }, callback);
     }
 
     /**
@@ -311,4 +487,62 @@ public class Addresses {
     private JSONObject toJsonObject(String name, String email) throws JSONException {
             return new JSONObject().put("full_name", name).put("email", email);
     }
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the address with the given ID, decoded into an {@link Address}.
+     *
+     * @param id the id of the address
+     * @return the address, or null if it does not exist or the user is not logged in
+     */
+    @SuppressWarnings("unused")
+    public Address getAddress(int id) {
+        if (tm.getSessionToken() != null)
+            return api.getById(endpoint, id, tm.getSessionToken(), Address.DATA);
+        else return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #getAddress(int)}.
+     *
+     * @param id the id of the address
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Address> getAddress(final int id, Callback<Address> callback) {
+        return dispatcher.submit(new Callable<Address>() {
+            @Override
+            public Address call() throws Exception {
+                return getAddress(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves all the addresses, decoded into {@link Address} objects.
+     *
+     * @return the addresses, or null if the request failed or the user is not logged in
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Address> listAddresses() {
+        if (tm.getSessionToken() != null)
+            return api.getInstanceList(endpoint, tm.getSessionToken(), Address.LIST);
+        else return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #listAddresses()}.
+     *
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Address>> listAddresses(Callback<ArrayList<Address>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Address>>() {
+            @Override
+            public ArrayList<Address> call() throws Exception {
+                return listAddresses();
+            }
+        }, callback);
+    }
+}
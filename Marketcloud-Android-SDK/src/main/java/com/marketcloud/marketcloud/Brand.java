@@ -0,0 +1,82 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Brand class. <br />
+ * <br />
+ * Typed representation of a brand. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class Brand {
+
+    public int id = -1;
+    public String name;
+    public String description;
+    public String imageUrl;
+
+    /**
+     * Decodes a brand.
+     */
+    public static final Codec<Brand> CODEC = new Codec<Brand>() {
+        @Override
+        public Brand read(JsonReader reader) throws IOException, JSONException {
+            Brand b = new Brand();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        b.id = Codecs.readInt(reader, -1);
+                        break;
+                    case "name":
+                        b.name = Codecs.readString(reader);
+                        break;
+                    case "description":
+                        b.description = Codecs.readString(reader);
+                        break;
+                    case "image_url":
+                        b.imageUrl = Codecs.readString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return b;
+        }
+    };
+
+    /**
+     * Decodes the response of a request for a single brand (null if the request failed).
+     */
+    public static final Codec<Brand> DATA = Codecs.data(CODEC);
+
+    /**
+     * Decodes the response of a list request (null if the request failed).
+     */
+    public static final Codec<ArrayList<Brand>> LIST = Codecs.list(CODEC);
+}
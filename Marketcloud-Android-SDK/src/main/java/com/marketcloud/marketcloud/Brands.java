@@ -20,8 +20,11 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Brands class. <br />
@@ -31,6 +34,8 @@ import java.util.concurrent.ExecutionException;
 public class Brands {
 
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
 
     /**
      * Contructor.
@@ -38,7 +43,20 @@ public class Brands {
      * @param key the public key to access the APIs
      */
     public Brands(String key, Context ct) {
-        api = new Utilities(ct, key);
+        this(key, ct, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key the public key to access the APIs
+     * @param ct application context
+     * @param connect the connection shared by the SDK
+     */
+    public Brands(String key, Context ct, Connect connect) {
+        api = new Utilities(ct, key, connect);
+        dispatcher = connect.getDispatcher();
+        endpoint = connect.getEndpoints().brands;
     }
 
     /**
@@ -49,7 +67,24 @@ public class Brands {
      */
     @SuppressWarnings("unused")
     public JSONObject getById(final int id) throws InterruptedException, ExecutionException, JSONException {
-        return api.getById("http://api.marketcloud.it/v0/brands/", id);
+        return api.getById(endpoint, id, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #getById(int)}.
+     *
+     * @param id the id of the brand that the user wants to retrieve
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id);
+            }
+        }, callback);
     }
 
     /**
@@ -60,6 +95,150 @@ public class Brands {
      */
     @SuppressWarnings("unused")
     public JSONObject list(HashMap<String, Object> map) throws ExecutionException, InterruptedException, JSONException {
-        return api.list("http://api.marketcloud.it/v0/brands?", map);
+        return api.list(endpoint, map, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #list(HashMap)}.
+     *
+     * @param map HashMap containing a list of filters
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> list(final HashMap<String, Object> map, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return list(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the brand with the given ID, decoded into a {@link Brand}.
+     *
+     * @param id the ID of the brand
+     * @return the brand, or null if it does not exist
+     */
+    @SuppressWarnings("unused")
+    public Brand getBrand(int id) {
+        return api.getById(endpoint, id, Brand.DATA);
+    }
+
+    /**
+     * Asynchronous version of {@link #getBrand(int)}.
+     *
+     * @param id the ID of the brand
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Brand> getBrand(final int id, Callback<Brand> callback) {
+        return dispatcher.submit(new Callable<Brand>() {
+            @Override
+            public Brand call() throws Exception {
+                return getBrand(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the brands that comply with the filters, decoded into {@link Brand} objects.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @return the brands that comply with the filters, or null if the request failed
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Brand> listBrands(HashMap<String, Object> map) {
+        return api.list(endpoint, map, Brand.LIST);
+    }
+
+    /**
+     * Asynchronous version of {@link #listBrands(HashMap)}.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Brand>> listBrands(final HashMap<String, Object> map, Callback<ArrayList<Brand>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Brand>>() {
+            @Override
+            public ArrayList<Brand> call() throws Exception {
+                return listBrands(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Returns a pager over the brands that comply with the filters. The next page is downloaded in background
+     * while the current one is consumed.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param pageSize number of brands per page
+     * @return the pager
+     */
+    @SuppressWarnings("unused")
+    public Pager<Brand> pager(HashMap<String, Object> map, int pageSize) {
+        return new Pager<>(api, dispatcher, endpoint, map, Brand.CODEC, pageSize, Pager.DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Retrieves the brands with the given IDs, in the same order. Duplicated and cached IDs are not requested
+     * again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the brands
+     * @return the data of the brands; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<JSONObject> getByIds(int... ids) {
+        return api.getByIds(endpoint, JsonStreamParser.OBJECT, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getByIds(int...)}.
+     *
+     * @param ids the IDs of the brands
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<JSONObject>> getByIds(final int[] ids, Callback<ArrayList<JSONObject>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<JSONObject>>() {
+            @Override
+            public ArrayList<JSONObject> call() throws Exception {
+                return getByIds(ids);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the brands with the given IDs, decoded into {@link Brand} objects, in the same order.
+     * Duplicated and cached IDs are not requested again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the brands
+     * @return the brands; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Brand> getBrands(int... ids) {
+        return api.getByIds(endpoint, Brand.DATA, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getBrands(int...)}.
+     *
+     * @param ids the IDs of the brands
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Brand>> getBrands(final int[] ids, Callback<ArrayList<Brand>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Brand>>() {
+            @Override
+            public ArrayList<Brand> call() throws Exception {
+                return getBrands(ids);
+            }
+        }, callback);
     }
-}
\ No newline at end of file
+}
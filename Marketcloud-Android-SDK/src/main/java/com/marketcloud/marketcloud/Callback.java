@@ -0,0 +1,41 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+/**
+ * Callback interface. <br />
+ * <br />
+ * Receives the result of an asynchronous request. The methods are called on the main thread (if the application
+ * has one), and they are not called at all if the request has been cancelled.
+ *
+ * @param <T> type of the result
+ */
+public interface Callback<T> {
+
+    /**
+     * Called when the request completes.
+     *
+     * @param result the result of the request (may be null, as for the synchronous methods)
+     */
+    void onSuccess(T result);
+
+    /**
+     * Called when the request throws an exception or cannot be scheduled.
+     *
+     * @param error the cause of the failure
+     */
+    void onFailure(Throwable error);
+}
@@ -0,0 +1,82 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Cart class. <br />
+ * <br />
+ * Typed representation of a cart. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class Cart {
+
+    public int id = -1;
+    public int userId = -1;
+    public CartItem[] items;
+
+    /**
+     * Decodes a cart.
+     */
+    public static final Codec<Cart> CODEC = new Codec<Cart>() {
+        @Override
+        public Cart read(JsonReader reader) throws IOException, JSONException {
+            Cart c = new Cart();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        c.id = Codecs.readInt(reader, -1);
+                        break;
+                    case "user_id":
+                        c.userId = Codecs.readInt(reader, -1);
+                        break;
+                    case "items":
+                        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                            ArrayList<CartItem> items = Codecs.readArray(reader, CartItem.CODEC);
+                            c.items = items.toArray(new CartItem[items.size()]);
+                        } else reader.skipValue();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return c;
+        }
+    };
+
+    /**
+     * Decodes the response of a request for a single cart (null if the request failed).
+     */
+    public static final Codec<Cart> DATA = Codecs.data(CODEC);
+
+    /**
+     * Decodes the response of a list request (null if the request failed).
+     */
+    public static final Codec<ArrayList<Cart>> LIST = Codecs.list(CODEC);
+}
@@ -0,0 +1,178 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+
+/**
+ * CartBatcher class. <br />
+ * <br />
+ * Buffers the asynchronous changes to the carts for a short window: the changes to the same cart that arrive
+ * within the window are merged into a single {@link CartPatch} and sent with one PATCH request, and every
+ * caller receives the cart returned by that request. <br />
+ * The batches of a cart are sent one at a time, in order: the updates and the removes do not commute, so a batch
+ * whose window expires while the previous one is in flight keeps collecting changes, and is sent when the
+ * previous one completes.
+ */
+final class CartBatcher {
+
+    private final Connect connect;
+    private final String publicKey;
+    private final TokenManager tm;
+    private final HashMap<String, Batch> batches = new HashMap<>();
+    //the carts with a batch in flight
+    private final HashSet<String> sending = new HashSet<>();
+    private volatile long window;
+
+    /**
+     * Constructor.
+     *
+     * @param connect the connection that will send the requests
+     * @param publicKey application public key
+     * @param tokenManager token manager
+     * @param window length of the window, in milliseconds
+     */
+    CartBatcher(Connect connect, String publicKey, TokenManager tokenManager, long window) {
+        this.connect = connect;
+        this.publicKey = publicKey;
+        this.tm = tokenManager;
+        this.window = window;
+    }
+
+    long getWindow() {
+        return window;
+    }
+
+    void setWindow(long window) {
+        this.window = window;
+    }
+
+    /**
+     * Adds a change to the batch of a cart, opening the batch if needed.
+     *
+     * @param id cart id
+     * @param token true if token needed, false if not
+     * @param change the change
+     * @param callback receives the cart after the whole batch has been applied
+     * @return a future that can be used to wait for the result or to cancel the notification
+     */
+    synchronized Future<JSONObject> enqueue(int id, boolean token, CartPatch change, Callback<JSONObject> callback) {
+        String key = id + (token ? ":token" : "");
+        Batch batch = batches.get(key);
+
+        if (batch == null) {
+            batch = new Batch(key, id, token);
+            batches.put(key, batch);
+            connect.getDispatcher().schedule(batch, window);
+        }
+
+        batch.patch.putAll(change);
+
+        final Batch b = batch;
+        RunnableFuture<JSONObject> waiter = connect.getDispatcher().prepare(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                if (b.error instanceof Error) throw (Error) b.error;
+                if (b.error != null) throw (Exception) b.error;
+
+                return b.result;
+            }
+        }, callback);
+
+        batch.waiters.add(waiter);
+
+        return waiter;
+    }
+
+    /**
+     * The changes to a cart collected during a window, and the callers waiting for them.
+     */
+    private class Batch implements Runnable {
+
+        final String key;
+        final int id;
+        final boolean token;
+        final CartPatch patch = new CartPatch();
+        final ArrayList<RunnableFuture<JSONObject>> waiters = new ArrayList<>();
+        JSONObject result;
+        Throwable error;
+        //the window has expired (guarded by the batcher)
+        boolean due;
+
+        Batch(String key, int id, boolean token) {
+            this.key = key;
+            this.id = id;
+            this.token = token;
+        }
+
+        @Override
+        public void run() {
+            synchronized (CartBatcher.this) {
+                if (sending.contains(key)) {
+                    //sent by the thread of the batch in flight, when it completes
+                    due = true;
+                    return;
+                }
+
+                //the changes arriving from now on go to a new batch
+                batches.remove(key);
+                sending.add(key);
+            }
+
+            Batch next = this;
+
+            while (next != null) next = next.send();
+        }
+
+        /**
+         * Sends the batch and notifies its callers.
+         *
+         * @return the next batch of the cart, if its window has already expired, or null
+         */
+        private Batch send() {
+            try {
+                result = connect.run(
+                        "patch",
+                        connect.getEndpoints().carts.url(id),
+                        token ? publicKey + ":" + tm.getSessionToken() : publicKey,
+                        patch.toJson());
+            } catch (Throwable t) {
+                error = t;
+            }
+
+            for (RunnableFuture<JSONObject> waiter : waiters) waiter.run();
+
+            synchronized (CartBatcher.this) {
+                Batch next = batches.get(key);
+
+                if (next == null || !next.due) {
+                    sending.remove(key);
+                    return null;
+                }
+
+                batches.remove(key);
+                return next;
+            }
+        }
+    }
+}
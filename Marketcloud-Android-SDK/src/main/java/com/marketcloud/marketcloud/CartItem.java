@@ -0,0 +1,71 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * CartItem class. <br />
+ * <br />
+ * Typed representation of an item of a cart or of an order. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class CartItem {
+
+    public int productId = -1;
+    public int quantity;
+    public String name;
+    public double price;
+
+    /**
+     * Decodes an item of a cart or of an order.
+     */
+    public static final Codec<CartItem> CODEC = new Codec<CartItem>() {
+        @Override
+        public CartItem read(JsonReader reader) throws IOException, JSONException {
+            CartItem c = new CartItem();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "product_id":
+                        c.productId = Codecs.readInt(reader, -1);
+                        break;
+                    case "quantity":
+                        c.quantity = Codecs.readInt(reader, 0);
+                        break;
+                    case "name":
+                        c.name = Codecs.readString(reader);
+                        break;
+                    case "price":
+                        c.price = Codecs.readDouble(reader, 0);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return c;
+        }
+    };
+}
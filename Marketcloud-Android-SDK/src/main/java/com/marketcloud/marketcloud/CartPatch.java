@@ -0,0 +1,206 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CartPatch class. <br />
+ * <br />
+ * A set of add, update and remove operations on the items of a cart, coalesced per product: consecutive adds
+ * are summed, and an update or a remove replaces everything that came before it. However many operations have
+ * been merged, the patch is sent as at most three operations (remove, update, add) in a single PATCH request.
+ */
+final class CartPatch {
+
+    static final String ADD = "ADD";
+    static final String UPDATE = "UPDATE";
+    static final String REMOVE = "REMOVE";
+
+    private final LinkedHashMap<Integer, Op> ops = new LinkedHashMap<>();
+
+    /**
+     * Merges an operation, applied after the ones already in the patch.
+     *
+     * @param type ADD, UPDATE or REMOVE
+     * @param productId product id
+     * @param quantity quantity to add or to set (ignored by REMOVE)
+     */
+    void put(String type, int productId, int quantity) {
+        Op op = new Op(type, quantity);
+        Op previous = ops.get(productId);
+
+        ops.put(productId, previous != null ? previous.then(op) : op);
+    }
+
+    /**
+     * Merges all the operations of a later patch.
+     *
+     * @param later the patch applied after this one
+     */
+    void putAll(CartPatch later) {
+        for (Map.Entry<Integer, Op> e : later.ops.entrySet()) put(e.getValue().type, e.getKey(), e.getValue().quantity);
+    }
+
+    /**
+     * Removes the operations on the products of another patch.
+     *
+     * @param other the patch whose products are removed
+     */
+    void removeAll(CartPatch other) {
+        ops.keySet().removeAll(other.ops.keySet());
+    }
+
+    /**
+     * Splits the patch in one patch per product, in order.
+     *
+     * @return the patches
+     */
+    List<CartPatch> split() {
+        ArrayList<CartPatch> patches = new ArrayList<>(ops.size());
+
+        for (Map.Entry<Integer, Op> e : ops.entrySet()) {
+            CartPatch patch = new CartPatch();
+            patch.ops.put(e.getKey(), e.getValue());
+            patches.add(patch);
+        }
+
+        return patches;
+    }
+
+    /**
+     * Reports the operations to a listener, as rejected.
+     *
+     * @param listener the listener
+     * @param statusCode status code of the rejection
+     */
+    void report(LocalCart.RejectionListener listener, int statusCode) {
+        for (Map.Entry<Integer, Op> e : ops.entrySet())
+            listener.onRejected(e.getValue().type, e.getKey(), e.getValue().quantity, statusCode);
+    }
+
+    boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    int size() {
+        return ops.size();
+    }
+
+    /**
+     * Applies the operations to a set of items.
+     *
+     * @param items the items, as product id -> quantity
+     */
+    void applyTo(Map<Integer, Integer> items) {
+        for (Map.Entry<Integer, Op> e : ops.entrySet()) {
+            int productId = e.getKey();
+            Op op = e.getValue();
+
+            switch (op.type) {
+                case ADD:
+                    Integer q = items.get(productId);
+                    items.put(productId, (q != null ? q : 0) + op.quantity);
+                    break;
+                case UPDATE:
+                    items.put(productId, op.quantity);
+                    break;
+                default:
+                    items.remove(productId);
+            }
+        }
+    }
+
+    /**
+     * Builds the body of the PATCH request: one operation per type, separated by commas (Connect wraps the body
+     * in an array).
+     *
+     * @return the body
+     */
+    String toJson() throws JSONException {
+        StringBuilder sb = new StringBuilder();
+
+        for (String type : new String[]{REMOVE, UPDATE, ADD}) {
+            JSONArray array = new JSONArray();
+
+            for (Map.Entry<Integer, Op> e : ops.entrySet()) {
+                if (!e.getValue().type.equals(type)) continue;
+
+                JSONObject item = new JSONObject().put("product_id", (int) e.getKey());
+                if (!type.equals(REMOVE)) item.put("quantity", e.getValue().quantity);
+
+                array.put(item);
+            }
+
+            if (array.length() == 0) continue;
+
+            if (sb.length() > 0) sb.append(',');
+
+            sb.append(new JSONObject().put("op", type.toLowerCase()).put("items", array));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Writes the operations, one per line ("TYPE productId quantity").
+     *
+     * @param writer the destination
+     */
+    void write(Writer writer) throws IOException {
+        for (Map.Entry<Integer, Op> e : ops.entrySet())
+            writer.write(e.getValue().type + " " + e.getKey() + " " + e.getValue().quantity + "\n");
+    }
+
+    /**
+     * A coalesced operation on a product.
+     */
+    private static class Op {
+
+        final String type;
+        final int quantity;
+
+        Op(String type, int quantity) {
+            this.type = type;
+            this.quantity = quantity;
+        }
+
+        /**
+         * Returns the operation equivalent to this one followed by the given one.
+         */
+        Op then(Op next) {
+            if (!next.type.equals(ADD)) return next;
+
+            switch (type) {
+                case ADD:
+                    return new Op(ADD, quantity + next.quantity);
+                case UPDATE:
+                    return new Op(UPDATE, quantity + next.quantity);
+                default:
+                    return new Op(UPDATE, next.quantity);
+            }
+        }
+    }
+}
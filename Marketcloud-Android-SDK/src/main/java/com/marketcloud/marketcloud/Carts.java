@@ -21,7 +21,12 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Carts class. <br />
@@ -34,10 +39,18 @@ import java.util.concurrent.ExecutionException;
  */
 public class Carts {
 
-    private String publicKey;
+    public static final long DEFAULT_COALESCE_WINDOW = 150;
+
     private Context context;
+    private String publicKey;
+    private Connect connect;
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
     private TokenManager tm;
+    private HashMap<Integer, LocalCart> localCarts = new HashMap<>();
+    private CartBatcher batcher;
+    private volatile boolean idempotencyKeys;
 
     /**
      * Constructor.
@@ -47,10 +60,50 @@ public class Carts {
      * @param ct application context
      */
     public Carts(String key, TokenManager tokenManager, Context ct) {
+        this(key, tokenManager, ct, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key application public key
+     * @param tokenManager token manager
+     * @param ct application context
+     * @param conn the connection shared by the SDK
+     */
+    public Carts(String key, TokenManager tokenManager, Context ct, Connect conn) {
+        context = ct;
         publicKey = key;
-        api = new Utilities(ct, key);
+        connect = conn;
+        api = new Utilities(ct, key, conn);
+        dispatcher = conn.getDispatcher();
+        endpoint = conn.getEndpoints().carts;
         tm = tokenManager;
-        context = ct;
+        batcher = new CartBatcher(conn, key, tokenManager, DEFAULT_COALESCE_WINDOW);
+    }
+
+    /**
+     * Sets the window used to merge the asynchronous add, update and remove calls: the calls on the same cart
+     * that arrive within the window are sent as a single PATCH request, and all their callbacks receive the
+     * resulting cart.
+     *
+     * @param window length of the window, in milliseconds; 0 sends every call on its own
+     */
+    @SuppressWarnings("unused")
+    public void setCoalesceWindow(long window) {
+        batcher.setWindow(window);
+    }
+
+    /**
+     * Enables the idempotency keys: every create call sends a new {@value RetryPolicy#IDEMPOTENCY_KEY} header,
+     * so that a create that failed because of the network can be sent again by the {@link RetryPolicy}
+     * without creating the cart twice. The server must support the header.
+     *
+     * @param enabled true to send the keys
+     */
+    @SuppressWarnings("unused")
+    public void setIdempotencyKeys(boolean enabled) {
+        idempotencyKeys = enabled;
     }
 
     /**
@@ -69,25 +122,40 @@ public class Carts {
 
         if (jo != null)
             if (token)
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/carts",
-                                publicKey + ":" + tm.getSessionToken(),
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey + ":" + tm.getSessionToken(),
+                        jo.toString());
             else
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/carts",
-                                publicKey,
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey,
+                        jo.toString());
 
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(int, Object[][], boolean)}.
+     *
+     * @param userid   the id of the user that is creating the cart
+     * @param products the list of products that will be added to the cart
+     * @param token true if token needed, false if not
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final int userid, final Object[][] products, final boolean token, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(userid, products, token);
+            }
+        }, callback);
+    }
+
     /**
      * Creates a new cart.
      *
@@ -102,25 +170,39 @@ public class Carts {
 
         if (jo != null)
             if (token)
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/carts",
-                                publicKey + ":" + tm.getSessionToken(),
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey + ":" + tm.getSessionToken(),
+                        jo.toString());
             else
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/carts",
-                                publicKey,
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey,
+                        jo.toString());
 
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(Object[][], boolean)}.
+     *
+     * @param products the list of products that will be added to the cart
+     * @param token true if token needed, false if not
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final Object[][] products, final boolean token, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(products, token);
+            }
+        }, callback);
+    }
+
     /**
      * Creates a new cart.
      *
@@ -137,25 +219,40 @@ public class Carts {
 
         if (jo != null)
             if (token)
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/carts",
-                                publicKey + ":" + tm.getSessionToken(),
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey + ":" + tm.getSessionToken(),
+                        jo.toString());
             else
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/carts",
-                                publicKey,
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey,
+                        jo.toString());
 
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(int, JSONArray, boolean)}.
+     *
+     * @param userid the id of the user that is creating the cart
+     * @param products the list of products that will be added to the cart
+     * @param token true if token needed, false if not
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final int userid, final JSONArray products, final boolean token, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(userid, products, token);
+            }
+        }, callback);
+    }
+
     /**
      * Creates a new cart.
      *
@@ -170,24 +267,38 @@ public class Carts {
 
         if (jo != null)
             if (token)
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/carts",
-                                publicKey + ":" + tm.getSessionToken(),
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey + ":" + tm.getSessionToken(),
+                        jo.toString());
             else
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/carts",
-                                publicKey,
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey,
+                        jo.toString());
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(JSONArray, boolean)}.
+     *
+     * @param products the list of products that will be added to the cart
+     * @param token true if token needed, false if not
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final JSONArray products, final boolean token, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(products, token);
+            }
+        }, callback);
+    }
+
     /**
      * Returns the data of a specific cart.
      *
@@ -199,9 +310,27 @@ public class Carts {
     public JSONObject getById(int id, boolean token) throws InterruptedException, ExecutionException, JSONException {
         if (token)
             if (tm.getSessionToken() != null)
-                return api.getById("http://api.marketcloud.it/v0/carts/", id, tm.getSessionToken());
+                return api.getById(endpoint, id, tm.getSessionToken(), JsonStreamParser.OBJECT);
             else return null;
-        else return api.getById("http://api.marketcloud.it/v0/carts/", id);
+        else return api.getById(endpoint, id, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #getById(int, boolean)}.
+     *
+     * @param id the id of the desired cart
+     * @param token true if token needed, false if not
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, final boolean token, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id, token);
+            }
+        }, callback);
     }
 
     /**
@@ -218,24 +347,46 @@ public class Carts {
 
         if (jo != null)
             if (token)
-                return new Connect(context)
+                return connect
                         .run(
                                 "patch",
-                                "http://api.marketcloud.it/v0/carts/" + id,
+                                endpoint.url(id),
                                 publicKey + ":" + tm.getSessionToken(),
                                 jo.toString())
                         ;
             else
-                return new Connect(context)
+                return connect
                         .run(
                                 "patch",
-                                "http://api.marketcloud.it/v0/carts/" + id,
+                                endpoint.url(id),
                                 publicKey,
                                 jo.toString());
 
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #add(int, Object[][], boolean)}.
+     * The calls on the same cart within the coalesce window are merged into a single request (see
+     * {@link #setCoalesceWindow(long)}), and the callback receives the cart after all of them.
+     *
+     * @param id cart id
+     * @param products list of products to update, in the form {product_id, quantity_to_add}
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> add(final int id, final Object[][] products, final boolean token, Callback<JSONObject> callback) {
+        if (batcher.getWindow() > 0) return batcher.enqueue(id, token, toPatch(CartPatch.ADD, products), callback);
+
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return add(id, products, token);
+            }
+        }, callback);
+    }
+
     /**
      * Remove some products from the cart.
      *
@@ -250,23 +401,45 @@ public class Carts {
 
         if (jo != null)
             if (token)
-                    return new Connect(context)
+                    return connect
                             .run(
                                     "patch",
-                                    "http://api.marketcloud.it/v0/carts/" + id,
+                                    endpoint.url(id),
                                     publicKey + ":" + tm.getSessionToken(),
                                     jo.toString());
             else
-                    return new Connect(context)
+                    return connect
                             .run(
                                     "patch",
-                                    "http://api.marketcloud.it/v0/carts/" + id,
+                                    endpoint.url(id),
                                     publicKey,
                                     jo.toString());
 
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #remove(int, Object[], boolean)}.
+     * The calls on the same cart within the coalesce window are merged into a single request (see
+     * {@link #setCoalesceWindow(long)}), and the callback receives the cart after all of them.
+     *
+     * @param id       cart id
+     * @param products list of products that will be removed
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> remove(final int id, final Object[] products, final boolean token, Callback<JSONObject> callback) {
+        if (batcher.getWindow() > 0) return batcher.enqueue(id, token, toPatch(CartPatch.REMOVE, products), callback);
+
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return remove(id, products, token);
+            }
+        }, callback);
+    }
+
     /**
      * Updates the quantity of some products in the cart to a specified quantity.
      * Note: returns null if the quantity is not available.
@@ -282,18 +455,18 @@ public class Carts {
 
         if (jo != null)
             if (token)
-                    return new Connect(context)
+                    return connect
                             .run(
                                     "patch",
-                                    "http://api.marketcloud.it/v0/carts/" + id,
+                                    endpoint.url(id),
                                     publicKey + ":" + tm.getSessionToken(),
                                     jo.toString())
                             ;
             else
-                return new Connect(context)
+                return connect
                         .run(
                                 "patch",
-                                "http://api.marketcloud.it/v0/carts/" + id,
+                                endpoint.url(id),
                                 publicKey,
                                 jo.toString())
                         ;
@@ -301,6 +474,28 @@ public class Carts {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(int, Object[][], boolean)}.
+     * The calls on the same cart within the coalesce window are merged into a single request (see
+     * {@link #setCoalesceWindow(long)}), and the callback receives the cart after all of them.
+     *
+     * @param id       cart id
+     * @param products list of products that will be updated, in the form {product_id, new_quantity}
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final int id, final Object[][] products, final boolean token, Callback<JSONObject> callback) {
+        if (batcher.getWindow() > 0) return batcher.enqueue(id, token, toPatch(CartPatch.UPDATE, products), callback);
+
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(id, products, token);
+            }
+        }, callback);
+    }
+
     /**
      * Deletes a cart.
      *
@@ -309,7 +504,24 @@ public class Carts {
      */
     @SuppressWarnings("unused")
     public boolean delete(int id) throws InterruptedException, ExecutionException, JSONException {
-        return tm.getSessionToken() != null && (boolean) api.delete("http://api.marketcloud.it/v0/carts/", id, tm.getSessionToken()).get("status");
+        return tm.getSessionToken() != null && Utilities.isSuccessful(api.delete(endpoint, id, tm.getSessionToken()));
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(int)}.
+     *
+     * @param id cart id
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Boolean> delete(final int id, Callback<Boolean> callback) {
+        return dispatcher.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return delete(id);
+            }
+        }, callback);
     }
 
     /**
@@ -318,7 +530,7 @@ public class Carts {
      * @param array the array that will be converted
      * @return the json array
      */
-    private JSONArray toJsonArray(Object[][] array) throws JSONException {
+    static JSONArray toJsonArray(Object[][] array) throws JSONException {
         JSONArray jsonArray = new JSONArray();
 
         for (Object[] i : array) {
@@ -337,7 +549,7 @@ public class Carts {
      * @param array the array that will be converted
      * @return the json array
      */
-    private JSONArray toJsonArray(Object[] array) throws JSONException {
+    static JSONArray toJsonArray(Object[] array) throws JSONException {
         JSONArray jsonArray = new JSONArray();
 
         for (Object i : array) {
@@ -349,6 +561,46 @@ public class Carts {
         return jsonArray;
     }
 
+    /**
+     * Sends a create request, with an idempotency key if enabled.
+     *
+     * @param params the parameters of the request
+     * @return the response of the server
+     */
+    private JSONObject post(String... params) {
+        return idempotencyKeys ? connect.runIdempotent(params) : connect.run(params);
+    }
+
+    /**
+     * Converts a list of products into a cart patch.
+     *
+     * @param type operation type
+     * @param products list of products, in the form {product_id, quantity}
+     * @return the patch
+     */
+    private CartPatch toPatch(String type, Object[][] products) {
+        CartPatch patch = new CartPatch();
+
+        for (Object[] i : products) patch.put(type, (int) i[0], (int) i[1]);
+
+        return patch;
+    }
+
+    /**
+     * Converts a list of product ids into a cart patch.
+     *
+     * @param type operation type
+     * @param products list of product ids
+     * @return the patch
+     */
+    private CartPatch toPatch(String type, Object[] products) {
+        CartPatch patch = new CartPatch();
+
+        for (Object i : products) patch.put(type, (int) i, 0);
+
+        return patch;
+    }
+
     /**
      * Creates a JSON object with the given parameters.
      *
@@ -367,7 +619,7 @@ public class Carts {
      * @param jsonArray the array of the items
      * @return a JSONObject with the given data
      */
-    private JSONObject toJsonObjectPatch(String op, JSONArray jsonArray) throws JSONException {
+    static JSONObject toJsonObjectPatch(String op, JSONArray jsonArray) throws JSONException {
         return new JSONObject().put("op", op).put("items", jsonArray);
     }
 
@@ -380,4 +632,60 @@ public class Carts {
     private JSONObject toJsonObject(JSONArray jsonArray) throws JSONException {
         return new JSONObject().put("items", jsonArray);
     }
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the cart with the given ID, decoded into a {@link Cart}.
+     *
+     * @param id the id of the desired cart
+     * @param token true if token needed, false if not
+     * @return the cart, or null if it does not exist
+     */
+    @SuppressWarnings("unused")
+    public Cart getCart(int id, boolean token) {
+        if (token)
+            if (tm.getSessionToken() != null)
+                return api.getById(endpoint, id, tm.getSessionToken(), Cart.DATA);
+            else return null;
+        else return api.getById(endpoint, id, Cart.DATA);
+    }
+
+    /**
+     * Asynchronous version of {@link #getCart(int, boolean)}.
+     *
+     * @param id the id of the desired cart
+     * @param token true if token needed, false if not
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Cart> getCart(final int id, final boolean token, Callback<Cart> callback) {
+        return dispatcher.submit(new Callable<Cart>() {
+            @Override
+            public Cart call() throws Exception {
+                return getCart(id, token);
+            }
+        }, callback);
+    }
+
+    /**
+     * Returns the local copy of a cart: the operations are applied immediately on the device and sent to the
+     * server in background (see {@link LocalCart}). The same instance is returned for the same cart.
+     *
+     * @param id cart id
+     * @param token true if token needed, false if not
+     * @return the local cart
+     */
+    @SuppressWarnings("unused")
+    public synchronized LocalCart local(int id, boolean token) {
+        LocalCart cart = localCarts.get(id);
+
+        if (cart == null) {
+            File log = context != null ? new File(new File(context.getFilesDir(), "marketcloud-carts"), id + ".log") : null;
+
+            cart = new LocalCart(connect, id, publicKey, tm, token, log);
+            localCarts.put(id, cart);
+        }
+
+        return cart;
+    }
+}
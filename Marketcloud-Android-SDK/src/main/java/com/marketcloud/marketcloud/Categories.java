@@ -20,8 +20,11 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Categories class. <br />
@@ -31,6 +34,8 @@ import java.util.concurrent.ExecutionException;
 public class Categories {
 
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
 
     /**
      * Creates a new Categories object.
@@ -38,7 +43,20 @@ public class Categories {
      * @param key the public key to access the APIs
      */
     public Categories(String key, Context ct) {
-        api = new Utilities(ct, key);
+        this(key, ct, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key the public key to access the APIs
+     * @param ct application context
+     * @param connect the connection shared by the SDK
+     */
+    public Categories(String key, Context ct, Connect connect) {
+        api = new Utilities(ct, key, connect);
+        dispatcher = connect.getDispatcher();
+        endpoint = connect.getEndpoints().categories;
     }
 
     /**
@@ -49,7 +67,24 @@ public class Categories {
      */
     @SuppressWarnings("unused")
     public JSONObject getById(final int id) throws InterruptedException, ExecutionException, JSONException {
-        return api.getById("http://api.marketcloud.it/v0/categories/", id);
+        return api.getById(endpoint, id, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #getById(int)}.
+     *
+     * @param id the id of the category that the user wants to retrieve
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id);
+            }
+        }, callback);
     }
 
     /**
@@ -60,6 +95,150 @@ public class Categories {
      */
     @SuppressWarnings("unused")
     public JSONObject list(HashMap<String, Object> map) throws ExecutionException, InterruptedException, JSONException {
-        return api.list("http://api.marketcloud.it/v0/categories?", map);
+        return api.list(endpoint, map, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #list(HashMap)}.
+     *
+     * @param map HashMap containing a list of filters
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> list(final HashMap<String, Object> map, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return list(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the category with the given ID, decoded into a {@link Category}.
+     *
+     * @param id the ID of the category
+     * @return the category, or null if it does not exist
+     */
+    @SuppressWarnings("unused")
+    public Category getCategory(int id) {
+        return api.getById(endpoint, id, Category.DATA);
+    }
+
+    /**
+     * Asynchronous version of {@link #getCategory(int)}.
+     *
+     * @param id the ID of the category
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Category> getCategory(final int id, Callback<Category> callback) {
+        return dispatcher.submit(new Callable<Category>() {
+            @Override
+            public Category call() throws Exception {
+                return getCategory(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the categories that comply with the filters, decoded into {@link Category} objects.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @return the categories that comply with the filters, or null if the request failed
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Category> listCategories(HashMap<String, Object> map) {
+        return api.list(endpoint, map, Category.LIST);
+    }
+
+    /**
+     * Asynchronous version of {@link #listCategories(HashMap)}.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Category>> listCategories(final HashMap<String, Object> map, Callback<ArrayList<Category>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Category>>() {
+            @Override
+            public ArrayList<Category> call() throws Exception {
+                return listCategories(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Returns a pager over the categories that comply with the filters. The next page is downloaded in background
+     * while the current one is consumed.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param pageSize number of categories per page
+     * @return the pager
+     */
+    @SuppressWarnings("unused")
+    public Pager<Category> pager(HashMap<String, Object> map, int pageSize) {
+        return new Pager<>(api, dispatcher, endpoint, map, Category.CODEC, pageSize, Pager.DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Retrieves the categories with the given IDs, in the same order. Duplicated and cached IDs are not requested
+     * again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the categories
+     * @return the data of the categories; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<JSONObject> getByIds(int... ids) {
+        return api.getByIds(endpoint, JsonStreamParser.OBJECT, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getByIds(int...)}.
+     *
+     * @param ids the IDs of the categories
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<JSONObject>> getByIds(final int[] ids, Callback<ArrayList<JSONObject>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<JSONObject>>() {
+            @Override
+            public ArrayList<JSONObject> call() throws Exception {
+                return getByIds(ids);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the categories with the given IDs, decoded into {@link Category} objects, in the same order.
+     * Duplicated and cached IDs are not requested again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the categories
+     * @return the categories; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Category> getCategories(int... ids) {
+        return api.getByIds(endpoint, Category.DATA, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getCategories(int...)}.
+     *
+     * @param ids the IDs of the categories
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Category>> getCategories(final int[] ids, Callback<ArrayList<Category>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Category>>() {
+            @Override
+            public ArrayList<Category> call() throws Exception {
+                return getCategories(ids);
+            }
+        }, callback);
     }
-}
\ No newline at end of file
+}
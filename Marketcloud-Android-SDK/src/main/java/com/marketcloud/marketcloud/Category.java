@@ -0,0 +1,82 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Category class. <br />
+ * <br />
+ * Typed representation of a category. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class Category {
+
+    public int id = -1;
+    public String name;
+    public String description;
+    public String imageUrl;
+
+    /**
+     * Decodes a category.
+     */
+    public static final Codec<Category> CODEC = new Codec<Category>() {
+        @Override
+        public Category read(JsonReader reader) throws IOException, JSONException {
+            Category c = new Category();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        c.id = Codecs.readInt(reader, -1);
+                        break;
+                    case "name":
+                        c.name = Codecs.readString(reader);
+                        break;
+                    case "description":
+                        c.description = Codecs.readString(reader);
+                        break;
+                    case "image_url":
+                        c.imageUrl = Codecs.readString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return c;
+        }
+    };
+
+    /**
+     * Decodes the response of a request for a single category (null if the request failed).
+     */
+    public static final Codec<Category> DATA = Codecs.data(CODEC);
+
+    /**
+     * Decodes the response of a list request (null if the request failed).
+     */
+    public static final Codec<ArrayList<Category>> LIST = Codecs.list(CODEC);
+}
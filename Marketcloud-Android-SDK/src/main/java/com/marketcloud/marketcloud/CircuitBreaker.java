@@ -0,0 +1,256 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CircuitBreaker class. <br />
+ * <br />
+ * Stops sending requests to an endpoint (see {@link TransferStats}) while the server is failing on it, so a
+ * degraded backend is not flooded by the retries of every screen, and the device does not spend battery on
+ * requests that are going to fail. <br />
+ * <br />
+ * Every endpoint has its own circuit, that starts closed: the outcomes of the last requests are kept in a
+ * rolling window, and when the share of the failures (no response, 408, 429 or 5xx) or of the slow requests
+ * exceeds its threshold the circuit opens. While open, the requests fail immediately, without reaching the
+ * network (the public GET requests of the catalog are answered from the disk cache, if it holds a copy). After
+ * the open time a single probe request is let through (half-open): if it succeeds the circuit closes, otherwise
+ * it opens again. <br />
+ * The transitions and the rejected requests are counted in the {@link Metrics}.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_REQUESTS = 10;
+    public static final double DEFAULT_FAILURE_RATE = 0.5;
+    public static final long DEFAULT_SLOW_CALL_DURATION = 5000;
+    public static final double DEFAULT_SLOW_CALL_RATE = 0.8;
+    public static final long DEFAULT_OPEN_DURATION = 10 * 1000;
+
+    /**
+     * The states of a circuit.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final int windowSize;
+    private final int minimumRequests;
+    private final double failureRate;
+    private final long slowCallNanos;
+    private final double slowCallRate;
+    private final long openNanos;
+
+    /**
+     * Constructor. Uses the default thresholds.
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_REQUESTS, DEFAULT_FAILURE_RATE, DEFAULT_SLOW_CALL_DURATION, DEFAULT_SLOW_CALL_RATE, DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param windowSize number of recent requests whose outcome is considered
+     * @param minimumRequests requests needed in the window before the circuit can open
+     * @param failureRate share of failed requests (between 0 and 1) that opens the circuit
+     * @param slowCallDuration time (in milliseconds) after which a request is slow
+     * @param slowCallRate share of slow requests (between 0 and 1) that opens the circuit
+     * @param openDuration time (in milliseconds) the circuit stays open before a probe is sent
+     */
+    public CircuitBreaker(int windowSize, int minimumRequests, double failureRate, long slowCallDuration, double slowCallRate, long openDuration) {
+        if (windowSize < 1 || minimumRequests < 1 || minimumRequests > windowSize)
+            throw new IllegalArgumentException("invalid window");
+
+        this.windowSize = windowSize;
+        this.minimumRequests = minimumRequests;
+        this.failureRate = failureRate;
+        this.slowCallNanos = slowCallDuration * 1000000;
+        this.slowCallRate = slowCallRate;
+        this.openNanos = openDuration * 1000000;
+    }
+
+    /**
+     * Returns the state of the circuit of an endpoint.
+     *
+     * @param endpoint endpoint name (e.g. "products")
+     * @return the state; CLOSED for an endpoint that has not been called
+     */
+    @SuppressWarnings("unused")
+    public State getState(String endpoint) {
+        Circuit c = circuits.get(endpoint);
+
+        if (c == null) return State.CLOSED;
+
+        synchronized (c) {
+            return c.state;
+        }
+    }
+
+    /**
+     * Closes all the circuits, e.g. when the network comes back.
+     */
+    @SuppressWarnings("unused")
+    public void reset() {
+        circuits.clear();
+    }
+
+    /**
+     * Tells if the outcome of a request counts as a failure of the server.
+     *
+     * @param statusCode status code, 0 if the request got no response
+     * @return true for no response, 408, 429 and the 5xx codes
+     */
+    public static boolean isFailure(int statusCode) {
+        return statusCode == 0 || statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * Tells if a request can be sent: always while the circuit of its endpoint is closed, never while it is
+     * open, and once as a probe when the open time has elapsed.
+     *
+     * @param url url of the request
+     * @param metrics receives the transitions and the rejections
+     * @return true if the request can be sent
+     */
+    boolean allow(String url, Metrics metrics) {
+        Circuit c = circuit(url);
+        long now = System.nanoTime();
+
+        synchronized (c) {
+            switch (c.state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (now - c.since >= openNanos) {
+                        c.moveTo(State.HALF_OPEN, now);
+                        metrics.recordCircuitState(url, State.HALF_OPEN);
+                        return true;
+                    }
+                    break;
+                case HALF_OPEN:
+                    //a probe that never completed (e.g. its thread was killed) does not block the circuit
+                    if (now - c.since >= openNanos) {
+                        c.since = now;
+                        return true;
+                    }
+                    break;
+            }
+        }
+
+        metrics.recordRejected(url);
+        return false;
+    }
+
+    /**
+     * Records the outcome of a request that was sent.
+     *
+     * @param url url of the request
+     * @param statusCode status code, 0 if the request got no response
+     * @param nanos duration of the request, in nanoseconds
+     * @param metrics receives the transitions
+     */
+    void record(String url, int statusCode, long nanos, Metrics metrics) {
+        Circuit c = circuit(url);
+        boolean failed = isFailure(statusCode);
+        boolean slow = nanos >= slowCallNanos;
+
+        synchronized (c) {
+            switch (c.state) {
+                case HALF_OPEN:
+                    State next = failed || slow ? State.OPEN : State.CLOSED;
+                    c.moveTo(next, System.nanoTime());
+                    metrics.recordCircuitState(url, next);
+                    break;
+                case CLOSED:
+                    c.add(failed, slow);
+
+                    if (c.count >= minimumRequests
+                            && (c.failures >= failureRate * c.count || c.slowCalls >= slowCallRate * c.count)) {
+                        c.moveTo(State.OPEN, System.nanoTime());
+                        metrics.recordCircuitState(url, State.OPEN);
+                    }
+                    break;
+                default:
+                    //a request sent before the circuit opened
+                    break;
+            }
+        }
+    }
+
+    private Circuit circuit(String url) {
+        String name = TransferStats.endpoint(url);
+        Circuit c = circuits.get(name);
+
+        if (c == null) {
+            Circuit created = new Circuit(windowSize);
+            c = circuits.putIfAbsent(name, created);
+
+            if (c == null) c = created;
+        }
+
+        return c;
+    }
+
+    /**
+     * The circuit of an endpoint; guarded by its own lock.
+     */
+    private static class Circuit {
+
+        final boolean[] failed;
+        final boolean[] slow;
+        int next;
+        int count;
+        int failures;
+        int slowCalls;
+        State state = State.CLOSED;
+        long since;
+
+        Circuit(int windowSize) {
+            failed = new boolean[windowSize];
+            slow = new boolean[windowSize];
+        }
+
+        void add(boolean isFailed, boolean isSlow) {
+            //the oldest outcome leaves the window
+            if (count == failed.length) {
+                if (failed[next]) failures--;
+                if (slow[next]) slowCalls--;
+            } else {
+                count++;
+            }
+
+            failed[next] = isFailed;
+            slow[next] = isSlow;
+            if (isFailed) failures++;
+            if (isSlow) slowCalls++;
+
+            next = (next + 1) % failed.length;
+        }
+
+        void moveTo(State s, long now) {
+            state = s;
+            since = now;
+
+            //a circuit that closes starts a new window
+            if (s == State.CLOSED) {
+                next = count = failures = slowCalls = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * Codec interface. <br />
+ * <br />
+ * Decodes a value directly from a JSON pull parser, without building intermediate JSONObjects. The codecs of the
+ * model classes (e.g. {@link Product#CODEC}) map every known field to a typed field of the model and skip the
+ * others.
+ *
+ * @param <T> type of the decoded value
+ */
+public interface Codec<T> {
+
+    /**
+     * Reads a value.
+     *
+     * @param reader the reader, positioned on the value
+     * @return the decoded value
+     * @throws IOException if the document cannot be read or does not have the expected structure
+     * @throws JSONException if a JSONObject cannot be built (only for the codecs that produce JSONObjects)
+     */
+    T read(JsonReader reader) throws IOException, JSONException;
+}
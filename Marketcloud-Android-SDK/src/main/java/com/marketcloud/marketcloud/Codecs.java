@@ -0,0 +1,227 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codecs class. <br />
+ * <br />
+ * Helpers shared by the codecs of the model classes: lenient readers for the primitive fields (the APIs
+ * sometimes send numbers as strings, and null for missing values) and the codecs of the response envelope
+ * ({"status": ..., "data": ...}).
+ */
+final class Codecs {
+
+    private Codecs() {
+    }
+
+    /**
+     * Returns a codec that reads the "data" field of a response with the given codec.
+     *
+     * @param item codec of the data
+     * @param <T> type of the data
+     * @return the envelope codec; it decodes to null if the request failed
+     */
+    static <T> Codec<T> data(final Codec<T> item) {
+        return new Codec<T>() {
+            @Override
+            public T read(JsonReader reader) throws IOException, JSONException {
+                T data = null;
+                boolean status = true;
+
+                reader.beginObject();
+
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "status":
+                            status = readBoolean(reader, false);
+                            break;
+                        case "data":
+                            if (reader.peek() == JsonToken.BEGIN_OBJECT) data = item.read(reader);
+                            else reader.skipValue();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+
+                reader.endObject();
+
+                return status ? data : null;
+            }
+        };
+    }
+
+    /**
+     * Returns a codec that reads the "data" array of a list response with the given codec.
+     *
+     * @param item codec of the items
+     * @param <T> type of the items
+     * @return the envelope codec; it decodes to null if the request failed
+     */
+    static <T> Codec<ArrayList<T>> list(final Codec<T> item) {
+        return new Codec<ArrayList<T>>() {
+            @Override
+            public ArrayList<T> read(JsonReader reader) throws IOException, JSONException {
+                ArrayList<T> data = null;
+                boolean status = true;
+
+                reader.beginObject();
+
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "status":
+                            status = readBoolean(reader, false);
+                            break;
+                        case "data":
+                            if (reader.peek() == JsonToken.BEGIN_ARRAY) data = readArray(reader, item);
+                            else reader.skipValue();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+
+                reader.endObject();
+
+                return status ? data : null;
+            }
+        };
+    }
+
+    /**
+     * Reads an array of values with the given codec.
+     */
+    static <T> ArrayList<T> readArray(JsonReader reader, Codec<T> item) throws IOException, JSONException {
+        ArrayList<T> list = new ArrayList<>();
+
+        reader.beginArray();
+
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.NULL) reader.nextNull();
+            else list.add(item.read(reader));
+        }
+
+        reader.endArray();
+
+        return list;
+    }
+
+    /**
+     * Reads an int, accepting numbers written as strings. A value that is not an integer (e.g. 2.5, or a
+     * non-numeric string) gives the default.
+     */
+    static int readInt(JsonReader reader, int defaultValue) throws IOException {
+        switch (reader.peek()) {
+            case NUMBER:
+            case STRING:
+                //read as a string, so the token is consumed even if it is not a valid int
+                String value = reader.nextString().trim();
+
+                try {
+                    return Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    //e.g. 2.0 or 1e3
+                    try {
+                        double d = Double.parseDouble(value);
+                        return d == (int) d ? (int) d : defaultValue;
+                    } catch (NumberFormatException ignored) {
+                        return defaultValue;
+                    }
+                }
+            default:
+                reader.skipValue();
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a double, accepting numbers written as strings. A non-numeric string gives the default.
+     */
+    static double readDouble(JsonReader reader, double defaultValue) throws IOException {
+        switch (reader.peek()) {
+            case NUMBER:
+            case STRING:
+                //read as a string, so the token is consumed even if it is not a valid number
+                String value = reader.nextString().trim();
+
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    return defaultValue;
+                }
+            default:
+                reader.skipValue();
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a boolean.
+     */
+    static boolean readBoolean(JsonReader reader, boolean defaultValue) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN) return reader.nextBoolean();
+
+        reader.skipValue();
+        return defaultValue;
+    }
+
+    /**
+     * Reads a string; numbers and booleans are converted, null gives null.
+     */
+    static String readString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    /**
+     * Reads an array of strings; a single string gives an array of length 1.
+     */
+    static String[] readStringArray(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            String s = readString(reader);
+            return s != null ? new String[]{s} : new String[0];
+        }
+
+        ArrayList<String> list = new ArrayList<>();
+
+        reader.beginArray();
+
+        while (reader.hasNext()) {
+            String s = readString(reader);
+            if (s != null) list.add(s);
+        }
+
+        reader.endArray();
+
+        return list.toArray(new String[list.size()]);
+    }
+}
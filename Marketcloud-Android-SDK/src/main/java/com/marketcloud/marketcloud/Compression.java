@@ -0,0 +1,210 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import com.loopj.android.http.AsyncHttpClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HeaderElement;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpException;
+import cz.msebera.android.httpclient.HttpRequest;
+import cz.msebera.android.httpclient.HttpRequestInterceptor;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.HttpResponseInterceptor;
+import cz.msebera.android.httpclient.entity.ByteArrayEntity;
+import cz.msebera.android.httpclient.entity.HttpEntityWrapper;
+import cz.msebera.android.httpclient.entity.StringEntity;
+import cz.msebera.android.httpclient.impl.client.AbstractHttpClient;
+import cz.msebera.android.httpclient.protocol.HttpContext;
+
+/**
+ * Compression class. <br />
+ * <br />
+ * Content coding of the HTTP traffic: the responses are requested with gzip or deflate and decompressed while
+ * they are streamed to the parser, counting the bytes actually received; the request bodies can be gzipped.
+ */
+final class Compression {
+
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private Compression() {
+    }
+
+    /**
+     * Installs the content coding on a client, replacing the gzip-only handling of android-async-http.
+     *
+     * @param client the client
+     */
+    @SuppressWarnings("deprecation") //AbstractHttpClient is the client class of loopj 1.4.9
+    static void install(AbstractHttpClient client) {
+        for (int i = client.getResponseInterceptorCount() - 1; i >= 0; i--) {
+            HttpResponseInterceptor interceptor = client.getResponseInterceptor(i);
+
+            if (interceptor.getClass().getName().startsWith(AsyncHttpClient.class.getName()))
+                client.removeResponseInterceptorByClass(interceptor.getClass());
+        }
+
+        //runs before the interceptor of android-async-http, which only adds its header when missing
+        client.addRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+                if (!request.containsHeader(AsyncHttpClient.HEADER_ACCEPT_ENCODING))
+                    request.addHeader(AsyncHttpClient.HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING);
+            }
+        }, 0);
+
+        client.addResponseInterceptor(new HttpResponseInterceptor() {
+            @Override
+            public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+                HttpEntity entity = response.getEntity();
+
+                if (entity != null) response.setEntity(decode(entity));
+            }
+        });
+    }
+
+    /**
+     * Wraps a response entity so that its content is decoded while it is read, and the bytes received are
+     * counted (see {@link #wireSize(HttpEntity)}).
+     *
+     * @param entity the entity, as received
+     * @return the wrapped entity
+     */
+    static HttpEntity decode(HttpEntity entity) {
+        return new DecodingEntity(entity, coding(entity.getContentEncoding()));
+    }
+
+    /**
+     * Builds the entity of a JSON request body, gzipped if it is at least as large as the threshold.
+     *
+     * @param json the body
+     * @param threshold minimum size (in characters) of the bodies to compress; negative disables the compression
+     * @return the entity
+     */
+    static HttpEntity body(String json, int threshold) throws UnsupportedEncodingException {
+        if (threshold < 0 || json.length() < threshold) return new StringEntity(json, "UTF-8");
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length() / 4 + 64);
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(json.getBytes("UTF-8"));
+            out.close();
+
+            ByteArrayEntity entity = new ByteArrayEntity(bytes.toByteArray());
+            entity.setContentEncoding(AsyncHttpClient.ENCODING_GZIP);
+
+            return entity;
+        } catch (IOException e) {
+            return new StringEntity(json, "UTF-8");
+        }
+    }
+
+    /**
+     * Returns the size of an entity on the wire.
+     *
+     * @param entity the entity
+     * @return size in bytes, or -1 if unknown
+     */
+    static long wireSize(HttpEntity entity) {
+        return entity instanceof DecodingEntity ? ((DecodingEntity) entity).wireBytes : -1;
+    }
+
+    /**
+     * @return "gzip", "deflate" or null
+     */
+    private static String coding(Header contentEncoding) {
+        if (contentEncoding == null) return null;
+
+        for (HeaderElement element : contentEncoding.getElements()) {
+            String name = element.getName();
+
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) return "gzip";
+            if (name.equalsIgnoreCase("deflate")) return "deflate";
+        }
+
+        return null;
+    }
+
+    /**
+     * A response entity that decodes its content, if needed, and counts the bytes received.
+     */
+    private static class DecodingEntity extends HttpEntityWrapper {
+
+        private final String coding;
+        volatile long wireBytes;
+
+        DecodingEntity(HttpEntity wrapped, String coding) {
+            super(wrapped);
+            this.coding = coding;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            InputStream raw = new FilterInputStream(wrappedEntity.getContent()) {
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) wireBytes++;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) wireBytes += n;
+                    return n;
+                }
+            };
+
+            if (coding == null) return raw;
+
+            if (coding.equals("gzip")) return new GZIPInputStream(raw);
+
+            //"deflate" is meant to be zlib-wrapped, but some servers send a raw deflate stream
+            PushbackInputStream in = new PushbackInputStream(raw, 1);
+            int first = in.read();
+
+            if (first < 0) return in;
+
+            in.unread(first);
+
+            return new InflaterInputStream(in, new Inflater((first & 0x0f) != 8));
+        }
+
+        @Override
+        public long getContentLength() {
+            return coding == null ? super.getContentLength() : -1;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return coding == null ? super.getContentEncoding() : null;
+        }
+    }
+}
@@ -17,33 +17,238 @@ package com.marketcloud.marketcloud;
 
 import android.content.Context;
 
-import com.loopj.android.http.SyncHttpClient;
+import com.loopj.android.http.AsyncHttpClient;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 
 import cz.msebera.android.httpclient.Header;
-import cz.msebera.android.httpclient.entity.StringEntity;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.message.BasicHeader;
 
 /**
  * Connect class. <br />
  * <br />
- * Performs a synchronous HTTP request.
+ * Performs a synchronous HTTP request. <br />
+ * The requests are sent through a shared {@link Transport} (by default the HTTP/1.1 {@link ConnectionPool}), so
+ * a single instance can be reused (also concurrently) for all the calls.
  */
 public class Connect {
 
+    //the catalog: the only resources whose public responses are the same for every user, so they can be persisted
+    private static final HashSet<String> DISK_CACHED = new HashSet<>(Arrays.asList(
+            "products", "categories", "brands", "shippings", "taxes", "currencies"));
+
     private Context context;
-    private JSONObject jo;
+    private Transport transport;
+    private Dispatcher dispatcher;
+    private ResponseCache responseCache = new ResponseCache();
+    private SingleFlight singleFlight = new SingleFlight();
+    private volatile Interceptor[] interceptors = new Interceptor[0];
+    private TransferStats transferStats = new TransferStats();
+    private Metrics metrics = new Metrics();
+    private volatile int requestCompressionThreshold = -1;
+    private volatile TraceListener traceListener;
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    private volatile CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private DiskCache diskCache;
+    private Endpoints endpoints;
 
     /**
-     * Constructor.
+     * Constructor. The requests will use the process-wide connection pool and dispatcher.
      *
      * @param ct application context
      */
     public Connect(Context ct) {
+        this(ct, ConnectionPool.getDefault());
+    }
+
+    /**
+     * Constructor. The asynchronous requests will use the process-wide dispatcher.
+     *
+     * @param ct application context
+     * @param transport the transport that will send the requests (e.g. a {@link ConnectionPool})
+     */
+    public Connect(Context ct, Transport transport) {
+        this(ct, transport, Dispatcher.getDefault());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ct application context
+     * @param transport the transport that will send the requests (e.g. a {@link ConnectionPool})
+     * @param requestDispatcher the dispatcher that will run the asynchronous requests
+     */
+    public Connect(Context ct, Transport transport, Dispatcher requestDispatcher) {
+        this(ct, transport, requestDispatcher, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ct application context
+     * @param transport the transport that will send the requests (e.g. a {@link ConnectionPool})
+     * @param requestDispatcher the dispatcher that will run the asynchronous requests
+     * @param config where the requests are sent, or null for the default base url
+     */
+    public Connect(Context ct, Transport transport, Dispatcher requestDispatcher, EndpointConfig config) {
         context = ct;
+        this.transport = transport;
+        dispatcher = requestDispatcher;
+
+        if (config == null || config.getBaseUrl().equals(Endpoints.DEFAULT_BASE_URL)) {
+            endpoints = Endpoints.getDefault();
+        } else {
+            endpoints = new Endpoints(config.getBaseUrl());
+        }
+
+        if (config != null) transport.register(config);
+    }
+
+    /**
+     * Adds an interceptor at the end of the chain: it will see the requests after the interceptors added before
+     * it, and the responses before them.
+     *
+     * @param interceptor the interceptor
+     */
+    public synchronized void addInterceptor(Interceptor interceptor) {
+        Interceptor[] chain = Arrays.copyOf(interceptors, interceptors.length + 1);
+        chain[interceptors.length] = interceptor;
+
+        interceptors = chain;
+    }
+
+    /**
+     * Removes an interceptor from the chain.
+     *
+     * @param interceptor the interceptor
+     */
+    @SuppressWarnings("unused")
+    public synchronized void removeInterceptor(Interceptor interceptor) {
+        ArrayList<Interceptor> chain = new ArrayList<>(Arrays.asList(interceptors));
+
+        if (chain.remove(interceptor)) interceptors = chain.toArray(new Interceptor[chain.size()]);
+    }
+
+    /**
+     * Enables the gzip compression of the request bodies. The server must accept gzipped bodies.
+     *
+     * @param threshold minimum size (in characters) of the bodies to compress; negative disables the compression
+     */
+    @SuppressWarnings("unused")
+    public void setRequestCompressionThreshold(int threshold) {
+        requestCompressionThreshold = threshold;
+    }
+
+    /**
+     * Sets the listener that receives the phase timings of every request (see {@link Trace}). Tracing costs a
+     * few clock reads per request, and nothing while there is no listener.
+     *
+     * @param listener the listener, or null to stop tracing
+     */
+    @SuppressWarnings("unused")
+    public void setTraceListener(TraceListener listener) {
+        traceListener = listener;
+    }
+
+    /**
+     * Sets the policy that decides which failed requests are sent again (see {@link RetryPolicy}). The
+     * retries happen at the end of the interceptor chain, so the interceptors see a single call.
+     *
+     * @param policy the policy, or null to never retry
+     */
+    @SuppressWarnings("unused")
+    public void setRetryPolicy(RetryPolicy policy) {
+        retryPolicy = policy;
+    }
+
+    /**
+     * Sets the circuit breaker that stops the requests to the endpoints that are failing (see
+     * {@link CircuitBreaker}).
+     *
+     * @param breaker the circuit breaker, or null to always send the requests
+     */
+    @SuppressWarnings("unused")
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        circuitBreaker = breaker;
+    }
+
+    /**
+     * Returns the byte counters of the endpoints.
+     *
+     * @return the transfer statistics
+     */
+    TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    /**
+     * Returns the latency, throughput and error metrics of the endpoints.
+     *
+     * @return the metrics
+     */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the registry of the resources the requests are sent to.
+     *
+     * @return the endpoints
+     */
+    Endpoints getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Returns the dispatcher that runs the asynchronous requests.
+     *
+     * @return the dispatcher
+     */
+    Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the cache of the catalog responses.
+     *
+     * @return the response cache
+     */
+    ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Returns the table of the GET requests in flight.
+     *
+     * @return the single-flight table
+     */
+    SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Returns the persistent cache of the public GET responses, opening it on the first call.
+     *
+     * @return the disk cache, or null if there is no context to locate it
+     */
+    synchronized DiskCache getDiskCache() {
+        if (diskCache == null && context != null)
+            diskCache = DiskCache.open(new File(context.getCacheDir(), "marketcloud-http"), DiskCache.DEFAULT_MAX_SIZE);
+
+        return diskCache;
     }
 
     /**
@@ -53,61 +258,404 @@ public class Connect {
      * @return a JSONArray containing the response to the request
      */
     protected JSONObject run(String... params) {
+        Response<JSONObject> response = execute(params);
 
-        try {
-            //switch connection types (possibilities: GET, POST, DELETE, PUT and PATCH)
-            String type = params[0];
+        return response != null ? response.body : null;
+    }
+
+    /**
+     * Processes an HTTP request in background, adding a new {@value RetryPolicy#IDEMPOTENCY_KEY} header: the
+     * server applies the request once even if it receives it more than once, so the retry policy can send it
+     * again after a failure even if it is a POST.
+     *
+     * @param params the url, the headers and the parameters of the HTTP request
+     * @return a JSONArray containing the response to the request
+     */
+    JSONObject runIdempotent(String... params) {
+        Request request = Request.fromParams(params).withHeader(RetryPolicy.IDEMPOTENCY_KEY, UUID.randomUUID().toString());
+        Response<JSONObject> response = execute(JsonStreamParser.OBJECT, request);
+
+        return response != null ? response.body : null;
+    }
+
+    /**
+     * Processes an HTTP request in background, keeping the status code, the headers and the size of the body
+     * together with the parsed response.
+     *
+     * @param params the url, the headers and the parameters of the HTTP request
+     * @return the response, or null if the request could not be sent
+     */
+    Response<JSONObject> execute(String... params) {
+        return execute(JsonStreamParser.OBJECT, params);
+    }
+
+    /**
+     * Processes an HTTP request in background, decoding the body with the given codec. <br />
+     * Concurrent identical GET requests are sent once, and share the same response.
+     *
+     * @param codec decodes the body of the response
+     * @param params the url, the headers and the parameters of the HTTP request
+     * @param <T> type of the decoded body
+     * @return the response, or null if the request could not be sent
+     */
+    <T> Response<T> execute(final Codec<T> codec, String... params) {
+        return execute(codec, Request.fromParams(params));
+    }
 
-            //prepare the connection
-            SyncHttpClient client = new SyncHttpClient();
-            client.addHeader("Authorization", params[2]);
+    /**
+     * Processes an HTTP request in background, decoding the body with the given codec. <br />
+     * Concurrent identical GET requests are sent once, and share the same response; the others go through
+     * the interceptor chain.
+     *
+     * @param codec decodes the body of the response
+     * @param request the request
+     * @param <T> type of the decoded body
+     * @return the response, or null if the request could not be sent
+     */
+    <T> Response<T> execute(final Codec<T> codec, final Request request) {
+        final Interceptor[] chain = interceptors;
 
-            //prepare a response handler
-            ResponseHandler rh = new ResponseHandler() {
+        if (!request.getMethod().equals("get")) return proceed(chain, 0, codec, request);
 
+        try {
+            return singleFlight.execute(request.getMethod(), ResponseCache.key(request.getUrl(), request.getAuthorization()), codec, new Callable<Response<T>>() {
                 @Override
-                public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
-                    //parse the response
+                public Response<T> call() {
+                    return proceed(chain, 0, codec, request);
+                }
+            });
+        } catch (InterruptedException e) {
+            //interrupted while waiting for the shared request: the caller must still see the interruption
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            //the call declares no checked exceptions
+            return null;
+        }
+    }
+
+    /**
+     * Passes a request to an interceptor of the chain, or sends it (retrying it if needed) at the end of the
+     * chain. An empty chain sends the request directly.
+     *
+     * @param chain the interceptors
+     * @param index the position in the chain
+     * @param codec decodes the body of the response
+     * @param request the request
+     * @param <T> type of the decoded body
+     * @return the response, or null if the request could not be sent
+     */
+    private <T> Response<T> proceed(Interceptor[] chain, int index, Codec<T> codec, Request request) {
+        if (index == chain.length) return retry(codec, request);
+
+        return chain[index].intercept(new RealChain<>(chain, index + 1, codec, request));
+    }
+
+    /**
+     * Sends an HTTP request, and sends it again while the retry policy allows it. The caller's thread waits
+     * between the attempts; an interrupt stops the retries and returns the last response. <br />
+     * No attempt is sent while the circuit of the endpoint is open.
+     *
+     * @param codec decodes the body of the response
+     * @param request the request
+     * @param <T> type of the decoded body
+     * @return the last response, or null if the request could not be sent
+     */
+    private <T> Response<T> retry(Codec<T> codec, Request request) {
+        RetryPolicy policy = retryPolicy;
+        CircuitBreaker breaker = circuitBreaker;
+
+        if (policy != null) policy.onRequest();
+        boolean idempotent = policy != null && policy.isIdempotent(request);
+
+        //a single trace covers all the attempts
+        TraceListener listener = traceListener;
+        Trace trace = listener != null ? Trace.begin(request, Dispatcher.takeQueueTime()) : null;
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                if (breaker != null && !breaker.allow(request.getUrl(), metrics)) return shortCircuit(codec, request);
+
+                Response<T> response = send(codec, request, breaker);
+
+                if (!idempotent
+                        || attempt >= policy.getMaxAttempts()
+                        || !policy.isRetryable(response)
+                        || !policy.acquireRetry()) return response;
+
+                metrics.recordRetry(request.getUrl());
+
+                try {
+                    Thread.sleep(policy.getDelay(attempt, response));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return response;
+                }
+            }
+        } finally {
+            if (trace != null) {
+                trace.finish();
+
+                //a request that the open circuit did not let out is not reported
+                if (trace.getAttempts() > 0) {
                     try {
-                        jo = new JSONObject(new String(responseBody, "UTF-8"));
-                    } catch (JSONException | UnsupportedEncodingException ignored) {}
+                        listener.onTrace(trace);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails a request without sending it, because the circuit of its endpoint is open. A public GET request of
+     * the catalog is answered with the copy in the disk cache, if any.
+     *
+     * @param codec decodes the stored body
+     * @param request the request
+     * @param <T> type of the decoded body
+     * @return a response with status code 0, or the stored response
+     */
+    private <T> Response<T> shortCircuit(Codec<T> codec, Request request) {
+        Response<T> response = new Response<>();
+        DiskCache disk;
+
+        if (isDiskCached(request) && (disk = getDiskCache()) != null) {
+            String key = ResponseCache.key(request.getUrl(), request.getAuthorization());
+            revalidate(response, codec, disk, key, disk.get(key));
+        }
+
+        return response;
+    }
+
+    /**
+     * Tells if the response of a request goes to the disk cache: only the public GET requests of the catalog
+     * resources. The other public requests (e.g. a cart read without a session token) carry data of the user,
+     * that must not be kept on the disk nor served when the network fails.
+     *
+     * @param request the request
+     * @return true if the response is persisted
+     */
+    private static boolean isDiskCached(Request request) {
+        return request.getMethod().equals("get") && request.isPublic() && DISK_CACHED.contains(TransferStats.endpoint(request.getUrl()));
+    }
+
+    /**
+     * Sends an HTTP request.
+     *
+     * @param codec decodes the body of the response
+     * @param request the request
+     * @param breaker receives the outcome of the request, can be null
+     * @param <T> type of the decoded body
+     * @return the response, or null if the request could not be sent
+     */
+    private <T> Response<T> send(final Codec<T> codec, Request request, CircuitBreaker breaker) {
+        Trace trace = Trace.current();
+        int status = 0;
+
+        if (trace != null) trace.attempt();
+
+        try {
+            //connection types (possibilities: GET, POST, DELETE, PUT and PATCH)
+            String type = request.getMethod();
+            String url = request.getUrl();
+
+            //prepare the headers (the authorization is sent per request, since the transport is shared)
+            ArrayList<Header> headers = new ArrayList<>(3 + request.getHeaders().length);
+            headers.add(new BasicHeader("Authorization", request.getAuthorization()));
+            headers.addAll(Arrays.asList(request.getHeaders()));
+
+            //public GET responses of the catalog are persisted, and revalidated with a conditional request
+            DiskCache disk = null;
+            DiskCache.Snapshot snapshot = null;
+            String key = null;
+
+            if (isDiskCached(request) && (disk = getDiskCache()) != null) {
+                key = ResponseCache.key(url, request.getAuthorization());
+                snapshot = disk.get(key);
+
+                if (snapshot != null && snapshot.etag != null)
+                    headers.add(new BasicHeader("If-None-Match", snapshot.etag));
+                if (snapshot != null && snapshot.lastModified != null)
+                    headers.add(new BasicHeader("If-Modified-Since", snapshot.lastModified));
+            }
+
+            //the response is written by the handler, on the calling thread
+            final Response<T> response = new Response<>();
+            final DiskCache.Editor[] editor = new DiskCache.Editor[1];
+            final DiskCache cache = disk;
+            final String cacheKey = key;
+
+            //prepare a response handler, that parses the body while reading it
+            JsonResponseHandler<T> rh = new JsonResponseHandler<T>(codec) {
+
+                @Override
+                protected OutputStream openCopy(int statusCode, Header[] headers) {
+                    //fresh responses carrying validators are copied to the disk cache while they are parsed
+                    if (cache == null || statusCode < 200 || statusCode >= 300) return null;
+
+                    String etag = header(headers, "ETag");
+                    String lastModified = header(headers, "Last-Modified");
+
+                    if (etag == null && lastModified == null) return null;
+
+                    //a retried request starts a new copy
+                    if (editor[0] != null) editor[0].abort();
+
+                    return editor[0] = cache.edit(cacheKey, etag, lastModified);
                 }
 
                 @Override
-                public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
-                    //parse the response
-                    try {
-                        jo = new JSONObject(new String(responseBody, "UTF-8"));
-                    } catch (JSONException | UnsupportedEncodingException ignored) {}
+                public void onResponse(int statusCode, Header[] headers, T body, int size) {
+                    response.statusCode = statusCode;
+                    response.headers = headers;
+                    response.body = body;
+                    response.size = size;
                 }
             };
 
+            //the bodies can be compressed
+            HttpEntity entity = request.getBody() != null ? Compression.body(request.getBody(), requestCompressionThreshold) : null;
+            if (entity != null && trace != null) entity = Tracing.entity(entity);
+
+            long start = System.nanoTime();
+
             //connect to the given url using the proper request
-            switch (type) {
-                case "get":
-                    client.get(params[1], rh);
-                    break;
-                case "post":
-                    client.post(context, params[1], new StringEntity(params[3]), "application/json", rh);
-                    break;
-                case "delete":
-                    client.delete(params[1] + params[3], rh);
-                    break;
-                case "patch":
-                    client.patch(context, params[1], new StringEntity("[" + params[3] + "]"), "application/json", rh);
-                    break;
-                case "put":
-                    client.put(context, params[1], new StringEntity(params[3]), "application/json", rh);
-                    break;
+            try {
+                transport.execute(context, type, url, toArray(headers), entity, rh);
+            } finally {
+                if (editor[0] != null) {
+                    if (response.isSuccessful()) editor[0].commit();
+                    else editor[0].abort();
+                }
             }
 
+            long end = System.nanoTime();
+            status = response.statusCode;
+            long headersTime = rh.getHeadersTime() > start ? rh.getHeadersTime() : end;
+            long wireSize = rh.getWireSize() >= 0 ? rh.getWireSize() : response.size;
+
+            transferStats.record(
+                    url,
+                    request.getBody() != null ? request.getBody().length() : 0,
+                    entity != null ? entity.getContentLength() : 0,
+                    response.size,
+                    wireSize);
+
+            metrics.recordRequest(
+                    url,
+                    response.statusCode,
+                    !response.isSuccessful() && response.statusCode != 304,
+                    entity != null ? entity.getContentLength() : 0,
+                    wireSize,
+                    headersTime - start,
+                    end - headersTime);
+
+            //the outcome seen by the server, before the disk cache can replace it
+            if (breaker != null) breaker.record(url, response.statusCode, end - start, metrics);
+
+            //a 304 (or a network failure) is answered from the disk cache
+            if (disk != null) revalidate(response, codec, disk, key, snapshot);
+
             //return output
-            return jo;
+            return response;
 
         } catch (UnsupportedEncodingException e) {
+            metrics.recordRequest(request.getUrl(), 0, true, 0, 0, 0, 0);
             e.printStackTrace();
+        } finally {
+            if (trace != null) trace.status(status);
         }
 
         return null;
     }
+
+    /**
+     * Completes a GET response with the disk cache: a 304 (or a network failure) is answered with the stored
+     * body, while a stored body that the server no longer allows to revalidate is dropped.
+     *
+     * @param response the response received from the server
+     * @param codec decodes the stored body
+     * @param disk the disk cache
+     * @param key the cache key of the request
+     * @param snapshot the stored response, can be null
+     * @param <T> type of the decoded body
+     */
+    private static <T> void revalidate(Response<T> response, Codec<T> codec, DiskCache disk, String key, DiskCache.Snapshot snapshot) {
+        if (snapshot == null) return;
+
+        if (response.statusCode == 304 || response.statusCode == 0) {
+            InputStream in = null;
+
+            try {
+                in = snapshot.openBody();
+                response.body = JsonStreamParser.parse(in, codec);
+                response.statusCode = 200;
+                response.size = (int) snapshot.file.length();
+            } catch (IOException | JSONException | IllegalStateException e) {
+                disk.remove(key);
+            } finally {
+                AsyncHttpClient.silentCloseInputStream(in);
+            }
+        } else if (response.isSuccessful()
+                && header(response.headers, "ETag") == null
+                && header(response.headers, "Last-Modified") == null) {
+            disk.remove(key);
+        }
+    }
+
+    /**
+     * Returns the value of a header.
+     *
+     * @param headers the headers, can be null
+     * @param name name of the header (case insensitive)
+     * @return the value, or null if not present
+     */
+    private static String header(Header[] headers, String name) {
+        if (headers != null)
+            for (Header h : headers)
+                if (h.getName().equalsIgnoreCase(name)) return h.getValue();
+
+        return null;
+    }
+
+    private static Header[] toArray(ArrayList<Header> headers) {
+        return headers.toArray(new Header[headers.size()]);
+    }
+
+    /**
+     * The rest of the interceptor chain after an interceptor.
+     */
+    private class RealChain<T> implements Interceptor.Chain<T> {
+
+        private final Interceptor[] chain;
+        private final int index;
+        private final Codec<T> codec;
+        private final Request request;
+
+        RealChain(Interceptor[] chain, int index, Codec<T> codec, Request request) {
+            this.chain = chain;
+            this.index = index;
+            this.codec = codec;
+            this.request = request;
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Codec<T> codec() {
+            return codec;
+        }
+
+        @Override
+        public Response<T> proceed(Request request) {
+            return Connect.this.proceed(chain, index, codec, request);
+        }
+    }
 }
\ No newline at end of file
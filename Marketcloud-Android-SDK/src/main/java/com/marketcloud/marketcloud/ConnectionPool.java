@@ -0,0 +1,276 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.content.Context;
+
+import com.loopj.android.http.RequestHandle;
+import com.loopj.android.http.ResponseHandlerInterface;
+import com.loopj.android.http.SyncHttpClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.client.methods.HttpUriRequest;
+import cz.msebera.android.httpclient.conn.ClientConnectionManager;
+import cz.msebera.android.httpclient.conn.ConnectTimeoutException;
+import cz.msebera.android.httpclient.conn.HttpInetSocketAddress;
+import cz.msebera.android.httpclient.conn.scheme.Scheme;
+import cz.msebera.android.httpclient.conn.scheme.SchemeLayeredSocketFactory;
+import cz.msebera.android.httpclient.conn.scheme.SchemeRegistry;
+import cz.msebera.android.httpclient.conn.ssl.SSLSocketFactory;
+import cz.msebera.android.httpclient.impl.client.AbstractHttpClient;
+import cz.msebera.android.httpclient.impl.client.DefaultHttpClient;
+import cz.msebera.android.httpclient.impl.conn.PoolingClientConnectionManager;
+import cz.msebera.android.httpclient.params.BasicHttpParams;
+import cz.msebera.android.httpclient.params.HttpParams;
+import cz.msebera.android.httpclient.protocol.BasicHttpContext;
+import cz.msebera.android.httpclient.protocol.HttpContext;
+
+/**
+ * ConnectionPool class. <br />
+ * <br />
+ * Owns the HTTP client shared by all the requests of the SDK. The underlying connections are kept alive and
+ * reused between calls, up to a maximum number of connections (in total and per host); connections that stay
+ * idle longer than the keep-alive time are closed. <br />
+ * The responses are requested compressed (gzip or deflate), and decompressed while they are read. <br />
+ * The phases of the traced requests (see {@link Trace}) are marked while they go through the client. <br />
+ * The https connections to the host of a registered {@link EndpointConfig} use its TLS settings, the ones to
+ * the other hosts the default TLS settings of the platform. <br />
+ * This is the HTTP/1.1 {@link Transport} of the SDK: a connection carries one request at a time, so concurrent
+ * requests to the same host open up to the per-host limit of connections.
+ */
+public class ConnectionPool implements Transport {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+    public static final long DEFAULT_KEEP_ALIVE = 5 * 60 * 1000;
+    public static final int DEFAULT_TIMEOUT = 10 * 1000;
+
+    private static ConnectionPool defaultPool;
+
+    private final SyncHttpClient client;
+    @SuppressWarnings("deprecation") //the pooling manager of the HttpClient 4.3 bundled with loopj 1.4.9
+    private final PoolingClientConnectionManager manager;
+    private final HostSocketFactory sockets = new HostSocketFactory();
+    private final long keepAlive;
+    private final int timeout;
+    private volatile long lastEviction;
+
+    /**
+     * Constructor. Uses the default limits.
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxConnections maximum number of open connections
+     * @param maxConnectionsPerHost maximum number of open connections to the same host
+     * @param keepAlive time (in milliseconds) after which an idle connection is closed
+     * @param timeout connect and socket timeout, in milliseconds
+     */
+    @SuppressWarnings("deprecation") //loopj 1.4.9 only exposes the legacy client and connection manager
+    public ConnectionPool(int maxConnections, int maxConnectionsPerHost, final long keepAlive, int timeout) {
+        this.keepAlive = keepAlive;
+        this.timeout = timeout;
+
+        client = new SyncHttpClient() {
+
+            @Override
+            protected ClientConnectionManager createConnectionManager(SchemeRegistry schemeRegistry, BasicHttpParams httpParams) {
+                return Tracing.connectionManager(schemeRegistry);
+            }
+
+            @Override
+            protected RequestHandle sendRequest(DefaultHttpClient client, HttpContext httpContext, HttpUriRequest uriRequest, String contentType, ResponseHandlerInterface responseHandler, Context context) {
+                //the client has a single context, where each request stores its connection and route: the concurrent
+                //requests would use each other's connections, so each one gets a child context of its own
+                return super.sendRequest(client, new BasicHttpContext(httpContext), uriRequest, contentType, responseHandler, context);
+            }
+        };
+
+        client.setTimeout(timeout);
+        //the failed requests are retried by the RetryPolicy of Connect, that knows which ones are idempotent
+        client.setMaxRetriesAndTimeout(0, 0);
+
+        Compression.install((AbstractHttpClient) client.getHttpClient());
+        Tracing.install((AbstractHttpClient) client.getHttpClient());
+
+        manager = (PoolingClientConnectionManager) client.getHttpClient().getConnectionManager();
+        manager.setMaxTotal(maxConnections);
+        manager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        manager.getSchemeRegistry().register(Tracing.scheme(new Scheme("https", 443, sockets)));
+
+        lastEviction = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the pool shared by all the instances that have not been given a pool of their own.
+     *
+     * @return the process-wide connection pool
+     */
+    public static synchronized ConnectionPool getDefault() {
+        if (defaultPool == null) defaultPool = new ConnectionPool();
+
+        return defaultPool;
+    }
+
+    /**
+     * Returns the shared client, closing the idle connections first if the keep-alive time has elapsed since
+     * the last check.
+     *
+     * @return the HTTP client
+     */
+    SyncHttpClient getClient() {
+        long now = System.currentTimeMillis();
+
+        if (now - lastEviction > keepAlive) {
+            lastEviction = now;
+            evictIdleConnections();
+        }
+
+        return client;
+    }
+
+    @Override
+    public void execute(Context context, String method, String url, Header[] headers, HttpEntity body, ResponseHandlerInterface handler) {
+        SyncHttpClient client = getClient();
+
+        switch (method) {
+            case "get":
+                client.get(context, url, headers, null, handler);
+                break;
+            case "post":
+                client.post(context, url, headers, body, "application/json", handler);
+                break;
+            case "delete":
+                client.delete(context, url, headers, handler);
+                break;
+            case "patch":
+                client.patch(context, url, headers, body, "application/json", handler);
+                break;
+            case "put":
+                client.put(context, url, headers, body, "application/json", handler);
+                break;
+        }
+    }
+
+    /**
+     * Installs the TLS settings of an endpoint configuration for the https connections of the pool to its host
+     * and port. The instances that share a pool and a host should use the same TLS settings.
+     *
+     * @param config the endpoint configuration
+     */
+    @Override
+    public void register(EndpointConfig config) {
+        if (config.isSecure()) sockets.register(config.getHost(), config.getEffectivePort(), config.getSocketFactory());
+    }
+
+    /**
+     * Closes the expired connections and the ones that have been idle for longer than the keep-alive time.
+     */
+    public void evictIdleConnections() {
+        manager.closeExpiredConnections();
+        manager.closeIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes all the connections. The pool must not be used after this call.
+     */
+    @Override
+    public void shutdown() {
+        manager.shutdown();
+    }
+
+    /**
+     * Returns the number of connections currently open.
+     *
+     * @return open connections, both leased and idle
+     */
+    @Override
+    public int getOpenConnections() {
+        return manager.getTotalStats().getLeased() + manager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * @return the keep-alive time of the idle connections, in milliseconds
+     */
+    long getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @return the connect and socket timeout, in milliseconds
+     */
+    int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * The https socket factory of the pool: picks the factory of the endpoint configuration registered for the
+     * host and the port of each connection, or the default one of the client. The sockets are created plain,
+     * and layered by the chosen factory once the host is known.
+     */
+    @SuppressWarnings("deprecation") //the socket factory types of the HttpClient 4.3 scheme registry
+    private static class HostSocketFactory implements SchemeLayeredSocketFactory {
+
+        private final SchemeLayeredSocketFactory defaultFactory = SSLSocketFactory.getSocketFactory();
+        private final ConcurrentHashMap<String, SchemeLayeredSocketFactory> factories = new ConcurrentHashMap<>();
+
+        void register(String host, int port, SchemeLayeredSocketFactory factory) {
+            factories.put(host + ":" + port, factory);
+        }
+
+        private SchemeLayeredSocketFactory factory(String host, int port) {
+            SchemeLayeredSocketFactory factory = factories.get(host + ":" + port);
+
+            return factory != null ? factory : defaultFactory;
+        }
+
+        @Override
+        public Socket createSocket(HttpParams params) throws IOException {
+            return new Socket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket socket, InetSocketAddress remote, InetSocketAddress local, HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+            String host = remote instanceof HttpInetSocketAddress
+                    ? ((HttpInetSocketAddress) remote).getHttpHost().getHostName()
+                    : remote.getHostName();
+
+            return factory(host, remote.getPort()).connectSocket(socket, remote, local, params);
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpParams params) throws IOException, UnknownHostException {
+            return factory(target, port).createLayeredSocket(socket, target, port, params);
+        }
+
+        @Override
+        public boolean isSecure(Socket socket) throws IllegalArgumentException {
+            return defaultFactory.isSecure(socket);
+        }
+    }
+}
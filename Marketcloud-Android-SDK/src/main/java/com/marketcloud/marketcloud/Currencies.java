@@ -20,7 +20,10 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Currencies class. <br />
@@ -30,8 +33,10 @@ import java.util.concurrent.ExecutionException;
 public class Currencies {
 
     private String publicKey;
-    private Context context;
+    private Connect connect;
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
     private TokenManager tm;
 
     /**
@@ -42,10 +47,24 @@ public class Currencies {
      * @param ct application context
      */
     public Currencies(String key, TokenManager tokenManager, Context ct) {
+        this(key, tokenManager, ct, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key application public key
+     * @param tokenManager token manager
+     * @param ct application context
+     * @param conn the connection shared by the SDK
+     */
+    public Currencies(String key, TokenManager tokenManager, Context ct, Connect conn) {
         publicKey = key;
-        api = new Utilities(ct, key);
+        connect = conn;
+        api = new Utilities(ct, key, conn);
+        dispatcher = conn.getDispatcher();
+        endpoint = conn.getEndpoints().currencies;
         tm = tokenManager;
-        context = ct;
     }
 
     /**
@@ -59,7 +78,25 @@ public class Currencies {
     public boolean create(String name, String formatting) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
         JSONObject jsonObject = toJsonObject(name, formatting);
 
-        return jsonObject != null && (boolean) (new Connect(context).run(new String[]{"post", "http://api.marketcloud.it/v0/currencies", publicKey + ":" + tm.getSessionToken(), jsonObject.toString()})).get("status");
+        return jsonObject != null && Utilities.isSuccessful(connect.run("post", endpoint.url(), publicKey + ":" + tm.getSessionToken(), jsonObject.toString()));
+    }
+
+    /**
+     * Asynchronous version of {@link #create(String, String)}.
+     *
+     * @param name       name of the currency
+     * @param formatting symbol of the currency (e.g. "€", "$", etc.)
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Boolean> create(final String name, final String formatting, Callback<Boolean> callback) {
+        return dispatcher.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return create(name, formatting);
+            }
+        }, callback);
     }
 
     /**
@@ -70,10 +107,26 @@ public class Currencies {
     @SuppressWarnings("unused")
     public JSONObject get() throws ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
-            return api.getInstanceList("http://api.marketcloud.it/v0/currencies", tm.getSessionToken());
+            return api.getInstanceList(endpoint, tm.getSessionToken(), JsonStreamParser.OBJECT);
         else return null;
     }
 
+    /**
+     * Asynchronous version of {@link #get()}.
+     *
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> get(Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return get();
+            }
+        }, callback);
+    }
+
     /**
      * Get data about a specific currency.
      *
@@ -83,10 +136,27 @@ public class Currencies {
     @SuppressWarnings("unused")
     public JSONObject getById(int id) throws InterruptedException, ExecutionException, JSONException {
         if (tm.getSessionToken() != null)
-            return api.getById("http://api.marketcloud.it/v0/currencies/", id, tm.getSessionToken());
+            return api.getById(endpoint, id, tm.getSessionToken(), JsonStreamParser.OBJECT);
         else return null;
     }
 
+    /**
+     * Asynchronous version of {@link #getById(int)}.
+     *
+     * @param id currency id
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id);
+            }
+        }, callback);
+    }
+
     /**
      * Updates the data of a currency.
      *
@@ -98,7 +168,25 @@ public class Currencies {
     public boolean update(String name, String formatting) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
         JSONObject jsonObject = toJsonObject(name, formatting);
 
-        return jsonObject != null && (boolean) (new Connect(context).run(new String[]{"put", "http://api.marketcloud.it/v0/currencies", publicKey + ":" + tm.getSessionToken(), jsonObject.toString()})).get("status");
+        return jsonObject != null && Utilities.isSuccessful(connect.run("put", endpoint.url(), publicKey + ":" + tm.getSessionToken(), jsonObject.toString()));
+    }
+
+    /**
+     * Asynchronous version of {@link #update(String, String)}.
+     *
+     * @param name       the new currency name
+     * @param formatting the new currency symbol
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Boolean> update(final String name, final String formatting, Callback<Boolean> callback) {
+        return dispatcher.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return update(name, formatting);
+            }
+        }, callback);
     }
 
     /**
@@ -109,7 +197,24 @@ public class Currencies {
      */
     @SuppressWarnings("unused")
     public boolean delete(int id) throws InterruptedException, ExecutionException, JSONException {
-        return (boolean) api.delete("http://api.marketcloud.it/v0/currencies/", id, tm.getSessionToken()).get("status");
+        return Utilities.isSuccessful(api.delete(endpoint, id, tm.getSessionToken()));
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(int)}.
+     *
+     * @param id currency id
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Boolean> delete(final int id, Callback<Boolean> callback) {
+        return dispatcher.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return delete(id);
+            }
+        }, callback);
     }
 
     /**
@@ -122,4 +227,62 @@ public class Currencies {
     private JSONObject toJsonObject(String name, String formatting) throws JSONException {
         return new JSONObject().put("name", name).put("formatting", formatting);
     }
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the currency with the given ID, decoded into a {@link Currency}.
+     *
+     * @param id the id of the currency
+     * @return the currency, or null if it does not exist or the user is not logged in
+     */
+    @SuppressWarnings("unused")
+    public Currency getCurrency(int id) {
+        if (tm.getSessionToken() != null)
+            return api.getById(endpoint, id, tm.getSessionToken(), Currency.DATA);
+        else return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #getCurrency(int)}.
+     *
+     * @param id the id of the currency
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Currency> getCurrency(final int id, Callback<Currency> callback) {
+        return dispatcher.submit(new Callable<Currency>() {
+            @Override
+            public Currency call() throws Exception {
+                return getCurrency(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves all the currencies, decoded into {@link Currency} objects.
+     *
+     * @return the currencies, or null if the request failed or the user is not logged in
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Currency> listCurrencies() {
+        if (tm.getSessionToken() != null)
+            return api.getInstanceList(endpoint, tm.getSessionToken(), Currency.LIST);
+        else return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #listCurrencies()}.
+     *
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Currency>> listCurrencies(Callback<ArrayList<Currency>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Currency>>() {
+            @Override
+            public ArrayList<Currency> call() throws Exception {
+                return listCurrencies();
+            }
+        }, callback);
+    }
+}
@@ -0,0 +1,488 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * DiskCache class. <br />
+ * <br />
+ * Persistent store of the responses that carry an ETag or a Last-Modified header, used by {@link Connect} to
+ * revalidate them with conditional requests. <br />
+ * Every entry is a single file, written to a temporary file and then renamed, so a crash never leaves a
+ * partial entry behind. The access order is recorded in a journal, which is replayed when the cache is opened:
+ * when the total size exceeds the limit, the least recently used entries are deleted.
+ */
+public class DiskCache {
+
+    public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    private static final HashMap<String, DiskCache> instances = new HashMap<>();
+
+    private final File directory;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxSize;
+    private long size;
+    private Writer journal;
+    private int redundantOps;
+    private int tmpCount;
+
+    /**
+     * Constructor. The directory is read lazily, on the first access.
+     *
+     * @param directory the directory that will contain the cache (used exclusively by the cache)
+     * @param maxSize maximum size of the cached bodies, in bytes
+     */
+    private DiskCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cache stored in the given directory. A directory is always managed by a single instance, so
+     * all the connections using it share the same journal.
+     *
+     * @param directory the directory that will contain the cache
+     * @param maxSize maximum size of the cached bodies, in bytes (ignored if the instance already exists)
+     * @return the disk cache
+     */
+    static DiskCache open(File directory, long maxSize) {
+        synchronized (instances) {
+            DiskCache cache = instances.get(directory.getAbsolutePath());
+
+            if (cache == null) {
+                cache = new DiskCache(directory, maxSize);
+                instances.put(directory.getAbsolutePath(), cache);
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * Returns a cached response. Only the validators are read: the body is opened with
+     * {@link Snapshot#openBody()}.
+     *
+     * @param key cache key
+     * @return the cached response, or null if not cached
+     */
+    synchronized Snapshot get(String key) {
+        String name = fileName(key);
+
+        if (!open() || !entries.containsKey(name)) return null;
+
+        DataInputStream in = null;
+
+        try {
+            Snapshot snapshot = new Snapshot(new File(directory, name));
+            in = new DataInputStream(new FileInputStream(snapshot.file));
+            snapshot.etag = emptyToNull(in.readUTF());
+            snapshot.lastModified = emptyToNull(in.readUTF());
+
+            entries.get(name);
+            log(READ, name, -1);
+
+            return snapshot;
+        } catch (IOException e) {
+            delete(name);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Starts writing a response. The body is written to the returned stream, and becomes visible only when
+     * {@link Editor#commit()} is called.
+     *
+     * @param key cache key
+     * @param etag value of the ETag header, can be null
+     * @param lastModified value of the Last-Modified header, can be null
+     * @return the editor, or null if the cache cannot be used
+     */
+    synchronized Editor edit(String key, String etag, String lastModified) {
+        String name = fileName(key);
+
+        if (!open()) return null;
+
+        File tmp = new File(directory, name + "." + (++tmpCount) + ".tmp");
+
+        try {
+            Editor editor = new Editor(name, tmp);
+            editor.out.writeUTF(etag != null ? etag : "");
+            editor.out.writeUTF(lastModified != null ? lastModified : "");
+
+            return editor;
+        } catch (IOException e) {
+            tmp.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Publishes a completely written entry.
+     *
+     * @param name file name of the entry
+     * @param tmp the temporary file
+     */
+    private synchronized void commit(String name, File tmp) {
+        File file = new File(directory, name);
+
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            delete(name);
+            return;
+        }
+
+        Long old = entries.put(name, file.length());
+        if (old != null) size -= old;
+        size += file.length();
+
+        log(CLEAN, name, file.length());
+        trimToSize();
+    }
+
+    /**
+     * Removes a cached response.
+     *
+     * @param key cache key
+     */
+    synchronized void remove(String key) {
+        if (open()) delete(fileName(key));
+    }
+
+    /**
+     * Deletes all the cached responses.
+     */
+    @SuppressWarnings("unused")
+    public synchronized void clear() {
+        if (!open()) return;
+
+        for (String name : new HashSet<>(entries.keySet())) delete(name);
+
+        rebuildJournal();
+    }
+
+    /**
+     * Changes the size limit, deleting entries if needed.
+     *
+     * @param maxSize maximum size of the cached bodies, in bytes
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+
+        if (open()) trimToSize();
+    }
+
+    /**
+     * Returns the size of the cached responses.
+     *
+     * @return size in bytes
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getSize() {
+        return open() ? size : 0;
+    }
+
+    /**
+     * Opens the cache, replaying the journal, if not already open.
+     *
+     * @return true if the cache can be used, false if the directory is not writable
+     */
+    private boolean open() {
+        if (journal != null) return true;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) return false;
+
+        readJournal();
+
+        //drop files that are not in the journal (leftovers of interrupted writes) and entries without a file
+        HashSet<String> known = new HashSet<>(entries.keySet());
+        File[] files = directory.listFiles();
+
+        if (files != null)
+            for (File f : files) {
+                String name = f.getName();
+                if (!name.equals(JOURNAL) && !known.remove(name)) f.delete();
+            }
+
+        for (String name : known) {
+            Long length = entries.remove(name);
+            if (length != null) size -= length;
+        }
+
+        rebuildJournal();
+        trimToSize();
+
+        return journal != null;
+    }
+
+    private void readJournal() {
+        File file = new File(directory, JOURNAL);
+
+        if (!file.exists()) return;
+
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+
+                if (parts.length < 2) continue;
+
+                Long old;
+
+                switch (parts[0]) {
+                    case CLEAN:
+                        if (parts.length < 3) break;
+                        old = entries.put(parts[1], Long.parseLong(parts[2]));
+                        if (old != null) size -= old;
+                        size += Long.parseLong(parts[2]);
+                        break;
+                    case READ:
+                        entries.get(parts[1]);
+                        break;
+                    case REMOVE:
+                        old = entries.remove(parts[1]);
+                        if (old != null) size -= old;
+                        break;
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+            //a truncated journal keeps the entries read so far
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Rewrites the journal with just the current entries, in access order.
+     */
+    private void rebuildJournal() {
+        closeQuietly(journal);
+        journal = null;
+
+        File tmp = new File(directory, JOURNAL_TMP);
+        Writer writer = null;
+
+        try {
+            writer = new BufferedWriter(new FileWriter(tmp));
+
+            for (Map.Entry<String, Long> e : entries.entrySet())
+                writer.write(CLEAN + " " + e.getKey() + " " + e.getValue() + "\n");
+
+            writer.close();
+            writer = null;
+
+            if (!tmp.renameTo(new File(directory, JOURNAL))) throw new IOException("Cannot rename " + tmp);
+
+            journal = new BufferedWriter(new FileWriter(new File(directory, JOURNAL), true));
+            redundantOps = 0;
+        } catch (IOException e) {
+            closeQuietly(writer);
+        }
+    }
+
+    private void log(String op, String name, long length) {
+        //the journal could not be rewritten (e.g. disk full): the next open() retries, replaying the old one
+        if (journal == null) return;
+
+        try {
+            journal.write(op + " " + name + (length >= 0 ? " " + length : "") + "\n");
+            journal.flush();
+        } catch (IOException ignored) {}
+
+        if (++redundantOps >= COMPACT_THRESHOLD && redundantOps >= entries.size()) rebuildJournal();
+    }
+
+    private void delete(String name) {
+        new File(directory, name).delete();
+
+        Long old = entries.remove(name);
+
+        if (old != null) {
+            size -= old;
+            log(REMOVE, name, -1);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            size -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+            log(REMOVE, eldest.getKey(), -1);
+        }
+    }
+
+    /**
+     * Maps a key to a file name (hex MD5 of the key).
+     */
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    private static String emptyToNull(String s) {
+        return s.length() == 0 ? null : s;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) closeable.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * A cached response: validators and body.
+     */
+    static class Snapshot {
+
+        final File file;
+        String etag;
+        String lastModified;
+
+        Snapshot(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Opens the stored body. The caller must close the stream.
+         *
+         * @return the body
+         * @throws IOException if the entry has been deleted in the meantime
+         */
+        InputStream openBody() throws IOException {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+            try {
+                in.readUTF();
+                in.readUTF();
+            } catch (IOException e) {
+                closeQuietly(in);
+                throw e;
+            }
+
+            return in;
+        }
+    }
+
+    /**
+     * Writes an entry to a temporary file. Write errors, or a body larger than the cache, do not interrupt the
+     * writer: they simply make the commit fail.
+     */
+    class Editor extends OutputStream {
+
+        private final String name;
+        private final File tmp;
+        private final DataOutputStream out;
+        private boolean failed;
+        private long written;
+
+        Editor(String name, File tmp) throws IOException {
+            this.name = name;
+            this.tmp = tmp;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            if (failed) return;
+
+            written += length;
+
+            try {
+                if (written > maxSize) throw new IOException("Entry too large");
+                out.write(buffer, offset, length);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        /**
+         * Publishes the entry, unless a write failed.
+         */
+        void commit() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                failed = true;
+            }
+
+            if (failed) tmp.delete();
+            else DiskCache.this.commit(name, tmp);
+        }
+
+        /**
+         * Discards the entry.
+         */
+        void abort() {
+            closeQuietly(out);
+            tmp.delete();
+        }
+    }
+}
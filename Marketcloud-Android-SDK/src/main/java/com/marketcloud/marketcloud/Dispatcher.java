@@ -0,0 +1,284 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatcher class. <br />
+ * <br />
+ * Runs the asynchronous requests on a bounded pool of background threads. When all the threads are busy the
+ * requests wait in a bounded queue; when the queue is full too, the request fails immediately with a
+ * RejectedExecutionException. <br />
+ * The callbacks are delivered on the main thread.
+ */
+public class Dispatcher {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+
+    private static Dispatcher defaultDispatcher;
+
+    //time the call running on the current thread waited before starting, in nanoseconds
+    private static final ThreadLocal<long[]> QUEUE_TIME = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler;
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Constructor. Uses the default number of threads and queue size.
+     */
+    public Dispatcher() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param threads maximum number of requests running at the same time
+     * @param queueSize maximum number of requests waiting for a thread
+     */
+    public Dispatcher(int threads, int queueSize) {
+        executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize),
+                new DispatcherThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+
+        Looper mainLooper = Looper.getMainLooper();
+        mainHandler = mainLooper != null ? new Handler(mainLooper) : null;
+    }
+
+    /**
+     * Returns the dispatcher shared by all the instances that have not been given a dispatcher of their own.
+     *
+     * @return the process-wide dispatcher
+     */
+    public static synchronized Dispatcher getDefault() {
+        if (defaultDispatcher == null) defaultDispatcher = new Dispatcher();
+
+        return defaultDispatcher;
+    }
+
+    /**
+     * Schedules a call on the background threads.
+     *
+     * @param call the (blocking) call to run
+     * @param callback receives the result, can be null
+     * @param <T> type of the result
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    public <T> Future<T> submit(Callable<T> call, Callback<T> callback) {
+        Call<T> task = new Call<>(call, callback);
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.fail(e);
+        }
+
+        return task;
+    }
+
+    /**
+     * Schedules a task on the background threads, without a callback.
+     *
+     * @param task the task
+     * @return false if the queue is full and the task has not been scheduled
+     */
+    boolean execute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Schedules a task on the background threads after a delay. The timer only hands the task over to the
+     * pool, so a slow task never delays the others.
+     *
+     * @param task the task
+     * @param delay delay in milliseconds
+     */
+    void schedule(final Runnable task, long delay) {
+        synchronized (this) {
+            if (timer == null) {
+                timer = new ScheduledThreadPoolExecutor(1, new DispatcherThreadFactory());
+                timer.setKeepAliveTime(60, TimeUnit.SECONDS);
+                timer.allowCoreThreadTimeOut(true);
+            }
+        }
+
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                //with a full queue, the timer thread runs the task itself rather than dropping it
+                if (!execute(task)) task.run();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a call that forwards its outcome to a callback, without scheduling it: it runs when the caller
+     * invokes its run() method.
+     *
+     * @param call the call
+     * @param callback receives the result, can be null
+     * @param <T> type of the result
+     * @return the call
+     */
+    <T> RunnableFuture<T> prepare(Callable<T> call, Callback<T> callback) {
+        return new Call<>(call, callback);
+    }
+
+    /**
+     * Returns the time the call running on the current thread waited before starting, and resets it, so only
+     * the first request of the call is charged with it.
+     *
+     * @return time in nanoseconds, 0 if the current thread is not running a call
+     */
+    static long takeQueueTime() {
+        long[] time = QUEUE_TIME.get();
+
+        if (time == null) return 0;
+
+        long t = time[0];
+        time[0] = 0;
+
+        return t;
+    }
+
+    /**
+     * Returns the number of requests that are running or waiting for a thread.
+     *
+     * @return pending requests
+     */
+    @SuppressWarnings("unused")
+    public int getPendingCount() {
+        return executor.getActiveCount() + executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting new requests; the pending ones are still completed.
+     */
+    @SuppressWarnings("unused")
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Posts a runnable on the main thread, or runs it on the current thread if there is no main looper.
+     *
+     * @param runnable the runnable
+     */
+    void deliver(Runnable runnable) {
+        if (mainHandler != null) mainHandler.post(runnable);
+        else runnable.run();
+    }
+
+    /**
+     * A cancellable call that forwards its outcome to a callback.
+     */
+    private class Call<T> extends FutureTask<T> {
+
+        private final Callback<T> callback;
+        private final long created;
+
+        Call(Callable<T> call, Callback<T> cb) {
+            super(call);
+            callback = cb;
+            created = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            QUEUE_TIME.set(new long[]{System.nanoTime() - created});
+
+            try {
+                super.run();
+            } finally {
+                QUEUE_TIME.remove();
+            }
+        }
+
+        void fail(Throwable error) {
+            setException(error);
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) return;
+
+            T result = null;
+            Throwable error = null;
+
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            } catch (InterruptedException e) {
+                error = e;
+            }
+
+            final T r = result;
+            final Throwable t = error;
+
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCancelled()) return;
+
+                    if (t == null) callback.onSuccess(r);
+                    else callback.onFailure(t);
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so the pool never keeps the process alive.
+     */
+    private static class DispatcherThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Marketcloud-Dispatcher-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
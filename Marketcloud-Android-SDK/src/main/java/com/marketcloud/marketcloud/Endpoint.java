@@ -0,0 +1,194 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Endpoint class. <br />
+ * <br />
+ * A resource of the APIs (e.g. "http://api.marketcloud.it/v0/products"), compiled once: the prefixes of its
+ * item and list urls and the names used by the caches and the metrics are computed when the endpoint is
+ * created, so building the url of a request is a single pass over the id or the filters. <br />
+ * The urls are built in a StringBuilder reused by the calling thread, and the names and values of the filters
+ * are percent-encoded (RFC 3986) while they are appended.
+ */
+public final class Endpoint {
+
+    //a builder per thread; a builder grown past this size is not kept
+    private static final int MAX_POOLED_CAPACITY = 4096;
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<>();
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    //the endpoints compiled from the urls given to the public methods of Utilities and Pager
+    private static final ConcurrentHashMap<String, Endpoint> COMPILED = new ConcurrentHashMap<>();
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) UNRESERVED[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) UNRESERVED[c] = true;
+        for (char c = '0'; c <= '9'; c++) UNRESERVED[c] = true;
+        UNRESERVED['-'] = UNRESERVED['.'] = UNRESERVED['_'] = UNRESERVED['~'] = true;
+    }
+
+    private final String url;
+    private final String itemPrefix;
+    private final String listPrefix;
+    private final String resource;
+
+    /**
+     * Constructor.
+     *
+     * @param url url of the resource, with or without a trailing "/" or "?"
+     */
+    public Endpoint(String url) {
+        int end = url.length();
+        while (end > 0 && (url.charAt(end - 1) == '/' || url.charAt(end - 1) == '?')) end--;
+
+        this.url = url.substring(0, end);
+        itemPrefix = this.url + "/";
+        listPrefix = this.url + "?";
+        resource = ResponseCache.resourceOf(this.url);
+    }
+
+    /**
+     * Returns the endpoint of an url, compiling it on the first call.
+     *
+     * @param url url of the resource, with or without a trailing "/" or "?"
+     * @return the endpoint
+     */
+    static Endpoint of(String url) {
+        Endpoint e = COMPILED.get(url);
+
+        if (e == null) {
+            Endpoint created = new Endpoint(url);
+            e = COMPILED.putIfAbsent(url, created);
+
+            if (e == null) e = created;
+        }
+
+        return e;
+    }
+
+    /**
+     * Returns the url of the resource.
+     *
+     * @return the url, e.g. "http://api.marketcloud.it/v0/products"
+     */
+    public String url() {
+        return url;
+    }
+
+    /**
+     * Returns the url of an item of the resource.
+     *
+     * @param id id of the item
+     * @return the url, e.g. "http://api.marketcloud.it/v0/products/12"
+     */
+    public String url(int id) {
+        return builder(itemPrefix).append(id).toString();
+    }
+
+    /**
+     * Returns the url of a filtered list of the resource.
+     *
+     * @param filters the filters (name -> value); null or empty for the whole list
+     * @return the url, e.g. "http://api.marketcloud.it/v0/products?category_id=3&price_lt=10"
+     */
+    public String url(Map<String, ?> filters) {
+        StringBuilder sb = builder(listPrefix);
+
+        if (filters != null) {
+            boolean first = true;
+
+            for (Map.Entry<String, ?> entry : filters.entrySet()) {
+                if (!first) sb.append('&');
+                first = false;
+
+                encode(sb, entry.getKey());
+                sb.append('=');
+                encode(sb, String.valueOf(entry.getValue()));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the name of the resource, as used by the {@link ResponseCache}.
+     *
+     * @return the last segment of the url, e.g. "products"
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+
+    /**
+     * Appends a string to a builder, percent-encoding the characters that are not unreserved.
+     *
+     * @param sb the builder
+     * @param s the string
+     */
+    static void encode(StringBuilder sb, String s) {
+        int length = s.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+
+            if (c < 128) {
+                if (UNRESERVED[c]) sb.append(c);
+                else appendByte(sb, c);
+                continue;
+            }
+
+            //a non-ASCII character (or surrogate pair) is encoded as its UTF-8 bytes
+            int count = Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1)) ? 2 : 1;
+
+            try {
+                for (byte b : s.substring(i, i + count).getBytes("UTF-8")) appendByte(sb, b & 0xFF);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+
+            i += count - 1;
+        }
+    }
+
+    private static void appendByte(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+    }
+
+    private static StringBuilder builder(String prefix) {
+        StringBuilder sb = BUILDER.get();
+
+        if (sb == null || sb.capacity() > MAX_POOLED_CAPACITY) {
+            sb = new StringBuilder(256);
+            BUILDER.set(sb);
+        }
+
+        sb.setLength(0);
+
+        return sb.append(prefix);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+import cz.msebera.android.httpclient.conn.scheme.SchemeLayeredSocketFactory;
+import cz.msebera.android.httpclient.conn.ssl.SSLSocketFactory;
+import cz.msebera.android.httpclient.protocol.HttpContext;
+
+/**
+ * EndpointConfig class. <br />
+ * <br />
+ * Where the requests of a {@link Marketcloud} instance are sent: the base url of the APIs (scheme, host, port
+ * and path), that all the resource classes resolve against, and the TLS settings of the https connections. The
+ * TLS settings apply to the connections to the host and port of the base url only. <br />
+ * The TLS sessions are cached by host and port, so a connection opened after the pool has closed the idle ones
+ * resumes the previous session with an abbreviated handshake instead of a full one.
+ */
+public class EndpointConfig {
+
+    public static final String DEFAULT_HOST = "api.marketcloud.it";
+    public static final String DEFAULT_BASE_URL = Endpoints.DEFAULT_BASE_URL;
+    public static final String SECURE_BASE_URL = "https://" + DEFAULT_HOST + "/v0/";
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 64;
+    public static final int DEFAULT_SESSION_TIMEOUT = 24 * 60 * 60;
+
+    private final String baseUrl;
+    private final String scheme;
+    private final String host;
+    private final int port;
+    private final SSLContext sslContext;
+    private final int sessionCacheSize;
+    private final int sessionTimeout;
+    private SSLContext configuredContext;
+    @SuppressWarnings("deprecation") //the socket factory type of the HttpClient 4.3 scheme registry
+    private SchemeLayeredSocketFactory socketFactory;
+
+    /**
+     * Constructor. Uses the default base url ({@link #DEFAULT_BASE_URL}).
+     */
+    public EndpointConfig() {
+        this(DEFAULT_BASE_URL);
+    }
+
+    /**
+     * Constructor. The https connections use the default trust store and TLS session cache.
+     *
+     * @param baseUrl url the resources are relative to, e.g. {@link #SECURE_BASE_URL} or the url of a local
+     *                stand-in such as "http://10.0.2.2:8080/v0/"
+     */
+    public EndpointConfig(String baseUrl) {
+        this(baseUrl, null, DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param baseUrl url the resources are relative to, with the scheme "http" or "https"
+     * @param sslContext context of the https connections (e.g. with the trust store of a staging server), or null
+     *                   for a context with the default trust store
+     * @param sessionCacheSize maximum number of TLS sessions kept for resumption, 0 for no limit
+     * @param sessionTimeout time (in seconds) after which a cached TLS session is not resumed, 0 for no limit
+     */
+    public EndpointConfig(String baseUrl, SSLContext sslContext, int sessionCacheSize, int sessionTimeout) {
+        URI uri;
+
+        try {
+            uri = new URI(baseUrl);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid base url: " + baseUrl, e);
+        }
+
+        scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.US) : null;
+
+        if (!"http".equals(scheme) && !"https".equals(scheme))
+            throw new IllegalArgumentException("The base url must be http or https: " + baseUrl);
+        if (uri.getHost() == null) throw new IllegalArgumentException("The base url has no host: " + baseUrl);
+        if (sessionCacheSize < 0 || sessionTimeout < 0) throw new IllegalArgumentException("Negative session cache settings");
+
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        host = uri.getHost();
+        port = uri.getPort();
+        this.sslContext = sslContext;
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    /**
+     * Returns the base url the resources are relative to.
+     *
+     * @return the base url, ending with "/"
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Returns the scheme of the base url.
+     *
+     * @return "http" or "https"
+     */
+    @SuppressWarnings("unused")
+    public String getScheme() {
+        return scheme;
+    }
+
+    /**
+     * Returns the host of the base url, that is also the domain of the stored session cookies.
+     *
+     * @return the host name
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the port of the base url.
+     *
+     * @return the port, or -1 for the default port of the scheme
+     */
+    @SuppressWarnings("unused")
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Tells if the requests are sent over TLS.
+     *
+     * @return true if the scheme is https
+     */
+    public boolean isSecure() {
+        return "https".equals(scheme);
+    }
+
+    /**
+     * Returns the port of the base url, or the default port of its scheme.
+     *
+     * @return the port
+     */
+    int getEffectivePort() {
+        return port != -1 ? port : isSecure() ? 443 : 80;
+    }
+
+    /**
+     * Returns the socket factory of the https connections of the connection pool to the host of the base url.
+     *
+     * @return the socket factory
+     */
+    @SuppressWarnings("deprecation") //the socket factory type of the HttpClient 4.3 scheme registry
+    synchronized SchemeLayeredSocketFactory getSocketFactory() {
+        if (socketFactory == null) socketFactory = new LayeredSocketFactory(getSslContext());
+
+        return socketFactory;
+    }
+
+    /**
+     * Returns the TLS context of the https connections, creating it and configuring its session cache the first
+     * time.
+     *
+     * @return the context
+     */
+    synchronized SSLContext getSslContext() {
+        if (configuredContext == null) {
+            SSLContext context = sslContext;
+
+            if (context == null) {
+                try {
+                    //a context of our own, so the session cache settings do not change the rest of the application
+                    context = SSLContext.getInstance("TLS");
+                    context.init(null, null, null);
+                } catch (NoSuchAlgorithmException | KeyManagementException e) {
+                    throw new IllegalStateException("TLS is not available", e);
+                }
+            }
+
+            SSLSessionContext sessions = context.getClientSessionContext();
+
+            if (sessions != null) {
+                sessions.setSessionCacheSize(sessionCacheSize);
+                sessions.setSessionTimeout(sessionTimeout);
+            }
+
+            configuredContext = context;
+        }
+
+        return configuredContext;
+    }
+
+    /**
+     * The https socket factory of the pool. The stock factory connects the TLS socket to the resolved address,
+     * so the handshake may not know the host name: on Android no SNI is sent, and the session is not found in
+     * the cache by host and port. Here the connection is opened as a plain socket, and the TLS socket is layered
+     * over it with the host name and the port of the request.
+     */
+    @SuppressWarnings("deprecation") //the socket factory type of the HttpClient 4.3 scheme registry
+    private static class LayeredSocketFactory extends SSLSocketFactory {
+
+        LayeredSocketFactory(SSLContext context) {
+            super(context, BROWSER_COMPATIBLE_HOSTNAME_VERIFIER);
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return new Socket();
+        }
+    }
+}
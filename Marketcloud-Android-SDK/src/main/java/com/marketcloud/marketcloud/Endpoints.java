@@ -0,0 +1,94 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+/**
+ * Endpoints class. <br />
+ * <br />
+ * The registry of the resources of the APIs, compiled once from the base url (see {@link Endpoint}). Every
+ * {@link Connect} owns a registry, that all the resource classes sharing the connection resolve their urls
+ * against.
+ */
+public final class Endpoints {
+
+    public static final String DEFAULT_BASE_URL = "http://api.marketcloud.it/v0/";
+
+    private static Endpoints defaultEndpoints;
+
+    final String baseUrl;
+    final Endpoint addresses;
+    final Endpoint brands;
+    final Endpoint carts;
+    final Endpoint categories;
+    final Endpoint currencies;
+    final Endpoint orders;
+    final Endpoint products;
+    final Endpoint shippings;
+    final Endpoint taxes;
+    final Endpoint users;
+    final Endpoint authenticate;
+
+    /**
+     * Constructor.
+     *
+     * @param baseUrl url the resources are relative to, e.g. "http://api.marketcloud.it/v0/"
+     */
+    public Endpoints(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+
+        addresses = resource("addresses");
+        brands = resource("brands");
+        carts = resource("carts");
+        categories = resource("categories");
+        currencies = resource("currencies");
+        orders = resource("orders");
+        products = resource("products");
+        shippings = resource("shippings");
+        taxes = resource("taxes");
+        users = resource("users");
+        authenticate = resource("users/authenticate");
+    }
+
+    /**
+     * Returns the registry of the default base url.
+     *
+     * @return the default endpoints
+     */
+    public static synchronized Endpoints getDefault() {
+        if (defaultEndpoints == null) defaultEndpoints = new Endpoints(DEFAULT_BASE_URL);
+
+        return defaultEndpoints;
+    }
+
+    /**
+     * Returns the base url the resources are relative to.
+     *
+     * @return the base url, ending with "/"
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Compiles a resource relative to the base url.
+     *
+     * @param path path of the resource, e.g. "products"
+     * @return the endpoint
+     */
+    public Endpoint resource(String path) {
+        return new Endpoint(baseUrl + path);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram class. <br />
+ * <br />
+ * A lock-free histogram of non-negative values with logarithmic buckets, in the style of HdrHistogram: every
+ * power of two is split into 16 linear sub-buckets, so a percentile is reported with a relative error below
+ * 6.25% whatever the magnitude of the values, using a fixed array of counters. Recording a value is a few
+ * atomic increments, with no allocation.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value the value; negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            //retry: another thread raised the maximum
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return maximum, 0 if empty
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return mean, 0 if empty
+     */
+    public double getMean() {
+        long c = count.get();
+
+        return c > 0 ? (double) sum.get() / c : 0;
+    }
+
+    /**
+     * Returns a percentile of the recorded values: the upper bound of the bucket that contains it.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value, 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+
+        if (total == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+
+            if (seen >= target) return Math.min(upperBound(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Removes all the recorded values. Values recorded concurrently may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int index(long value) {
+        if (value < 2 * SUB) return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+
+        return (shift + 1) * SUB + (int) ((value >>> shift) - SUB);
+    }
+
+    static long upperBound(int index) {
+        if (index < 2 * SUB) return index;
+
+        int shift = index / SUB - 1;
+        long sub = index % SUB + SUB;
+
+        return ((sub + 1) << shift) - 1;
+    }
+}
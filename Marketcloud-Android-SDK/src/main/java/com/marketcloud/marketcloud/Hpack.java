@@ -0,0 +1,590 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.message.BasicHeader;
+
+/**
+ * Hpack class. <br />
+ * <br />
+ * The header compression of HTTP/2 (RFC 7541). Each side of a connection keeps a dynamic table of the headers it
+ * has recently sent, so a header that repeats across the requests (e.g. the authorization, the same for all the
+ * requests of a session) is sent as a single index after the first time. The literals are Huffman coded when it
+ * makes them shorter. <br />
+ * An {@link Encoder} and a {@link Decoder} belong to one direction of one connection, and must see the header
+ * blocks in the order they are sent on it.
+ */
+final class Hpack {
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    //RFC 7541, appendix A
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    private static final HashMap<String, Integer> STATIC_FIELDS = new HashMap<>();
+    private static final HashMap<String, Integer> STATIC_NAMES = new HashMap<>();
+
+    //the headers whose values change with every request would only push the others out of the table
+    private static final HashSet<String> UNINDEXED = new HashSet<>();
+
+    //RFC 7541, appendix B: the code of each octet, and of the end of string (256)
+    private static final int[] CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    };
+
+    private static final byte[] LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    //the Huffman code as a binary tree: the children of the node n are at 2n and 2n + 1, a leaf holds -(symbol + 1)
+    private static final int[] TREE = new int[512];
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\n' + STATIC_TABLE[i][1], i + 1);
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+        }
+
+        UNINDEXED.add(":path");
+        UNINDEXED.add("content-length");
+        UNINDEXED.add("if-none-match");
+        UNINDEXED.add("if-modified-since");
+        UNINDEXED.add("idempotency-key");
+
+        int nodes = 1;
+
+        for (int symbol = 0; symbol < CODES.length; symbol++) {
+            int node = 0;
+
+            for (int bit = LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int slot = 2 * node + ((CODES[symbol] >>> bit) & 1);
+
+                if (bit == 0) {
+                    TREE[slot] = -(symbol + 1);
+                } else {
+                    if (TREE[slot] == 0) TREE[slot] = nodes++;
+                    node = TREE[slot];
+                }
+            }
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * Encodes the header blocks sent on a connection.
+     */
+    static final class Encoder {
+
+        private final Table table = new Table(DEFAULT_TABLE_SIZE);
+        private int pendingSize = -1;
+        private int smallestSize;
+
+        /**
+         * Limits the size of the table to the one allowed by the peer (its SETTINGS_HEADER_TABLE_SIZE). The change
+         * is signalled at the start of the next header block.
+         *
+         * @param size the maximum size allowed by the peer
+         */
+        void setMaxTableSize(int size) {
+            size = Math.min(size, DEFAULT_TABLE_SIZE);
+
+            if (pendingSize < 0) {
+                if (size == table.maxSize) return;
+                smallestSize = size;
+            } else {
+                smallestSize = Math.min(smallestSize, size);
+            }
+
+            pendingSize = size;
+            table.setMaxSize(size);
+        }
+
+        /**
+         * Encodes a header block.
+         *
+         * @param headers the headers, with lowercase names and the pseudo-headers first
+         * @param out receives the block
+         */
+        void encode(List<Header> headers, ByteArrayOutputStream out) {
+            if (pendingSize >= 0) {
+                //the peer must see the smallest size too, to evict the same entries
+                if (smallestSize < pendingSize) writeInt(out, 0x20, 5, smallestSize);
+                writeInt(out, 0x20, 5, pendingSize);
+                pendingSize = -1;
+            }
+
+            for (int i = 0; i < headers.size(); i++) encode(headers.get(i).getName(), headers.get(i).getValue(), out);
+        }
+
+        private void encode(String name, String value, ByteArrayOutputStream out) {
+            Integer field = STATIC_FIELDS.get(name + '\n' + value);
+
+            if (field != null) {
+                writeInt(out, 0x80, 7, field);
+                return;
+            }
+
+            Integer staticName = STATIC_NAMES.get(name);
+            int nameIndex = staticName != null ? staticName : 0;
+
+            for (int i = 0; i < table.count; i++) {
+                if (!table.name(i).equals(name)) continue;
+
+                if (table.value(i).equals(value)) {
+                    writeInt(out, 0x80, 7, STATIC_TABLE.length + 1 + i);
+                    return;
+                }
+
+                if (nameIndex == 0) nameIndex = STATIC_TABLE.length + 1 + i;
+            }
+
+            if (!UNINDEXED.contains(name) && Table.size(name, value) <= table.maxSize) {
+                //literal with incremental indexing
+                writeInt(out, 0x40, 6, nameIndex);
+                if (nameIndex == 0) writeString(out, name);
+                writeString(out, value);
+
+                table.add(name, value);
+            } else {
+                //literal without indexing
+                writeInt(out, 0x00, 4, nameIndex);
+                if (nameIndex == 0) writeString(out, name);
+                writeString(out, value);
+            }
+        }
+    }
+
+    /**
+     * Decodes the header blocks received on a connection.
+     */
+    static final class Decoder {
+
+        private final Table table = new Table(DEFAULT_TABLE_SIZE);
+        private byte[] buffer;
+        private int position;
+        private int end;
+
+        /**
+         * Decodes a header block.
+         *
+         * @param block the block
+         * @param offset start of the block
+         * @param length length of the block
+         * @param headers receives the headers, in order
+         * @throws IOException if the block is malformed; the connection cannot be used any further
+         */
+        void decode(byte[] block, int offset, int length, List<Header> headers) throws IOException {
+            buffer = block;
+            position = offset;
+            end = offset + length;
+
+            boolean fields = false;
+
+            try {
+                while (position < end) {
+                    int b = buffer[position] & 0xff;
+
+                    if ((b & 0x80) != 0) {
+                        //indexed field
+                        int index = readInt(7);
+                        headers.add(new BasicHeader(name(index), value(index)));
+                        fields = true;
+                    } else if ((b & 0xc0) == 0x40) {
+                        //literal with incremental indexing
+                        int index = readInt(6);
+                        String name = index == 0 ? readString() : name(index);
+                        String value = readString();
+
+                        table.add(name, value);
+                        headers.add(new BasicHeader(name, value));
+                        fields = true;
+                    } else if ((b & 0xe0) == 0x20) {
+                        //dynamic table size update, only allowed before the fields
+                        int size = readInt(5);
+
+                        if (fields || size > DEFAULT_TABLE_SIZE) throw new IOException("Invalid table size update: " + size);
+
+                        table.setMaxSize(size);
+                    } else {
+                        //literal without indexing, or never indexed
+                        int index = readInt(4);
+                        String name = index == 0 ? readString() : name(index);
+
+                        headers.add(new BasicHeader(name, readString()));
+                        fields = true;
+                    }
+                }
+            } finally {
+                buffer = null;
+            }
+        }
+
+        private String name(int index) throws IOException {
+            if (index > 0 && index <= STATIC_TABLE.length) return STATIC_TABLE[index - 1][0];
+
+            return table.name(dynamicIndex(index));
+        }
+
+        private String value(int index) throws IOException {
+            if (index > 0 && index <= STATIC_TABLE.length) return STATIC_TABLE[index - 1][1];
+
+            return table.value(dynamicIndex(index));
+        }
+
+        private int dynamicIndex(int index) throws IOException {
+            int i = index - STATIC_TABLE.length - 1;
+
+            if (i < 0 || i >= table.count) throw new IOException("Invalid header index: " + index);
+
+            return i;
+        }
+
+        private int readInt(int prefixBits) throws IOException {
+            int max = (1 << prefixBits) - 1;
+            int value = buffer[position++] & max;
+
+            if (value < max) return value;
+
+            for (int shift = 0; shift <= 21; shift += 7) {
+                if (position >= end) break;
+
+                int b = buffer[position++] & 0xff;
+                value += (b & 0x7f) << shift;
+
+                if ((b & 0x80) == 0) return value;
+            }
+
+            throw new IOException("Invalid integer in a header block");
+        }
+
+        private String readString() throws IOException {
+            if (position >= end) throw new IOException("Truncated header block");
+
+            boolean huffman = (buffer[position] & 0x80) != 0;
+            int length = readInt(7);
+
+            if (length > end - position) throw new IOException("Truncated header block");
+
+            String s = huffman ? huffmanDecode(buffer, position, length) : new String(buffer, position, length, ISO_8859_1);
+            position += length;
+
+            return s;
+        }
+    }
+
+    /**
+     * The dynamic table: the newest entry has index 0, and the oldest ones are evicted to stay within the size.
+     */
+    private static final class Table {
+
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int first;
+        int count;
+        private int size;
+        int maxSize;
+
+        Table(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @return the size of an entry, as defined by the RFC
+         */
+        static int size(String name, String value) {
+            return name.length() + value.length() + 32;
+        }
+
+        String name(int i) {
+            return names[(first + i) % names.length];
+        }
+
+        String value(int i) {
+            return values[(first + i) % values.length];
+        }
+
+        void add(String name, String value) {
+            int entry = size(name, value);
+
+            //an entry larger than the table empties it
+            while (count > 0 && size + entry > maxSize) evict();
+
+            if (entry > maxSize) return;
+
+            if (count == names.length) {
+                String[] n = new String[count * 2];
+                String[] v = new String[count * 2];
+
+                for (int i = 0; i < count; i++) {
+                    n[i] = name(i);
+                    v[i] = value(i);
+                }
+
+                names = n;
+                values = v;
+                first = 0;
+            }
+
+            first = (first - 1 + names.length) % names.length;
+            names[first] = name;
+            values[first] = value;
+            count++;
+            size += entry;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+
+            while (size > maxSize) evict();
+        }
+
+        private void evict() {
+            int last = (first + count - 1) % names.length;
+
+            size -= size(names[last], values[last]);
+            names[last] = values[last] = null;
+            count--;
+        }
+    }
+
+    /**
+     * Writes an integer with an n-bit prefix.
+     *
+     * @param out the output
+     * @param flags the bits of the first byte above the prefix
+     * @param prefixBits size of the prefix
+     * @param value the value
+     */
+    private static void writeInt(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+
+        out.write(flags | max);
+        value -= max;
+
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write(value);
+    }
+
+    /**
+     * Writes a string literal, Huffman coded if it is shorter.
+     */
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        long bits = 0;
+
+        for (int i = 0; i < s.length(); i++) bits += LENGTHS[octet(s.charAt(i))];
+
+        int huffmanLength = (int) ((bits + 7) / 8);
+
+        if (huffmanLength >= s.length()) {
+            writeInt(out, 0x00, 7, s.length());
+            for (int i = 0; i < s.length(); i++) out.write(octet(s.charAt(i)));
+            return;
+        }
+
+        writeInt(out, 0x80, 7, huffmanLength);
+
+        long pending = 0;
+        int pendingBits = 0;
+
+        for (int i = 0; i < s.length(); i++) {
+            int c = octet(s.charAt(i));
+
+            pending = (pending << LENGTHS[c]) | CODES[c];
+            pendingBits += LENGTHS[c];
+
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                out.write((int) (pending >>> pendingBits) & 0xff);
+            }
+        }
+
+        //padded with the most significant bits of the end of string, that are all ones
+        if (pendingBits > 0) out.write((int) ((pending << (8 - pendingBits)) | (0xff >>> pendingBits)) & 0xff);
+    }
+
+    private static String huffmanDecode(byte[] buffer, int offset, int length) throws IOException {
+        StringBuilder sb = new StringBuilder(length + length / 2);
+        int node = 0;
+        int depth = 0;
+        boolean ones = true;
+
+        for (int i = offset; i < offset + length; i++) {
+            int b = buffer[i] & 0xff;
+
+            for (int bit = 7; bit >= 0; bit--) {
+                int x = (b >>> bit) & 1;
+                int child = TREE[2 * node + x];
+
+                depth++;
+                ones &= x == 1;
+
+                if (child < 0) {
+                    if (child == -257) throw new IOException("End of string in a Huffman literal");
+
+                    sb.append((char) (-child - 1));
+                    node = 0;
+                    depth = 0;
+                    ones = true;
+                } else {
+                    node = child;
+                }
+            }
+        }
+
+        //the padding is shorter than a byte, and made of the first bits of the end of string
+        if (depth > 7 || !ones) throw new IOException("Invalid padding of a Huffman literal");
+
+        return sb.toString();
+    }
+
+    /**
+     * @return the octet of a character of a header (not ISO-8859-1 characters are replaced, as the encoder does)
+     */
+    private static int octet(char c) {
+        return c <= 0xff ? c : '?';
+    }
+}
@@ -0,0 +1,945 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import cz.msebera.android.httpclient.Header;
+
+/**
+ * Http2Connection class. <br />
+ * <br />
+ * A client HTTP/2 connection (RFC 7540), as used by {@link Http2Transport}: the requests are sent as concurrent
+ * streams over the same socket, their headers compressed with {@link Hpack}. A reader thread receives the frames
+ * of all the streams and hands them to the threads waiting for the responses. <br />
+ * Both directions are flow controlled: a request body is sent as fast as the windows granted by the server allow,
+ * and the window of a response is granted back as its body is consumed, so a slow consumer only holds back its
+ * own stream. Server push is disabled.
+ */
+final class Http2Connection {
+
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Charset.forName("US-ASCII"));
+
+    //frame types
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    //frame flags
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    //settings
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    //error codes
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    //the windows granted to the server: a response body does not wait for the consumer until 1 MB is buffered
+    static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+    static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private static final int MAX_HEADER_BLOCK = 256 * 1024;
+    private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final int timeout;
+
+    //the frames are written under this lock, in the order the header blocks are encoded
+    private final Object writeLock = new Object();
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private int nextStreamId = 1;
+
+    //used by the reader thread only
+    private final Hpack.Decoder decoder = new Hpack.Decoder();
+    private final byte[] payload = new byte[DEFAULT_MAX_FRAME_SIZE];
+    private int receivedBytes;
+
+    //the state below is guarded by this
+    private final HashMap<Integer, Stream> streams = new HashMap<>();
+    private int reservedStreams;
+    private int maxConcurrentStreams = Integer.MAX_VALUE;
+    private int initialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private long sendWindow = DEFAULT_WINDOW_SIZE;
+    private boolean shutdown;
+    private IOException failure;
+    private long idleSince = System.currentTimeMillis();
+    private volatile long lastFrameTime;
+
+    /**
+     * Constructor. The connection must be started with {@link #start()}.
+     *
+     * @param socket the connected socket (TLS already negotiated, for https)
+     * @param timeout time (in milliseconds) to wait for the server before failing a request
+     */
+    Http2Connection(Socket socket, int timeout) throws IOException {
+        this.socket = socket;
+        this.timeout = timeout;
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), DEFAULT_MAX_FRAME_SIZE + 9));
+        out = new BufferedOutputStream(socket.getOutputStream(), DEFAULT_MAX_FRAME_SIZE + 9);
+    }
+
+    /**
+     * Sends the connection preface and waits for the settings of the server, then starts the reader thread.
+     *
+     * @throws NotHttp2 if the server does not answer with HTTP/2 frames
+     */
+    void start() throws IOException {
+        socket.setSoTimeout(timeout);
+
+        synchronized (writeLock) {
+            out.write(PREFACE);
+
+            byte[] settings = new byte[12];
+            setting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+            setting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+            writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+            writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+            out.flush();
+        }
+
+        //the first frame of the server must be its settings: anything else (e.g. an HTTP/1.1 error) is not HTTP/2
+        byte[] header = new byte[9];
+
+        try {
+            in.readFully(header);
+        } catch (EOFException | SocketTimeoutException e) {
+            throw new NotHttp2("No HTTP/2 preface from the server");
+        }
+
+        int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+
+        if (header[3] != SETTINGS || (header[4] & FLAG_ACK) != 0 || length % 6 != 0 || length > payload.length)
+            throw new NotHttp2("No HTTP/2 preface from the server");
+
+        in.readFully(payload, 0, length);
+        onSettings(length);
+
+        socket.setSoTimeout(0);
+        lastFrameTime = System.nanoTime();
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, "Marketcloud HTTP/2 reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Tells if new requests can be sent on this connection.
+     *
+     * @return false after a failure, a GOAWAY or a shutdown
+     */
+    synchronized boolean isUsable() {
+        return !shutdown;
+    }
+
+    /**
+     * Closes the connection if it has carried no requests for longer than the keep-alive time.
+     *
+     * @param keepAlive the keep-alive time, in milliseconds
+     * @return true if the connection is (now) closed
+     */
+    boolean closeIfIdle(long keepAlive) {
+        synchronized (this) {
+            if (!shutdown && (!streams.isEmpty() || System.currentTimeMillis() - idleSince < keepAlive)) return false;
+
+            shutdown = true;
+
+            if (!streams.isEmpty()) return false;
+        }
+
+        close(NO_ERROR);
+
+        return true;
+    }
+
+    /**
+     * Stops taking new requests: the requests in progress go on, and the connection is closed after the last one.
+     */
+    void drain() {
+        synchronized (this) {
+            if (shutdown) return;
+
+            shutdown = true;
+            notifyAll();
+
+            if (!streams.isEmpty()) return;
+        }
+
+        close(NO_ERROR);
+    }
+
+    /**
+     * Closes the connection, failing the requests in progress.
+     */
+    void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+        }
+
+        close(NO_ERROR);
+        fail(new IOException("Connection shut down"));
+    }
+
+    /**
+     * Opens a stream and sends the headers of a request.
+     *
+     * @param headers the headers, with lowercase names and the pseudo-headers first
+     * @param endStream true if the request has no body
+     * @return the stream, that is also the body of the response
+     * @throws Refused if the connection cannot take new streams
+     */
+    Stream newStream(List<Header> headers, boolean endStream) throws IOException {
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeout;
+
+            //beyond the limit of the server, wait for a running request to end
+            while (!shutdown && reservedStreams >= maxConcurrentStreams) waitUntil(deadline);
+
+            if (shutdown) throw new Refused("Connection shut down");
+
+            reservedStreams++;
+        }
+
+        Stream stream;
+
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (shutdown || nextStreamId > MAX_STREAM_ID - 2) {
+                    reservedStreams--;
+                    shutdown = true;
+                    notifyAll();
+
+                    throw new Refused("Connection shut down");
+                }
+
+                stream = new Stream(nextStreamId, initialWindowSize);
+                nextStreamId += 2;
+                streams.put(stream.id, stream);
+            }
+
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            encoder.encode(headers, block);
+
+            try {
+                writeHeaders(stream.id, block.toByteArray(), endStream);
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        return stream;
+    }
+
+    /**
+     * Reads the frames of the server until the connection fails or is closed.
+     */
+    private void read() {
+        byte[] header = new byte[9];
+
+        try {
+            while (true) {
+                in.readFully(header);
+                lastFrameTime = System.nanoTime();
+
+                int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = readInt(header, 5) & 0x7fffffff;
+
+                if (length > payload.length) throw new ConnectionError(FRAME_SIZE_ERROR, "Frame too large: " + length);
+
+                in.readFully(payload, 0, length);
+
+                switch (type) {
+                    case DATA:
+                        onData(streamId, flags, length);
+                        break;
+                    case HEADERS:
+                        onHeaders(streamId, flags, length);
+                        break;
+                    case RST_STREAM:
+                        if (length != 4) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad RST_STREAM");
+                        onReset(streamId, readInt(payload, 0));
+                        break;
+                    case SETTINGS:
+                        if ((flags & FLAG_ACK) != 0) break;
+                        if (length % 6 != 0) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad SETTINGS");
+                        onSettings(length);
+                        break;
+                    case PING:
+                        if (length != 8) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad PING");
+                        if ((flags & FLAG_ACK) != 0) break;
+
+                        synchronized (writeLock) {
+                            writeFrame(PING, FLAG_ACK, 0, payload, 0, 8);
+                            out.flush();
+                        }
+                        break;
+                    case GOAWAY:
+                        if (length < 8) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad GOAWAY");
+                        onGoAway(readInt(payload, 0) & 0x7fffffff, readInt(payload, 4));
+                        break;
+                    case WINDOW_UPDATE:
+                        if (length != 4) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad WINDOW_UPDATE");
+                        onWindowUpdate(streamId, readInt(payload, 0) & 0x7fffffff);
+                        break;
+                    case PUSH_PROMISE:
+                        throw new ConnectionError(PROTOCOL_ERROR, "Server push is disabled");
+                    case CONTINUATION:
+                        throw new ConnectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                    default:
+                        //PRIORITY and the unknown types are ignored
+                        break;
+                }
+            }
+        } catch (ConnectionError e) {
+            close(e.code);
+            fail(e);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void onData(int streamId, int flags, int length) throws IOException {
+        int offset = 0;
+        int padding = 0;
+
+        if ((flags & FLAG_PADDED) != 0) {
+            if (length < 1) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad DATA");
+            padding = payload[0] & 0xff;
+            offset = 1;
+        }
+
+        if (offset + padding > length) throw new ConnectionError(PROTOCOL_ERROR, "Bad padding");
+
+        //the whole frame counts against the window of the connection, which is granted back right away: the
+        //memory is bounded by the windows of the streams
+        receivedBytes += length;
+
+        if (receivedBytes >= CONNECTION_WINDOW_SIZE / 2) {
+            synchronized (writeLock) {
+                writeWindowUpdate(0, receivedBytes);
+                out.flush();
+            }
+
+            receivedBytes = 0;
+        }
+
+        int update = 0;
+
+        synchronized (this) {
+            Stream stream = streams.get(streamId);
+
+            //data of a stream that has been cancelled
+            if (stream == null || stream.remoteClosed) return;
+
+            int size = length - offset - padding;
+
+            if (size > 0) {
+                byte[] data = new byte[size];
+                System.arraycopy(payload, offset, data, 0, size);
+                stream.data.add(data);
+            }
+
+            //the padding is not consumed by the reader of the stream
+            stream.unacknowledged += length - size;
+
+            if ((flags & FLAG_END_STREAM) != 0) {
+                stream.remoteClosed = true;
+            } else if (stream.unacknowledged >= STREAM_WINDOW_SIZE / 2) {
+                update = stream.unacknowledged;
+                stream.unacknowledged = 0;
+            }
+
+            notifyAll();
+        }
+
+        if (update > 0) {
+            synchronized (writeLock) {
+                writeWindowUpdate(streamId, update);
+                out.flush();
+            }
+        }
+    }
+
+    private void onHeaders(int streamId, int flags, int length) throws IOException {
+        int offset = 0;
+        int padding = 0;
+
+        if ((flags & FLAG_PADDED) != 0) {
+            if (length < 1) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad HEADERS");
+            padding = payload[0] & 0xff;
+            offset = 1;
+        }
+
+        if ((flags & FLAG_PRIORITY) != 0) offset += 5;
+
+        if (offset + padding > length) throw new ConnectionError(PROTOCOL_ERROR, "Bad padding");
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(length);
+        block.write(payload, offset, length - offset - padding);
+
+        //the block continues in the frames that follow, with no frames of other streams in between
+        byte[] header = new byte[9];
+        int headerFlags = flags;
+
+        while ((headerFlags & FLAG_END_HEADERS) == 0) {
+            in.readFully(header);
+
+            int continuationLength = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+
+            if (header[3] != CONTINUATION || (readInt(header, 5) & 0x7fffffff) != streamId)
+                throw new ConnectionError(PROTOCOL_ERROR, "Expected CONTINUATION");
+            if (continuationLength > payload.length || block.size() + continuationLength > MAX_HEADER_BLOCK)
+                throw new ConnectionError(FRAME_SIZE_ERROR, "Header block too large");
+
+            in.readFully(payload, 0, continuationLength);
+            block.write(payload, 0, continuationLength);
+            headerFlags = header[4] & 0xff;
+        }
+
+        //decoded even if the stream has been cancelled, to keep the table in sync with the server
+        ArrayList<Header> headers = new ArrayList<>();
+
+        try {
+            decoder.decode(block.toByteArray(), 0, block.size(), headers);
+        } catch (IOException e) {
+            throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+
+        boolean malformed = false;
+
+        synchronized (this) {
+            Stream stream = streams.get(streamId);
+
+            if (stream == null || stream.remoteClosed) return;
+
+            if (stream.headers == null) {
+                String status = headers.isEmpty() || !headers.get(0).getName().equals(":status") ? null : headers.get(0).getValue();
+
+                if (status == null) {
+                    //a response without a status is malformed: only its stream fails
+                    stream.error = new IOException("Malformed response: the headers do not start with :status");
+                    stream.remoteClosed = malformed = true;
+                } else if (!status.startsWith("1")) {
+                    //an interim (1xx) response is followed by the final one
+                    stream.headers = headers;
+                }
+            }
+
+            //the trailers, if any, are ignored
+            if ((flags & FLAG_END_STREAM) != 0) stream.remoteClosed = true;
+
+            notifyAll();
+        }
+
+        if (malformed) {
+            synchronized (writeLock) {
+                writeReset(streamId, PROTOCOL_ERROR);
+                out.flush();
+            }
+        }
+    }
+
+    private synchronized void onReset(int streamId, int code) {
+        Stream stream = streams.get(streamId);
+
+        if (stream == null) return;
+
+        //a refused stream has not been processed, and can be sent again
+        stream.error = code == REFUSED_STREAM && stream.headers == null
+                ? new Refused("Stream refused by the server")
+                : new IOException("Stream reset by the server (error " + code + ")");
+        stream.remoteClosed = true;
+
+        notifyAll();
+    }
+
+    private void onSettings(int length) throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                for (int i = 0; i < length; i += 6) {
+                    int id = (payload[i] & 0xff) << 8 | payload[i + 1] & 0xff;
+                    int value = readInt(payload, i + 2);
+
+                    switch (id) {
+                        case SETTINGS_HEADER_TABLE_SIZE:
+                            //signalled at the start of the next header block, written under the same lock
+                            encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                            break;
+                        case SETTINGS_MAX_CONCURRENT_STREAMS:
+                            maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                            break;
+                        case SETTINGS_INITIAL_WINDOW_SIZE:
+                            if (value < 0) throw new ConnectionError(FLOW_CONTROL_ERROR, "Bad initial window size");
+
+                            //the change applies to the windows of the open streams too
+                            for (Stream stream : streams.values()) stream.sendWindow += value - initialWindowSize;
+                            initialWindowSize = value;
+                            break;
+                        case SETTINGS_MAX_FRAME_SIZE:
+                            if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff)
+                                throw new ConnectionError(PROTOCOL_ERROR, "Bad max frame size");
+
+                            maxFrameSize = value;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+
+                notifyAll();
+            }
+
+            writeFrame(SETTINGS, FLAG_ACK, 0, payload, 0, 0);
+            out.flush();
+        }
+    }
+
+    private void onGoAway(int lastStreamId, int code) {
+        boolean idle;
+
+        synchronized (this) {
+            shutdown = true;
+
+            //the streams above the last one have not been processed, and can be sent again on a new connection
+            for (Stream stream : streams.values()) {
+                if (stream.id > lastStreamId && stream.error == null) {
+                    stream.error = new Refused("Connection closed by the server (error " + code + ")");
+                    stream.remoteClosed = true;
+                }
+            }
+
+            idle = streams.isEmpty();
+            notifyAll();
+        }
+
+        if (idle) close(NO_ERROR);
+    }
+
+    private void onWindowUpdate(int streamId, int increment) throws IOException {
+        if (increment == 0) throw new ConnectionError(PROTOCOL_ERROR, "Empty WINDOW_UPDATE");
+
+        synchronized (this) {
+            if (streamId == 0) {
+                sendWindow += increment;
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream != null) stream.sendWindow += increment;
+            }
+
+            notifyAll();
+        }
+    }
+
+    /**
+     * Fails the connection: the requests in progress that have not received their whole response get the error.
+     */
+    private void fail(IOException e) {
+        synchronized (this) {
+            shutdown = true;
+
+            if (failure == null) failure = e;
+
+            for (Stream stream : streams.values()) {
+                if (!stream.remoteClosed && stream.error == null) {
+                    stream.error = e;
+                    stream.remoteClosed = true;
+                }
+            }
+
+            notifyAll();
+        }
+
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Tells the server that the connection is being closed (best effort), and closes the socket.
+     */
+    private void close(int code) {
+        try {
+            synchronized (writeLock) {
+                byte[] goAway = new byte[8];
+                writeInt(goAway, 0, 0);
+                writeInt(goAway, 4, code);
+                writeFrame(GOAWAY, 0, 0, goAway, 0, goAway.length);
+                out.flush();
+            }
+        } catch (IOException ignored) {}
+
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Releases a stream that is no longer used by its request.
+     */
+    private void release(Stream stream) {
+        boolean reset;
+        boolean close;
+
+        synchronized (this) {
+            if (streams.remove(stream.id) == null) return;
+
+            reservedStreams--;
+            reset = !stream.remoteClosed;
+            close = shutdown && streams.isEmpty();
+
+            if (streams.isEmpty()) idleSince = System.currentTimeMillis();
+
+            notifyAll();
+        }
+
+        if (reset) {
+            try {
+                synchronized (writeLock) {
+                    writeReset(stream.id, CANCEL);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        if (close) close(NO_ERROR);
+    }
+
+    /**
+     * Waits on this connection until notified or the deadline.
+     */
+    private void waitUntil(long deadline) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+
+        if (remaining <= 0) throw new SocketTimeoutException("HTTP/2 stream timed out");
+
+        try {
+            wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        }
+    }
+
+    private void writeReset(int streamId, int code) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, code);
+        writeFrame(RST_STREAM, 0, streamId, payload, 0, payload.length);
+    }
+
+    private void writeHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+        int frameSize;
+
+        synchronized (this) {
+            frameSize = maxFrameSize;
+        }
+
+        int length = Math.min(block.length, frameSize);
+        int flags = (endStream ? FLAG_END_STREAM : 0) | (length == block.length ? FLAG_END_HEADERS : 0);
+
+        writeFrame(HEADERS, flags, streamId, block, 0, length);
+
+        for (int offset = length; offset < block.length; offset += length) {
+            length = Math.min(block.length - offset, frameSize);
+            writeFrame(CONTINUATION, offset + length == block.length ? FLAG_END_HEADERS : 0, streamId, block, offset, length);
+        }
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] frame = new byte[4];
+        writeInt(frame, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, frame, 0, frame.length);
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] data, int offset, int length) throws IOException {
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        out.write(type);
+        out.write(flags);
+        out.write(streamId >>> 24);
+        out.write(streamId >>> 16);
+        out.write(streamId >>> 8);
+        out.write(streamId);
+        out.write(data, offset, length);
+    }
+
+    private static void setting(byte[] buffer, int offset, int id, int value) {
+        buffer[offset] = (byte) (id >>> 8);
+        buffer[offset + 1] = (byte) id;
+        writeInt(buffer, offset + 2, value);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16 | (buffer[offset + 2] & 0xff) << 8 | buffer[offset + 3] & 0xff;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * A request in progress: its body is sent with {@link #send(byte[])}, the headers of the response are awaited
+     * with {@link #awaitHeaders()} and its body is read from the stream itself. Closing the stream before the end
+     * of the response cancels the request.
+     */
+    final class Stream extends InputStream {
+
+        final int id;
+        private final long start = System.nanoTime();
+        private final ArrayDeque<byte[]> data = new ArrayDeque<>();
+        private int position;
+        private long sendWindow;
+        private int unacknowledged;
+        private List<Header> headers;
+        private boolean remoteClosed;
+        private IOException error;
+
+        Stream(int id, int windowSize) {
+            this.id = id;
+            sendWindow = windowSize;
+        }
+
+        /**
+         * Sends the body of the request, as fast as the flow control allows.
+         *
+         * @param body the body
+         */
+        void send(byte[] body) throws IOException {
+            int offset = 0;
+
+            while (offset < body.length) {
+                int length;
+
+                synchronized (Http2Connection.this) {
+                    long deadline = System.currentTimeMillis() + timeout;
+
+                    while (error == null && failure == null && (sendWindow <= 0 || Http2Connection.this.sendWindow <= 0))
+                        waitUntil(deadline);
+
+                    if (error != null) throw error;
+                    if (failure != null) throw failure;
+
+                    length = (int) Math.min(Math.min(body.length - offset, maxFrameSize), Math.min(sendWindow, Http2Connection.this.sendWindow));
+                    sendWindow -= length;
+                    Http2Connection.this.sendWindow -= length;
+                }
+
+                synchronized (writeLock) {
+                    writeFrame(DATA, offset + length == body.length ? FLAG_END_STREAM : 0, id, body, offset, length);
+                    if (offset + length == body.length) out.flush();
+                }
+
+                offset += length;
+            }
+        }
+
+        /**
+         * Waits for the headers of the response.
+         *
+         * @return the headers, starting with ":status"
+         */
+        List<Header> awaitHeaders() throws IOException {
+            synchronized (Http2Connection.this) {
+                long deadline = System.currentTimeMillis() + timeout;
+
+                try {
+                    while (headers == null && !remoteClosed) waitUntil(deadline);
+                } catch (SocketTimeoutException e) {
+                    stalled();
+                    throw e;
+                }
+
+                if (error != null) throw error;
+                if (headers == null) throw new IOException("Stream closed without a response");
+
+                return headers;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+
+            int n;
+            int update = 0;
+
+            synchronized (Http2Connection.this) {
+                long deadline = System.currentTimeMillis() + timeout;
+
+                try {
+                    while (data.isEmpty() && !remoteClosed) waitUntil(deadline);
+                } catch (SocketTimeoutException e) {
+                    stalled();
+                    throw e;
+                }
+
+                if (data.isEmpty()) {
+                    if (error != null) throw error;
+                    return -1;
+                }
+
+                byte[] chunk = data.peek();
+                n = Math.min(length, chunk.length - position);
+                System.arraycopy(chunk, position, buffer, offset, n);
+                position += n;
+
+                if (position == chunk.length) {
+                    data.poll();
+                    position = 0;
+                }
+
+                //the window is granted back as the body is consumed
+                unacknowledged += n;
+
+                if (!remoteClosed && unacknowledged >= STREAM_WINDOW_SIZE / 2) {
+                    update = unacknowledged;
+                    unacknowledged = 0;
+                }
+            }
+
+            if (update > 0) {
+                synchronized (writeLock) {
+                    writeWindowUpdate(id, update);
+                    out.flush();
+                }
+            }
+
+            return n;
+        }
+
+        @Override
+        public int available() {
+            synchronized (Http2Connection.this) {
+                return data.isEmpty() ? 0 : data.peek().length - position;
+            }
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+
+        /**
+         * Called when the server has not answered in time: if nothing at all has been received since the request
+         * was sent, the connection is probably dead and no new request is sent on it.
+         */
+        private void stalled() {
+            if (lastFrameTime - start < 0) shutdown = true;
+        }
+    }
+
+    /**
+     * The server does not speak HTTP/2.
+     */
+    static class NotHttp2 extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        NotHttp2(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The request has not been processed by the server and can be sent again. A stream refused with a reset
+     * leaves the connection usable: the caller must {@link #drain()} it to send the request on a new connection.
+     */
+    static class Refused extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        Refused(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A protocol error that fails the whole connection.
+     */
+    private static class ConnectionError extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        ConnectionError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+}
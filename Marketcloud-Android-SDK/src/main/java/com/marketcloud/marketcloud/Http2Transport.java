@@ -0,0 +1,531 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.content.Context;
+
+import com.loopj.android.http.ResponseHandlerInterface;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.ProtocolVersion;
+import cz.msebera.android.httpclient.conn.ConnectTimeoutException;
+import cz.msebera.android.httpclient.conn.ssl.SSLSocketFactory;
+import cz.msebera.android.httpclient.entity.BasicHttpEntity;
+import cz.msebera.android.httpclient.message.BasicHeader;
+import cz.msebera.android.httpclient.message.BasicHttpResponse;
+
+/**
+ * Http2Transport class. <br />
+ * <br />
+ * A {@link Transport} that sends the requests over HTTP/2: all the concurrent requests to the same host are
+ * multiplexed as streams of a single connection, so a burst of requests does not wait for connections to be
+ * opened (or for a free one, beyond the per-host limit of the pool), and the headers repeated by every request
+ * (the authorization, the accept-encoding, ...) are compressed to a few bytes. <br />
+ * The https hosts are asked for HTTP/2 during the TLS handshake (ALPN, available from Android 10); the http hosts
+ * are spoken to in HTTP/2 directly ("prior knowledge"). The hosts that do not speak HTTP/2, and all the https
+ * hosts on the platforms without ALPN, are remembered and served by the HTTP/1.1 {@link ConnectionPool} given as
+ * fallback. <br />
+ * The phases of the traced requests (see {@link Trace}) are marked: opening a connection counts as acquiring it,
+ * joining an open one takes no time.
+ */
+public class Http2Transport implements Transport {
+
+    private static final String[] PROTOCOLS = {"h2", "http/1.1"};
+
+    //connection-specific headers, not allowed in HTTP/2
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host", "te"));
+
+    private static final Method SET_APPLICATION_PROTOCOLS = method(SSLParameters.class, "setApplicationProtocols", String[].class);
+    private static final Method GET_APPLICATION_PROTOCOL = method(SSLSocket.class, "getApplicationProtocol");
+
+    private final ConnectionPool fallback;
+    private final long keepAlive;
+    private final int timeout;
+    private final ConcurrentHashMap<String, Http2Connection> connections = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> connectLocks = new ConcurrentHashMap<>();
+    private final Set<String> http1Origins = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentHashMap<String, SSLContext> sslContexts = new ConcurrentHashMap<>();
+    private volatile long lastEviction;
+
+    /**
+     * Constructor. The hosts that do not speak HTTP/2 are served by the process-wide connection pool.
+     */
+    @SuppressWarnings("unused")
+    public Http2Transport() {
+        this(ConnectionPool.getDefault());
+    }
+
+    /**
+     * Constructor. The HTTP/2 connections use the keep-alive time and the timeout of the fallback pool.
+     *
+     * @param fallback the pool that serves the hosts that do not speak HTTP/2
+     */
+    public Http2Transport(ConnectionPool fallback) {
+        this.fallback = fallback;
+        keepAlive = fallback.getKeepAlive();
+        timeout = fallback.getTimeout();
+        lastEviction = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the HTTP/1.1 pool used for the hosts that do not speak HTTP/2.
+     *
+     * @return the fallback pool
+     */
+    public ConnectionPool getFallback() {
+        return fallback;
+    }
+
+    @Override
+    public void execute(Context context, String method, String url, Header[] headers, HttpEntity body, ResponseHandlerInterface handler) {
+        URI uri;
+
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            //reported by the pool, as for the other requests it cannot send
+            fallback.execute(context, method, url, headers, body, handler);
+            return;
+        }
+
+        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.US) : "";
+        boolean secure = scheme.equals("https");
+
+        if ((!secure && !scheme.equals("http")) || uri.getHost() == null) {
+            fallback.execute(context, method, url, headers, body, handler);
+            return;
+        }
+
+        String host = uri.getHost();
+        int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+        String origin = scheme + "://" + host + ":" + port;
+
+        if (http1Origins.contains(origin)) {
+            fallback.execute(context, method, url, headers, body, handler);
+            return;
+        }
+
+        evictIdleConnections(false);
+
+        Trace trace = Trace.current();
+        Http2Connection connection;
+
+        try {
+            if (trace != null) trace.acquireStart();
+            connection = connection(origin, secure, host, port, trace);
+        } catch (Http2Connection.NotHttp2 e) {
+            fallback.execute(context, method, url, headers, body, handler);
+            return;
+        } catch (IOException e) {
+            fail(handler, uri, headers, e);
+            return;
+        }
+
+        handler.setUseSynchronousMode(true);
+        handler.setRequestURI(uri);
+        handler.setRequestHeaders(headers);
+        handler.sendStartMessage();
+
+        try {
+            List<Header> fields = fields(method, uri, secure, headers, body);
+            byte[] content = body != null ? content(body) : null;
+
+            try {
+                exchange(connection, fields, content, handler);
+            } catch (Http2Connection.Refused e) {
+                //not processed by the server: sent once more, on a new connection (after a stream reset the
+                //refusing connection is still usable, so it takes no more requests, and closes after its last one)
+                connection.drain();
+
+                if (trace != null) trace.acquireStart();
+                exchange(connection(origin, secure, host, port, trace), fields, content, handler);
+            }
+        } catch (IOException e) {
+            handler.sendFailureMessage(0, null, null, e);
+        }
+
+        handler.sendFinishMessage();
+    }
+
+    /**
+     * Registers the TLS settings of an endpoint configuration for the HTTP/2 connections to its host, and for
+     * the fallback pool.
+     *
+     * @param config the endpoint configuration
+     */
+    @Override
+    public void register(EndpointConfig config) {
+        fallback.register(config);
+
+        if (config.isSecure())
+            sslContexts.put(config.getHost() + ":" + config.getEffectivePort(), config.getSslContext());
+    }
+
+    /**
+     * Returns the number of connections currently open, including the ones of the fallback pool.
+     *
+     * @return open connections
+     */
+    @Override
+    public int getOpenConnections() {
+        return getOpenHttp2Connections() + fallback.getOpenConnections();
+    }
+
+    /**
+     * Returns the number of HTTP/2 connections currently open.
+     *
+     * @return open HTTP/2 connections
+     */
+    @SuppressWarnings("unused")
+    public int getOpenHttp2Connections() {
+        int count = 0;
+
+        for (Http2Connection connection : connections.values()) if (connection.isUsable()) count++;
+
+        return count;
+    }
+
+    /**
+     * Closes the HTTP/2 connections that have been idle for longer than the keep-alive time, and the idle
+     * connections of the fallback pool.
+     */
+    @SuppressWarnings("unused")
+    public void evictIdleConnections() {
+        evictIdleConnections(true);
+        fallback.evictIdleConnections();
+    }
+
+    /**
+     * Closes all the connections, including the ones of the fallback pool. The transport must not be used after
+     * this call.
+     */
+    @Override
+    public void shutdown() {
+        for (Http2Connection connection : connections.values()) connection.shutdown();
+
+        connections.clear();
+        fallback.shutdown();
+    }
+
+    /**
+     * Closes the idle connections, if forced or if the keep-alive time has elapsed since the last check.
+     */
+    private void evictIdleConnections(boolean force) {
+        long now = System.currentTimeMillis();
+
+        if (!force && now - lastEviction <= keepAlive) return;
+
+        lastEviction = now;
+
+        for (Map.Entry<String, Http2Connection> entry : connections.entrySet()) {
+            if (entry.getValue().closeIfIdle(keepAlive)) connections.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the open connection to an origin, opening it if there is none. Concurrent requests to the same
+     * origin wait for the same connection to be opened.
+     *
+     * @throws Http2Connection.NotHttp2 if the origin does not speak HTTP/2
+     */
+    private Http2Connection connection(String origin, boolean secure, String host, int port, Trace trace) throws IOException {
+        Http2Connection connection = connections.get(origin);
+
+        if (connection == null || !connection.isUsable()) {
+            Object lock = connectLocks.get(origin);
+
+            if (lock == null) {
+                Object created = new Object();
+                lock = connectLocks.putIfAbsent(origin, created);
+                if (lock == null) lock = created;
+            }
+
+            synchronized (lock) {
+                connection = connections.get(origin);
+
+                if (connection == null || !connection.isUsable()) {
+                    if (http1Origins.contains(origin)) throw new Http2Connection.NotHttp2(origin + " does not speak HTTP/2");
+
+                    try {
+                        connection = connect(secure, host, port, trace);
+                    } catch (Http2Connection.NotHttp2 e) {
+                        http1Origins.add(origin);
+                        throw e;
+                    }
+
+                    connections.put(origin, connection);
+                }
+            }
+        }
+
+        if (trace != null) trace.acquireEnd();
+
+        return connection;
+    }
+
+    /**
+     * Opens a connection and negotiates HTTP/2.
+     */
+    private Http2Connection connect(boolean secure, String host, int port, Trace trace) throws IOException {
+        long start = System.nanoTime();
+        InetAddress address = InetAddress.getByName(host);
+        if (trace != null) trace.dns(System.nanoTime() - start);
+
+        Socket socket = new Socket();
+
+        try {
+            socket.setTcpNoDelay(true);
+
+            if (trace != null) trace.connectStart();
+
+            try {
+                socket.connect(new InetSocketAddress(address, port), timeout);
+            } catch (SocketTimeoutException e) {
+                throw new ConnectTimeoutException("Connect to " + host + ":" + port + " timed out");
+            }
+
+            if (trace != null) trace.connectEnd();
+
+            if (secure) {
+                SSLSocket ssl = (SSLSocket) sslContext(host, port).getSocketFactory().createSocket(socket, host, port, true);
+                socket = ssl;
+
+                boolean alpn = requestProtocols(ssl);
+                ssl.setSoTimeout(timeout);
+                ssl.startHandshake();
+                verifyHost(host, ssl);
+
+                if (trace != null) trace.tlsEnd();
+
+                if (!alpn || !"h2".equals(negotiatedProtocol(ssl))) throw new Http2Connection.NotHttp2(host + " did not negotiate HTTP/2");
+            }
+
+            Http2Connection connection = new Http2Connection(socket, timeout);
+            connection.start();
+
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request on a connection and passes the response to the handler.
+     */
+    private void exchange(Http2Connection connection, List<Header> fields, byte[] content, ResponseHandlerInterface handler) throws IOException {
+        Trace trace = Trace.current();
+
+        if (trace != null) trace.requestStart();
+
+        Http2Connection.Stream stream = connection.newStream(fields, content == null || content.length == 0);
+
+        try {
+            if (content != null && content.length > 0) stream.send(content);
+
+            if (trace != null) trace.requestEnd();
+
+            List<Header> headers = stream.awaitHeaders();
+            int status;
+
+            try {
+                status = Integer.parseInt(headers.get(0).getValue());
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad status: " + headers.get(0).getValue());
+            }
+
+            BasicHttpResponse response = new BasicHttpResponse(new ProtocolVersion("HTTP", 2, 0), status, null);
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(stream);
+            entity.setContentLength(-1);
+
+            for (int i = 1; i < headers.size(); i++) {
+                Header header = headers.get(i);
+
+                response.addHeader(header);
+
+                if (header.getName().equals("content-type")) entity.setContentType(header);
+                if (header.getName().equals("content-encoding")) entity.setContentEncoding(header);
+                if (header.getName().equals("content-length")) {
+                    try {
+                        entity.setContentLength(Long.parseLong(header.getValue()));
+                    } catch (NumberFormatException ignored) {}
+                }
+            }
+
+            //decoded and counted as the responses of the pool
+            response.setEntity(Compression.decode(entity));
+
+            handler.onPreProcessResponse(handler, response);
+            handler.sendResponseMessage(response);
+            handler.onPostProcessResponse(handler, response);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Checks the certificate of a TLS connection against the host name, as the https connections of the pool do.
+     */
+    @SuppressWarnings("deprecation") //the verifier of the HttpClient 4.3 bundled with loopj, kept for parity with the pool
+    private static void verifyHost(String host, SSLSocket ssl) throws IOException {
+        SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER.verify(host, ssl);
+    }
+
+    /**
+     * Reports a request that could not be sent.
+     */
+    private static void fail(ResponseHandlerInterface handler, URI uri, Header[] headers, IOException e) {
+        handler.setUseSynchronousMode(true);
+        handler.setRequestURI(uri);
+        handler.setRequestHeaders(headers);
+        handler.sendStartMessage();
+        handler.sendFailureMessage(0, null, null, e);
+        handler.sendFinishMessage();
+    }
+
+    /**
+     * Builds the header fields of a request: the pseudo-headers first, then the headers of the request with
+     * lowercase names, and the ones added by the HTTP/1.1 client for the pool.
+     */
+    private static List<Header> fields(String method, URI uri, boolean secure, Header[] headers, HttpEntity body) {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) path += "?" + uri.getRawQuery();
+
+        ArrayList<Header> fields = new ArrayList<>(headers.length + 8);
+        fields.add(new BasicHeader(":method", method.toUpperCase(Locale.US)));
+        fields.add(new BasicHeader(":scheme", secure ? "https" : "http"));
+        fields.add(new BasicHeader(":authority", uri.getPort() != -1 ? uri.getHost() + ":" + uri.getPort() : uri.getHost()));
+        fields.add(new BasicHeader(":path", path));
+
+        boolean acceptEncoding = false;
+
+        for (Header header : headers) {
+            String name = header.getName().toLowerCase(Locale.US);
+
+            if (CONNECTION_HEADERS.contains(name) || header.getValue() == null) continue;
+            if (name.equals("accept-encoding")) acceptEncoding = true;
+
+            fields.add(new BasicHeader(name, header.getValue()));
+        }
+
+        if (!acceptEncoding) fields.add(new BasicHeader("accept-encoding", Compression.ACCEPT_ENCODING));
+
+        if (body != null) {
+            fields.add(new BasicHeader("content-type", "application/json"));
+            if (body.getContentEncoding() != null) fields.add(new BasicHeader("content-encoding", body.getContentEncoding().getValue()));
+        }
+
+        return fields;
+    }
+
+    /**
+     * Reads a request body into memory: the bodies of the SDK are small JSON documents.
+     */
+    private static byte[] content(HttpEntity body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.getContentLength() > 0 ? (int) body.getContentLength() : 256);
+        body.writeTo(out);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the TLS context registered for a host, or the default one.
+     */
+    private SSLContext sslContext(String host, int port) throws IOException {
+        SSLContext context = sslContexts.get(host + ":" + port);
+
+        if (context != null) return context;
+
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new SSLException("TLS is not available", e);
+        }
+    }
+
+    /**
+     * Offers HTTP/2 in the TLS handshake.
+     *
+     * @return false if the platform does not support ALPN
+     */
+    private static boolean requestProtocols(SSLSocket socket) {
+        if (SET_APPLICATION_PROTOCOLS == null || GET_APPLICATION_PROTOCOL == null) return false;
+
+        try {
+            SSLParameters parameters = socket.getSSLParameters();
+            SET_APPLICATION_PROTOCOLS.invoke(parameters, (Object) PROTOCOLS);
+            socket.setSSLParameters(parameters);
+
+            return true;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the protocol negotiated in the TLS handshake, or null
+     */
+    private static String negotiatedProtocol(SSLSocket socket) {
+        try {
+            return (String) GET_APPLICATION_PROTOCOL.invoke(socket);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the method, or null if the platform does not have it
+     */
+    private static Method method(Class<?> type, String name, Class<?>... parameters) {
+        try {
+            return type.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+/**
+ * Interceptor interface. <br />
+ * <br />
+ * A hook around the requests sent by {@link Connect}. The interceptors are called in the order they have been
+ * added: the first one sees the request first and the response last. Each interceptor passes the request on
+ * with {@link Chain#proceed(Request)} (possibly modified, or more than once, e.g. to retry it) or answers it by
+ * itself without calling the next ones. <br />
+ * <br />
+ * Concurrent identical GET requests are collapsed before entering the chain, so the interceptors only see the
+ * requests actually sent. The interceptors are called on the thread performing the request, and must be
+ * thread-safe.
+ */
+public interface Interceptor {
+
+    /**
+     * Handles a request.
+     *
+     * @param chain the rest of the chain, and the request
+     * @param <T> type of the decoded body
+     * @return the response; null if the request could not be sent
+     */
+    <T> Response<T> intercept(Chain<T> chain);
+
+    /**
+     * The position of a request in the chain.
+     *
+     * @param <T> type of the decoded body
+     */
+    interface Chain<T> {
+
+        /**
+         * @return the request
+         */
+        Request request();
+
+        /**
+         * @return the codec that decodes the body of the response
+         */
+        Codec<T> codec();
+
+        /**
+         * Passes a request to the next interceptor, or sends it if this is the last one.
+         *
+         * @param request the request
+         * @return the response; null if the request could not be sent
+         */
+        Response<T> proceed(Request request);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.MalformedJsonException;
+
+import com.loopj.android.http.AsyncHttpClient;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpResponse;
+
+/**
+ * JsonResponseHandler class. <br />
+ * <br />
+ * A {@link ResponseHandler} that decodes the body while it is read from the connection, instead of buffering it
+ * into a byte array and converting it to a String before parsing. The body is decoded by a {@link Codec}, which
+ * can build a JSONObject or a typed model. Success and failure are both reported through
+ * {@link #onResponse(int, Header[], Object, int)}; the body is null if it is missing or cannot be decoded. <br />
+ * When the request is traced, the arrival of the headers, the time spent waiting for the body and the end of the
+ * parsing are marked on its {@link Trace}.
+ *
+ * @param <T> type of the decoded body
+ */
+public abstract class JsonResponseHandler<T> extends ResponseHandler {
+
+    private final Codec<T> codec;
+    private volatile long wireSize = -1;
+    private volatile long headersTime;
+
+    /**
+     * Constructor.
+     *
+     * @param codec decodes the body of the responses
+     */
+    public JsonResponseHandler(Codec<T> codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Fired when the response has been received and parsed.
+     *
+     * @param statusCode the status code of the response (0 if the request failed before getting one)
+     * @param headers    response headers, if any
+     * @param body       the decoded body, if any
+     * @param size       size of the body in bytes
+     */
+    public abstract void onResponse(int statusCode, Header[] headers, T body, int size);
+
+    /**
+     * Returns the size of the last body streamed by this handler as it was received, before decompression.
+     *
+     * @return size in bytes, or -1 if unknown
+     */
+    public long getWireSize() {
+        return wireSize;
+    }
+
+    /**
+     * Returns the time the headers of the last response arrived at, as given by {@link System#nanoTime()}.
+     *
+     * @return the time, or 0 if no response has arrived
+     */
+    public long getHeadersTime() {
+        return headersTime;
+    }
+
+    /**
+     * Override to receive a copy of the raw body while it is parsed (e.g. to store it). The stream is written
+     * but not closed by the handler.
+     *
+     * @param statusCode the status code of the response
+     * @param headers    response headers
+     * @return the stream that will receive the body, or null to skip the copy
+     */
+    protected OutputStream openCopy(int statusCode, Header[] headers) {
+        return null;
+    }
+
+    @Override
+    public void sendResponseMessage(HttpResponse response) throws IOException {
+        // do not process if request has been cancelled
+        if (Thread.currentThread().isInterrupted()) return;
+
+        headersTime = System.nanoTime();
+
+        Trace trace = Trace.current();
+        if (trace != null) trace.responseHeaders(headersTime);
+
+        final int statusCode = response.getStatusLine().getStatusCode();
+        final Header[] headers = response.getAllHeaders();
+        HttpEntity entity = response.getEntity();
+        T body = null;
+        int size = 0;
+        long readTime = 0;
+
+        if (entity != null) {
+            InputStream instream = entity.getContent();
+
+            if (instream != null) {
+                CountingInputStream in = new CountingInputStream(instream, openCopy(statusCode, headers), trace != null);
+
+                try {
+                    body = parse(in);
+                    in.drain();
+                    size = (int) in.count;
+                    readTime = in.readTime;
+                    wireSize = Compression.wireSize(entity);
+                } finally {
+                    AsyncHttpClient.silentCloseInputStream(instream);
+                    AsyncHttpClient.endEntityViaReflection(entity);
+                }
+            }
+        }
+
+        if (trace != null) trace.responseBody(readTime, size);
+
+        // additional cancellation check as parsing can take non-zero time to process
+        if (Thread.currentThread().isInterrupted()) return;
+
+        final T b = body;
+        final int s = size;
+
+        postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                onResponse(statusCode, headers, b, s);
+            }
+        });
+    }
+
+    @Override
+    public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
+        onBufferedResponse(statusCode, headers, responseBody);
+    }
+
+    @Override
+    public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+        onBufferedResponse(statusCode, headers, responseBody);
+    }
+
+    /**
+     * Handles the responses that did not go through the streaming path (e.g. network failures).
+     */
+    private void onBufferedResponse(int statusCode, Header[] headers, byte[] responseBody) {
+        T body = null;
+
+        if (responseBody != null)
+            try {
+                body = parse(new ByteArrayInputStream(responseBody));
+            } catch (IOException ignored) {}
+
+        onResponse(statusCode, headers, body, responseBody != null ? responseBody.length : 0);
+    }
+
+    /**
+     * Parses the body. Malformed documents give a null body; read errors are thrown.
+     */
+    private T parse(InputStream in) throws IOException {
+        try {
+            return JsonStreamParser.parse(in, codec);
+        } catch (MalformedJsonException | JSONException | IllegalStateException e) {
+            return null;
+        } catch (IOException e) {
+            // an empty body is reported by the reader as an end of input
+            if (e instanceof EOFException) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream and, optionally, copies them to another stream and measures the time
+     * spent waiting for them.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final OutputStream copy;
+        private final boolean timed;
+        long count;
+        long readTime;
+
+        CountingInputStream(InputStream in, OutputStream copy, boolean timed) {
+            super(in);
+            this.copy = copy;
+            this.timed = timed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = timed ? System.nanoTime() : 0;
+            int b = super.read();
+            if (timed) readTime += System.nanoTime() - start;
+
+            if (b != -1) {
+                count++;
+                if (copy != null) copy.write(b);
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = timed ? System.nanoTime() : 0;
+            int n = super.read(buffer, offset, length);
+            if (timed) readTime += System.nanoTime() - start;
+
+            if (n > 0) {
+                count += n;
+                if (copy != null) copy.write(buffer, offset, n);
+            }
+
+            return n;
+        }
+
+        /**
+         * Reads what is left after the parsed document, so the count and the copy cover the whole body.
+         */
+        void drain() throws IOException {
+            byte[] tmp = new byte[BUFFER_SIZE];
+
+            while (read(tmp, 0, tmp.length) != -1 && !Thread.currentThread().isInterrupted()) {
+                // keep reading
+            }
+        }
+    }
+}
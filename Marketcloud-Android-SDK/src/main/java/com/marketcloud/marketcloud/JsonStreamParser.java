@@ -0,0 +1,168 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * JsonStreamParser class. <br />
+ * <br />
+ * Builds JSONObjects directly from a stream of bytes, with a pull parser, without buffering the whole body into
+ * a byte array and then into a String first. The values have the same types that JSONObject(String) would
+ * produce (Integer, Long or Double for numbers).
+ */
+final class JsonStreamParser {
+
+    /**
+     * Decodes a JSON object into a JSONObject.
+     */
+    static final Codec<JSONObject> OBJECT = new Codec<JSONObject>() {
+        @Override
+        public JSONObject read(JsonReader reader) throws IOException, JSONException {
+            return readObject(reader);
+        }
+    };
+
+    private JsonStreamParser() {
+    }
+
+    /**
+     * Parses a JSON object from a UTF-8 stream. The stream is not closed.
+     *
+     * @param in the stream
+     * @return the parsed object
+     * @throws IOException if the stream cannot be read or is not valid JSON
+     * @throws JSONException if the document is not a JSON object
+     */
+    static JSONObject parseObject(InputStream in) throws IOException, JSONException {
+        return parse(in, OBJECT);
+    }
+
+    /**
+     * Decodes a value from a UTF-8 stream with the given codec. The stream is not closed.
+     *
+     * @param in the stream
+     * @param codec the codec
+     * @param <T> type of the value
+     * @return the decoded value
+     * @throws IOException if the stream cannot be read or is not valid JSON
+     * @throws JSONException if the codec cannot build a JSONObject
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T parse(InputStream in, Codec<T> codec) throws IOException, JSONException {
+        //lazy lists keep the raw body and decode the items on demand
+        if (codec instanceof LazyList.ListCodec) return (T) ((LazyList.ListCodec<?>) codec).index(in);
+
+        return codec.read(new JsonReader(new InputStreamReader(in, "UTF-8")));
+    }
+
+    /**
+     * Reads a JSON object from the reader.
+     *
+     * @param reader the reader, positioned on the object
+     * @return the parsed object
+     */
+    static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            object.put(name, readValue(reader));
+        }
+
+        reader.endObject();
+
+        return object;
+    }
+
+    /**
+     * Reads a JSON array from the reader.
+     *
+     * @param reader the reader, positioned on the array
+     * @return the parsed array
+     */
+    static JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+
+        reader.beginArray();
+
+        while (reader.hasNext()) {
+            array.put(readValue(reader));
+        }
+
+        reader.endArray();
+
+        return array;
+    }
+
+    /**
+     * Reads any JSON value from the reader.
+     *
+     * @param reader the reader, positioned on the value
+     * @return the value (JSONObject, JSONArray, String, Boolean, a Number or JSONObject.NULL)
+     */
+    static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            case NUMBER:
+                return toNumber(reader.nextString());
+            case STRING:
+                return reader.nextString();
+            default:
+                throw new IOException("Unexpected token " + reader.peek());
+        }
+    }
+
+    /**
+     * Converts a number literal to the narrowest of Integer, Long and Double.
+     *
+     * @param literal the number, as it appears in the document
+     * @return the number
+     */
+    private static Number toNumber(String literal) {
+        if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0) {
+            try {
+                long l = Long.parseLong(literal);
+
+                if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) return (int) l;
+
+                return l;
+            } catch (NumberFormatException ignored) {
+                //too large for a long: fall back to double
+            }
+        }
+
+        return Double.valueOf(literal);
+    }
+}
@@ -0,0 +1,349 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * LazyList class. <br />
+ * <br />
+ * The items of a list response, decoded on demand. <br />
+ * The body is kept as raw bytes; a single pass over it records where every item of the "data" array starts and
+ * ends, and an item is decoded (and remembered) only when it is first accessed. A screen that shows the first 20
+ * rows of a large result only pays for those 20 rows. Single fields can be read with
+ * {@link #getField(int, String)} without decoding the whole item. <br />
+ * <br />
+ * The list is read-only and can be shared between threads.
+ *
+ * @param <T> type of the items
+ */
+public final class LazyList<T> extends AbstractList<T> {
+
+    private static final HashMap<Codec<?>, ListCodec<?>> codecs = new HashMap<>();
+
+    private final Codec<T> codec;
+    private final byte[] body;
+    private final int[] starts;
+    private final int[] ends;
+    private final Object[] items;
+
+    private LazyList(Codec<T> codec, byte[] body, int[] starts, int[] ends, Object[] items) {
+        this.codec = codec;
+        this.body = body;
+        this.starts = starts;
+        this.ends = ends;
+        this.items = items;
+    }
+
+    /**
+     * Returns the codec that reads a list response into a LazyList of items decoded with the given codec.
+     * The same codec instance is returned for the same item codec, so the results can be cached.
+     *
+     * @param item codec of the items (e.g. {@link Product#CODEC} or {@link JsonStreamParser#OBJECT})
+     * @param <T> type of the items
+     * @return the envelope codec; it decodes to null if the request failed
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Codec<LazyList<T>> codec(Codec<T> item) {
+        synchronized (codecs) {
+            ListCodec<T> codec = (ListCodec<T>) codecs.get(item);
+
+            if (codec == null) {
+                codec = new ListCodec<>(item);
+                codecs.put(item, codec);
+            }
+
+            return codec;
+        }
+    }
+
+    @Override
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * Returns an item, decoding it on the first access.
+     *
+     * @param index index of the item
+     * @return the item, or null if it cannot be decoded
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= items.length) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + items.length);
+
+        synchronized (items) {
+            if (items[index] == null && body != null) {
+                try {
+                    items[index] = codec.read(reader(index));
+                } catch (IOException | JSONException | IllegalStateException e) {
+                    return null;
+                }
+            }
+
+            return (T) items[index];
+        }
+    }
+
+    /**
+     * Reads a single field of an item, without decoding the rest of it. If the item has already been decoded,
+     * its raw bytes are read again anyway.
+     *
+     * @param index index of the item
+     * @param name name of the field
+     * @return the value (JSONObject, JSONArray, String, Boolean, a Number or JSONObject.NULL), or null if the
+     * item has no such field
+     */
+    @SuppressWarnings("unused")
+    public Object getField(int index, String name) {
+        if (index < 0 || index >= items.length) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + items.length);
+
+        //items decoded eagerly (see ListCodec.read) have no raw bytes
+        if (body == null) return null;
+
+        try {
+            JsonReader reader = reader(index);
+
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) return null;
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(name)) return JsonStreamParser.readValue(reader);
+
+                reader.skipValue();
+            }
+        } catch (IOException | JSONException | IllegalStateException e) {
+            //malformed item: same as a missing field
+        }
+
+        return null;
+    }
+
+    /**
+     * Tells if an item has already been decoded.
+     *
+     * @param index index of the item
+     * @return true if {@link #get(int)} will not decode it again
+     */
+    @SuppressWarnings("unused")
+    public boolean isDecoded(int index) {
+        synchronized (items) {
+            return items[index] != null;
+        }
+    }
+
+    private JsonReader reader(int index) throws IOException {
+        InputStream in = new ByteArrayInputStream(body, starts[index], ends[index] - starts[index]);
+
+        return new JsonReader(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * Reads a list response. When the body is available as a stream (see {@link JsonStreamParser#parse}) it is
+     * only indexed; {@link #read(JsonReader)} is the fallback that decodes every item immediately.
+     */
+    static final class ListCodec<T> implements Codec<LazyList<T>> {
+
+        private final Codec<T> item;
+
+        ListCodec(Codec<T> item) {
+            this.item = item;
+        }
+
+        @Override
+        public LazyList<T> read(JsonReader reader) throws IOException, JSONException {
+            ArrayList<T> list = Codecs.list(item).read(reader);
+
+            return list != null ? new LazyList<>(item, null, null, null, list.toArray()) : null;
+        }
+
+        /**
+         * Reads the whole body and indexes the items of its "data" array.
+         *
+         * @param in the body
+         * @return the list, or null if the request failed or the body is not a list response
+         */
+        LazyList<T> index(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int n;
+
+            while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+
+            byte[] body = out.toByteArray();
+            Scanner scanner = new Scanner(body);
+
+            return scanner.scanEnvelope() ? new LazyList<>(item, body, scanner.starts, scanner.ends, new Object[scanner.count]) : null;
+        }
+    }
+
+    /**
+     * Walks the UTF-8 body of a list response without decoding it, recording the boundaries of the items of
+     * the "data" array. Only the structure is checked (strings, nesting); the items are validated when decoded.
+     * A malformed body throws {@link MalformedJsonException}, so the response decodes to null as with the other
+     * codecs instead of failing as a read error.
+     */
+    private static final class Scanner {
+
+        private final byte[] b;
+        private int pos;
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count;
+
+        Scanner(byte[] body) {
+            b = body;
+        }
+
+        /**
+         * @return true if the body is an object with a "data" array and no false "status"
+         */
+        boolean scanEnvelope() throws IOException {
+            boolean status = true;
+            boolean data = false;
+
+            if (next() != '{') return false;
+
+            if (peek() == '}') return false;
+
+            do {
+                if (next() != '"') throw new MalformedJsonException("Expected a name at " + (pos - 1));
+
+                int nameStart = pos;
+                skipString();
+                int nameEnd = pos - 1;
+
+                if (next() != ':') throw new MalformedJsonException("Expected ':' at " + (pos - 1));
+
+                if (is(nameStart, nameEnd, "status")) {
+                    int start = skipWhitespace();
+                    skipValue();
+                    status = !is(start, pos, "false");
+                } else if (is(nameStart, nameEnd, "data") && peek() == '[') {
+                    scanItems();
+                    data = true;
+                } else {
+                    skipValue();
+                }
+            } while (next() == ',');
+
+            return status && data;
+        }
+
+        private void scanItems() throws IOException {
+            next();
+
+            if (peek() == ']') {
+                next();
+                return;
+            }
+
+            do {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+
+                starts[count] = skipWhitespace();
+                skipValue();
+                ends[count] = pos;
+                count++;
+            } while (next() == ',');
+
+            if (b[pos - 1] != ']') throw new MalformedJsonException("Expected ']' at " + (pos - 1));
+        }
+
+        private void skipValue() throws IOException {
+            int c = next();
+
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                int depth = 1;
+
+                while (depth > 0) {
+                    c = read();
+
+                    if (c == '"') skipString();
+                    else if (c == '{' || c == '[') depth++;
+                    else if (c == '}' || c == ']') depth--;
+                }
+            } else {
+                //literal: number, true, false or null
+                while (pos < b.length && ",}] \t\r\n".indexOf(b[pos]) < 0) pos++;
+            }
+        }
+
+        private void skipString() throws IOException {
+            int c;
+
+            while ((c = read()) != '"')
+                if (c == '\\') read();
+        }
+
+        private boolean is(int start, int end, String s) {
+            if (end - start != s.length()) return false;
+
+            for (int i = 0; i < s.length(); i++)
+                if (b[start + i] != s.charAt(i)) return false;
+
+            return true;
+        }
+
+        private int skipWhitespace() {
+            while (pos < b.length && (b[pos] == ' ' || b[pos] == '\t' || b[pos] == '\r' || b[pos] == '\n')) pos++;
+
+            return pos;
+        }
+
+        private int peek() throws IOException {
+            skipWhitespace();
+
+            if (pos >= b.length) throw new MalformedJsonException("Unexpected end of body");
+
+            return b[pos];
+        }
+
+        private int next() throws IOException {
+            int c = peek();
+            pos++;
+            return c;
+        }
+
+        private int read() throws IOException {
+            if (pos >= b.length) throw new MalformedJsonException("Unexpected end of body");
+
+            return b[pos++];
+        }
+    }
+}
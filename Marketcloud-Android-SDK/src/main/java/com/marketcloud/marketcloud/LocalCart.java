@@ -0,0 +1,591 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LocalCart class. <br />
+ * <br />
+ * An on-device copy of a cart. add, update and remove are applied immediately to the local copy, then appended
+ * to an operation log on disk and sent to the server in background: the UI waits neither for the disk nor for
+ * the network. The log is synced to the disk after every write, so the operations survive a restart of the app
+ * (or of the device) once written. <br />
+ * The pending operations are coalesced per product before being sent (e.g. three adds of the same product become
+ * a single add of the total quantity, and a remove cancels everything before it), and all of them travel in a
+ * single PATCH request. <br />
+ * <br />
+ * If a sync fails (e.g. no connectivity, a 5xx, or a 401 or 403 because the session token is missing or has
+ * expired) the operations are kept, and sent again with the next operation or by {@link #sync()}; a cart that
+ * needs a token is not synced at all while there is no session token. The operations whose content the server
+ * rejects (400, 404, 409 or 422, e.g. for a deleted product or an invalid quantity) are dropped, counted by
+ * {@link #getRejectedCount()} and reported to the {@link RejectionListener}: when a batch is rejected, its
+ * products are sent again one at a time, so a single bad operation does not hold back the others. <br />
+ * The content of the cart on the server is loaded when the local copy is created.
+ */
+public class LocalCart {
+
+    private static final String BASE = "BASE";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //a single thread, so the writes reach the logs in order
+    private static final ThreadPoolExecutor LOG_WRITER = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new TokenManager.NamedThreadFactory("Marketcloud-CartLog"));
+
+    static {
+        LOG_WRITER.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Receives the operations dropped because the server rejected them.
+     */
+    public interface RejectionListener {
+
+        /**
+         * Called on the thread that sent the operation. The operation is removed from the local copy (and from
+         * the log) when the sync completes.
+         *
+         * @param type "ADD", "UPDATE" or "REMOVE"
+         * @param productId product id
+         * @param quantity quantity of the operation (0 for a remove)
+         * @param statusCode status code of the rejection
+         */
+        void onRejected(String type, int productId, int quantity, int statusCode);
+    }
+
+    private final Connect connect;
+    private final String url;
+    private final String publicKey;
+    private final TokenManager tm;
+    private final boolean token;
+    private final File log;
+
+    //last state confirmed by the server, and local view (base + operations not yet confirmed)
+    private final LinkedHashMap<Integer, Integer> base = new LinkedHashMap<>();
+    private final LinkedHashMap<Integer, Integer> items = new LinkedHashMap<>();
+
+    //operations not sent yet, and operations being sent
+    private CartPatch pending = new CartPatch();
+    private CartPatch inFlight;
+
+    //used on the log writer thread only
+    private FileOutputStream logStream;
+    private boolean syncScheduled;
+    private long syncCount;
+    private long failureCount;
+    private long rejectedCount;
+    private volatile RejectionListener rejectionListener;
+
+    /**
+     * Constructor. Replays the operation log, if any, and loads the cart from the server in background.
+     *
+     * @param connect the connection that will send the operations
+     * @param id cart id
+     * @param publicKey application public key
+     * @param tokenManager token manager
+     * @param token true if token needed, false if not
+     * @param log file of the operation log, null to keep the operations in memory only
+     */
+    LocalCart(Connect connect, int id, String publicKey, TokenManager tokenManager, boolean token, File log) {
+        this.connect = connect;
+        this.url = connect.getEndpoints().carts.url(id);
+        this.publicKey = publicKey;
+        this.tm = tokenManager;
+        this.token = token;
+        this.log = log;
+
+        readLog();
+        rebuildItems();
+
+        //the pending operations are sent when the cart has been loaded
+        scheduleLoad();
+    }
+
+    /**
+     * Increments the quantity of a product, or adds it to the cart.
+     *
+     * @param productId product id
+     * @param quantity quantity to add
+     */
+    @SuppressWarnings("unused")
+    public synchronized void add(int productId, int quantity) {
+        apply(CartPatch.ADD, productId, quantity);
+    }
+
+    /**
+     * Sets the quantity of a product.
+     *
+     * @param productId product id
+     * @param quantity new quantity
+     */
+    @SuppressWarnings("unused")
+    public synchronized void update(int productId, int quantity) {
+        apply(CartPatch.UPDATE, productId, quantity);
+    }
+
+    /**
+     * Removes a product from the cart.
+     *
+     * @param productId product id
+     */
+    @SuppressWarnings("unused")
+    public synchronized void remove(int productId) {
+        apply(CartPatch.REMOVE, productId, 0);
+    }
+
+    /**
+     * Returns the local quantity of a product, including the operations not yet confirmed by the server.
+     *
+     * @param productId product id
+     * @return the quantity, 0 if the product is not in the cart
+     */
+    @SuppressWarnings("unused")
+    public synchronized int getQuantity(int productId) {
+        Integer q = items.get(productId);
+
+        return q != null ? q : 0;
+    }
+
+    /**
+     * Returns the local content of the cart, including the operations not yet confirmed by the server.
+     *
+     * @return a copy of the items, as product id -> quantity
+     */
+    @SuppressWarnings("unused")
+    public synchronized Map<Integer, Integer> getItems() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(items));
+    }
+
+    /**
+     * Returns the number of products with operations not yet confirmed by the server.
+     *
+     * @return pending operations, after coalescing
+     */
+    @SuppressWarnings("unused")
+    public synchronized int getPendingCount() {
+        return pending.size() + (inFlight != null ? inFlight.size() : 0);
+    }
+
+    /**
+     * Returns the number of successful syncs.
+     *
+     * @return sync count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * Returns the number of failed syncs.
+     *
+     * @return failure count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns the number of operations dropped because the server rejected them.
+     *
+     * @return rejected operations, after coalescing
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Sets the listener of the operations dropped because the server rejected them.
+     *
+     * @param listener the listener, or null
+     */
+    @SuppressWarnings("unused")
+    public void setRejectionListener(RejectionListener listener) {
+        rejectionListener = listener;
+    }
+
+    /**
+     * Sends the pending operations to the server, blocking until it answers.
+     *
+     * @return true if there is nothing left to send, false if the request failed, the cart needs a session token
+     * and there is none, or another sync is running
+     */
+    public boolean sync() {
+        return send() && getPendingCount() == 0;
+    }
+
+    /**
+     * Sends the operations pending at the time of the call. If the server rejects the batch, its products are
+     * sent one at a time, and only the operations rejected on their own are dropped.
+     *
+     * @return true if the operations have been confirmed or rejected (nothing left to retry), or there was
+     * nothing to send
+     */
+    private boolean send() {
+        CartPatch batch;
+
+        //without a session the server would answer 401: the operations wait for the login
+        if (token && tm.getSessionToken() == null) return false;
+
+        synchronized (this) {
+            if (inFlight != null) return false;
+            if (pending.isEmpty()) return true;
+
+            batch = inFlight = pending;
+            pending = new CartPatch();
+        }
+
+        int statusCode = patch(batch);
+
+        if (isRejected(statusCode) && batch.size() > 1) {
+            for (CartPatch single : batch.split()) {
+                int status = patch(single);
+
+                if (!isSuccessful(status) && !isRejected(status)) break;
+            }
+        }
+
+        synchronized (this) {
+            boolean done = inFlight.isEmpty();
+
+            if (!done) {
+                //keep the operations not sent, in their original order
+                inFlight.putAll(pending);
+
+                pending = inFlight;
+                failureCount++;
+            }
+
+            inFlight = null;
+
+            rebuildItems();
+            rewriteLog();
+
+            return done;
+        }
+    }
+
+    /**
+     * Sends some of the operations in flight, and removes them from {@link #inFlight} if the server confirmed
+     * or rejected them. A batch of several products that is rejected is left in flight, to be split.
+     *
+     * @param ops the operations
+     * @return the status code of the response, 0 if the request failed
+     */
+    private int patch(CartPatch ops) {
+        String body;
+
+        try {
+            body = ops.toJson();
+        } catch (JSONException e) {
+            return 0;
+        }
+
+        Response<Cart> response = connect.execute(Cart.DATA, "patch", url, authorization(), body);
+        int statusCode = response != null ? response.statusCode : 0;
+        boolean dropped = false;
+
+        synchronized (this) {
+            if (isSuccessful(statusCode)) {
+                if (response.body != null && response.body.items != null) setBase(response.body);
+                else ops.applyTo(base);
+
+                inFlight.removeAll(ops);
+                syncCount++;
+            } else if (isRejected(statusCode) && ops.size() == 1) {
+                inFlight.removeAll(ops);
+                rejectedCount++;
+                dropped = true;
+            }
+        }
+
+        RejectionListener listener = rejectionListener;
+
+        if (dropped && listener != null) ops.report(listener, statusCode);
+
+        return statusCode;
+    }
+
+    /**
+     * Loads the content of the cart from the server. The pending operations wait for the load, and are sent
+     * right after it; if the load fails, the confirmed state is the one of the log until the first sync.
+     */
+    private void load() {
+        synchronized (this) {
+            if (inFlight != null) return;
+
+            //an empty batch in flight keeps the syncs out while the cart is loaded
+            inFlight = new CartPatch();
+        }
+
+        Response<Cart> response = connect.execute(Cart.DATA, "get", url, authorization());
+
+        synchronized (this) {
+            if (response != null && response.isSuccessful() && response.body.items != null) {
+                setBase(response.body);
+                rebuildItems();
+                rewriteLog();
+            }
+
+            inFlight = null;
+
+            if (!pending.isEmpty()) scheduleSync();
+        }
+    }
+
+    private static boolean isSuccessful(int statusCode) {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * @return true if the server refused the content of the operations, i.e. sending them again would not help;
+     * the other errors (e.g. a 401 for an expired session) keep the operations for the next sync
+     */
+    private static boolean isRejected(int statusCode) {
+        return statusCode == 400 || statusCode == 404 || statusCode == 409 || statusCode == 422;
+    }
+
+    private String authorization() {
+        return token ? publicKey + ":" + tm.getSessionToken() : publicKey;
+    }
+
+    private void setBase(Cart cart) {
+        base.clear();
+
+        for (CartItem item : cart.items) base.put(item.productId, item.quantity);
+    }
+
+    /**
+     * Records an operation and applies it to the local copy.
+     */
+    private void apply(String type, int productId, int quantity) {
+        append(type + " " + productId + " " + quantity);
+
+        CartPatch op = new CartPatch();
+        op.put(type, productId, quantity);
+        op.applyTo(items);
+
+        pending.putAll(op);
+
+        scheduleSync();
+    }
+
+    /**
+     * Loads the cart on the dispatcher threads.
+     */
+    private synchronized void scheduleLoad() {
+        //under the lock, like scheduleSync, so the task cannot clear the flag before it is set
+        syncScheduled = connect.getDispatcher().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LocalCart.this) {
+                    syncScheduled = false;
+                }
+
+                load();
+            }
+        });
+    }
+
+    /**
+     * Sends the pending operations on the dispatcher threads, unless a sync is already scheduled.
+     */
+    private void scheduleSync() {
+        if (syncScheduled) return;
+
+        syncScheduled = connect.getDispatcher().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LocalCart.this) {
+                    syncScheduled = false;
+                }
+
+                boolean sent = send();
+
+                //operations recorded while the request was running are sent right after
+                synchronized (LocalCart.this) {
+                    if (sent && !pending.isEmpty()) scheduleSync();
+                }
+            }
+        });
+    }
+
+    private void rebuildItems() {
+        items.clear();
+        items.putAll(base);
+
+        if (inFlight != null) inFlight.applyTo(items);
+
+        pending.applyTo(items);
+    }
+
+    private void readLog() {
+        if (log == null) return;
+
+        //a log that could not be renamed has been deleted, and the complete new one is still in the temporary file
+        File file = log.exists() ? log : tmpLog();
+
+        if (!file.exists()) return;
+
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+
+                if (parts.length < 3) continue;
+
+                int productId = Integer.parseInt(parts[1]);
+                int quantity = Integer.parseInt(parts[2]);
+
+                if (parts[0].equals(BASE)) base.put(productId, quantity);
+                else pending.put(parts[0], productId, quantity);
+            }
+        } catch (IOException | NumberFormatException ignored) {
+            //a truncated log keeps the operations read so far
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Rewrites the log with the confirmed state and the operations still to be sent. The content is taken on the
+     * calling thread, and written in background.
+     */
+    private void rewriteLog() {
+        if (log == null) return;
+
+        StringWriter content = new StringWriter();
+
+        for (Map.Entry<Integer, Integer> e : base.entrySet())
+            content.write(BASE + " " + e.getKey() + " " + e.getValue() + "\n");
+
+        try {
+            pending.write(content);
+        } catch (IOException ignored) {
+            //not thrown by a StringWriter
+        }
+
+        final byte[] bytes = content.toString().getBytes(UTF_8);
+
+        LOG_WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                replaceLog(bytes);
+            }
+        });
+    }
+
+    /**
+     * Replaces the log with a new content: the content is written to a temporary file, synced, and renamed over
+     * the log.
+     */
+    private void replaceLog(byte[] content) {
+        closeQuietly(logStream);
+        logStream = null;
+
+        File tmp = tmpLog();
+        FileOutputStream out = null;
+
+        try {
+            makeDirectory();
+
+            out = new FileOutputStream(tmp);
+            out.write(content);
+            out.getFD().sync();
+            out.close();
+            out = null;
+
+            //the old log must not survive: its operations may have been confirmed by the server, and would be
+            //sent again after a restart
+            if (!tmp.renameTo(log) && !(log.delete() && tmp.renameTo(log)))
+                throw new IOException("Cannot replace the cart log " + log);
+        } catch (IOException e) {
+            closeQuietly(out);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Appends an operation to the log, in background.
+     */
+    private void append(String line) {
+        if (log == null) return;
+
+        final byte[] bytes = (line + "\n").getBytes(UTF_8);
+
+        LOG_WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (logStream == null) {
+                        makeDirectory();
+
+                        //the rename of the last rewrite failed: appended to an empty log, it would be lost
+                        File tmp = tmpLog();
+                        if (!log.exists() && tmp.exists() && !tmp.renameTo(log)) throw new IOException("Cannot restore " + log);
+
+                        logStream = new FileOutputStream(log, true);
+                    }
+
+                    logStream.write(bytes);
+                    logStream.getFD().sync();
+                } catch (IOException e) {
+                    //the operation is still applied and sent, but it will not survive a restart
+                    closeQuietly(logStream);
+                    logStream = null;
+                }
+            }
+        });
+    }
+
+    private void makeDirectory() throws IOException {
+        File dir = log.getParentFile();
+
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+    }
+
+    private File tmpLog() {
+        return new File(log.getPath() + ".tmp");
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) closeable.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -23,8 +23,9 @@ import android.content.Context;
  * Main class of the SDK: creates an instance of all the objects that will be used in the application.
  * <br />
  * <br />
- * WARNING: THE CONNECTION IS NOT CRYPTED! WE ARE USING STANDARD HTTP UNSAFE CONNECTIONS, AND NOT HTTPS. DO NOT
- * SEND SENSIBLE/PRIVATE/PERSONAL DATA USING THE SERVICE!
+ * WARNING: BY DEFAULT THE REQUESTS ARE SENT OVER PLAIN HTTP ({@link EndpointConfig#DEFAULT_BASE_URL}). TO SEND
+ * SENSIBLE/PRIVATE/PERSONAL DATA, USE AN HTTPS {@link EndpointConfig} (e.g. {@link EndpointConfig#SECURE_BASE_URL}):
+ * its TLS settings apply to the connections to its own host only, also when the connection pool is shared.
  */
 public class Marketcloud {
 
@@ -43,28 +44,154 @@ public class Marketcloud {
     public Taxes taxes;
     public Utilities utilities;
     public Json json;
+    public Transport transport;
+    public ConnectionPool connectionPool;
+    public Dispatcher dispatcher;
+    public ResponseCache responseCache;
+    public DiskCache diskCache;
+    public SingleFlight singleFlight;
+    public TransferStats transferStats;
+    public Metrics metrics;
+    public EndpointConfig endpointConfig;
+    Connect connect;
 
     /**
-     * Constructor.
+     * Constructor. The requests will use the process-wide connection pool and dispatcher.
      *
      * @param ct application context
      * @param key application public key
      */
     public Marketcloud(Context ct, String key) {
+        this(ct, key, ConnectionPool.getDefault());
+    }
+
+    /**
+     * Constructor. The requests will use the process-wide connection pool and dispatcher.
+     *
+     * @param ct application context
+     * @param key application public key
+     * @param config where the requests are sent (base url and TLS settings)
+     */
+    @SuppressWarnings("unused")
+    public Marketcloud(Context ct, String key, EndpointConfig config) {
+        this(ct, key, config, ConnectionPool.getDefault(), Dispatcher.getDefault());
+    }
+
+    /**
+     * Constructor. The asynchronous requests will use the process-wide dispatcher.
+     *
+     * @param ct application context
+     * @param key application public key
+     * @param transport the transport that will send all the requests: a {@link ConnectionPool} (HTTP/1.1) or an
+     *                  {@link Http2Transport}
+     */
+    public Marketcloud(Context ct, String key, Transport transport) {
+        this(ct, key, transport, Dispatcher.getDefault());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ct application context
+     * @param key application public key
+     * @param transport the transport that will send all the requests: a {@link ConnectionPool} (HTTP/1.1) or an
+     *                  {@link Http2Transport}
+     * @param requestDispatcher the dispatcher that will run the asynchronous requests
+     */
+    public Marketcloud(Context ct, String key, Transport transport, Dispatcher requestDispatcher) {
+        this(ct, key, new EndpointConfig(), transport, requestDispatcher);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ct application context
+     * @param key application public key
+     * @param config where the requests are sent (base url and TLS settings); the TLS settings are installed in
+     *               the transport
+     * @param transport the transport that will send all the requests: a {@link ConnectionPool} (HTTP/1.1) or an
+     *                  {@link Http2Transport}
+     * @param requestDispatcher the dispatcher that will run the asynchronous requests
+     */
+    public Marketcloud(Context ct, String key, EndpointConfig config, Transport transport, Dispatcher requestDispatcher) {
         context = ct;
         publicKey = key;
-        products = new Products(publicKey, context);
-        brands = new Brands(publicKey, context);
-        categories = new Categories(publicKey, context);
-        shippings = new Shippings(publicKey, context);
-        taxes = new Taxes(publicKey, context);
-        utilities = new Utilities(context, publicKey);
-        tokenManager = new TokenManager(context);
-        users = new Users(publicKey, tokenManager, context);
-        carts = new Carts(publicKey, tokenManager, context);
-        orders = new Orders(publicKey, tokenManager, context);
-        addresses = new Addresses(publicKey, tokenManager, context);
-        currencies = new Currencies(publicKey, tokenManager, context);
+        endpointConfig = config;
+        this.transport = transport;
+        //the HTTP/1.1 pool, also when it is the fallback of an HTTP/2 transport
+        if (transport instanceof ConnectionPool) connectionPool = (ConnectionPool) transport;
+        else if (transport instanceof Http2Transport) connectionPool = ((Http2Transport) transport).getFallback();
+        dispatcher = requestDispatcher;
+        connect = new Connect(context, transport, dispatcher, endpointConfig);
+        responseCache = connect.getResponseCache();
+        diskCache = connect.getDiskCache();
+        singleFlight = connect.getSingleFlight();
+        transferStats = connect.getTransferStats();
+        metrics = connect.getMetrics();
+        products = new Products(publicKey, context, connect);
+        brands = new Brands(publicKey, context, connect);
+        categories = new Categories(publicKey, context, connect);
+        shippings = new Shippings(publicKey, context, connect);
+        taxes = new Taxes(publicKey, context, connect);
+        utilities = new Utilities(context, publicKey, connect);
+        tokenManager = new TokenManager(context, endpointConfig.getHost());
+        users = new Users(publicKey, tokenManager, context, connect);
+        carts = new Carts(publicKey, tokenManager, context, connect);
+        orders = new Orders(publicKey, tokenManager, context, connect);
+        addresses = new Addresses(publicKey, tokenManager, context, connect);
+        currencies = new Currencies(publicKey, tokenManager, context, connect);
         json = new Json();
     }
+
+    /**
+     * Adds an interceptor around all the requests of this instance (see {@link Interceptor}).
+     *
+     * @param interceptor the interceptor
+     */
+    @SuppressWarnings("unused")
+    public void addInterceptor(Interceptor interceptor) {
+        connect.addInterceptor(interceptor);
+    }
+
+    /**
+     * Removes an interceptor.
+     *
+     * @param interceptor the interceptor
+     */
+    @SuppressWarnings("unused")
+    public void removeInterceptor(Interceptor interceptor) {
+        connect.removeInterceptor(interceptor);
+    }
+
+    /**
+     * Sets the listener that receives the phase timings of all the requests of this instance (see {@link Trace}).
+     *
+     * @param listener the listener, or null to stop tracing
+     */
+    @SuppressWarnings("unused")
+    public void setTraceListener(TraceListener listener) {
+        connect.setTraceListener(listener);
+    }
+
+    /**
+     * Sets the policy that decides which failed requests of this instance are sent again (see
+     * {@link RetryPolicy}).
+     *
+     * @param policy the policy, or null to never retry
+     */
+    @SuppressWarnings("unused")
+    public void setRetryPolicy(RetryPolicy policy) {
+        connect.setRetryPolicy(policy);
+    }
+
+    /**
+     * Sets the circuit breaker that stops the requests of this instance to the endpoints that are failing (see
+     * {@link CircuitBreaker}).
+     *
+     * @param breaker the circuit breaker, or null to always send the requests
+     */
+    @SuppressWarnings("unused")
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        connect.setCircuitBreaker(breaker);
+    }
 }
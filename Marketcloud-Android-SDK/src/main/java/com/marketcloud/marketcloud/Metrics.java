@@ -0,0 +1,309 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics class. <br />
+ * <br />
+ * Records, for every endpoint (see {@link TransferStats}), the requests sent, their latency, the bytes
+ * exchanged, the errors, the retries, the state of the circuit breaker and the hits of the response cache. The
+ * counters are lock-free and the latencies go into fixed-size {@link Histogram}s, so the metrics are cheap
+ * enough to be always on. <br />
+ * <br />
+ * The latency of a request is split in network time (from the call to the arrival of the response headers)
+ * and body time (streaming and decoding the body, which happen together). <br />
+ * Read the values with {@link #snapshot()}.
+ */
+public class Metrics {
+
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Records a request sent to the server.
+     *
+     * @param url url of the request
+     * @param statusCode status code, 0 if the request failed before getting one
+     * @param failed true if the request failed (no response, an error status or a body that cannot be decoded)
+     * @param bytesOut bytes sent on the wire
+     * @param bytesIn bytes received on the wire
+     * @param networkNanos time until the response headers arrived, in nanoseconds
+     * @param bodyNanos time spent streaming and decoding the body, in nanoseconds
+     */
+    void recordRequest(String url, int statusCode, boolean failed, long bytesOut, long bytesIn, long networkNanos, long bodyNanos) {
+        Endpoint e = endpoint(url);
+
+        e.requests.incrementAndGet();
+        if (failed) e.errors.incrementAndGet();
+        if (statusCode == 304) e.notModified.incrementAndGet();
+
+        e.bytesOut.addAndGet(bytesOut);
+        e.bytesIn.addAndGet(bytesIn);
+
+        e.latency.record((networkNanos + bodyNanos) / 1000);
+        e.network.record(networkNanos / 1000);
+        e.body.record(bodyNanos / 1000);
+    }
+
+    /**
+     * Records a request sent again after a transient failure.
+     *
+     * @param url url of the request
+     */
+    void recordRetry(String url) {
+        endpoint(url).retries.incrementAndGet();
+    }
+
+    /**
+     * Records a transition of the circuit breaker of an endpoint.
+     *
+     * @param url url of the request that caused the transition
+     * @param state the new state of the circuit
+     */
+    void recordCircuitState(String url, CircuitBreaker.State state) {
+        Endpoint e = endpoint(url);
+
+        e.circuitState = state;
+        if (state == CircuitBreaker.State.OPEN) e.circuitOpens.incrementAndGet();
+    }
+
+    /**
+     * Records a request rejected because the circuit of its endpoint was open.
+     *
+     * @param url url of the request
+     */
+    void recordRejected(String url) {
+        endpoint(url).rejected.incrementAndGet();
+    }
+
+    /**
+     * Records a lookup in the response cache.
+     *
+     * @param url url of the request
+     * @param hit true if the response was cached
+     */
+    void recordCacheLookup(String url, boolean hit) {
+        Endpoint e = endpoint(url);
+
+        if (hit) e.cacheHits.incrementAndGet();
+        else e.cacheMisses.incrementAndGet();
+    }
+
+    /**
+     * Returns the current values of the metrics.
+     *
+     * @return a snapshot, not affected by the following requests
+     */
+    public Snapshot snapshot() {
+        HashMap<String, EndpointSnapshot> map = new HashMap<>();
+
+        for (Map.Entry<String, Endpoint> e : endpoints.entrySet()) map.put(e.getKey(), new EndpointSnapshot(e.getValue()));
+
+        return new Snapshot(map);
+    }
+
+    /**
+     * Resets all the metrics.
+     */
+    @SuppressWarnings("unused")
+    public void reset() {
+        endpoints.clear();
+    }
+
+    private Endpoint endpoint(String url) {
+        String name = TransferStats.endpoint(url);
+        Endpoint e = endpoints.get(name);
+
+        if (e == null) {
+            Endpoint created = new Endpoint();
+            e = endpoints.putIfAbsent(name, created);
+
+            if (e == null) e = created;
+        }
+
+        return e;
+    }
+
+    /**
+     * The live counters of an endpoint.
+     */
+    private static class Endpoint {
+
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong circuitOpens = new AtomicLong();
+        volatile CircuitBreaker.State circuitState = CircuitBreaker.State.CLOSED;
+        final AtomicLong notModified = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+        final AtomicLong cacheHits = new AtomicLong();
+        final AtomicLong cacheMisses = new AtomicLong();
+        final Histogram latency = new Histogram();
+        final Histogram network = new Histogram();
+        final Histogram body = new Histogram();
+    }
+
+    /**
+     * The metrics of all the endpoints at a point in time.
+     */
+    public static class Snapshot {
+
+        private final Map<String, EndpointSnapshot> endpoints;
+
+        Snapshot(Map<String, EndpointSnapshot> endpoints) {
+            this.endpoints = Collections.unmodifiableMap(endpoints);
+        }
+
+        /**
+         * Returns the metrics of every endpoint.
+         *
+         * @return endpoint name -> metrics
+         */
+        public Map<String, EndpointSnapshot> getEndpoints() {
+            return endpoints;
+        }
+
+        /**
+         * Returns the metrics of an endpoint.
+         *
+         * @param endpoint endpoint name (e.g. "products")
+         * @return the metrics, or null if the endpoint has not been called
+         */
+        @SuppressWarnings("unused")
+        public EndpointSnapshot get(String endpoint) {
+            return endpoints.get(endpoint);
+        }
+
+        /**
+         * Exports the snapshot, e.g. to send it to an analytics service.
+         *
+         * @return a JSON object with a field per endpoint
+         */
+        @SuppressWarnings("unused")
+        public JSONObject toJson() throws JSONException {
+            JSONObject jo = new JSONObject();
+
+            for (Map.Entry<String, EndpointSnapshot> e : endpoints.entrySet()) jo.put(e.getKey(), e.getValue().toJson());
+
+            return jo;
+        }
+
+        @Override
+        public String toString() {
+            try {
+                return toJson().toString();
+            } catch (JSONException e) {
+                return endpoints.keySet().toString();
+            }
+        }
+    }
+
+    /**
+     * The metrics of an endpoint at a point in time. The times are in milliseconds.
+     */
+    public static class EndpointSnapshot {
+
+        public final long requests;
+        public final long errors;
+        public final long retries;
+        public final long rejected;
+        public final long circuitOpens;
+        public final CircuitBreaker.State circuitState;
+        public final long notModified;
+        public final long bytesIn;
+        public final long bytesOut;
+        public final long cacheHits;
+        public final long cacheMisses;
+        public final double p50;
+        public final double p95;
+        public final double p99;
+        public final double max;
+        public final double meanNetworkTime;
+        public final double meanBodyTime;
+
+        EndpointSnapshot(Endpoint e) {
+            requests = e.requests.get();
+            errors = e.errors.get();
+            retries = e.retries.get();
+            rejected = e.rejected.get();
+            circuitOpens = e.circuitOpens.get();
+            circuitState = e.circuitState;
+            notModified = e.notModified.get();
+            bytesIn = e.bytesIn.get();
+            bytesOut = e.bytesOut.get();
+            cacheHits = e.cacheHits.get();
+            cacheMisses = e.cacheMisses.get();
+            p50 = e.latency.getPercentile(50) / 1000.0;
+            p95 = e.latency.getPercentile(95) / 1000.0;
+            p99 = e.latency.getPercentile(99) / 1000.0;
+            max = e.latency.getMax() / 1000.0;
+            meanNetworkTime = e.network.getMean() / 1000;
+            meanBodyTime = e.body.getMean() / 1000;
+        }
+
+        /**
+         * Returns the fraction of the cache lookups that found a valid response.
+         *
+         * @return hit rate between 0 and 1, 0 if there were no lookups
+         */
+        public double getCacheHitRate() {
+            long lookups = cacheHits + cacheMisses;
+
+            return lookups > 0 ? (double) cacheHits / lookups : 0;
+        }
+
+        /**
+         * Returns the fraction of the requests that failed.
+         *
+         * @return error rate between 0 and 1, 0 if there were no requests
+         */
+        public double getErrorRate() {
+            return requests > 0 ? (double) errors / requests : 0;
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("requests", requests)
+                    .put("errors", errors)
+                    .put("retries", retries)
+                    .put("rejected", rejected)
+                    .put("circuit_opens", circuitOpens)
+                    .put("circuit_state", circuitState.name().toLowerCase(Locale.US))
+                    .put("not_modified", notModified)
+                    .put("bytes_in", bytesIn)
+                    .put("bytes_out", bytesOut)
+                    .put("cache_hits", cacheHits)
+                    .put("cache_misses", cacheMisses)
+                    .put("p50", p50)
+                    .put("p95", p95)
+                    .put("p99", p99)
+                    .put("max", max)
+                    .put("mean_network_time", meanNetworkTime)
+                    .put("mean_body_time", meanBodyTime);
+        }
+    }
+}
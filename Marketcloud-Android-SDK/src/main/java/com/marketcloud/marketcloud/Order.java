@@ -0,0 +1,102 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Order class. <br />
+ * <br />
+ * Typed representation of an order. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class Order {
+
+    public int id = -1;
+    public int userId = -1;
+    public String state;
+    public int shippingAddressId = -1;
+    public int billingAddressId = -1;
+    public int currencyId = -1;
+    public double total;
+    public CartItem[] items;
+
+    /**
+     * Decodes an order.
+     */
+    public static final Codec<Order> CODEC = new Codec<Order>() {
+        @Override
+        public Order read(JsonReader reader) throws IOException, JSONException {
+            Order o = new Order();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        o.id = Codecs.readInt(reader, -1);
+                        break;
+                    case "user_id":
+                        o.userId = Codecs.readInt(reader, -1);
+                        break;
+                    case "state":
+                        o.state = Codecs.readString(reader);
+                        break;
+                    case "shipping_address_id":
+                        o.shippingAddressId = Codecs.readInt(reader, -1);
+                        break;
+                    case "billing_address_id":
+                        o.billingAddressId = Codecs.readInt(reader, -1);
+                        break;
+                    case "currency_id":
+                        o.currencyId = Codecs.readInt(reader, -1);
+                        break;
+                    case "total":
+                        o.total = Codecs.readDouble(reader, 0);
+                        break;
+                    case "items":
+                        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                            ArrayList<CartItem> items = Codecs.readArray(reader, CartItem.CODEC);
+                            o.items = items.toArray(new CartItem[items.size()]);
+                        } else reader.skipValue();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return o;
+        }
+    };
+
+    /**
+     * Decodes the response of a request for a single order (null if the request failed).
+     */
+    public static final Codec<Order> DATA = Codecs.data(CODEC);
+
+    /**
+     * Decodes the response of a list request (null if the request failed).
+     */
+    public static final Codec<ArrayList<Order>> LIST = Codecs.list(CODEC);
+}
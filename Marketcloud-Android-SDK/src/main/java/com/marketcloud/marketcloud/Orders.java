@@ -21,7 +21,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Orders class. <br />
@@ -31,9 +34,12 @@ import java.util.concurrent.ExecutionException;
 public class Orders {
 
     private String publicKey;
-    private Context context;
+    private Connect connect;
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
     private TokenManager tm;
+    private volatile boolean idempotencyKeys;
 
     /**
      * Constructor.
@@ -43,10 +49,36 @@ public class Orders {
      * @param ct application context
      */
     public Orders(String key, TokenManager tokenManager, Context ct) {
+        this(key, tokenManager, ct, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key application public key
+     * @param tokenManager token manager
+     * @param ct application context
+     * @param conn the connection shared by the SDK
+     */
+    public Orders(String key, TokenManager tokenManager, Context ct, Connect conn) {
         publicKey = key;
-        api = new Utilities(context, key);
+        connect = conn;
+        api = new Utilities(ct, key, conn);
+        dispatcher = conn.getDispatcher();
+        endpoint = conn.getEndpoints().orders;
         tm = tokenManager;
-        context = ct;
+    }
+
+    /**
+     * Enables the idempotency keys: every create call sends a new {@value RetryPolicy#IDEMPOTENCY_KEY} header,
+     * so that a create that failed because of the network can be sent again by the {@link RetryPolicy}
+     * without creating the order twice. The server must support the header.
+     *
+     * @param enabled true to send the keys
+     */
+    @SuppressWarnings("unused")
+    public void setIdempotencyKeys(boolean enabled) {
+        idempotencyKeys = enabled;
     }
 
     /**
@@ -68,18 +100,36 @@ public class Orders {
                     userid);
 
             if (jo != null)
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/orders",
-                                publicKey + ":" + tm.getSessionToken(),
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey + ":" + tm.getSessionToken(),
+                        jo.toString());
         }
 
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(int, int, int, Object[][])}.
+     *
+     * @param userid user id
+     * @param shipping_address_id shipping address id
+     * @param billing_address_id billing address id
+     * @param items list of items in the order
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final int userid, final int shipping_address_id, final int billing_address_id, final Object[][] items, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(userid, shipping_address_id, billing_address_id, items);
+            }
+        }, callback);
+    }
+
     /**
      * Creates a new order.
      *
@@ -101,18 +151,37 @@ public class Orders {
                     userid);
 
             if (jo != null)
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/orders",
-                                publicKey + ":" + tm.getSessionToken(),
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey + ":" + tm.getSessionToken(),
+                        jo.toString());
         }
 
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(int, String, int, int, Object[][])}.
+     *
+     * @param userid user id
+     * @param state state of the order ("Processing", "Shipped", "Cancelled", etc.)
+     * @param shipping_address_id shipping address id
+     * @param billing_address_id billing address id
+     * @param items list of items in the order
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final int userid, final String state, final int shipping_address_id, final int billing_address_id, final Object[][] items, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(userid, state, shipping_address_id, billing_address_id, items);
+            }
+        }, callback);
+    }
+
     /**
      * Creates a new order.
      *
@@ -132,18 +201,36 @@ public class Orders {
                     userid);
 
             if (jo != null)
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/orders",
-                                publicKey + ":" + tm.getSessionToken(),
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey + ":" + tm.getSessionToken(),
+                        jo.toString());
         }
 
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(int, int, int, JSONArray)}.
+     *
+     * @param userid user id
+     * @param shipping_address_id shipping address id
+     * @param billing_address_id billing address id
+     * @param items list of items in the order
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final int userid, final int shipping_address_id, final int billing_address_id, final JSONArray items, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(userid, shipping_address_id, billing_address_id, items);
+            }
+        }, callback);
+    }
+
     /**
      * Creates a new order. <br />
      * <br />
@@ -176,17 +263,32 @@ public class Orders {
     public JSONObject create(JSONObject jo) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
             if (jo != null)
-                return new Connect(context)
-                        .run(
-                                "post",
-                                "http://api.marketcloud.it/v0/orders",
-                                publicKey + ":" + tm.getSessionToken(),
-                                jo.toString())
-                        ;
+                return post(
+                        "post",
+                        endpoint.url(),
+                        publicKey + ":" + tm.getSessionToken(),
+                        jo.toString());
 
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(JSONObject)}.
+     *
+     * @param jo the order parameters
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final JSONObject jo, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(jo);
+            }
+        }, callback);
+    }
+
     /**
      * Get a list of all the user's orders.
      *
@@ -195,10 +297,26 @@ public class Orders {
     @SuppressWarnings("unused")
     public JSONObject get() throws ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
-            return api.getInstanceList("http://api.marketcloud.it/v0/orders", tm.getSessionToken());
+            return api.getInstanceList(endpoint, tm.getSessionToken(), JsonStreamParser.OBJECT);
         else return null;
     }
 
+    /**
+     * Asynchronous version of {@link #get()}.
+     *
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> get(Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return get();
+            }
+        }, callback);
+    }
+
     /**
      * Get an order by its id.
      *
@@ -208,10 +326,27 @@ public class Orders {
     @SuppressWarnings("unused")
     public JSONObject getById(int id) throws InterruptedException, ExecutionException, JSONException {
         if (tm.getSessionToken() != null)
-            return api.getById("http://api.marketcloud.it/v0/orders/", id, tm.getSessionToken());
+            return api.getById(endpoint, id, tm.getSessionToken(), JsonStreamParser.OBJECT);
         else return null;
     }
 
+    /**
+     * Asynchronous version of {@link #getById(int)}.
+     *
+     * @param id order id
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id);
+            }
+        }, callback);
+    }
+
     /**
      *
      * Updates an order.
@@ -232,10 +367,10 @@ public class Orders {
                     userid);
 
             if (jo != null)
-                return new Connect(context)
+                return connect
                         .run(
                                 "put",
-                                "http://api.marketcloud.it/v0/orders",
+                                endpoint.url(),
                                 publicKey + ":" + tm.getSessionToken(),
                                 jo.toString())
                         ;
@@ -244,6 +379,26 @@ public class Orders {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(int, int, int, Object[][])}.
+     *
+     * @param userid new user id
+     * @param shipping_address_id new shipping address id
+     * @param billing_address_id new billing address id
+     * @param items new list of items
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final int userid, final int shipping_address_id, final int billing_address_id, final Object[][] items, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(userid, shipping_address_id, billing_address_id, items);
+            }
+        }, callback);
+    }
+
     /**
      * Updates an order.
      *
@@ -265,10 +420,10 @@ public class Orders {
                     userid);
 
             if (jo != null)
-                return new Connect(context)
+                return connect
                         .run(
                                 "put",
-                                "http://api.marketcloud.it/v0/orders",
+                                endpoint.url(),
                                 publicKey + ":" + tm.getSessionToken(),
                                 jo.toString())
                         ;
@@ -277,6 +432,27 @@ public class Orders {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(int, String, int, int, Object[][])}.
+     *
+     * @param userid new user id
+     * @param state new state of the order ("Processing", "Shipped", "Cancelled", etc.)
+     * @param shipping_address_id new shipping address id
+     * @param billing_address_id new billing address id
+     * @param items new list of items in the order
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final int userid, final String state, final int shipping_address_id, final int billing_address_id, final Object[][] items, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(userid, state, shipping_address_id, billing_address_id, items);
+            }
+        }, callback);
+    }
+
     /**
      * Updates an order.
      *
@@ -296,10 +472,10 @@ public class Orders {
                     userid);
 
             if (jo != null)
-                return new Connect(context)
+                return connect
                         .run(
                                 "put",
-                                "http://api.marketcloud.it/v0/orders",
+                                endpoint.url(),
                                 publicKey + ":" + tm.getSessionToken(),
                                 jo.toString())
                         ;
@@ -308,6 +484,26 @@ public class Orders {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(int, int, int, JSONArray)}.
+     *
+     * @param userid new user id
+     * @param shipping_address_id new shipping address id
+     * @param billing_address_id new billing address id
+     * @param items new list of items in the order
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final int userid, final int shipping_address_id, final int billing_address_id, final JSONArray items, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(userid, shipping_address_id, billing_address_id, items);
+            }
+        }, callback);
+    }
+
     /**
      * Updates an order. <br />
      * <br />
@@ -333,10 +529,10 @@ public class Orders {
     public JSONObject update(JSONObject jo) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
             if (jo != null)
-                return new Connect(context)
+                return connect
                         .run(
                                 "put",
-                                "http://api.marketcloud.it/v0/orders",
+                                endpoint.url(),
                                 publicKey + ":" + tm.getSessionToken(),
                                 jo.toString())
                         ;
@@ -344,6 +540,33 @@ public class Orders {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(JSONObject)}.
+     *
+     * @param jo order parameters to update
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final JSONObject jo, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(jo);
+            }
+        }, callback);
+    }
+
+    /**
+     * Sends a create request, with an idempotency key if enabled.
+     *
+     * @param params the parameters of the request
+     * @return the response of the server
+     */
+    private JSONObject post(String... params) {
+        return idempotencyKeys ? connect.runIdempotent(params) : connect.run(params);
+    }
+
     /**
      * Convert bidimensional array of items to JSONArray of items.
      *
@@ -389,4 +612,62 @@ public class Orders {
     private JSONObject toJsonObjectSend(String state, int shipping_address_id, int billing_address_id, JSONArray jsonArray, int userid) throws JSONException {
         return new JSONObject().put("state", state).put("shipping_address_id", shipping_address_id).put("billing_address_id", billing_address_id).put("items", jsonArray).put("user_id", userid);
     }
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the order with the given ID, decoded into an {@link Order}.
+     *
+     * @param id the id of the order
+     * @return the order, or null if it does not exist or the user is not logged in
+     */
+    @SuppressWarnings("unused")
+    public Order getOrder(int id) {
+        if (tm.getSessionToken() != null)
+            return api.getById(endpoint, id, tm.getSessionToken(), Order.DATA);
+        else return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #getOrder(int)}.
+     *
+     * @param id the id of the order
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Order> getOrder(final int id, Callback<Order> callback) {
+        return dispatcher.submit(new Callable<Order>() {
+            @Override
+            public Order call() throws Exception {
+                return getOrder(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves all the orders, decoded into {@link Order} objects.
+     *
+     * @return the orders, or null if the request failed or the user is not logged in
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Order> listOrders() {
+        if (tm.getSessionToken() != null)
+            return api.getInstanceList(endpoint, tm.getSessionToken(), Order.LIST);
+        else return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #listOrders()}.
+     *
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Order>> listOrders(Callback<ArrayList<Order>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Order>>() {
+            @Override
+            public ArrayList<Order> call() throws Exception {
+                return listOrders();
+            }
+        }, callback);
+    }
+}
@@ -0,0 +1,304 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Pager class. <br />
+ * <br />
+ * Walks the pages of a list endpoint. While a page is consumed, the following ones (up to the prefetch depth)
+ * are already being downloaded on the dispatcher threads, so moving to the next page usually does not wait for
+ * the network. At most prefetch + 1 pages are held by the pager at any time. <br />
+ * <br />
+ * The iteration ends at the first page that is empty or shorter than the page size, or when a request fails
+ * (see {@link #isFailed()}). hasNext() and next() block until the page is available, so they must not be
+ * called on the main thread. <br />
+ * <br />
+ * A pager is meant to be used by a single thread; the metrics can be read from any thread.
+ *
+ * @param <T> type of the items
+ */
+public class Pager<T> implements Iterator<List<T>> {
+
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int DEFAULT_PREFETCH = 1;
+
+    private final Utilities api;
+    private final Dispatcher dispatcher;
+    private final Endpoint endpoint;
+    private final HashMap<String, Object> filters;
+    private final Codec<T> codec;
+    private final int pageSize;
+    private final int prefetch;
+
+    private final ArrayDeque<FutureTask<LazyList<T>>> pending = new ArrayDeque<>();
+    private int nextPage = 1;
+    private LazyList<T> head;
+    private boolean done;
+    private boolean failed;
+
+    private long pagesLoaded;
+    private long itemsLoaded;
+    private long loadTime;
+    private long stallCount;
+    private long stallTime;
+
+    /**
+     * Constructor.
+     *
+     * @param api the utilities that perform the list requests
+     * @param dispatcher runs the prefetch requests
+     * @param baseURL endpoint of the list (e.g. "http://api.marketcloud.it/v0/products?")
+     * @param filters list of filters, can be null; the map is copied
+     * @param codec decodes a single item of the list
+     * @param pageSize number of items per page
+     * @param prefetch number of pages downloaded ahead of the current one (0 disables the prefetch)
+     */
+    public Pager(Utilities api, Dispatcher dispatcher, String baseURL, HashMap<String, Object> filters, Codec<T> codec, int pageSize, int prefetch) {
+        this(api, dispatcher, Endpoint.of(baseURL), filters, codec, pageSize, prefetch);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param api the utilities that perform the list requests
+     * @param dispatcher runs the prefetch requests
+     * @param endpoint the resource to list
+     * @param filters list of filters, can be null; the map is copied
+     * @param codec decodes a single item of the list
+     * @param pageSize number of items per page
+     * @param prefetch number of pages downloaded ahead of the current one (0 disables the prefetch)
+     */
+    public Pager(Utilities api, Dispatcher dispatcher, Endpoint endpoint, HashMap<String, Object> filters, Codec<T> codec, int pageSize, int prefetch) {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be positive");
+        if (prefetch < 0) throw new IllegalArgumentException("prefetch must not be negative");
+
+        this.api = api;
+        this.dispatcher = dispatcher;
+        this.endpoint = endpoint;
+        this.filters = filters != null ? new HashMap<>(filters) : new HashMap<String, Object>();
+        this.codec = codec;
+        this.pageSize = pageSize;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Tells if there is another page, waiting for it to be downloaded if needed.
+     *
+     * @return true if {@link #next()} will return a non-empty page
+     */
+    @Override
+    public boolean hasNext() {
+        if (head != null) return true;
+        if (done) return false;
+
+        if (pending.isEmpty()) schedule(1);
+
+        FutureTask<LazyList<T>> task = pending.poll();
+
+        //start downloading the following pages while waiting for this one
+        schedule(prefetch);
+
+        LazyList<T> page = await(task);
+
+        if (page == null) failed = true;
+
+        if (page == null || page.size() < pageSize) close();
+        if (page == null || page.isEmpty()) return false;
+
+        head = page;
+        return true;
+    }
+
+    /**
+     * Returns the next page.
+     *
+     * @return the items of the page, decoded on demand
+     * @throws NoSuchElementException if there are no more pages
+     */
+    @Override
+    public List<T> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        List<T> page = head;
+        head = null;
+
+        return page;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the iteration, cancelling the pages that are being prefetched.
+     */
+    public void close() {
+        done = true;
+
+        for (FutureTask<LazyList<T>> task : pending) task.cancel(false);
+
+        pending.clear();
+    }
+
+    /**
+     * Tells if the iteration ended because a request failed.
+     *
+     * @return true if a page could not be downloaded
+     */
+    @SuppressWarnings("unused")
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the number of pages downloaded so far (including the prefetched ones).
+     *
+     * @return pages downloaded
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getPagesLoaded() {
+        return pagesLoaded;
+    }
+
+    /**
+     * Returns the number of items downloaded so far (including the prefetched ones).
+     *
+     * @return items downloaded
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getItemsLoaded() {
+        return itemsLoaded;
+    }
+
+    /**
+     * Returns the download throughput: items downloaded per second spent downloading.
+     *
+     * @return items per second, 0 if nothing has been downloaded yet
+     */
+    @SuppressWarnings("unused")
+    public synchronized double getItemsPerSecond() {
+        return loadTime > 0 ? itemsLoaded * 1000.0 / loadTime : 0;
+    }
+
+    /**
+     * Returns how many times moving to the next page had to wait for the download.
+     *
+     * @return stall count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * Returns the total time spent waiting for pages that were not downloaded yet.
+     *
+     * @return stall time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getStallTime() {
+        return stallTime;
+    }
+
+    /**
+     * Schedules downloads until the given number of pages is pending.
+     *
+     * @param count number of pages that should be pending
+     */
+    private void schedule(int count) {
+        while (!done && pending.size() < count) {
+            FutureTask<LazyList<T>> task = new FutureTask<>(new PageCall(nextPage++));
+            pending.add(task);
+
+            //if the queue is full the page is downloaded by the consumer, see await()
+            dispatcher.execute(task);
+        }
+    }
+
+    /**
+     * Waits for a page. If its download has not started yet, it runs on the calling thread, so a busy
+     * dispatcher never blocks the consumer.
+     *
+     * @param task the download
+     * @return the page, or null if the download failed
+     */
+    private LazyList<T> await(FutureTask<LazyList<T>> task) {
+        if (task == null) return null;
+
+        long start = System.currentTimeMillis();
+        boolean stalled = !task.isDone();
+
+        try {
+            task.run();
+            return task.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            if (stalled) {
+                synchronized (this) {
+                    stallCount++;
+                    stallTime += System.currentTimeMillis() - start;
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads a page.
+     */
+    private class PageCall implements Callable<LazyList<T>> {
+
+        private final int page;
+
+        PageCall(int page) {
+            this.page = page;
+        }
+
+        @Override
+        public LazyList<T> call() throws Exception {
+            HashMap<String, Object> m = new HashMap<>(filters);
+            m.put("page", page);
+            m.put("per_page", pageSize);
+
+            long start = System.currentTimeMillis();
+            LazyList<T> items = api.lazyList(endpoint, m, codec);
+
+            synchronized (Pager.this) {
+                loadTime += System.currentTimeMillis() - start;
+
+                if (items != null) {
+                    pagesLoaded++;
+                    itemsLoaded += items.size();
+                }
+            }
+
+            return items;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Product class. <br />
+ * <br />
+ * Typed representation of a product. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class Product {
+
+    public int id = -1;
+    public String name;
+    public String description;
+    public String sku;
+    public double price;
+    public double priceDiscount;
+    public int stockLevel;
+    public int categoryId = -1;
+    public int brandId = -1;
+    public String[] images;
+
+    /**
+     * Decodes a product.
+     */
+    public static final Codec<Product> CODEC = new Codec<Product>() {
+        @Override
+        public Product read(JsonReader reader) throws IOException, JSONException {
+            Product p = new Product();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        p.id = Codecs.readInt(reader, -1);
+                        break;
+                    case "name":
+                        p.name = Codecs.readString(reader);
+                        break;
+                    case "description":
+                        p.description = Codecs.readString(reader);
+                        break;
+                    case "sku":
+                        p.sku = Codecs.readString(reader);
+                        break;
+                    case "price":
+                        p.price = Codecs.readDouble(reader, 0);
+                        break;
+                    case "price_discount":
+                        p.priceDiscount = Codecs.readDouble(reader, 0);
+                        break;
+                    case "stock_level":
+                        p.stockLevel = Codecs.readInt(reader, 0);
+                        break;
+                    case "category_id":
+                        p.categoryId = Codecs.readInt(reader, -1);
+                        break;
+                    case "brand_id":
+                        p.brandId = Codecs.readInt(reader, -1);
+                        break;
+                    case "images":
+                        p.images = Codecs.readStringArray(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return p;
+        }
+    };
+
+    /**
+     * Decodes the response of a request for a single product (null if the request failed).
+     */
+    public static final Codec<Product> DATA = Codecs.data(CODEC);
+
+    /**
+     * Decodes the response of a list request (null if the request failed).
+     */
+    public static final Codec<ArrayList<Product>> LIST = Codecs.list(CODEC);
+}
@@ -20,8 +20,11 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Products class. <br />
@@ -31,6 +34,8 @@ import java.util.concurrent.ExecutionException;
 public class Products {
 ;
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
 
     /**
      * Constructor.
@@ -38,7 +43,20 @@ public class Products {
      * @param key the public key to access the APIs
      */
     public Products(String key, Context context) {
-        api = new Utilities(context, key);
+        this(key, context, new Connect(context));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key the public key to access the APIs
+     * @param context application context
+     * @param connect the connection shared by the SDK
+     */
+    public Products(String key, Context context, Connect connect) {
+        api = new Utilities(context, key, connect);
+        dispatcher = connect.getDispatcher();
+        endpoint = connect.getEndpoints().products;
     }
 
     /**
@@ -49,7 +67,24 @@ public class Products {
      */
     @SuppressWarnings("unused")
     public JSONObject getById(int id) throws InterruptedException, ExecutionException, JSONException {
-        return api.getById("http://api.marketcloud.it/v0/products/", id);
+        return api.getById(endpoint, id, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #getById(int)}.
+     *
+     * @param id the ID of the product
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id);
+            }
+        }, callback);
     }
 
     /**
@@ -60,6 +95,179 @@ public class Products {
      */
     @SuppressWarnings("unused")
     public JSONObject list(HashMap<String, Object> map) throws ExecutionException, InterruptedException, JSONException {
-        return api.list("http://api.marketcloud.it/v0/products?", map);
+        return api.list(endpoint, map, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #list(HashMap)}.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> list(final HashMap<String, Object> map, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return list(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the product with the given ID, decoded into a {@link Product}.
+     *
+     * @param id the ID of the product
+     * @return the product, or null if it does not exist
+     */
+    @SuppressWarnings("unused")
+    public Product getProduct(int id) {
+        return api.getById(endpoint, id, Product.DATA);
+    }
+
+    /**
+     * Asynchronous version of {@link #getProduct(int)}.
+     *
+     * @param id the ID of the product
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Product> getProduct(final int id, Callback<Product> callback) {
+        return dispatcher.submit(new Callable<Product>() {
+            @Override
+            public Product call() throws Exception {
+                return getProduct(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the products that comply with the filters, decoded into {@link Product} objects.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @return the products that comply with the filters, or null if the request failed
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Product> listProducts(HashMap<String, Object> map) {
+        return api.list(endpoint, map, Product.LIST);
+    }
+
+    /**
+     * Asynchronous version of {@link #listProducts(HashMap)}.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Product>> listProducts(final HashMap<String, Object> map, Callback<ArrayList<Product>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Product>>() {
+            @Override
+            public ArrayList<Product> call() throws Exception {
+                return listProducts(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the products that comply with the filters as a {@link LazyList}: each product is decoded only
+     * when it is accessed, so a list that shows a few rows of a large result only decodes those rows.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @return the products that comply with the filters, or null if the request failed
+     */
+    @SuppressWarnings("unused")
+    public LazyList<Product> listProductsLazy(HashMap<String, Object> map) {
+        return api.lazyList(endpoint, map, Product.CODEC);
+    }
+
+    /**
+     * Asynchronous version of {@link #listProductsLazy(HashMap)}.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<LazyList<Product>> listProductsLazy(final HashMap<String, Object> map, Callback<LazyList<Product>> callback) {
+        return dispatcher.submit(new Callable<LazyList<Product>>() {
+            @Override
+            public LazyList<Product> call() throws Exception {
+                return listProductsLazy(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Returns a pager over the products that comply with the filters. The next page is downloaded in background
+     * while the current one is consumed.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param pageSize number of products per page
+     * @return the pager
+     */
+    @SuppressWarnings("unused")
+    public Pager<Product> pager(HashMap<String, Object> map, int pageSize) {
+        return new Pager<>(api, dispatcher, endpoint, map, Product.CODEC, pageSize, Pager.DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Retrieves the products with the given IDs, in the same order. Duplicated and cached IDs are not requested
+     * again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the products
+     * @return the data of the products; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<JSONObject> getByIds(int... ids) {
+        return api.getByIds(endpoint, JsonStreamParser.OBJECT, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getByIds(int...)}.
+     *
+     * @param ids the IDs of the products
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<JSONObject>> getByIds(final int[] ids, Callback<ArrayList<JSONObject>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<JSONObject>>() {
+            @Override
+            public ArrayList<JSONObject> call() throws Exception {
+                return getByIds(ids);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the products with the given IDs, decoded into {@link Product} objects, in the same order.
+     * Duplicated and cached IDs are not requested again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the products
+     * @return the products; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Product> getProducts(int... ids) {
+        return api.getByIds(endpoint, Product.DATA, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getProducts(int...)}.
+     *
+     * @param ids the IDs of the products
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Product>> getProducts(final int[] ids, Callback<ArrayList<Product>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Product>>() {
+            @Override
+            public ArrayList<Product> call() throws Exception {
+                return getProducts(ids);
+            }
+        }, callback);
     }
-}
\ No newline at end of file
+}
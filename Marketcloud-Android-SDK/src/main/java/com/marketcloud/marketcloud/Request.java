@@ -0,0 +1,163 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.message.BasicHeader;
+
+/**
+ * Request class. <br />
+ * <br />
+ * An HTTP request as it goes through the {@link Interceptor} chain of {@link Connect}. A request is immutable:
+ * the interceptors that need to change it create a modified copy with the with...() methods and pass it on.
+ */
+public final class Request {
+
+    private static final Header[] NO_HEADERS = new Header[0];
+
+    private final String method;
+    private final String url;
+    private final String authorization;
+    private final String body;
+    private final Header[] headers;
+
+    /**
+     * Constructor.
+     *
+     * @param method the HTTP method, lowercase ("get", "post", "put", "patch" or "delete")
+     * @param url the complete url
+     * @param authorization value of the Authorization header
+     * @param body the JSON body, null for GET and DELETE
+     * @param headers additional headers, can be null
+     */
+    public Request(String method, String url, String authorization, String body, Header[] headers) {
+        this.method = method;
+        this.url = url;
+        this.authorization = authorization;
+        this.body = body;
+        this.headers = headers != null ? headers : NO_HEADERS;
+    }
+
+    /**
+     * Builds a request from the parameters of {@link Connect#run(String...)}: type, url, authorization and
+     * body (or id, for DELETE).
+     *
+     * @param params the parameters
+     * @return the request
+     */
+    static Request fromParams(String... params) {
+        switch (params[0]) {
+            case "delete":
+                return new Request(params[0], params[1] + params[3], params[2], null, null);
+            case "patch":
+                //the APIs expect a list of patch operations
+                return new Request(params[0], params[1], params[2], "[" + params[3] + "]", null);
+            default:
+                return new Request(params[0], params[1], params[2], params.length > 3 ? params[3] : null, null);
+        }
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public Header[] getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the value of an additional header.
+     *
+     * @param name name of the header (case insensitive)
+     * @return the value, or null if not present
+     */
+    public String getHeader(String name) {
+        for (Header h : headers)
+            if (h.getName().equalsIgnoreCase(name)) return h.getValue();
+
+        return null;
+    }
+
+    /**
+     * Tells if the request is public, i.e. it is authorized by the public key alone, without a session token.
+     *
+     * @return true if public
+     */
+    public boolean isPublic() {
+        return authorization.indexOf(':') < 0;
+    }
+
+    /**
+     * Returns a copy of this request with a different url.
+     *
+     * @param url the new url
+     * @return the new request
+     */
+    @SuppressWarnings("unused")
+    public Request withUrl(String url) {
+        return new Request(method, url, authorization, body, headers);
+    }
+
+    /**
+     * Returns a copy of this request with a different authorization.
+     *
+     * @param authorization the new value of the Authorization header
+     * @return the new request
+     */
+    @SuppressWarnings("unused")
+    public Request withAuthorization(String authorization) {
+        return new Request(method, url, authorization, body, headers);
+    }
+
+    /**
+     * Returns a copy of this request with a different body.
+     *
+     * @param body the new body
+     * @return the new request
+     */
+    @SuppressWarnings("unused")
+    public Request withBody(String body) {
+        return new Request(method, url, authorization, body, headers);
+    }
+
+    /**
+     * Returns a copy of this request with an additional header.
+     *
+     * @param name name of the header
+     * @param value value of the header
+     * @return the new request
+     */
+    @SuppressWarnings("unused")
+    public Request withHeader(String name, String value) {
+        Header[] h = new Header[headers.length + 1];
+        System.arraycopy(headers, 0, h, 0, headers.length);
+        h[headers.length] = new BasicHeader(name, value);
+
+        return new Request(method, url, authorization, body, h);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import cz.msebera.android.httpclient.Header;
+
+/**
+ * Response class. <br />
+ * <br />
+ * The outcome of a request performed by {@link Connect}: status code, headers and decoded body.
+ *
+ * @param <T> type of the decoded body
+ */
+public class Response<T> {
+
+    int statusCode;
+    Header[] headers;
+    T body;
+    int size;
+
+    Response() {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param statusCode the status code (0 if the request failed before getting one)
+     * @param headers response headers, can be null
+     * @param body the decoded body, can be null
+     * @param size size of the body in bytes
+     */
+    public Response(int statusCode, Header[] headers, T body, int size) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+        this.size = size;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Header[] getHeaders() {
+        return headers;
+    }
+
+    public T getBody() {
+        return body;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the value of a header.
+     *
+     * @param name name of the header (case insensitive)
+     * @return the value, or null if not present
+     */
+    public String getHeader(String name) {
+        if (headers != null)
+            for (Header h : headers)
+                if (h.getName().equalsIgnoreCase(name)) return h.getValue();
+
+        return null;
+    }
+
+    /**
+     * Tells if the request succeeded, i.e. the server answered with a 2xx status and a valid body.
+     *
+     * @return true if successful, false if not
+     */
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode < 300 && body != null;
+    }
+}
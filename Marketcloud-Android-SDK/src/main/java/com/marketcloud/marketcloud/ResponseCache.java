@@ -0,0 +1,285 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ResponseCache class. <br />
+ * <br />
+ * In-memory cache of the catalog responses (products, brands, categories, shippings and taxes). <br />
+ * Every resource has its own time-to-live; the entries are evicted when they expire or, starting from the least
+ * recently used, when the total size of the cached responses exceeds the memory budget. A resource with a
+ * time-to-live of 0 is never cached. <br />
+ * <br />
+ * The responses are cached already decoded, together with the {@link Codec} that decoded them; a lookup with a
+ * different codec is a miss. <br />
+ * <br />
+ * NOTE: a cached JSONObject (or model) is shared by all the callers that read it, so it must not be modified.
+ */
+public class ResponseCache {
+
+    public static final long DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+    public static final long DEFAULT_PRODUCTS_TTL = 60 * 1000;
+    public static final long DEFAULT_CATALOG_TTL = 5 * 60 * 1000;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Long> ttls = new HashMap<>();
+    private long maxSize;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Constructor. Uses the default memory budget and time-to-live values.
+     */
+    public ResponseCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor. Uses the default time-to-live values.
+     *
+     * @param maxSize memory budget, in bytes
+     */
+    public ResponseCache(long maxSize) {
+        this.maxSize = maxSize;
+
+        ttls.put("products", DEFAULT_PRODUCTS_TTL);
+        ttls.put("brands", DEFAULT_CATALOG_TTL);
+        ttls.put("categories", DEFAULT_CATALOG_TTL);
+        ttls.put("shippings", DEFAULT_CATALOG_TTL);
+        ttls.put("taxes", DEFAULT_CATALOG_TTL);
+    }
+
+    /**
+     * Sets the time-to-live of the responses of a resource.
+     *
+     * @param resource name of the resource, as it appears in the endpoint (e.g. "products")
+     * @param ttl time-to-live in milliseconds; 0 disables the cache for the resource
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setTtl(String resource, long ttl) {
+        ttls.put(resource, ttl);
+    }
+
+    /**
+     * Returns the time-to-live of the responses of an endpoint.
+     *
+     * @param endpoint the resource
+     * @return the time-to-live in milliseconds, 0 if the responses must not be cached
+     */
+    synchronized long getTtl(Endpoint endpoint) {
+        Long ttl = ttls.get(endpoint.getResource());
+
+        return ttl != null ? ttl : 0;
+    }
+
+    /**
+     * Changes the memory budget, evicting entries if needed.
+     *
+     * @param maxSize memory budget, in bytes
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize();
+    }
+
+    /**
+     * Returns a cached response.
+     *
+     * @param key cache key, see {@link #key(String, String)}
+     * @param codec the codec the response must have been decoded with
+     * @param <T> type of the decoded response
+     * @return the response, or null if it is not cached or has expired
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> T get(String key, Codec<T> codec) {
+        Entry entry = entries.get(key);
+
+        if (entry != null && entry.codec != codec) {
+            entry = null;
+        } else if (entry != null && entry.expires < System.currentTimeMillis()) {
+            remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        return (T) entry.response;
+    }
+
+    /**
+     * Caches a response.
+     *
+     * @param key cache key, see {@link #key(String, String)}
+     * @param codec the codec that decoded the response
+     * @param response the decoded response
+     * @param bytes size of the response body
+     * @param ttl time-to-live in milliseconds
+     * @param <T> type of the decoded response
+     */
+    synchronized <T> void put(String key, Codec<T> codec, T response, int bytes, long ttl) {
+        // the body is kept as a parsed object, which takes roughly twice the size of the raw UTF-8 text
+        long weight = 2L * bytes;
+
+        if (weight > maxSize) return;
+
+        remove(key);
+
+        entries.put(key, new Entry(codec, response, weight, System.currentTimeMillis() + ttl));
+        size += weight;
+
+        trimToSize();
+    }
+
+    /**
+     * Removes all the cached responses.
+     */
+    @SuppressWarnings("unused")
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of lookups that found a valid response.
+     *
+     * @return hit count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a valid response.
+     *
+     * @return miss count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of responses evicted to stay within the memory budget.
+     *
+     * @return eviction count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the estimated memory used by the cached responses.
+     *
+     * @return size in bytes
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Builds the cache key of a request: the query parameters are sorted, so their order does not change the
+     * key, while the same URL requested with a different authorization gives a different key.
+     *
+     * @param url request url
+     * @param authorization value of the Authorization header
+     * @return the cache key
+     */
+    static String key(String url, String authorization) {
+        int q = url.indexOf('?');
+
+        if (q >= 0 && q < url.length() - 1) {
+            String[] query = url.substring(q + 1).split("&");
+            Arrays.sort(query);
+
+            StringBuilder sb = new StringBuilder(url.length() + authorization.length() + 1);
+            sb.append(url, 0, q + 1);
+
+            for (int i = 0; i < query.length; i++) {
+                if (i > 0) sb.append('&');
+                sb.append(query[i]);
+            }
+
+            return sb.append(' ').append(authorization).toString();
+        }
+
+        return url + ' ' + authorization;
+    }
+
+    /**
+     * Extracts the resource name from an endpoint: the last segment of its path.
+     *
+     * @param baseURL endpoint of the resource
+     * @return the resource name
+     */
+    static String resourceOf(String baseURL) {
+        int end = baseURL.indexOf('?');
+        if (end < 0) end = baseURL.length();
+
+        while (end > 0 && baseURL.charAt(end - 1) == '/') end--;
+
+        return baseURL.substring(baseURL.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+
+        if (old != null) size -= old.size;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+
+        while (size > maxSize && it.hasNext()) {
+            size -= it.next().getValue().size;
+            it.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * A cached response with its codec, size and expiration time.
+     */
+    private static class Entry {
+
+        final Codec<?> codec;
+        final Object response;
+        final long size;
+        final long expires;
+
+        Entry(Codec<?> codec, Object response, long size, long expires) {
+            this.codec = codec;
+            this.response = response;
+            this.size = size;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cz.msebera.android.httpclient.client.utils.DateUtils;
+
+/**
+ * RetryPolicy class. <br />
+ * <br />
+ * Decides which failed requests are sent again, and how long to wait before each attempt. <br />
+ * Only the idempotent requests are retried: GET, PUT and DELETE, and the POSTs that carry an
+ * {@value #IDEMPOTENCY_KEY} header (see {@link Orders#setIdempotencyKeys(boolean)}); a request is retried when
+ * it got no response, or a 408, 429, 502, 503 or 504. <br />
+ * The waits grow exponentially with "full jitter" (a random time between 0 and the exponential delay), so the
+ * clients that failed together do not retry together; a Retry-After header sent by the server is honoured. <br />
+ * <br />
+ * The retries are limited by a budget shared by all the requests of the policy: every request deposits a
+ * fraction of a retry, and every retry withdraws a whole one. When the server is down the retries are then at
+ * most that fraction of the traffic (plus a small reserve), instead of multiplying it.
+ */
+public class RetryPolicy {
+
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY = 200;
+    public static final long DEFAULT_MAX_DELAY = 5000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_MIN_RETRIES = 10;
+
+    //the budget is counted in thousandths of a retry
+    private static final long UNIT = 1000;
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong denied = new AtomicLong();
+    private final Random random = new Random();
+
+    /**
+     * Constructor. Uses the default limits.
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_BUDGET_RATIO, DEFAULT_MIN_RETRIES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxAttempts maximum number of attempts of a request, the first one included
+     * @param baseDelay delay (in milliseconds) before the first retry, doubled at every following retry
+     * @param maxDelay maximum delay between two attempts, in milliseconds
+     * @param budgetRatio retries allowed per request sent (e.g. 0.1 allows a retry every 10 requests)
+     * @param minRetries reserve of retries, available also when few requests are sent
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, double budgetRatio, int minRetries) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts < 1");
+        if (baseDelay < 0 || maxDelay < baseDelay) throw new IllegalArgumentException("invalid delays");
+
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+
+        deposit = Math.max(0, Math.round(budgetRatio * UNIT));
+        capacity = Math.max(1, minRetries) * UNIT;
+        balance = new AtomicLong(capacity);
+    }
+
+    /**
+     * Returns the maximum number of attempts of a request.
+     *
+     * @return the attempts, the first one included
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns the number of retries sent.
+     *
+     * @return the retries
+     */
+    @SuppressWarnings("unused")
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Returns the number of retries that were not sent because the budget was exhausted.
+     *
+     * @return the retries denied
+     */
+    @SuppressWarnings("unused")
+    public long getDeniedCount() {
+        return denied.get();
+    }
+
+    /**
+     * Tells if a request can be sent more than once without side effects.
+     *
+     * @param request the request
+     * @return true for GET, PUT, DELETE and the requests carrying an idempotency key
+     */
+    public boolean isIdempotent(Request request) {
+        String method = request.getMethod();
+
+        return method.equals("get")
+                || method.equals("put")
+                || method.equals("delete")
+                || request.getHeader(IDEMPOTENCY_KEY) != null;
+    }
+
+    /**
+     * Tells if the outcome of an attempt is a transient failure, that can succeed if the request is sent again.
+     *
+     * @param response the response, null if the request could not be sent
+     * @return true if the request should be retried
+     */
+    public boolean isRetryable(Response<?> response) {
+        if (response == null) return true;
+
+        switch (response.getStatusCode()) {
+            case 0:
+            case 408:
+            case 429:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the time to wait before an attempt: the Retry-After time asked by the server if any, a random
+     * time between 0 and the exponential delay otherwise.
+     *
+     * @param attempt number of the failed attempt, starting from 1
+     * @param response the response of the failed attempt, can be null
+     * @return the delay, in milliseconds
+     */
+    public long getDelay(int attempt, Response<?> response) {
+        long retryAfter = response != null ? retryAfter(response.getHeader("Retry-After")) : -1;
+
+        if (retryAfter >= 0) return Math.min(retryAfter, maxDelay);
+
+        long ceiling = baseDelay << Math.min(attempt - 1, 30);
+        if (ceiling > maxDelay || ceiling < 0) ceiling = maxDelay;
+
+        synchronized (random) {
+            return (long) (random.nextDouble() * (ceiling + 1));
+        }
+    }
+
+    /**
+     * Records a request sent for the first time, depositing its share of the budget. The budget never grows
+     * beyond the reserve, so a long healthy period does not allow a burst of retries.
+     */
+    void onRequest() {
+        long b;
+
+        do {
+            b = balance.get();
+            if (b >= capacity) return;
+        } while (!balance.compareAndSet(b, Math.min(capacity, b + deposit)));
+    }
+
+    /**
+     * Withdraws a retry from the budget.
+     *
+     * @return true if the retry can be sent, false if the budget is exhausted
+     */
+    boolean acquireRetry() {
+        long b;
+
+        do {
+            b = balance.get();
+
+            if (b < UNIT) {
+                denied.incrementAndGet();
+                return false;
+            }
+        } while (!balance.compareAndSet(b, b - UNIT));
+
+        retries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Parses a Retry-After header, either a number of seconds or an HTTP date.
+     *
+     * @param value the value of the header, can be null
+     * @return the time to wait in milliseconds, or -1 if the value is missing or invalid
+     */
+    private static long retryAfter(String value) {
+        if (value == null) return -1;
+
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Shipping class. <br />
+ * <br />
+ * Typed representation of a shipping method. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class Shipping {
+
+    public int id = -1;
+    public String name;
+    public double baseCost;
+    public double perItemCost;
+
+    /**
+     * Decodes a shipping method.
+     */
+    public static final Codec<Shipping> CODEC = new Codec<Shipping>() {
+        @Override
+        public Shipping read(JsonReader reader) throws IOException, JSONException {
+            Shipping s = new Shipping();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        s.id = Codecs.readInt(reader, -1);
+                        break;
+                    case "name":
+                        s.name = Codecs.readString(reader);
+                        break;
+                    case "base_cost":
+                        s.baseCost = Codecs.readDouble(reader, 0);
+                        break;
+                    case "per_item_cost":
+                        s.perItemCost = Codecs.readDouble(reader, 0);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return s;
+        }
+    };
+
+    /**
+     * Decodes the response of a request for a single shipping (null if the request failed).
+     */
+    public static final Codec<Shipping> DATA = Codecs.data(CODEC);
+
+    /**
+     * Decodes the response of a list request (null if the request failed).
+     */
+    public static final Codec<ArrayList<Shipping>> LIST = Codecs.list(CODEC);
+}
@@ -20,8 +20,11 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Shippings class. <br />
@@ -31,6 +34,8 @@ import java.util.concurrent.ExecutionException;
 public class Shippings {
 
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
 
     /**
      * Constructor.
@@ -38,7 +43,20 @@ public class Shippings {
      * @param key the public key to access the APIs
      */
     public Shippings(String key, Context ct) {
-        api = new Utilities(ct, key);
+        this(key, ct, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key the public key to access the APIs
+     * @param ct application context
+     * @param connect the connection shared by the SDK
+     */
+    public Shippings(String key, Context ct, Connect connect) {
+        api = new Utilities(ct, key, connect);
+        dispatcher = connect.getDispatcher();
+        endpoint = connect.getEndpoints().shippings;
     }
 
     /**
@@ -49,7 +67,24 @@ public class Shippings {
      */
     @SuppressWarnings("unused")
     public JSONObject getById(final int id) throws InterruptedException, ExecutionException, JSONException {
-        return api.getById("http://api.marketcloud.it/v0/shippings/", id);
+        return api.getById(endpoint, id, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #getById(int)}.
+     *
+     * @param id the id of the shipping that the user wants to retrieve
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id);
+            }
+        }, callback);
     }
 
     /**
@@ -60,6 +95,150 @@ public class Shippings {
      */
     @SuppressWarnings("unused")
     public JSONObject list(HashMap<String, Object> map) throws ExecutionException, InterruptedException, JSONException {
-        return api.list("http://api.marketcloud.it/v0/shippings?", map);
+        return api.list(endpoint, map, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #list(HashMap)}.
+     *
+     * @param map HashMap containing a list of filters
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> list(final HashMap<String, Object> map, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return list(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the shipping method with the given ID, decoded into a {@link Shipping}.
+     *
+     * @param id the ID of the shipping method
+     * @return the shipping method, or null if it does not exist
+     */
+    @SuppressWarnings("unused")
+    public Shipping getShipping(int id) {
+        return api.getById(endpoint, id, Shipping.DATA);
+    }
+
+    /**
+     * Asynchronous version of {@link #getShipping(int)}.
+     *
+     * @param id the ID of the shipping method
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Shipping> getShipping(final int id, Callback<Shipping> callback) {
+        return dispatcher.submit(new Callable<Shipping>() {
+            @Override
+            public Shipping call() throws Exception {
+                return getShipping(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the shipping methods that comply with the filters, decoded into {@link Shipping} objects.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @return the shipping methods that comply with the filters, or null if the request failed
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Shipping> listShippings(HashMap<String, Object> map) {
+        return api.list(endpoint, map, Shipping.LIST);
+    }
+
+    /**
+     * Asynchronous version of {@link #listShippings(HashMap)}.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Shipping>> listShippings(final HashMap<String, Object> map, Callback<ArrayList<Shipping>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Shipping>>() {
+            @Override
+            public ArrayList<Shipping> call() throws Exception {
+                return listShippings(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Returns a pager over the shipping methods that comply with the filters. The next page is downloaded in background
+     * while the current one is consumed.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param pageSize number of shipping methods per page
+     * @return the pager
+     */
+    @SuppressWarnings("unused")
+    public Pager<Shipping> pager(HashMap<String, Object> map, int pageSize) {
+        return new Pager<>(api, dispatcher, endpoint, map, Shipping.CODEC, pageSize, Pager.DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Retrieves the shipping methods with the given IDs, in the same order. Duplicated and cached IDs are not requested
+     * again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the shipping methods
+     * @return the data of the shipping methods; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<JSONObject> getByIds(int... ids) {
+        return api.getByIds(endpoint, JsonStreamParser.OBJECT, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getByIds(int...)}.
+     *
+     * @param ids the IDs of the shipping methods
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<JSONObject>> getByIds(final int[] ids, Callback<ArrayList<JSONObject>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<JSONObject>>() {
+            @Override
+            public ArrayList<JSONObject> call() throws Exception {
+                return getByIds(ids);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the shipping methods with the given IDs, decoded into {@link Shipping} objects, in the same order.
+     * Duplicated and cached IDs are not requested again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the shipping methods
+     * @return the shipping methods; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Shipping> getShippings(int... ids) {
+        return api.getByIds(endpoint, Shipping.DATA, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getShippings(int...)}.
+     *
+     * @param ids the IDs of the shipping methods
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Shipping>> getShippings(final int[] ids, Callback<ArrayList<Shipping>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Shipping>>() {
+            @Override
+            public ArrayList<Shipping> call() throws Exception {
+                return getShippings(ids);
+            }
+        }, callback);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,145 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * SingleFlight class. <br />
+ * <br />
+ * Collapses identical concurrent requests: while a request is in flight, the callers asking for the same one
+ * wait for it and share its result instead of sending it again. A request is identified by its method, its
+ * normalized url (see {@link ResponseCache#key(String, String)}), its authorization and the codec of the
+ * result. Only the requests without side effects (GET) should go through it.
+ */
+public class SingleFlight {
+
+    private final HashMap<Key, FutureTask<?>> calls = new HashMap<>();
+    private long callCount;
+    private long collapsedCount;
+
+    /**
+     * Runs a call, or joins the identical call already in flight.
+     *
+     * @param method the HTTP method
+     * @param key cache key of the request, see {@link ResponseCache#key(String, String)}
+     * @param codec the codec of the result
+     * @param call performs the request
+     * @param <T> type of the result
+     * @return the result, shared with the callers that joined
+     * @throws Exception the exception thrown by the call
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(String method, String key, Codec<?> codec, Callable<T> call) throws Exception {
+        Key k = new Key(method + ' ' + key, codec);
+        FutureTask<T> task;
+        boolean leader = false;
+
+        synchronized (this) {
+            task = (FutureTask<T>) calls.get(k);
+
+            if (task == null) {
+                task = new FutureTask<>(call);
+                calls.put(k, task);
+                leader = true;
+                callCount++;
+            } else {
+                collapsedCount++;
+            }
+        }
+
+        if (leader) {
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    calls.remove(k);
+                }
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Error) throw (Error) cause;
+
+            throw (Exception) cause;
+        }
+    }
+
+    /**
+     * Returns the number of requests actually sent.
+     *
+     * @return call count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * Returns the number of requests that joined an identical one instead of being sent.
+     *
+     * @return collapsed count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getCollapsedCount() {
+        return collapsedCount;
+    }
+
+    /**
+     * Returns the number of requests in flight.
+     *
+     * @return in-flight count
+     */
+    @SuppressWarnings("unused")
+    public synchronized int getInFlightCount() {
+        return calls.size();
+    }
+
+    /**
+     * Identity of a request: the same request decoded with different codecs is not shared.
+     */
+    private static class Key {
+
+        final String request;
+        final Codec<?> codec;
+
+        Key(String request, Codec<?> codec) {
+            this.request = request;
+            this.codec = codec;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+
+            Key other = (Key) o;
+
+            return codec == other.codec && request.equals(other.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * request.hashCode() + System.identityHashCode(codec);
+        }
+    }
+}
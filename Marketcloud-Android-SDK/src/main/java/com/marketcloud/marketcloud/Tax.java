@@ -0,0 +1,78 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Tax class. <br />
+ * <br />
+ * Typed representation of a tax. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class Tax {
+
+    public int id = -1;
+    public String name;
+    public double rate;
+
+    /**
+     * Decodes a tax.
+     */
+    public static final Codec<Tax> CODEC = new Codec<Tax>() {
+        @Override
+        public Tax read(JsonReader reader) throws IOException, JSONException {
+            Tax t = new Tax();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        t.id = Codecs.readInt(reader, -1);
+                        break;
+                    case "name":
+                        t.name = Codecs.readString(reader);
+                        break;
+                    case "rate":
+                        t.rate = Codecs.readDouble(reader, 0);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return t;
+        }
+    };
+
+    /**
+     * Decodes the response of a request for a single tax (null if the request failed).
+     */
+    public static final Codec<Tax> DATA = Codecs.data(CODEC);
+
+    /**
+     * Decodes the response of a list request (null if the request failed).
+     */
+    public static final Codec<ArrayList<Tax>> LIST = Codecs.list(CODEC);
+}
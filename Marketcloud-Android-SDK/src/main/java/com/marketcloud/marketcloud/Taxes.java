@@ -20,12 +20,17 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class Taxes {
 
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
 
     /**
      * Constructor.
@@ -33,7 +38,20 @@ public class Taxes {
      * @param key the public key to access the APIs
      */
     public Taxes(String key, Context ct) {
-        api = new Utilities(ct, key);
+        this(key, ct, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key the public key to access the APIs
+     * @param ct application context
+     * @param connect the connection shared by the SDK
+     */
+    public Taxes(String key, Context ct, Connect connect) {
+        api = new Utilities(ct, key, connect);
+        dispatcher = connect.getDispatcher();
+        endpoint = connect.getEndpoints().taxes;
     }
 
     /**
@@ -44,7 +62,24 @@ public class Taxes {
      */
     @SuppressWarnings("unused")
     public JSONObject getById(final int id) throws InterruptedException, ExecutionException, JSONException {
-        return api.getById("http://api.marketcloud.it/v0/taxes/", id);
+        return api.getById(endpoint, id, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #getById(int)}.
+     *
+     * @param id the id of the tax that the user wants to retrieve
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id);
+            }
+        }, callback);
     }
 
     /**
@@ -55,6 +90,150 @@ public class Taxes {
      */
     @SuppressWarnings("unused")
     public JSONObject list(HashMap<String, Object> map) throws ExecutionException, InterruptedException, JSONException {
-        return api.list("http://api.marketcloud.it/v0/taxes?", map);
+        return api.list(endpoint, map, JsonStreamParser.OBJECT);
+    }
+
+    /**
+     * Asynchronous version of {@link #list(HashMap)}.
+     *
+     * @param map HashMap containing a list of filters
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> list(final HashMap<String, Object> map, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return list(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the tax with the given ID, decoded into a {@link Tax}.
+     *
+     * @param id the ID of the tax
+     * @return the tax, or null if it does not exist
+     */
+    @SuppressWarnings("unused")
+    public Tax getTax(int id) {
+        return api.getById(endpoint, id, Tax.DATA);
+    }
+
+    /**
+     * Asynchronous version of {@link #getTax(int)}.
+     *
+     * @param id the ID of the tax
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Tax> getTax(final int id, Callback<Tax> callback) {
+        return dispatcher.submit(new Callable<Tax>() {
+            @Override
+            public Tax call() throws Exception {
+                return getTax(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the taxes that comply with the filters, decoded into {@link Tax} objects.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @return the taxes that comply with the filters, or null if the request failed
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Tax> listTaxes(HashMap<String, Object> map) {
+        return api.list(endpoint, map, Tax.LIST);
+    }
+
+    /**
+     * Asynchronous version of {@link #listTaxes(HashMap)}.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Tax>> listTaxes(final HashMap<String, Object> map, Callback<ArrayList<Tax>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Tax>>() {
+            @Override
+            public ArrayList<Tax> call() throws Exception {
+                return listTaxes(map);
+            }
+        }, callback);
+    }
+
+    /**
+     * Returns a pager over the taxes that comply with the filters. The next page is downloaded in background
+     * while the current one is consumed.
+     *
+     * @param map list of filters (organized in a map<filterName, filterData>
+     * @param pageSize number of taxes per page
+     * @return the pager
+     */
+    @SuppressWarnings("unused")
+    public Pager<Tax> pager(HashMap<String, Object> map, int pageSize) {
+        return new Pager<>(api, dispatcher, endpoint, map, Tax.CODEC, pageSize, Pager.DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Retrieves the taxes with the given IDs, in the same order. Duplicated and cached IDs are not requested
+     * again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the taxes
+     * @return the data of the taxes; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<JSONObject> getByIds(int... ids) {
+        return api.getByIds(endpoint, JsonStreamParser.OBJECT, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getByIds(int...)}.
+     *
+     * @param ids the IDs of the taxes
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<JSONObject>> getByIds(final int[] ids, Callback<ArrayList<JSONObject>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<JSONObject>>() {
+            @Override
+            public ArrayList<JSONObject> call() throws Exception {
+                return getByIds(ids);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves the taxes with the given IDs, decoded into {@link Tax} objects, in the same order.
+     * Duplicated and cached IDs are not requested again, the others are requested in parallel.
+     *
+     * @param ids the IDs of the taxes
+     * @return the taxes; null for the ones that could not be retrieved
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<Tax> getTaxes(int... ids) {
+        return api.getByIds(endpoint, Tax.DATA, ids);
+    }
+
+    /**
+     * Asynchronous version of {@link #getTaxes(int...)}.
+     *
+     * @param ids the IDs of the taxes
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<Tax>> getTaxes(final int[] ids, Callback<ArrayList<Tax>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<Tax>>() {
+            @Override
+            public ArrayList<Tax> call() throws Exception {
+                return getTaxes(ids);
+            }
+        }, callback);
     }
-}
\ No newline at end of file
+}
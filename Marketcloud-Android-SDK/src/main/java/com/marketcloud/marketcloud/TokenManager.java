@@ -16,42 +16,196 @@
 package com.marketcloud.marketcloud;
 
 import android.content.Context;
+import android.util.Base64;
 
 import com.loopj.android.http.PersistentCookieStore;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import cz.msebera.android.httpclient.cookie.Cookie;
 import cz.msebera.android.httpclient.impl.cookie.BasicClientCookie;
 
 /**
  * TokenManager class. <br />
  * <br />
- * Creates a token manager instance, that will handle the session tokens.
+ * Creates a token manager instance, that will handle the session tokens. <br />
+ * The tokens are read from the persistent cookie store once, when the instance is created, and then kept in
+ * memory: the session token, which is read by every private request, is a single field, the other tokens are
+ * indexed by name. The changes are written to the cookie store in background, in the order they were made, so
+ * neither the lookups nor the updates touch the disk on the calling thread. <br />
+ * <br />
+ * The expiry of the session token is read from the token itself when it is a JWT, or assumed from the lifetime
+ * set with {@link #setTokenLifetime(long)}. With a {@link Refresher} installed (see
+ * {@link Users#setAutoRefresh(boolean)}) the token is renewed in background shortly before it expires; a
+ * request that finds it expired waits for the renewal, and all the requests that find it expired at the same
+ * time wait for the same renewal instead of starting their own. <br />
+ * A renewal still in progress when the session ends (the session token is deleted, or the refresher removed)
+ * cannot bring the session back: the token it stores is discarded.
  */
 public class TokenManager {
 
+    public static final long DEFAULT_REFRESH_MARGIN = 60 * 1000;
+    public static final long REFRESH_RETRY_DELAY = 30 * 1000;
+
+    //a single thread, so the changes reach the cookie store in order
+    private static final ThreadPoolExecutor PERSISTER = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory("Marketcloud-TokenStore"));
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1,
+            new NamedThreadFactory("Marketcloud-TokenRefresh"));
+
+    static {
+        PERSISTER.allowCoreThreadTimeOut(true);
+        SCHEDULER.setKeepAliveTime(30, TimeUnit.SECONDS);
+        SCHEDULER.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Renews the session token.
+     */
+    public interface Refresher {
+
+        /**
+         * Obtains a new session token and stores it with {@link TokenManager#setToken(String, String)}, on the
+         * thread that called this method. It is called on a background thread, or on the thread of a request
+         * waiting for the token. It must not install another refresher.
+         *
+         * @return true if the token was renewed
+         * @throws Exception if the renewal failed
+         */
+        boolean refresh() throws Exception;
+    }
+
     PersistentCookieStore myCookieStore;
 
+    private final String domain;
+
+    private final ConcurrentHashMap<String, String> tokens = new ConcurrentHashMap<>();
+    private volatile Session session;
+    private volatile Refresher refresher;
+    private volatile long tokenLifetime;
+    private volatile long refreshMargin = DEFAULT_REFRESH_MARGIN;
+
+    //incremented (under the tokens lock) every time the session ends or is replaced
+    private volatile int generation;
+
+    //the renewal in progress, shared by the threads that wait for it
+    private FutureTask<Boolean> refreshing;
+    private volatile Thread refreshThread;
+    private volatile int refreshGeneration;
+    private volatile long lastFailure;
+    private ScheduledFuture<?> scheduled;
+
     /**
      * Constructor.
      *
      * @param ct application context
      */
     public TokenManager(Context ct) {
+        this(ct, EndpointConfig.DEFAULT_HOST);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ct application context
+     * @param domain domain of the stored cookies, i.e. the host of the APIs
+     */
+    public TokenManager(Context ct, String domain) {
+        this.domain = domain;
         myCookieStore = new PersistentCookieStore(ct);
+
+        for (Cookie c : myCookieStore.getCookies()) {
+            tokens.put(c.getName(), c.getValue());
+
+            if (c.getName().equals("auth"))
+                session = new Session(c.getValue(), c.getExpiryDate() != null ? c.getExpiryDate().getTime() : 0);
+        }
     }
 
     /**
-     * Get the session token from the cookies.
+     * Get the session token. If the token has expired and a {@link Refresher} is installed, waits until it
+     * is renewed.
      *
      * @return the session token, if exists
      */
     public String getSessionToken() {
+        Session s = session;
 
-        for (Cookie c : myCookieStore.getCookies()) {
-            if (c.getName().equals("auth")) return c.getValue();
+        if (s == null || s.expiry == 0 || System.currentTimeMillis() < s.expiry) return s != null ? s.token : null;
+
+        //the refresher itself must not wait for the renewal it is performing
+        if (refresher == null || refreshThread == Thread.currentThread()) return s.token;
+
+        refresh(true);
+
+        s = session;
+        return s != null ? s.token : null;
+    }
+
+    /**
+     * Returns the expiry of the session token.
+     *
+     * @return the expiry time in milliseconds since the epoch, 0 if unknown or if there is no session
+     */
+    @SuppressWarnings("unused")
+    public long getSessionExpiry() {
+        Session s = session;
+
+        return s != null ? s.expiry : 0;
+    }
+
+    /**
+     * Installs the object that renews the session token. The token is renewed in background before it
+     * expires (see {@link #setRefreshMargin(long)}), or when a request finds it expired.
+     *
+     * @param tokenRefresher the refresher, or null to stop renewing the token
+     */
+    @SuppressWarnings("unused")
+    public void setRefresher(Refresher tokenRefresher) {
+        synchronized (tokens) {
+            refresher = tokenRefresher;
+            if (tokenRefresher == null) generation++;
         }
 
-        return null;
+        schedule(session);
+    }
+
+    /**
+     * Sets the lifetime of the session tokens whose expiry cannot be read from the token.
+     *
+     * @param lifetime the lifetime in milliseconds, 0 if unknown (the token is assumed never to expire)
+     */
+    @SuppressWarnings("unused")
+    public void setTokenLifetime(long lifetime) {
+        tokenLifetime = lifetime;
+    }
+
+    /**
+     * Sets how long before the expiry the session token is renewed in background.
+     *
+     * @param margin the margin, in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public void setRefreshMargin(long margin) {
+        refreshMargin = margin;
+        schedule(session);
     }
 
     /**
@@ -62,12 +216,7 @@ public class TokenManager {
      */
     @SuppressWarnings("unused")
     public String getCookie(String name) {
-
-        for (Cookie c : myCookieStore.getCookies()) {
-            if (c.getName().equals(name)) return c.getValue();
-        }
-
-        return null;
+        return tokens.get(name);
     }
 
     /**
@@ -75,35 +224,254 @@ public class TokenManager {
      *
      * @param name the name of the cookie to be deleted
      */
-    public void deleteToken(String name) {
-
-        Cookie cookie = null;
-        boolean found = false;
+    public void deleteToken(final String name) {
+        //the store is updated under the same lock, so it sees the changes in the same order as the map
+        synchronized (tokens) {
+            //even without a token, a renewal in progress must not store one
+            if (name.equals("auth")) generation++;
 
-        for (Cookie c : myCookieStore.getCookies()) {
-            if (c.getName().equals(name)) {
-                cookie = c;
-                found = true;
-                break;
+            if (tokens.remove(name) == null) return;
+            if (name.equals("auth")) {
+                session = null;
+                schedule(null);
             }
-        }
 
-        if (found) myCookieStore.deleteCookie(cookie);
+            PERSISTER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Cookie c : myCookieStore.getCookies()) {
+                        if (c.getName().equals(name)) {
+                            myCookieStore.deleteCookie(c);
+                            break;
+                        }
+                    }
+                }
+            });
+        }
     }
 
     /**
-     * Sets a cookie.
+     * Sets a cookie. The expiry of the session token ("auth") is read from the token, if it is a JWT, or
+     * computed from the lifetime set with {@link #setTokenLifetime(long)}.
      *
      * @param name cookie name
      * @param arg cookie value
      */
     public void setToken(String name, String arg) {
-        BasicClientCookie newCookie = new BasicClientCookie(name, arg);
+        long expiry = 0;
+
+        if (name.equals("auth")) {
+            expiry = jwtExpiry(arg);
+            if (expiry == 0 && tokenLifetime > 0) expiry = System.currentTimeMillis() + tokenLifetime;
+        }
+
+        setToken(name, arg, expiry);
+    }
+
+    /**
+     * Sets a cookie that expires at the given time. The session token stored by a renewal is discarded if the
+     * session has ended, or has been replaced, since the renewal started.
+     *
+     * @param name cookie name
+     * @param arg cookie value
+     * @param expiry expiry time in milliseconds since the epoch, 0 if unknown
+     */
+    public void setToken(String name, String arg, long expiry) {
+        final BasicClientCookie newCookie = new BasicClientCookie(name, arg);
         newCookie.setVersion(1);
-        newCookie.setDomain("api.marketcloud.it");
+        newCookie.setDomain(domain);
         newCookie.setPath("/");
         newCookie.setSecure(true);
-        //newCookie.setExpiryDate();
-        myCookieStore.addCookie(newCookie);
+        if (expiry > 0) newCookie.setExpiryDate(new Date(expiry));
+
+        synchronized (tokens) {
+            if (name.equals("auth")) {
+                if (refreshThread != Thread.currentThread()) generation++;
+                else if (refreshGeneration != generation) return;
+            }
+
+            tokens.put(name, arg);
+            if (name.equals("auth")) {
+                session = new Session(arg, expiry);
+                schedule(session);
+            }
+
+            PERSISTER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    myCookieStore.addCookie(newCookie);
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until the changes made so far have been written to the cookie store.
+     *
+     * @param timeout maximum time to wait, in milliseconds
+     * @return true if the changes have been written, false if the time elapsed
+     */
+    @SuppressWarnings("unused")
+    public boolean flush(long timeout) throws InterruptedException {
+        final CountDownLatch written = new CountDownLatch(1);
+
+        PERSISTER.execute(new Runnable() {
+            @Override
+            public void run() {
+                written.countDown();
+            }
+        });
+
+        return written.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Renews the session token, unless the last renewal failed less than {@link #REFRESH_RETRY_DELAY} ago.
+     * If a renewal is already in progress, waits for it instead of starting another one.
+     *
+     * @param wait true to wait for the renewal, false to give up if another thread is performing it
+     */
+    private void refresh(boolean wait) {
+        //read before the refresher, that is removed before the generation changes
+        int g = generation;
+        final Refresher r = refresher;
+
+        if (r == null || System.currentTimeMillis() - lastFailure < REFRESH_RETRY_DELAY) return;
+
+        FutureTask<Boolean> task;
+        boolean owner = false;
+
+        synchronized (this) {
+            task = refreshing;
+
+            if (task == null) {
+                task = refreshing = new FutureTask<>(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return r.refresh();
+                    }
+                });
+                owner = true;
+            } else if (!wait) {
+                return;
+            }
+        }
+
+        if (owner) {
+            refreshGeneration = g;
+            refreshThread = Thread.currentThread();
+
+            try {
+                task.run();
+            } finally {
+                refreshThread = null;
+
+                synchronized (this) {
+                    refreshing = null;
+                }
+            }
+        }
+
+        try {
+            if (!task.get()) lastFailure = System.currentTimeMillis();
+        } catch (ExecutionException e) {
+            lastFailure = System.currentTimeMillis();
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Schedules the background renewal of a session token, replacing the one scheduled before.
+     *
+     * @param s the session, null to only cancel the scheduled renewal
+     */
+    private void schedule(Session s) {
+        if (s == null) {
+            schedule(null, 0);
+            return;
+        }
+
+        //a token that lives less than the margin is not renewed continuously
+        long remaining = s.expiry - System.currentTimeMillis();
+        schedule(s, Math.max(remaining - refreshMargin, remaining / 2));
+    }
+
+    /**
+     * Schedules the background renewal of a session token after a delay, replacing the one scheduled before.
+     * A renewal that fails is attempted again after {@link #REFRESH_RETRY_DELAY}.
+     *
+     * @param s the session, null to only cancel the scheduled renewal
+     * @param delay the delay, in milliseconds
+     */
+    private synchronized void schedule(final Session s, long delay) {
+        if (scheduled != null) scheduled.cancel(false);
+        scheduled = null;
+
+        if (s == null || s != session || s.expiry == 0 || refresher == null) return;
+
+        scheduled = SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh(false);
+
+                //still the same token: the renewal failed (or the refresher did not store the new token)
+                if (session == s) schedule(s, REFRESH_RETRY_DELAY);
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the expiry ("exp" claim) of a JWT.
+     *
+     * @param token the token
+     * @return the expiry in milliseconds since the epoch, 0 if the token is not a JWT or has no expiry
+     */
+    static long jwtExpiry(String token) {
+        String[] parts = token.split("\\.");
+
+        if (parts.length != 3) return 0;
+
+        try {
+            byte[] payload = Base64.decode(parts[1], Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+
+            return new JSONObject(new String(payload, "UTF-8")).optLong("exp") * 1000;
+        } catch (IllegalArgumentException | JSONException | UnsupportedEncodingException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A session token and its expiry.
+     */
+    private static class Session {
+
+        final String token;
+        final long expiry;
+
+        Session(String token, long expiry) {
+            this.token = token;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * Creates the daemon threads of the background executors of the SDK, with the given name.
+     */
+    static class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
     }
-}
\ No newline at end of file
+}
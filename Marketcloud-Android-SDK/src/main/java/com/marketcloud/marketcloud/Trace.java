@@ -0,0 +1,354 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Trace class. <br />
+ * <br />
+ * The phase timings of a single request, as reported to a {@link TraceListener}: the time spent waiting for a
+ * dispatcher thread and for a pooled connection, resolving the host, connecting, negotiating TLS, writing the
+ * request, waiting for the first byte of the response, reading the body and parsing it. The phases that did not
+ * take place (e.g. the connect of a reused connection) last 0. <br />
+ * If the request is retried, the phases describe the last attempt, while the total time covers all of them and
+ * the delays in between. The times are in milliseconds.
+ */
+public final class Trace {
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    private final String method;
+    private final String url;
+    private final long queueTime;
+    private final long start;
+    private long end;
+    private int attempts;
+    private long acquireStart;
+    private long acquireEnd;
+    private long dnsTime;
+    private long connectStart;
+    private long connectEnd;
+    private long tlsEnd;
+    private long requestStart;
+    private long requestEnd;
+    private long headers;
+    private long bodyReadTime;
+    private long bodyEnd;
+    private long responseBytes;
+    private int statusCode;
+
+    private Trace(Request request, long queueTime) {
+        method = request.getMethod();
+        url = request.getUrl();
+        this.queueTime = queueTime;
+        start = System.nanoTime();
+    }
+
+    /**
+     * Starts tracing a request on the current thread.
+     *
+     * @param request the request
+     * @param queueTime time (in nanoseconds) the request waited for a dispatcher thread
+     * @return the trace
+     */
+    static Trace begin(Request request, long queueTime) {
+        Trace trace = new Trace(request, queueTime);
+        CURRENT.set(trace);
+
+        return trace;
+    }
+
+    /**
+     * Returns the trace of the request that the current thread is sending.
+     *
+     * @return the trace, or null if the request is not traced
+     */
+    static Trace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Stops tracing the request on the current thread.
+     */
+    void finish() {
+        CURRENT.remove();
+        end = System.nanoTime();
+    }
+
+    //the marks below are set by the thread that sends the request
+
+    void attempt() {
+        //a retry starts over, from the connection to the parsed response
+        attempts++;
+        acquireStart = acquireEnd = dnsTime = connectStart = connectEnd = tlsEnd = requestStart = requestEnd = 0;
+        headers = bodyReadTime = bodyEnd = responseBytes = 0;
+        statusCode = 0;
+    }
+
+    void status(int status) {
+        statusCode = status;
+    }
+
+    void acquireStart() {
+        //the transport can open another connection for the same attempt
+        acquireStart = System.nanoTime();
+        acquireEnd = dnsTime = connectStart = connectEnd = tlsEnd = requestStart = requestEnd = 0;
+    }
+
+    void acquireEnd() {
+        acquireEnd = System.nanoTime();
+    }
+
+    void dns(long nanos) {
+        dnsTime += nanos;
+    }
+
+    void connectStart() {
+        connectStart = System.nanoTime();
+    }
+
+    void connectEnd() {
+        connectEnd = System.nanoTime();
+    }
+
+    void tlsEnd() {
+        tlsEnd = System.nanoTime();
+    }
+
+    void requestStart() {
+        requestStart = System.nanoTime();
+    }
+
+    void requestEnd() {
+        requestEnd = System.nanoTime();
+    }
+
+    void responseHeaders(long time) {
+        headers = time;
+    }
+
+    void responseBody(long readTime, long bytes) {
+        bodyReadTime = readTime;
+        responseBytes = bytes;
+        bodyEnd = System.nanoTime();
+    }
+
+    /**
+     * Returns the method of the request.
+     *
+     * @return the method, in lowercase
+     */
+    @SuppressWarnings("unused")
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the url of the request.
+     *
+     * @return the url
+     */
+    @SuppressWarnings("unused")
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the status code of the response, as received from the server.
+     *
+     * @return the status code, or 0 if the request failed before getting one
+     */
+    @SuppressWarnings("unused")
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the number of times the request has been sent, retries included.
+     *
+     * @return number of attempts
+     */
+    @SuppressWarnings("unused")
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Returns true if the request was sent on a connection opened by a previous request.
+     *
+     * @return true if no connection has been opened for the request
+     */
+    @SuppressWarnings("unused")
+    public boolean isConnectionReused() {
+        return acquireStart != 0 && connectStart == 0;
+    }
+
+    /**
+     * Returns the size of the response body, after decompression.
+     *
+     * @return size in bytes
+     */
+    @SuppressWarnings("unused")
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Returns the time the request waited for a dispatcher thread, 0 for synchronous requests.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getQueueTime() {
+        return millis(queueTime);
+    }
+
+    /**
+     * Returns the time the request waited for a connection of the pool.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getAcquireTime() {
+        return span(acquireStart, acquireEnd);
+    }
+
+    /**
+     * Returns the time spent resolving the host name.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getDnsTime() {
+        return millis(dnsTime);
+    }
+
+    /**
+     * Returns the time spent opening the TCP connection.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getConnectTime() {
+        return span(connectStart, connectEnd);
+    }
+
+    /**
+     * Returns the time spent on the TLS handshake.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getTlsTime() {
+        return span(connectEnd, tlsEnd);
+    }
+
+    /**
+     * Returns the time spent writing the request body.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getRequestWriteTime() {
+        return span(requestStart, requestEnd);
+    }
+
+    /**
+     * Returns the time between the end of the request and the arrival of the response headers: the time taken
+     * by the server, plus a round trip.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getFirstByteTime() {
+        return span(requestEnd != 0 ? requestEnd : requestStart, headers);
+    }
+
+    /**
+     * Returns the time spent waiting for the body to arrive from the network.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getBodyReadTime() {
+        return millis(bodyReadTime);
+    }
+
+    /**
+     * Returns the time spent decoding the body, without the time spent waiting for it.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getParseTime() {
+        return headers != 0 && bodyEnd > headers ? millis(Math.max(0, bodyEnd - headers - bodyReadTime)) : 0;
+    }
+
+    /**
+     * Returns the time from the moment the request was sent to the moment the response was parsed, queue
+     * time excluded. The retries, and the delays between them, are included.
+     *
+     * @return time in milliseconds
+     */
+    @SuppressWarnings("unused")
+    public double getTotalTime() {
+        return span(start, end);
+    }
+
+    /**
+     * Returns the timings as a JSON object.
+     *
+     * @return the timings, keyed by phase
+     */
+    public JSONObject toJson() throws JSONException {
+        return new JSONObject()
+                .put("method", method)
+                .put("url", url)
+                .put("status", statusCode)
+                .put("attempts", attempts)
+                .put("connection_reused", isConnectionReused())
+                .put("response_bytes", responseBytes)
+                .put("queue", getQueueTime())
+                .put("acquire", getAcquireTime())
+                .put("dns", getDnsTime())
+                .put("connect", getConnectTime())
+                .put("tls", getTlsTime())
+                .put("request_write", getRequestWriteTime())
+                .put("first_byte", getFirstByteTime())
+                .put("body_read", getBodyReadTime())
+                .put("parse", getParseTime())
+                .put("total", getTotalTime());
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return toJson().toString();
+        } catch (JSONException e) {
+            return super.toString();
+        }
+    }
+
+    private static double span(long from, long to) {
+        return from != 0 && to > from ? millis(to - from) : 0;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+/**
+ * TraceListener interface. <br />
+ * <br />
+ * Receives the {@link Trace} of every request sent by a {@link Connect}. The listener is called on the thread
+ * that sent the request, right after the response has been parsed, so it must be fast and thread-safe.
+ */
+public interface TraceListener {
+
+    /**
+     * Called when a request completes, successfully or not.
+     *
+     * @param trace the phase timings of the request
+     */
+    void onTrace(Trace trace);
+}
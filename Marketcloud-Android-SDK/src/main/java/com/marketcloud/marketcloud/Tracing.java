@@ -0,0 +1,285 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocket;
+
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpException;
+import cz.msebera.android.httpclient.HttpRequest;
+import cz.msebera.android.httpclient.HttpRequestInterceptor;
+import cz.msebera.android.httpclient.conn.ClientConnectionRequest;
+import cz.msebera.android.httpclient.conn.ConnectTimeoutException;
+import cz.msebera.android.httpclient.conn.ConnectionPoolTimeoutException;
+import cz.msebera.android.httpclient.conn.DnsResolver;
+import cz.msebera.android.httpclient.conn.HttpInetSocketAddress;
+import cz.msebera.android.httpclient.conn.ManagedClientConnection;
+import cz.msebera.android.httpclient.conn.routing.HttpRoute;
+import cz.msebera.android.httpclient.conn.scheme.Scheme;
+import cz.msebera.android.httpclient.conn.scheme.SchemeLayeredSocketFactory;
+import cz.msebera.android.httpclient.conn.scheme.SchemeRegistry;
+import cz.msebera.android.httpclient.conn.scheme.SchemeSocketFactory;
+import cz.msebera.android.httpclient.entity.HttpEntityWrapper;
+import cz.msebera.android.httpclient.impl.client.AbstractHttpClient;
+import cz.msebera.android.httpclient.impl.conn.PoolingClientConnectionManager;
+import cz.msebera.android.httpclient.impl.conn.SystemDefaultDnsResolver;
+import cz.msebera.android.httpclient.params.HttpConnectionParams;
+import cz.msebera.android.httpclient.params.HttpParams;
+import cz.msebera.android.httpclient.protocol.HttpContext;
+
+/**
+ * Tracing class. <br />
+ * <br />
+ * Hooks into the HTTP client the marks of the {@link Trace} phases that happen inside it: the lease of a pooled
+ * connection, the name resolution, the connect, the TLS handshake and the request write. The requests are sent
+ * on the calling thread, so each hook finds the trace of its request with {@link Trace#current()}; the requests
+ * that are not traced go straight to the default implementation.
+ */
+@SuppressWarnings("deprecation") //the hooks are the connection API of HttpClient 4.3, the one loopj 1.4.9 is built on
+final class Tracing {
+
+    private Tracing() {
+    }
+
+    /**
+     * Creates a pooling connection manager that marks the connection phases.
+     *
+     * @param registry the schemes supported by the client
+     * @return the connection manager
+     */
+    static PoolingClientConnectionManager connectionManager(SchemeRegistry registry) {
+        SchemeRegistry traced = new SchemeRegistry();
+
+        for (String name : registry.getSchemeNames()) traced.register(scheme(registry.getScheme(name)));
+
+        return new TracingConnectionManager(traced);
+    }
+
+    /**
+     * Wraps the socket factory of a scheme so that the connection phases are marked.
+     *
+     * @param scheme the scheme
+     * @return the traced scheme
+     */
+    static Scheme scheme(Scheme scheme) {
+        SchemeSocketFactory factory = scheme.getSchemeSocketFactory();
+
+        //the layered factories must stay layered, or the routes would not be considered secure
+        return new Scheme(scheme.getName(), scheme.getDefaultPort(), factory instanceof SchemeLayeredSocketFactory
+                ? new TracingLayeredSocketFactory((SchemeLayeredSocketFactory) factory)
+                : new TracingSocketFactory(factory));
+    }
+
+    /**
+     * Installs the mark of the request write on a client.
+     *
+     * @param client the client
+     */
+    static void install(AbstractHttpClient client) {
+        //added last, so it runs right before the request is written
+        client.addRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+                Trace trace = Trace.current();
+                if (trace != null) trace.requestStart();
+            }
+        });
+    }
+
+    /**
+     * Wraps a request body so that the end of its write is marked.
+     *
+     * @param entity the body
+     * @return the wrapped body
+     */
+    static HttpEntity entity(HttpEntity entity) {
+        return new HttpEntityWrapper(entity) {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                super.writeTo(out);
+
+                Trace trace = Trace.current();
+                if (trace != null) trace.requestEnd();
+            }
+        };
+    }
+
+    /**
+     * Marks the time spent waiting for a connection of the pool, and resolves the host names through
+     * {@link TracingDnsResolver}.
+     */
+    private static class TracingConnectionManager extends PoolingClientConnectionManager {
+
+        TracingConnectionManager(SchemeRegistry registry) {
+            super(registry, new TracingDnsResolver());
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ClientConnectionRequest request = super.requestConnection(route, state);
+            final Trace trace = Trace.current();
+
+            if (trace == null) return request;
+
+            return new ClientConnectionRequest() {
+                @Override
+                public ManagedClientConnection getConnection(long timeout, TimeUnit unit) throws InterruptedException, ConnectionPoolTimeoutException {
+                    trace.acquireStart();
+
+                    try {
+                        return request.getConnection(timeout, unit);
+                    } finally {
+                        trace.acquireEnd();
+                    }
+                }
+
+                @Override
+                public void abortRequest() {
+                    request.abortRequest();
+                }
+            };
+        }
+    }
+
+    /**
+     * Marks the time spent resolving the host names with the system resolver.
+     */
+    private static class TracingDnsResolver implements DnsResolver {
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            Trace trace = Trace.current();
+
+            if (trace == null) return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+
+            long start = System.nanoTime();
+
+            try {
+                return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+            } finally {
+                trace.dns(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Marks the time spent connecting a socket.
+     */
+    private static class TracingSocketFactory implements SchemeSocketFactory {
+
+        final SchemeSocketFactory delegate;
+
+        TracingSocketFactory(SchemeSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(HttpParams params) throws IOException {
+            return delegate.createSocket(params);
+        }
+
+        @Override
+        public Socket connectSocket(Socket socket, InetSocketAddress remote, InetSocketAddress local, HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+            Trace trace = Trace.current();
+
+            if (trace == null) return delegate.connectSocket(socket, remote, local, params);
+
+            trace.connectStart();
+            Socket connected = delegate.connectSocket(socket, remote, local, params);
+            trace.connectEnd();
+
+            return connected;
+        }
+
+        @Override
+        public boolean isSecure(Socket socket) throws IllegalArgumentException {
+            return delegate.isSecure(socket);
+        }
+    }
+
+    /**
+     * Marks the connect and the TLS handshake separately: a traced secure connection is opened as a plain
+     * socket first, and then layered by the delegate, which performs the handshake and verifies the host name.
+     */
+    private static class TracingLayeredSocketFactory extends TracingSocketFactory implements SchemeLayeredSocketFactory {
+
+        TracingLayeredSocketFactory(SchemeLayeredSocketFactory delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Socket createSocket(HttpParams params) throws IOException {
+            return Trace.current() != null ? new Socket() : delegate.createSocket(params);
+        }
+
+        @Override
+        public Socket connectSocket(Socket socket, InetSocketAddress remote, InetSocketAddress local, HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+            Trace trace = Trace.current();
+
+            if (trace == null || socket instanceof SSLSocket) return super.connectSocket(socket, remote, local, params);
+
+            Socket plain = socket != null ? socket : new Socket();
+
+            try {
+                if (local != null) {
+                    plain.setReuseAddress(HttpConnectionParams.getSoReuseaddr(params));
+                    plain.bind(local);
+                }
+
+                plain.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+
+                trace.connectStart();
+
+                try {
+                    plain.connect(remote, HttpConnectionParams.getConnectionTimeout(params));
+                } catch (SocketTimeoutException e) {
+                    throw new ConnectTimeoutException("Connect to " + remote + " timed out");
+                }
+
+                trace.connectEnd();
+
+                String host = remote instanceof HttpInetSocketAddress
+                        ? ((HttpInetSocketAddress) remote).getHttpHost().getHostName()
+                        : remote.getHostName();
+
+                Socket secure = createLayeredSocket(plain, host, remote.getPort(), params);
+                trace.tlsEnd();
+
+                return secure;
+            } catch (IOException e) {
+                try {
+                    plain.close();
+                } catch (IOException ignored) {}
+
+                throw e;
+            }
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpParams params) throws IOException, UnknownHostException {
+            return ((SchemeLayeredSocketFactory) delegate).createLayeredSocket(socket, target, port, params);
+        }
+    }
+}
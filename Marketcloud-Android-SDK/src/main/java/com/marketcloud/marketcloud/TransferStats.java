@@ -0,0 +1,204 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * TransferStats class. <br />
+ * <br />
+ * Counts the bytes exchanged with every endpoint, both as sent on the wire (compressed) and as produced or
+ * consumed by the SDK (uncompressed), to measure the savings of the compression. An endpoint is the path of
+ * the request without the API version, the ids and the query (e.g. "products", "users/authenticate").
+ */
+public class TransferStats {
+
+    private final HashMap<String, long[]> endpoints = new HashMap<>();
+
+    //indexes in the counters of an endpoint
+    private static final int REQUESTS = 0;
+    private static final int SENT = 1;
+    private static final int SENT_WIRE = 2;
+    private static final int RECEIVED = 3;
+    private static final int RECEIVED_WIRE = 4;
+
+    /**
+     * Records a request.
+     *
+     * @param url url of the request
+     * @param sent size of the request body
+     * @param sentWire size of the request body on the wire
+     * @param received size of the response body
+     * @param receivedWire size of the response body on the wire
+     */
+    synchronized void record(String url, long sent, long sentWire, long received, long receivedWire) {
+        String endpoint = endpoint(url);
+        long[] c = endpoints.get(endpoint);
+
+        if (c == null) {
+            c = new long[5];
+            endpoints.put(endpoint, c);
+        }
+
+        c[REQUESTS]++;
+        c[SENT] += sent;
+        c[SENT_WIRE] += sentWire;
+        c[RECEIVED] += received;
+        c[RECEIVED_WIRE] += receivedWire;
+    }
+
+    /**
+     * Returns the endpoints that have been called.
+     *
+     * @return the endpoint names
+     */
+    @SuppressWarnings("unused")
+    public synchronized List<String> getEndpoints() {
+        return new ArrayList<>(endpoints.keySet());
+    }
+
+    /**
+     * Returns the number of requests sent to an endpoint.
+     *
+     * @param endpoint endpoint name
+     * @return request count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getRequestCount(String endpoint) {
+        return get(endpoint, REQUESTS);
+    }
+
+    /**
+     * Returns the size of the response bodies received from an endpoint, after decompression.
+     *
+     * @param endpoint endpoint name
+     * @return size in bytes
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getReceivedBytes(String endpoint) {
+        return get(endpoint, RECEIVED);
+    }
+
+    /**
+     * Returns the size of the response bodies received from an endpoint, as they traveled on the wire.
+     *
+     * @param endpoint endpoint name
+     * @return size in bytes
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getReceivedWireBytes(String endpoint) {
+        return get(endpoint, RECEIVED_WIRE);
+    }
+
+    /**
+     * Returns the size of the request bodies sent to an endpoint, before compression.
+     *
+     * @param endpoint endpoint name
+     * @return size in bytes
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getSentBytes(String endpoint) {
+        return get(endpoint, SENT);
+    }
+
+    /**
+     * Returns the size of the request bodies sent to an endpoint, as they traveled on the wire.
+     *
+     * @param endpoint endpoint name
+     * @return size in bytes
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getSentWireBytes(String endpoint) {
+        return get(endpoint, SENT_WIRE);
+    }
+
+    /**
+     * Returns the bytes saved by the compression on an endpoint, in both directions.
+     *
+     * @param endpoint endpoint name
+     * @return saved bytes
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getSavedBytes(String endpoint) {
+        return get(endpoint, SENT) - get(endpoint, SENT_WIRE) + get(endpoint, RECEIVED) - get(endpoint, RECEIVED_WIRE);
+    }
+
+    /**
+     * Resets all the counters.
+     */
+    @SuppressWarnings("unused")
+    public synchronized void clear() {
+        endpoints.clear();
+    }
+
+    private long get(String endpoint, int index) {
+        long[] c = endpoints.get(endpoint);
+
+        return c != null ? c[index] : 0;
+    }
+
+    /**
+     * Extracts the endpoint name from a url.
+     *
+     * @param url the url
+     * @return the endpoint name
+     */
+    static String endpoint(String url) {
+        int start = url.indexOf("://");
+        start = url.indexOf('/', start < 0 ? 0 : start + 3);
+
+        if (start < 0) return "";
+
+        int end = url.indexOf('?', start);
+        if (end < 0) end = url.length();
+
+        //called for every request: the segments are scanned in place, without regular expressions or splitting
+        StringBuilder sb = new StringBuilder(end - start);
+
+        for (int i = start + 1; i <= end; ) {
+            int next = url.indexOf('/', i);
+            if (next < 0 || next > end) next = end;
+
+            //skip the version and the ids
+            if (next > i && !isVersionOrId(url, i, next)) {
+                if (sb.length() > 0) sb.append('/');
+                sb.append(url, i, next);
+            }
+
+            i = next + 1;
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @return true if the segment between start and end is a version ("v" and digits) or an id (only digits)
+     */
+    private static boolean isVersionOrId(String url, int start, int end) {
+        if (url.charAt(start) == 'v') start++;
+
+        if (start == end) return false;
+
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.content.Context;
+
+import com.loopj.android.http.ResponseHandlerInterface;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+
+/**
+ * Transport interface. <br />
+ * <br />
+ * Sends the requests of {@link Connect} over the network. The SDK provides two implementations:
+ * {@link ConnectionPool}, that sends each request on its own HTTP/1.1 connection (kept alive and reused), and
+ * {@link Http2Transport}, that multiplexes the concurrent requests to the same host as streams of a single
+ * HTTP/2 connection and falls back to a {@link ConnectionPool} for the hosts that do not speak HTTP/2. <br />
+ * <br />
+ * A transport is shared by all the requests of one or more {@link Marketcloud} instances, so the
+ * implementations must be thread-safe. The requests are sent synchronously, on the calling thread.
+ */
+public interface Transport {
+
+    /**
+     * Sends a request and passes the response (or the failure) to the handler before returning. The network
+     * failures are reported with {@link ResponseHandlerInterface#sendFailureMessage(int, Header[], byte[], Throwable)}
+     * and the status code 0.
+     *
+     * @param context application context
+     * @param method the method of the request, in lowercase ("get", "post", "put", "patch" or "delete")
+     * @param url the url of the request
+     * @param headers the headers of the request
+     * @param body the body of the request (sent as application/json), or null
+     * @param handler receives the response
+     */
+    void execute(Context context, String method, String url, Header[] headers, HttpEntity body, ResponseHandlerInterface handler);
+
+    /**
+     * Installs the settings of an endpoint configuration (e.g. the TLS settings of its https connections).
+     *
+     * @param config the endpoint configuration
+     */
+    void register(EndpointConfig config);
+
+    /**
+     * Returns the number of connections currently open.
+     *
+     * @return open connections, both busy and idle
+     */
+    int getOpenConnections();
+
+    /**
+     * Closes all the connections. The transport must not be used after this call.
+     */
+    void shutdown();
+}
@@ -0,0 +1,82 @@
+/*
+    Copyright (c) 2015 Marketcloud
+    http://www.marketcloud.it
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        https://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.marketcloud.marketcloud;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * User class. <br />
+ * <br />
+ * Typed representation of a user. It is decoded directly from the response stream by {@link #CODEC}, without
+ * building JSONObjects or boxing the numeric fields; unknown fields are skipped.
+ */
+public class User {
+
+    public int id = -1;
+    public String name;
+    public String email;
+    public String imageUrl;
+
+    /**
+     * Decodes a user.
+     */
+    public static final Codec<User> CODEC = new Codec<User>() {
+        @Override
+        public User read(JsonReader reader) throws IOException, JSONException {
+            User u = new User();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        u.id = Codecs.readInt(reader, -1);
+                        break;
+                    case "name":
+                        u.name = Codecs.readString(reader);
+                        break;
+                    case "email":
+                        u.email = Codecs.readString(reader);
+                        break;
+                    case "image_url":
+                        u.imageUrl = Codecs.readString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return u;
+        }
+    };
+
+    /**
+     * Decodes the response of a request for a single user (null if the request failed).
+     */
+    public static final Codec<User> DATA = Codecs.data(CODEC);
+
+    /**
+     * Decodes the response of a list request (null if the request failed).
+     */
+    public static final Codec<ArrayList<User>> LIST = Codecs.list(CODEC);
+}
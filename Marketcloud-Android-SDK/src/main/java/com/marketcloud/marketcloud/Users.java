@@ -20,7 +20,10 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Users class. <br />
@@ -30,22 +33,56 @@ import java.util.concurrent.ExecutionException;
 public class Users {
 
     private String publicKey;
-    private Context context;
+    private Connect connect;
     private Utilities api;
+    private Dispatcher dispatcher;
+    private Endpoint endpoint;
+    private Endpoint authenticate;
     private TokenManager tm;
+    private volatile boolean autoRefresh;
 
     /**
      * Constructor.
      *
-     * @param key the public key to access the APIs
+     * @param key application public key
+     * @param tokenManager token manager
+     * @param ct application context
      */
     public Users(String key, TokenManager tokenManager, Context ct) {
+        this(key, tokenManager, ct, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key application public key
+     * @param tokenManager token manager
+     * @param ct application context
+     * @param conn the connection shared by the SDK
+     */
+    public Users(String key, TokenManager tokenManager, Context ct, Connect conn) {
         publicKey = key;
-        api = new Utilities(context, key);
-        context = ct;
+        connect = conn;
+        api = new Utilities(ct, key, conn);
+        dispatcher = conn.getDispatcher();
+        endpoint = conn.getEndpoints().users;
+        authenticate = conn.getEndpoints().authenticate;
         tm = tokenManager;
     }
 
+    /**
+     * Enables the renewal of the session: after a successful {@link #authenticate(String, String)} the
+     * session token is renewed by authenticating again with the same credentials, shortly before it expires
+     * (see {@link TokenManager}). The credentials are kept in memory only, until {@link #logout()}.
+     *
+     * @param enabled true to renew the session
+     */
+    @SuppressWarnings("unused")
+    public void setAutoRefresh(boolean enabled) {
+        autoRefresh = enabled;
+        if (!enabled) tm.setRefresher(null);
+    }
+
     /**
      * Authentication: allows the user to login.
      *
@@ -55,30 +92,29 @@ public class Users {
      */
     @SuppressWarnings("unused")
     public boolean authenticate(String email, String password) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
-        JSONObject jsonObject = toJsonObject(
-                email,
-                password);
-
-        if (jsonObject != null) {
-            jsonObject = new Connect(context)
-                    .run(
-                            "post",
-                            "http://api.marketcloud.it/v0/users/authenticate",
-                            publicKey,
-                            jsonObject.toString())
-                    ;
+        if (!login(email, password)) return false;
 
-            if (!(boolean) jsonObject.get("status"))
-                return false;
-            else {
+        if (autoRefresh) tm.setRefresher(refresher(email, password));
 
-                tm.setToken("auth", jsonObject.getJSONObject("data").getString("token"));
+        return true;
+    }
 
-                return true;
+    /**
+     * Asynchronous version of {@link #authenticate(String, String)}.
+     *
+     * @param email    user's email
+     * @param password user's password
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Boolean> authenticate(final String email, final String password, Callback<Boolean> callback) {
+        return dispatcher.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return authenticate(email, password);
             }
-        }
-
-        return false;
+        }, callback);
     }
 
     /**
@@ -86,6 +122,7 @@ public class Users {
      */
     @SuppressWarnings("unused")
     public void logout() {
+        tm.setRefresher(null);
         tm.deleteToken("auth");
     }
 
@@ -105,10 +142,10 @@ public class Users {
                 password);
 
         if (jo != null)
-            return new Connect(context)
+            return connect
                     .run(
                             "post",
-                            "http://api.marketcloud.it/v0/users",
+                            endpoint.url(),
                             publicKey,
                             jo.toString())
                     ;
@@ -116,6 +153,25 @@ public class Users {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(String, String, String)}.
+     *
+     * @param name     username
+     * @param email    user's email
+     * @param password user's password
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final String name, final String email, final String password, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(name, email, password);
+            }
+        }, callback);
+    }
+
     /**
      * Register a new user.
      *
@@ -134,10 +190,10 @@ public class Users {
                 imageURL);
 
         if (jo != null)
-            return new Connect(context)
+            return connect
                     .run(
                             "post",
-                            "http://api.marketcloud.it/v0/users",
+                            endpoint.url(),
                             publicKey,
                             jo.toString())
                     ;
@@ -145,6 +201,26 @@ public class Users {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #create(String, String, String, String)}.
+     *
+     * @param name     username
+     * @param email    user's email
+     * @param password user's password
+     * @param imageURL url to the user's profile pic
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> create(final String name, final String email, final String password, final String imageURL, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return create(name, email, password, imageURL);
+            }
+        }, callback);
+    }
+
     /**
      * Returns the data of a specific user.
      *
@@ -154,10 +230,27 @@ public class Users {
     @SuppressWarnings("unused")
     public JSONObject getById(int id) throws InterruptedException, ExecutionException, JSONException {
         if (tm.getSessionToken() != null)
-            return api.getById("http://api.marketcloud.it/v0/users/", id, tm.getSessionToken());
+            return api.getById(endpoint, id, tm.getSessionToken(), JsonStreamParser.OBJECT);
         else return null;
     }
 
+    /**
+     * Asynchronous version of {@link #getById(int)}.
+     *
+     * @param id the id of the desired user
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> getById(final int id, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return getById(id);
+            }
+        }, callback);
+    }
+
     /**
      * Returns a list with the data of all the users.
      *
@@ -166,10 +259,26 @@ public class Users {
     @SuppressWarnings("unused")
     public JSONObject get() throws ExecutionException, InterruptedException, JSONException {
         if (tm.getSessionToken() != null)
-            return api.getInstanceList("http://api.marketcloud.it/v0/users", tm.getSessionToken());
+            return api.getInstanceList(endpoint, tm.getSessionToken(), JsonStreamParser.OBJECT);
         else return null;
     }
 
+    /**
+     * Asynchronous version of {@link #get()}.
+     *
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> get(Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return get();
+            }
+        }, callback);
+    }
+
     /**
      * Updates the data of a user.
      *
@@ -188,10 +297,10 @@ public class Users {
                     password);
 
             if (jo != null)
-                return new Connect(context)
+                return connect
                         .run(
                                 "put",
-                                "http://api.marketcloud.it/v0/users/" + id,
+                                endpoint.url(id),
                                 publicKey + ":" + tm.getSessionToken(),
                                 jo.toString())
                         ;
@@ -200,6 +309,26 @@ public class Users {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(int, String, String, String)}.
+     *
+     * @param id       the id of the user
+     * @param name     the new username
+     * @param email    the new email
+     * @param password the new password
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final int id, final String name, final String email, final String password, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(id, name, email, password);
+            }
+        }, callback);
+    }
+
     /**
      * Updates the data of a user.
      *
@@ -220,10 +349,10 @@ public class Users {
                     imageURL);
 
             if (jo != null)
-                return new Connect(context)
+                return connect
                         .run(
                                 "put",
-                                "http://api.marketcloud.it/v0/users/" + id,
+                                endpoint.url(id),
                                 publicKey + ":" + tm.getSessionToken(),
                                 jo.toString())
                         ;
@@ -232,6 +361,27 @@ public class Users {
         return null;
     }
 
+    /**
+     * Asynchronous version of {@link #update(int, String, String, String, String)}.
+     *
+     * @param id       the id of the user
+     * @param name     the new username
+     * @param email    the new email
+     * @param password the new password
+     * @param imageURL the new user pic
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<JSONObject> update(final int id, final String name, final String email, final String password, final String imageURL, Callback<JSONObject> callback) {
+        return dispatcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return update(id, name, email, password, imageURL);
+            }
+        }, callback);
+    }
+
     /**
      * Deletes a user from the database.
      *
@@ -240,7 +390,64 @@ public class Users {
      */
     @SuppressWarnings("unused")
     public boolean delete(int id) throws InterruptedException, ExecutionException, JSONException {
-        return (boolean) api.delete("http://api.marketcloud.it/v0/users/", id, tm.getSessionToken()).get("status");
+        return Utilities.isSuccessful(api.delete(endpoint, id, tm.getSessionToken()));
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(int)}.
+     *
+     * @param id the id of the user
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<Boolean> delete(final int id, Callback<Boolean> callback) {
+        return dispatcher.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return delete(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Creates a refresher that renews the session token by authenticating again.
+     *
+     * @param email    user's email
+     * @param password user's password
+     * @return the refresher
+     */
+    private TokenManager.Refresher refresher(final String email, final String password) {
+        return new TokenManager.Refresher() {
+            @Override
+            public boolean refresh() throws Exception {
+                //the refresher stays installed: installing a new one would undo a logout made meanwhile
+                return login(email, password);
+            }
+        };
+    }
+
+    /**
+     * Authenticates the user and stores the session token.
+     *
+     * @param email    user's email
+     * @param password user's password
+     * @return true if the login is successful, false if not
+     */
+    private boolean login(String email, String password) throws JSONException {
+        JSONObject jsonObject = connect
+                .run(
+                        "post",
+                        authenticate.url(),
+                        publicKey,
+                        toJsonObject(email, password).toString())
+                ;
+
+        if (!Utilities.isSuccessful(jsonObject)) return false;
+
+        tm.setToken("auth", jsonObject.getJSONObject("data").getString("token"));
+
+        return true;
     }
 
     /**
@@ -278,4 +485,62 @@ public class Users {
     private JSONObject toJsonObject(String email, String password) throws JSONException {
         return new JSONObject().put("email", email).put("password", password);
     }
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the user with the given ID, decoded into a {@link User}.
+     *
+     * @param id the id of the user
+     * @return the user, or null if it does not exist or the user is not logged in
+     */
+    @SuppressWarnings("unused")
+    public User getUser(int id) {
+        if (tm.getSessionToken() != null)
+            return api.getById(endpoint, id, tm.getSessionToken(), User.DATA);
+        else return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #getUser(int)}.
+     *
+     * @param id the id of the user
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<User> getUser(final int id, Callback<User> callback) {
+        return dispatcher.submit(new Callable<User>() {
+            @Override
+            public User call() throws Exception {
+                return getUser(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieves all the users, decoded into {@link User} objects.
+     *
+     * @return the users, or null if the request failed or the user is not logged in
+     */
+    @SuppressWarnings("unused")
+    public ArrayList<User> listUsers() {
+        if (tm.getSessionToken() != null)
+            return api.getInstanceList(endpoint, tm.getSessionToken(), User.LIST);
+        else return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #listUsers()}.
+     *
+     * @param callback receives the result on the main thread
+     * @return a future that can be used to wait for the result or to cancel the request
+     */
+    @SuppressWarnings("unused")
+    public Future<ArrayList<User>> listUsers(Callback<ArrayList<User>> callback) {
+        return dispatcher.submit(new Callable<ArrayList<User>>() {
+            @Override
+            public ArrayList<User> call() throws Exception {
+                return listUsers();
+            }
+        }, callback);
+    }
+}
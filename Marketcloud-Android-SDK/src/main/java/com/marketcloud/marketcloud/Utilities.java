@@ -20,19 +20,27 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Utilities class. <br />
  * <br />
  * This class provides a set of easy-to-use common methods, s.a. getById, delete, etc..<br />
+ * <br />
+ * The responses of getById and list for the catalog resources are kept in the {@link ResponseCache} of the
+ * connection, so repeated reads of the same data do not hit the network until they expire.
  */
 public class Utilities {
 
     private String publicKey = "";
     private Context context;
+    private Connect connect;
 
     /**
      * Constructor.
@@ -40,8 +48,20 @@ public class Utilities {
      * @param key the public key to access the APIs
      */
     public Utilities(Context ct, String key) {
+        this(ct, key, new Connect(ct));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ct application context
+     * @param key the public key to access the APIs
+     * @param conn the connection that will perform the requests
+     */
+    public Utilities(Context ct, String key, Connect conn) {
         context = ct;
         publicKey = key;
+        connect = conn;
     }
 
     /**
@@ -53,12 +73,7 @@ public class Utilities {
      */
     public JSONObject getById(final String baseURL, final int id) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
 
-        return new Connect(context)
-                .run(
-                        "get",
-                        baseURL + id,
-                        publicKey)
-                ;
+        return getById(Endpoint.of(baseURL), id, JsonStreamParser.OBJECT);
     }
 
     /**
@@ -71,12 +86,7 @@ public class Utilities {
      */
     public JSONObject getById(final String baseURL, final int id, final String token) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
 
-        return new Connect(context)
-                .run(
-                        "get",
-                        baseURL + id,
-                        publicKey + ":" + token)
-                ;
+        return getById(Endpoint.of(baseURL), id, token, JsonStreamParser.OBJECT);
     }
 
     /**
@@ -88,62 +98,310 @@ public class Utilities {
      */
     public JSONObject list(final String baseURL, final HashMap<String, Object> m) throws ExecutionException, InterruptedException, JSONException {
 
-        String url = baseURL;
+        return list(Endpoint.of(baseURL), m, JsonStreamParser.OBJECT);
+    }
 
-        //Concatenate the filters to the base URL
+    /**
+     * Returns a list of objects that comply with the given query.
+     *
+     * @param baseURL endpoint of the database
+     * @param token a session token that identifies the user
+     * @param m HashMap containing a list of filters
+     * @return a JSONArray containing a list of objects that comply with the given filter
+     */
+    public JSONObject list(final String baseURL, String token, final HashMap<String, Object> m) throws ExecutionException, InterruptedException, JSONException {
+
+        return list(Endpoint.of(baseURL), token, m, JsonStreamParser.OBJECT);
+    }
 
-        int index = 0;
-        int max = m.size() - 1;
+    /**
+     * Returns the object with the given ID, decoded with the given codec (e.g. {@link Product#DATA}).
+     *
+     * @param baseURL endpoint of the database
+     * @param id the id of the object that the user wants to retrieve
+     * @param codec decodes the response
+     * @param <T> type of the object
+     * @return the object, or null if the ID does not belong to any object
+     */
+    public <T> T getById(final String baseURL, final int id, Codec<T> codec) {
+
+        return getById(Endpoint.of(baseURL), id, codec);
+    }
 
-        for (Map.Entry<String, Object> entry : m.entrySet()) {
+    /**
+     * Returns the object with the given ID, decoded with the given codec (e.g. {@link Product#DATA}).
+     *
+     * @param endpoint the resource
+     * @param id the id of the object that the user wants to retrieve
+     * @param codec decodes the response
+     * @param <T> type of the object
+     * @return the object, or null if the ID does not belong to any object
+     */
+    public <T> T getById(Endpoint endpoint, int id, Codec<T> codec) {
 
-            url += entry.getKey() + "=" + entry.getValue();
+        return cachedGet(codec, endpoint, endpoint.url(id), publicKey);
+    }
 
-            if (index != max) url += "&";
+    /**
+     * Returns the object with the given ID, decoded with the given codec (e.g. {@link Order#DATA}).
+     *
+     * @param baseURL endpoint of the database
+     * @param id the id of the object that the user wants to retrieve
+     * @param token the session token that grants that the user is logged in
+     * @param codec decodes the response
+     * @param <T> type of the object
+     * @return the object, or null if the ID does not belong to any object
+     */
+    public <T> T getById(final String baseURL, final int id, final String token, Codec<T> codec) {
 
-            index++;
+        return getById(Endpoint.of(baseURL), id, token, codec);
+    }
+
+    /**
+     * Returns the object with the given ID, decoded with the given codec (e.g. {@link Order#DATA}).
+     *
+     * @param endpoint the resource
+     * @param id the id of the object that the user wants to retrieve
+     * @param token the session token that grants that the user is logged in
+     * @param codec decodes the response
+     * @param <T> type of the object
+     * @return the object, or null if the ID does not belong to any object
+     */
+    public <T> T getById(Endpoint endpoint, int id, String token, Codec<T> codec) {
+
+        return cachedGet(codec, endpoint, endpoint.url(id), publicKey + ":" + token);
+    }
+
+    /**
+     * Returns the objects with the given IDs, in the same order. <br />
+     * Duplicated IDs are requested once, the cached objects are not requested at all and the others are
+     * requested in parallel on the dispatcher threads (the calling thread helps when they are all busy).
+     *
+     * @param baseURL endpoint of the database
+     * @param ids the ids of the objects
+     * @return the responses, as returned by {@link #getById(String, int)}; null for the objects that could not be
+     * retrieved
+     */
+    public ArrayList<JSONObject> getByIds(final String baseURL, int... ids) {
+
+        return getByIds(Endpoint.of(baseURL), JsonStreamParser.OBJECT, ids);
+    }
+
+    /**
+     * Returns the objects with the given IDs, decoded with the given codec (e.g. {@link Product#DATA}), in the
+     * same order. <br />
+     * Duplicated IDs are requested once, the cached objects are not requested at all and the others are
+     * requested in parallel on the dispatcher threads (the calling thread helps when they are all busy).
+     *
+     * @param baseURL endpoint of the database
+     * @param codec decodes a single response
+     * @param ids the ids of the objects
+     * @param <T> type of the objects
+     * @return the objects; null for the ones that could not be retrieved
+     */
+    public <T> ArrayList<T> getByIds(final String baseURL, final Codec<T> codec, int... ids) {
+
+        return getByIds(Endpoint.of(baseURL), codec, ids);
+    }
+
+    /**
+     * Returns the objects with the given IDs, decoded with the given codec (e.g. {@link Product#DATA}), in the
+     * same order. <br />
+     * Duplicated IDs are requested once, the cached objects are not requested at all and the others are
+     * requested in parallel on the dispatcher threads (the calling thread helps when they are all busy).
+     *
+     * @param endpoint the resource
+     * @param codec decodes a single response
+     * @param ids the ids of the objects
+     * @param <T> type of the objects
+     * @return the objects; null for the ones that could not be retrieved
+     */
+    public <T> ArrayList<T> getByIds(final Endpoint endpoint, final Codec<T> codec, int... ids) {
+        ResponseCache cache = connect.getResponseCache();
+        boolean cacheable = cache.getTtl(endpoint) > 0;
+        LinkedHashMap<Integer, FutureTask<T>> tasks = new LinkedHashMap<>();
+        HashMap<Integer, T> results = new HashMap<>();
+
+        //deduplicate, and serve what the cache already has
+        for (final int id : ids) {
+            if (tasks.containsKey(id) || results.containsKey(id)) continue;
+
+            final String url = endpoint.url(id);
+            T cached = cacheable ? cache.get(ResponseCache.key(url, publicKey), codec) : null;
+
+            if (cacheable) connect.getMetrics().recordCacheLookup(endpoint.url(), cached != null);
+
+            if (cached != null) {
+                results.put(id, cached);
+                continue;
+            }
+
+            //the lookup is done: the task goes straight to the network, so the miss is not counted twice
+            FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return fetch(codec, endpoint, url, publicKey);
+                }
+            });
+
+            tasks.put(id, task);
+            connect.getDispatcher().execute(task);
         }
 
-        return new Connect(context)
-                .run(
-                        "get",
-                        url,
-                        publicKey)
-                ;
+        //collect the responses, running inline the requests that have not started yet
+        for (Map.Entry<Integer, FutureTask<T>> entry : tasks.entrySet()) {
+            FutureTask<T> task = entry.getValue();
+            T result = null;
+
+            try {
+                task.run();
+                result = task.get();
+            } catch (ExecutionException e) {
+                //the object could not be retrieved: leave it null
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            results.put(entry.getKey(), result);
+        }
+
+        ArrayList<T> list = new ArrayList<>(ids.length);
+
+        for (int id : ids) list.add(results.get(id));
+
+        return list;
     }
 
     /**
-     * Returns a list of objects that comply with the given query.
+     * Returns the objects that comply with the given query, decoded with the given codec (e.g. {@link Product#LIST}).
+     *
+     * @param baseURL endpoint of the database
+     * @param m HashMap containing a list of filters
+     * @param codec decodes the response
+     * @param <T> type of the result
+     * @return the objects that comply with the given filter
+     */
+    public <T> T list(final String baseURL, final HashMap<String, Object> m, Codec<T> codec) {
+
+        return list(Endpoint.of(baseURL), m, codec);
+    }
+
+    /**
+     * Returns the objects that comply with the given query, decoded with the given codec (e.g. {@link Product#LIST}).
+     *
+     * @param endpoint the resource
+     * @param m the filters
+     * @param codec decodes the response
+     * @param <T> type of the result
+     * @return the objects that comply with the given filter
+     */
+    public <T> T list(Endpoint endpoint, Map<String, ?> m, Codec<T> codec) {
+
+        return cachedGet(codec, endpoint, endpoint.url(m), publicKey);
+    }
+
+    /**
+     * Returns the objects that comply with the given query, decoded with the given codec (e.g. {@link Order#LIST}).
      *
      * @param baseURL endpoint of the database
      * @param token a session token that identifies the user
      * @param m HashMap containing a list of filters
-     * @return a JSONArray containing a list of objects that comply with the given filter
+     * @param codec decodes the response
+     * @param <T> type of the result
+     * @return the objects that comply with the given filter
      */
-    public JSONObject list(final String baseURL, String token, final HashMap<String, Object> m) throws ExecutionException, InterruptedException, JSONException {
+    public <T> T list(final String baseURL, String token, final HashMap<String, Object> m, Codec<T> codec) {
+
+        return list(Endpoint.of(baseURL), token, m, codec);
+    }
+
+    /**
+     * Returns the objects that comply with the given query, decoded with the given codec (e.g. {@link Order#LIST}).
+     *
+     * @param endpoint the resource
+     * @param token a session token that identifies the user
+     * @param m the filters
+     * @param codec decodes the response
+     * @param <T> type of the result
+     * @return the objects that comply with the given filter
+     */
+    public <T> T list(Endpoint endpoint, String token, Map<String, ?> m, Codec<T> codec) {
+
+        return cachedGet(codec, endpoint, endpoint.url(m), publicKey + ":" + token);
+    }
 
-        String url = baseURL.substring(0, baseURL.length() - 1) + "?";
+    /**
+     * Returns the objects that comply with the given query as a {@link LazyList}: the response is only indexed,
+     * and every object is decoded with the given codec (e.g. {@link Product#CODEC}) when it is first accessed.
+     *
+     * @param baseURL endpoint of the database
+     * @param m HashMap containing a list of filters
+     * @param codec decodes a single object of the list
+     * @param <T> type of the objects
+     * @return the objects that comply with the given filter, or null if the request failed
+     */
+    public <T> LazyList<T> lazyList(final String baseURL, final HashMap<String, Object> m, Codec<T> codec) {
 
-        //Concatenate the filters to the base URL
+        return lazyList(Endpoint.of(baseURL), m, codec);
+    }
 
-        int index = 0;
-        int max = m.size() - 1;
+    /**
+     * Returns the objects that comply with the given query as a {@link LazyList}: the response is only indexed,
+     * and every object is decoded with the given codec (e.g. {@link Product#CODEC}) when it is first accessed.
+     *
+     * @param endpoint the resource
+     * @param m the filters
+     * @param codec decodes a single object of the list
+     * @param <T> type of the objects
+     * @return the objects that comply with the given filter, or null if the request failed
+     */
+    public <T> LazyList<T> lazyList(Endpoint endpoint, Map<String, ?> m, Codec<T> codec) {
 
-        for (Map.Entry<String, Object> entry : m.entrySet()) {
+        return cachedGet(LazyList.codec(codec), endpoint, endpoint.url(m), publicKey);
+    }
 
-            url += entry.getKey() + "=" + entry.getValue();
+    /**
+     * Returns the objects that comply with the given query as a {@link LazyList} of JSONObjects, each one
+     * parsed when it is first accessed.
+     *
+     * @param baseURL endpoint of the database
+     * @param m HashMap containing a list of filters
+     * @return the objects that comply with the given filter, or null if the request failed
+     */
+    public LazyList<JSONObject> lazyList(final String baseURL, final HashMap<String, Object> m) {
 
-            if (index != max) url += "&";
+        return lazyList(baseURL, m, JsonStreamParser.OBJECT);
+    }
 
-            index++;
-        }
+    /**
+     * Returns all the instances of an object (cart, user, etc.) registered to the service, decoded with the given
+     * codec.
+     *
+     * @param url endpoint of the database
+     * @param token a session token that identifies the user
+     * @param codec decodes the response
+     * @param <T> type of the result
+     * @return the instances
+     */
+    public <T> T getInstanceList(String url, String token, Codec<T> codec) {
+        Response<T> response = connect.execute(codec, "get", url, publicKey + ":" + token);
 
-        return new Connect(context)
-                .run(
-                        "get",
-                        url,
-                        publicKey + ":" + token)
-                ;
+        return response != null ? response.body : null;
+    }
+
+    /**
+     * Returns all the instances of an object (cart, user, etc.) registered to the service, decoded with the given
+     * codec.
+     *
+     * @param endpoint the resource
+     * @param token a session token that identifies the user
+     * @param codec decodes the response
+     * @param <T> type of the result
+     * @return the instances
+     */
+    public <T> T getInstanceList(Endpoint endpoint, String token, Codec<T> codec) {
+
+        return getInstanceList(endpoint.url(), token, codec);
     }
 
     /**
@@ -154,7 +412,7 @@ public class Utilities {
      * @return a list with the data of all the users
      */
     public JSONObject getInstanceList(String url, String token) throws ExecutionException, InterruptedException, JSONException {
-        return new Connect(context)
+        return connect
                 .run(
                         "get",
                         url,
@@ -171,12 +429,79 @@ public class Utilities {
      * @return if the request was correct, it returns a status true. note: this happens even if the instance was already deleted
      */
     public JSONObject delete(String url, int id, String token) throws NullPointerException, ExecutionException, InterruptedException, JSONException {
-        return new Connect(context)
-                .run(
-                        "delete",
-                        url,
-                        publicKey + ":" + token,
-                        id + "")
-                ;
+
+        return delete(Endpoint.of(url), id, token);
+    }
+
+    /**
+     * Deletes an instance from the service.
+     *
+     * @param endpoint the resource
+     * @param id instance id
+     * @param token a session token that identifies the user
+     * @return if the request was correct, it returns a status true. note: this happens even if the instance was already deleted
+     */
+    public JSONObject delete(Endpoint endpoint, int id, String token) {
+        Response<JSONObject> response = connect.execute(JsonStreamParser.OBJECT, new Request("delete", endpoint.url(id), publicKey + ":" + token, null, null));
+
+        return response != null ? response.body : null;
+    }
+
+    /**
+     * Reads the "status" field of a response of the APIs.
+     *
+     * @param response the response, null if the request failed
+     * @return true if the server reported a success, false if it reported an error or did not answer
+     */
+    static boolean isSuccessful(JSONObject response) {
+        return response != null && response.optBoolean("status");
+    }
+
+    /**
+     * Performs a GET request, using the response cache if the resource is cacheable.
+     *
+     * @param codec decodes the response
+     * @param endpoint the resource
+     * @param url the complete url of the request
+     * @param authorization value of the Authorization header
+     * @param <T> type of the decoded response
+     * @return the response
+     */
+    private <T> T cachedGet(Codec<T> codec, Endpoint endpoint, String url, String authorization) {
+        ResponseCache cache = connect.getResponseCache();
+
+        if (cache.getTtl(endpoint) > 0) {
+            T cached = cache.get(ResponseCache.key(url, authorization), codec);
+
+            connect.getMetrics().recordCacheLookup(endpoint.url(), cached != null);
+
+            if (cached != null) return cached;
+        }
+
+        return fetch(codec, endpoint, url, authorization);
+    }
+
+    /**
+     * Performs a GET request without looking in the response cache, and stores the response in the cache if the
+     * resource is cacheable.
+     *
+     * @param codec decodes the response
+     * @param endpoint the resource
+     * @param url the complete url of the request
+     * @param authorization value of the Authorization header
+     * @param <T> type of the decoded response
+     * @return the response
+     */
+    private <T> T fetch(Codec<T> codec, Endpoint endpoint, String url, String authorization) {
+        ResponseCache cache = connect.getResponseCache();
+        long ttl = cache.getTtl(endpoint);
+        Response<T> response = connect.execute(codec, "get", url, authorization);
+
+        if (response == null) return null;
+
+        if (ttl > 0 && response.isSuccessful())
+            cache.put(ResponseCache.key(url, authorization), codec, response.body, response.size, ttl);
+
+        return response.body;
     }
-}
\ No newline at end of file
+}